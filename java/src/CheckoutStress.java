@@ -0,0 +1,149 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a stress test for concurrent checkouts.  It places many
+ * orders for a new customer from several threads, each on a leased
+ * connection of its own, through the same PizzaStore.checkout used by
+ * placeOrder, then reads them back through the order repository: every
+ * successful checkout must be stored exactly once, with its items, and no
+ * checkout may fail.  It exits with status 1 if any check fails.
+ * -Dpizzastore.storage=memory runs it on the CSV data without Postgres.
+ *
+ * Usage: java -cp classes:lib/pg73jdbc3.jar CheckoutStress <dbname> <port> <user> [threads] [orders]
+ *
+ */
+public class CheckoutStress {
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " +
+            CheckoutStress.class.getName () +
+            " <dbname> <port> <user> [threads] [orders]");
+         return;
+      }//end if
+      String dbname = args[0];
+      String dbport = args[1];
+      String user = args[2];
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+      int orders = args.length > 4 ? Integer.parseInt(args[4]) : 20000;
+
+      PizzaStore esql = PizzaStore.startUp(dbname, dbport, user, threads);
+
+      // orders are placed for a new customer, so only this run's orders are
+      // theirs, at an existing store.
+      String login = "stress" + System.currentTimeMillis();
+      esql.users().create(login, login, "customer", "", "000-000-0000");
+      int storeID = Integer.parseInt(esql.stores().findAllByReviewScore().get(0).get(0).trim());
+      List<MenuSearchIndex.Item> menu = esql.items().findAll();
+      List<MenuSearchIndex.Item> items = Arrays.asList(menu.get(0), menu.get(1));
+      List<Integer> quantities = Arrays.asList(2, 1);
+      double basketPrice = menu.get(0).price * 2 + menu.get(1).price;
+
+      System.out.println(String.format("Placing %d orders for %s at store %d from %d threads...",
+         orders, login, storeID, threads));
+
+      Set<Integer> placed = ConcurrentHashMap.newKeySet();
+      AtomicInteger next = new AtomicInteger();
+      AtomicInteger duplicates = new AtomicInteger();
+      AtomicInteger failures = new AtomicInteger();
+      AtomicInteger retries = new AtomicInteger();
+      CountDownLatch done = new CountDownLatch(threads);
+
+      long start = System.nanoTime();
+      for (int t = 0; t < threads; ++t) {
+         new Thread(() -> {
+            // the thread's checkouts all run on one leased connection.
+            PizzaStore.Lease lease = esql.lease();
+            try {
+               while (next.getAndIncrement() < orders) {
+                  try {
+                     int orderID = PizzaStore.checkout(esql, login, storeID, items, quantities, basketPrice);
+                     if (!placed.add(orderID))
+                        duplicates.incrementAndGet();
+                  }catch (Exception e) {
+                     failures.incrementAndGet();
+                     System.err.println("checkout failed: " + e.getMessage());
+                  }
+               }
+            } finally {
+               lease.close();
+               done.countDown();
+            }
+         }, "checkout-" + t).start();
+      }
+      done.await();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      retries.addAndGet((int) esql.getRetryCount());
+
+      // every stored order of the customer, and which of them have lines.
+      Set<Integer> stored = new HashSet<Integer>();
+      int storedOrders = 0;
+      int lowest = Integer.MAX_VALUE;
+      int highest = 0;
+      for (List<String> order : esql.orders().findByLogin(login, 0)) {
+         int orderID = Integer.parseInt(order.get(0).trim());
+         stored.add(orderID);
+         ++storedOrders;
+         lowest = Math.min(lowest, orderID);
+         highest = Math.max(highest, orderID);
+      }
+      int distinctOrders = stored.size();
+      Set<Integer> withItems = new HashSet<Integer>();
+      if (!stored.isEmpty()) {
+         esql.orders().scanItems(lowest - 1, highest, line -> {
+            int orderID = Integer.parseInt(line.get(0).trim());
+            if (stored.contains(orderID))
+               withItems.add(orderID);
+         });
+      }
+      int withoutItems = distinctOrders - withItems.size();
+      esql.cleanup();
+
+      System.out.println(String.format("Placed %d orders in %.2f s (%.0f orders/s), %d retries",
+         placed.size(), seconds, placed.size() / seconds, retries.get()));
+      System.out.println(String.format("Stored %d orders (%d distinct), %d without items",
+         storedOrders, distinctOrders, withoutItems));
+
+      List<String> problems = new ArrayList<String>();
+      if (failures.get() > 0)
+         problems.add(failures.get() + " checkouts failed (lost orders)");
+      if (duplicates.get() > 0)
+         problems.add(duplicates.get() + " orderIDs returned twice");
+      if (storedOrders != placed.size())
+         problems.add("stored " + storedOrders + " orders but placed " + placed.size());
+      if (distinctOrders != storedOrders)
+         problems.add((storedOrders - distinctOrders) + " duplicated orders stored");
+      if (withoutItems > 0)
+         problems.add(withoutItems + " orders stored without items");
+
+      if (problems.isEmpty()) {
+         System.out.println("OK: no lost or duplicated orders");
+         System.exit(0);
+      }
+      else {
+         System.out.println("FAILED: " + problems);
+         System.exit(1);
+      }
+   }//end main
+}//end CheckoutStress
@@ -0,0 +1,98 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * This class reads the CSV files in data/.  Fields may be quoted, with ""
+ * standing for a quote inside a quoted field, and blanks around fields are
+ * dropped (the files are written as "a, "b, c", d").
+ *
+ */
+public class Csv {
+
+   /**
+    * Reads every record of a CSV file, skipping the header line.
+    *
+    * @param file the file to read
+    * @return the records, each a list of field values
+    * @throws java.io.IOException when failed to read the file
+    */
+   public static List<List<String>> read(File file) throws IOException {
+      List<List<String>> records = new ArrayList<List<String>>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try {
+         String line = reader.readLine();
+         while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty())
+               records.add(parseLine(line));
+         }
+      } finally {
+         reader.close();
+      }
+      return records;
+   }//end read
+
+   /**
+    * Splits one CSV line into its fields.
+    *
+    * @param line the line, without its line terminator
+    * @return the field values
+    */
+   public static List<String> parseLine(String line) {
+      List<String> fields = new ArrayList<String>();
+      int i = 0;
+      int n = line.length();
+      while (true) {
+         while (i < n && line.charAt(i) == ' ')
+            ++i;
+         StringBuilder field = new StringBuilder();
+         if (i < n && line.charAt(i) == '"') {
+            ++i;
+            while (i < n) {
+               char c = line.charAt(i++);
+               if (c == '"') {
+                  if (i < n && line.charAt(i) == '"') {
+                     field.append('"');
+                     ++i;
+                  }
+                  else {
+                     break;
+                  }
+               }
+               else {
+                  field.append(c);
+               }
+            }
+            // anything between the closing quote and the comma is dropped.
+            while (i < n && line.charAt(i) != ',')
+               ++i;
+            fields.add(field.toString());
+         }
+         else {
+            while (i < n && line.charAt(i) != ',')
+               field.append(line.charAt(i++));
+            fields.add(field.toString().trim());
+         }
+         if (i >= n)
+            break;
+         ++i; // the comma
+      }
+      return fields;
+   }//end parseLine
+}//end Csv
@@ -0,0 +1,107 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * This class is a benchmark for the Dispatcher.  It simulates a day of
+ * orders arriving at a steady rate at random stores, becoming Ready on
+ * arrival, and drivers coming back from each run after a drive that grows
+ * with the run's size.  Simulated time is only used for the wait figures;
+ * the time reported for the dispatcher is the real time spent in its
+ * methods.
+ *
+ * Usage: java -cp classes DispatchSimulation [orders] [stores] [drivers] [ordersPerMinute]
+ *
+ */
+public class DispatchSimulation {
+
+   // simulated drive for a run of one order, and for each further order.
+   static final long BASE_RUN_MS = 15 * 60000;
+   static final long EXTRA_ORDER_MS = 3 * 60000;
+
+   public static void main (String[] args) {
+      int orders = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+      int stores = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+      int drivers = args.length > 2 ? Integer.parseInt(args[2]) : 15000;
+      int perMinute = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+      System.out.println(String.format("Simulating %d orders at %d/min over %d stores with %d drivers, runs of up to %d...",
+         orders, perMinute, stores, drivers, Dispatcher.RUN_SIZE));
+
+      Random random = new Random(42);
+      Dispatcher dispatcher = new Dispatcher();
+      // drivers out on a run, as {return time, driver}.
+      PriorityQueue<long[]> out = new PriorityQueue<long[]>((a, b) -> Long.compare(a[0], b[0]));
+      for (int d = 0; d < drivers; d++)
+         dispatcher.driverAvailable("driver" + d);
+
+      long dispatcherNanos = 0;
+      long operations = 0;
+      long runs = 0;
+      long delivered = 0;
+      long totalWait = 0;
+      long maxWait = 0;
+      int next = 0;
+      double arrivalGap = 60000.0 / perMinute;
+
+      while (next < orders || !out.isEmpty() || dispatcher.size() > 0) {
+         long arrival = next < orders ? (long) (next * arrivalGap) : Long.MAX_VALUE;
+         long now;
+         long start = System.nanoTime();
+         if (!out.isEmpty() && out.peek()[0] <= arrival) {
+            long[] back = out.poll();
+            now = back[0];
+            dispatcher.driverAvailable("driver" + back[1]);
+         }
+         else if (next < orders) {
+            now = arrival;
+            dispatcher.add(next, random.nextInt(stores) + 1, now);
+            ++next;
+         }
+         else {
+            // orders left but every driver is waiting: nothing can change.
+            break;
+         }
+         List<Dispatcher.Run> assigned = dispatcher.dispatch();
+         dispatcherNanos += System.nanoTime() - start;
+         operations += 2;
+
+         for (Dispatcher.Run run : assigned) {
+            ++runs;
+            for (long placed : run.placed) {
+               long wait = now - placed;
+               totalWait += wait;
+               maxWait = Math.max(maxWait, wait);
+            }
+            delivered += run.orderIDs.size();
+            long driver = Long.parseLong(run.driver.substring("driver".length()));
+            out.add(new long[] { now + BASE_RUN_MS + EXTRA_ORDER_MS * (run.orderIDs.size() - 1), driver });
+         }
+      }
+
+      double seconds = dispatcherNanos / 1e9;
+      System.out.println(String.format("Delivered %d orders in %d runs (%.2f orders per run)",
+         delivered, runs, runs == 0 ? 0.0 : (double) delivered / runs));
+      System.out.println(String.format("Wait for a driver: mean %.1f min, max %.1f min",
+         delivered == 0 ? 0.0 : totalWait / 60000.0 / delivered, maxWait / 60000.0));
+      System.out.println(String.format("Dispatcher: %d operations in %.1f ms (%.0f ops/s, %.0f orders/min)",
+         operations, seconds * 1000, operations / seconds, orders / seconds * 60));
+      if (delivered != orders) {
+         System.out.println("FAILED: " + (orders - delivered) + " orders were never dispatched");
+         System.exit(1);
+      }
+   }//end main
+}//end DispatchSimulation
@@ -0,0 +1,210 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * This class assigns Ready orders to drivers in delivery runs.  Orders wait
+ * in one queue per store, oldest first, and a run is up to RUN_SIZE of the
+ * oldest orders of one store, so every order of a run starts from the same
+ * store in the same city.  Runs go to the store whose oldest order has
+ * waited longest, and drivers are served in the order they became
+ * available.
+ *
+ * Adding, removing and taking an order are O(log n); all methods are
+ * synchronized.  The dispatcher only keeps the queues: moving the orders of
+ * a run to Out for Delivery is left to the caller, see
+ * PizzaStore.assignDeliveryRun.
+ *
+ */
+public class Dispatcher {
+
+   // most orders a driver takes on one run.
+   static final int RUN_SIZE = Integer.getInteger("pizzastore.dispatch.runSize", 4);
+
+   /**
+    * A delivery run: orders of one store assigned to one driver.
+    */
+   public static final class Run {
+      public final String driver;
+      public final int storeID;
+      public final List<Integer> orderIDs;
+      // when each order was placed, in orderIDs order.
+      public final List<Long> placed;
+
+      Run(String driver, int storeID, List<Integer> orderIDs, List<Long> placed) {
+         this.driver = driver;
+         this.storeID = storeID;
+         this.orderIDs = Collections.unmodifiableList(orderIDs);
+         this.placed = Collections.unmodifiableList(placed);
+      }
+   }//end Run
+
+   private static final class Waiting {
+      final int orderID;
+      final int storeID;
+      final long time;
+
+      Waiting(int orderID, int storeID, long time) {
+         this.orderID = orderID;
+         this.storeID = storeID;
+         this.time = time;
+      }
+   }
+
+   private static final Comparator<Waiting> OLDEST_FIRST = (a, b) -> {
+      int byTime = Long.compare(a.time, b.time);
+      return byTime != 0 ? byTime : Integer.compare(a.orderID, b.orderID);
+   };
+
+   private static final class StoreQueue {
+      final int storeID;
+      final TreeSet<Waiting> orders = new TreeSet<Waiting>(OLDEST_FIRST);
+
+      StoreQueue(int storeID) {
+         this.storeID = storeID;
+      }
+   }
+
+   // stores with waiting orders, by their oldest order.
+   private static final Comparator<StoreQueue> LONGEST_WAITING = (a, b) -> {
+      int byOldest = OLDEST_FIRST.compare(a.orders.first(), b.orders.first());
+      return byOldest != 0 ? byOldest : Integer.compare(a.storeID, b.storeID);
+   };
+
+   private final Map<Integer, StoreQueue> stores = new HashMap<Integer, StoreQueue>();
+   private final TreeSet<StoreQueue> byLongestWaiting = new TreeSet<StoreQueue>(LONGEST_WAITING);
+   private final Map<Integer, Waiting> waiting = new HashMap<Integer, Waiting>();
+   private final ArrayDeque<String> drivers = new ArrayDeque<String>();
+   private final Set<String> available = new LinkedHashSet<String>();
+
+   /**
+    * Queues a Ready order.
+    *
+    * @param time when the order was placed, in epoch milliseconds
+    * @return false if the order was already queued
+    */
+   public synchronized boolean add(int orderID, int storeID, long time) {
+      if (this.waiting.containsKey(orderID))
+         return false;
+      Waiting order = new Waiting(orderID, storeID, time);
+      StoreQueue queue = this.stores.get(storeID);
+      if (queue == null) {
+         queue = new StoreQueue(storeID);
+         this.stores.put(storeID, queue);
+      }
+      // the store's position depends on its oldest order; re-place it.
+      if (!queue.orders.isEmpty())
+         this.byLongestWaiting.remove(queue);
+      queue.orders.add(order);
+      this.byLongestWaiting.add(queue);
+      this.waiting.put(orderID, order);
+      return true;
+   }//end add
+
+   /**
+    * Drops an order from its queue, e.g. when it was cancelled.
+    *
+    * @return false if the order was not queued
+    */
+   public synchronized boolean remove(int orderID) {
+      Waiting order = this.waiting.remove(orderID);
+      if (order == null)
+         return false;
+      StoreQueue queue = this.stores.get(order.storeID);
+      this.byLongestWaiting.remove(queue);
+      queue.orders.remove(order);
+      if (!queue.orders.isEmpty())
+         this.byLongestWaiting.add(queue);
+      return true;
+   }//end remove
+
+   /**
+    * Takes the next run for a driver.
+    *
+    * @return the run, or null if no orders are waiting
+    */
+   public synchronized Run nextRun(String driver) {
+      StoreQueue queue = this.byLongestWaiting.pollFirst();
+      if (queue == null)
+         return null;
+      List<Integer> orderIDs = new ArrayList<Integer>(RUN_SIZE);
+      List<Long> placed = new ArrayList<Long>(RUN_SIZE);
+      while (orderIDs.size() < RUN_SIZE && !queue.orders.isEmpty()) {
+         Waiting order = queue.orders.pollFirst();
+         this.waiting.remove(order.orderID);
+         orderIDs.add(order.orderID);
+         placed.add(order.time);
+      }
+      if (!queue.orders.isEmpty())
+         this.byLongestWaiting.add(queue);
+      this.available.remove(driver);
+      return new Run(driver, queue.storeID, orderIDs, placed);
+   }//end nextRun
+
+   /**
+    * Puts the orders of a run that could not be started back in front of
+    * their store's queue.
+    */
+   public synchronized void restore(Run run) {
+      for (int i = 0; i < run.orderIDs.size(); i++)
+         add(run.orderIDs.get(i), run.storeID, run.placed.get(i));
+   }//end restore
+
+   /**
+    * Marks a driver as waiting for a run; see dispatch.
+    */
+   public synchronized void driverAvailable(String driver) {
+      if (this.available.add(driver))
+         this.drivers.addLast(driver);
+   }//end driverAvailable
+
+   /**
+    * Pairs waiting drivers with runs, longest waiting first on both sides.
+    *
+    * @return the runs assigned
+    */
+   public synchronized List<Run> dispatch() {
+      List<Run> runs = new ArrayList<Run>();
+      while (!this.byLongestWaiting.isEmpty() && !this.drivers.isEmpty()) {
+         String driver = this.drivers.pollFirst();
+         // drivers who took a run directly are no longer available.
+         if (this.available.contains(driver))
+            runs.add(nextRun(driver));
+      }
+      return runs;
+   }//end dispatch
+
+   /**
+    * @return the number of queued orders
+    */
+   public synchronized int size() {
+      return this.waiting.size();
+   }
+
+   /**
+    * @return the number of drivers waiting for a run
+    */
+   public synchronized int driversWaiting() {
+      return this.available.size();
+   }
+}//end Dispatcher
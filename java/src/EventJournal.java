@@ -0,0 +1,485 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only journal of order and menu events, kept in
+ * memory-mapped segment files journal-NNNNNNNN.log in one directory.
+ *
+ * Callers only queue an event; a single writer thread encodes the queued
+ * events, copies them into the mapped segment and forces the segment to
+ * disk once per batch (group fsync).  A segment that cannot hold the next
+ * record is closed and the next one started.  Each record is
+ *
+ *    int length, int crc32, long time, byte type, short count, count x UTF
+ *
+ * and a zero length marks the end of the written part of a segment.
+ * Reopening a journal continues after its last intact record.
+ *
+ * Events are about an order or a menu item, their key (see Event.key).
+ * The position of every record is indexed by key, read once from the
+ * existing segments on open, so the history of one key reads only its own
+ * records.
+ *
+ * Usage: java -cp classes EventJournal <dir> [orderID|itemName|order:<orderID>|item:<itemName>]
+ *
+ */
+public class EventJournal implements AutoCloseable {
+
+   /**
+    * The kinds of events recorded, with the fields each carries.
+    */
+   public enum Type {
+      ORDER_CREATED(ORDER),    // orderID, login, storeID, totalPrice
+      STATUS_CHANGED(ORDER),   // orderID, oldStatus, newStatus
+      ITEM_ADDED(ITEM),        // itemName, ingredients, typeOfItem, price, description
+      ITEM_UPDATED(ITEM),      // itemName, column, oldValue, newValue
+      ITEM_DELETED(ITEM),      // itemName
+      DELIVERY_ASSIGNED(ORDER); // orderID, driver
+
+      // what the first field names, the prefix of the event's key.
+      final String subject;
+
+      Type(String subject) {
+         this.subject = subject;
+      }
+   }
+
+   // prefixes of the keys of order and item events.
+   static final String ORDER = "order:";
+   static final String ITEM = "item:";
+
+   /**
+    * One journal record.
+    */
+   public static final class Event {
+      public final long time;
+      public final Type type;
+      public final List<String> fields;
+
+      Event(long time, Type type, List<String> fields) {
+         this.time = time;
+         this.type = type;
+         this.fields = fields;
+      }
+
+      /**
+       * @return the order or item the event is about, as order:<orderID>
+       * or item:<itemName>, or null for an event with no fields
+       */
+      public String key() {
+         return fields.isEmpty() ? null : type.subject + fields.get(0);
+      }
+
+      /**
+       * @return true if the event is about the given order or item
+       * @param key order:<orderID> or item:<itemName>, see keyOf
+       */
+      public boolean concerns(String key) {
+         return !fields.isEmpty() && key.equals(key());
+      }
+
+      public String toString() {
+         return new java.sql.Timestamp(time) + " " + type + " " + fields;
+      }
+   }//end Event
+
+   // size of a new segment file.
+   static final int SEGMENT_BYTES = Integer.getInteger("pizzastore.journal.segmentBytes", 16 << 20);
+
+   // events that may wait for the writer before append starts dropping them.
+   static final int QUEUE_CAPACITY = 65536;
+
+   private static final int HEADER_BYTES = 8;
+
+   // stops the writer thread once everything before it is written.
+   private static final Event CLOSE = new Event(0, null, null);
+
+   private final File dir;
+   private final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(QUEUE_CAPACITY);
+   private final Thread writer;
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong syncs = new AtomicLong();
+   private volatile boolean closed = false;
+
+   // positions of the records of each key, as segment << 32 | offset.
+   private final Map<String, List<Long>> index = new HashMap<String, List<Long>>();
+
+   // the writer thread's segment, and its number.
+   private int segment;
+   private FileChannel channel;
+   private MappedByteBuffer buffer;
+
+   /**
+    * Opens the journal in the given directory, creating it if needed, and
+    * starts its writer thread.
+    *
+    * @param dir the directory holding the segment files
+    * @throws java.io.IOException when failed to open the last segment
+    */
+   public EventJournal(File dir) throws IOException {
+      this.dir = dir;
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create journal directory " + dir);
+      List<File> segments = segments(dir);
+      if (segments.isEmpty()) {
+         openSegment(1);
+      }
+      else {
+         for (File file : segments) {
+            int number = segmentNumber(file);
+            read(file, (event, offset) -> index(event, number, offset));
+         }
+         File last = segments.get(segments.size() - 1);
+         openSegment(segmentNumber(last));
+         recover();
+      }
+      this.writer = new Thread(this::write, "journal-writer");
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }//end EventJournal
+
+   /**
+    * Queues an event for the writer.  Never blocks: when the writer has
+    * fallen QUEUE_CAPACITY events behind, the event is dropped and counted.
+    *
+    * @param type the kind of event
+    * @param fields the event's fields, see Type
+    */
+   public void append(Type type, String... fields) {
+      if (this.closed || !this.queue.offer(new Event(System.currentTimeMillis(), type, Arrays.asList(fields))))
+         this.dropped.incrementAndGet();
+   }//end append
+
+   public long getWrittenCount() {
+      return this.written.get();
+   }
+
+   public long getDroppedCount() {
+      return this.dropped.get();
+   }
+
+   public long getSyncCount() {
+      return this.syncs.get();
+   }
+
+   /**
+    * Writes out every queued event and stops the writer thread.
+    */
+   public void close() {
+      if (this.closed)
+         return;
+      this.closed = true;
+      try {
+         // a writer that stopped on an error leaves the queue as it is.
+         while (!this.queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {
+            if (!this.writer.isAlive())
+               break;
+         }
+         this.writer.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      this.queue.remove(CLOSE);
+      this.dropped.addAndGet(this.queue.size());
+      if (this.dropped.get() > 0)
+         System.err.println("Journal: " + this.dropped.get() + " events dropped: skipped, or queued behind a slow writer");
+   }//end close
+
+   /*
+    * The writer thread: takes whatever is queued, appends it and forces
+    * the segment once for the whole batch.  An event that cannot be
+    * written is counted as dropped.
+    */
+   private void write() {
+      List<Event> batch = new ArrayList<Event>();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      boolean running = true;
+      try {
+         while (running) {
+            batch.add(this.queue.take());
+            this.queue.drainTo(batch);
+            for (Event event : batch) {
+               if (event == CLOSE) {
+                  running = false;
+                  break;
+               }
+               try {
+                  int offset = appendRecord(encode(event, bytes));
+                  index(event, this.segment, offset);
+                  this.written.incrementAndGet();
+               } catch (IOException e) {
+                  // e.g. a field over 64KB, or a record over a segment: the
+                  // event is skipped, the writer goes on with the next one.
+                  this.dropped.incrementAndGet();
+                  System.err.println("Journal: " + event.type + " event skipped: " + e.getMessage());
+               }
+            }
+            batch.clear();
+            this.buffer.force();
+            this.syncs.incrementAndGet();
+         }
+         this.channel.close();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (IOException e) {
+         System.err.println("Journal writer stopped: " + e.getMessage());
+      }
+   }//end write
+
+   private static byte[] encode(Event event, ByteArrayOutputStream bytes) throws IOException {
+      bytes.reset();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeLong(event.time);
+      out.writeByte(event.type.ordinal());
+      out.writeShort(event.fields.size());
+      for (String field : event.fields)
+         out.writeUTF(field == null ? "" : field);
+      out.flush();
+      return bytes.toByteArray();
+   }
+
+   /*
+    * @return the offset of the record in the segment it went to
+    */
+   private int appendRecord(byte[] payload) throws IOException {
+      // keep room for the zero length that ends the segment.
+      if (this.buffer.remaining() < HEADER_BYTES + payload.length + 4) {
+         if (HEADER_BYTES + payload.length + 4 > SEGMENT_BYTES)
+            throw new IOException("Journal record of " + payload.length + " bytes exceeds the segment size");
+         this.buffer.force();
+         this.channel.close();
+         openSegment(this.segment + 1);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      // the length goes last, so a reader never sees a record half written.
+      int start = this.buffer.position();
+      this.buffer.position(start + 4);
+      this.buffer.putInt((int) crc.getValue());
+      this.buffer.put(payload);
+      this.buffer.putInt(start, payload.length);
+      return start;
+   }
+
+   private void index(Event event, int segment, int offset) {
+      String key = event.key();
+      if (key == null)
+         return;
+      synchronized (this.index) {
+         List<Long> positions = this.index.get(key);
+         if (positions == null) {
+            positions = new ArrayList<Long>(4);
+            this.index.put(key, positions);
+         }
+         positions.add((long) segment << 32 | offset);
+      }
+   }//end index
+
+   private void openSegment(int number) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(segmentFile(this.dir, number), "rw");
+      this.channel = file.getChannel();
+      this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(SEGMENT_BYTES, file.length()));
+      this.segment = number;
+   }
+
+   /*
+    * Moves to the end of the last intact record of the reopened segment and
+    * clears anything torn after it, so new records cannot run into it.
+    */
+   private void recover() {
+      int end = scan(this.buffer, null);
+      this.buffer.position(end);
+      if (end + 4 <= this.buffer.limit() && this.buffer.getInt(end) != 0) {
+         for (int i = end; i < this.buffer.limit(); i++)
+            this.buffer.put(i, (byte) 0);
+         this.buffer.force();
+      }
+   }
+
+   /*
+    * Reads the intact records of a segment from its start, handing each on
+    * with its offset.
+    * @return the position after the last intact record
+    */
+   private static int scan(ByteBuffer buffer, ObjIntConsumer<Event> handler) {
+      int pos = 0;
+      CRC32 crc = new CRC32();
+      while (pos + HEADER_BYTES <= buffer.limit()) {
+         int length = buffer.getInt(pos);
+         if (length <= 0 || pos + HEADER_BYTES + length > buffer.limit())
+            break;
+         byte[] payload = new byte[length];
+         ByteBuffer view = buffer.duplicate();
+         view.position(pos + HEADER_BYTES);
+         view.get(payload);
+         crc.reset();
+         crc.update(payload);
+         if ((int) crc.getValue() != buffer.getInt(pos + 4))
+            break;
+         if (handler != null)
+            handler.accept(decode(payload), pos);
+         pos += HEADER_BYTES + length;
+      }
+      return pos;
+   }
+
+   private static Event decode(byte[] payload) {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      try {
+         long time = in.readLong();
+         Type type = Type.values()[in.readByte()];
+         int count = in.readShort();
+         List<String> fields = new ArrayList<String>(count);
+         for (int i = 0; i < count; i++)
+            fields.add(in.readUTF());
+         return new Event(time, type, fields);
+      } catch (IOException e) {
+         // cannot happen for a record whose checksum matched.
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * Reads every intact event of the journal in the given directory, oldest
+    * first.  Safe to use while the journal is being written.
+    *
+    * @param dir the directory holding the segment files
+    * @param handler receives each event
+    * @throws java.io.IOException when failed to read a segment
+    */
+   public static void replay(File dir, Consumer<Event> handler) throws IOException {
+      for (File file : segments(dir))
+         read(file, (event, offset) -> handler.accept(event));
+   }//end replay
+
+   private static void read(File file, ObjIntConsumer<Event> handler) throws IOException {
+      RandomAccessFile segment = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = segment.getChannel();
+         scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), handler);
+      } finally {
+         segment.close();
+      }
+   }
+
+   /**
+    * @param key order:<orderID> or item:<itemName>, see keyOf
+    * @return the events about one order or item, oldest first
+    * @throws java.io.IOException when failed to read a segment
+    */
+   public List<Event> history(String key) throws IOException {
+      List<Long> positions;
+      synchronized (this.index) {
+         List<Long> indexed = this.index.get(key);
+         positions = indexed == null ? new ArrayList<Long>() : new ArrayList<Long>(indexed);
+      }
+      List<Event> events = new ArrayList<Event>(positions.size());
+      RandomAccessFile file = null;
+      int open = 0;
+      try {
+         // positions are in the order written, so each segment is opened once.
+         for (long position : positions) {
+            int segment = (int) (position >>> 32);
+            if (file == null || segment != open) {
+               if (file != null)
+                  file.close();
+               file = new RandomAccessFile(segmentFile(this.dir, segment), "r");
+               open = segment;
+            }
+            file.seek((int) position);
+            byte[] payload = new byte[file.readInt()];
+            file.readInt();
+            file.readFully(payload);
+            events.add(decode(payload));
+         }
+      } finally {
+         if (file != null)
+            file.close();
+      }
+      return events;
+   }//end history
+
+   /**
+    * @return the key of what the user typed: order:<orderID> for a number,
+    * item:<itemName> otherwise, unless it already is a key
+    */
+   public static String keyOf(String input) {
+      if (input.startsWith(ORDER) || input.startsWith(ITEM))
+         return input;
+      try {
+         return ORDER + Integer.parseInt(input);
+      } catch (NumberFormatException e) {
+         return ITEM + input;
+      }
+   }//end keyOf
+
+   private static File segmentFile(File dir, int number) {
+      return new File(dir, String.format("journal-%08d.log", number));
+   }
+
+   private static int segmentNumber(File file) {
+      String name = file.getName();
+      return Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length()));
+   }
+
+   private static List<File> segments(File dir) {
+      List<File> segments = new ArrayList<File>();
+      File[] files = dir.listFiles((d, name) -> name.matches("journal-\\d{8}\\.log"));
+      if (files != null)
+         segments.addAll(Arrays.asList(files));
+      segments.sort((a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)));
+      return segments;
+   }
+
+   /**
+    * Prints the journal, or only the events about one order or item.
+    */
+   public static void main (String[] args) throws IOException {
+      if (args.length < 1) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " +
+            EventJournal.class.getName () +
+            " <dir> [orderID|itemName|order:<orderID>|item:<itemName>]");
+         return;
+      }//end if
+      String key = args.length > 1 ? keyOf(args[1]) : null;
+      replay(new File(args[0]), event -> {
+         if (key == null || event.concerns(key))
+            System.out.println(event);
+      });
+   }//end main
+}//end EventJournal
@@ -0,0 +1,753 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * This class is an in-memory storage engine implementing every repository
+ * without a database.  Rows are kept in hash maps keyed like the tables'
+ * primary keys (login, itemName, storeID, orderID), each user's orders are
+ * kept in an ordered set, newest first, and one read/write lock makes every
+ * operation atomic the way a transaction would.  It behaves like the
+ * Postgres schema, including order lines that keep the price they were
+ * bought at, and can be loaded from the CSV files in data/.
+ *
+ */
+public class InMemoryStorage {
+
+   private static class User {
+      final String login;
+      String password;
+      final String role;
+      String favoriteItems;
+      String phoneNum;
+
+      User(String login, String password, String role, String favoriteItems, String phoneNum) {
+         this.login = login;
+         this.password = password;
+         this.role = role;
+         this.favoriteItems = favoriteItems;
+         this.phoneNum = phoneNum;
+      }
+   }
+
+   private static class Store {
+      final int storeID;
+      // as loaded: [storeID, address, city, state, isOpen, reviewScore]
+      final List<String> record;
+      final Double priorScore;
+      int reviewCount = 0;
+      long reviewSum = 0;
+      Double reviewScore;
+
+      Store(int storeID, List<String> record) {
+         this.storeID = storeID;
+         this.record = record;
+         String score = record.get(5);
+         this.priorScore = score == null || score.isEmpty() ? null : Double.valueOf(score);
+         this.reviewScore = this.priorScore;
+      }
+
+      double reviewScore() {
+         return reviewScore == null ? Double.NEGATIVE_INFINITY : reviewScore;
+      }
+
+      void review(int rating) {
+         reviewCount++;
+         reviewSum += rating;
+         reviewScore = StoreRepository.smoothedScore(priorScore, reviewCount, reviewSum);
+      }
+
+      List<String> toRecord() {
+         return Arrays.asList(record.get(0), record.get(1), record.get(2), record.get(3), record.get(4),
+            reviewCount == 0 ? record.get(5) : String.valueOf(reviewScore), String.valueOf(reviewCount));
+      }
+   }
+
+   private static class Order {
+      final int orderID;
+      final String login;
+      final int storeID;
+      final double totalPrice;
+      final Timestamp orderTimestamp;
+      String orderStatus;
+      // itemName -> line, in insertion order.
+      final Map<String, Line> lines = new LinkedHashMap<String, Line>();
+
+      Order(int orderID, String login, int storeID, double totalPrice, Timestamp orderTimestamp, String orderStatus) {
+         this.orderID = orderID;
+         this.login = login;
+         this.storeID = storeID;
+         this.totalPrice = totalPrice;
+         this.orderTimestamp = orderTimestamp;
+         this.orderStatus = orderStatus;
+      }
+   }
+
+   private static class Line {
+      final int quantity;
+      final double unitPrice;
+
+      Line(int quantity, double unitPrice) {
+         this.quantity = quantity;
+         this.unitPrice = unitPrice;
+      }
+   }
+
+   // newest first, like ORDER BY orderTimestamp DESC.
+   private static final Comparator<Order> NEWEST_FIRST = (a, b) -> {
+      int byTime = b.orderTimestamp.compareTo(a.orderTimestamp);
+      return byTime != 0 ? byTime : Integer.compare(b.orderID, a.orderID);
+   };
+
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+   private final Map<String, User> users = new HashMap<String, User>();
+   private final Map<String, MenuSearchIndex.Item> items = new LinkedHashMap<String, MenuSearchIndex.Item>();
+   private final Map<Integer, Store> stores = new HashMap<Integer, Store>();
+   private final Map<Integer, Order> orders = new HashMap<Integer, Order>();
+   // orderID -> [orderID, login, storeID, rating, reviewComment, reviewTimestamp]
+   private final Map<Integer, List<String>> reviews = new HashMap<Integer, List<String>>();
+   // Promotion rows, by promoID, and their PromotionItem rows.
+   private final Map<Integer, List<String>> promotions = new TreeMap<Integer, List<String>>();
+   private final Map<Integer, List<List<String>>> promotionItems = new HashMap<Integer, List<List<String>>>();
+   private final Map<String, TreeSet<Order>> ordersByLogin = new HashMap<String, TreeSet<Order>>();
+   private final Map<String, Set<Integer>> ordersByItem = new HashMap<String, Set<Integer>>();
+   private int maxOrderID = 0;
+
+   private final UserRepository userRepository = new Users();
+   private final ItemRepository itemRepository = new Items();
+   private final StoreRepository storeRepository = new Stores();
+   private final OrderRepository orderRepository = new Orders();
+   private final PromotionRepository promotionRepository = new Promotions();
+
+   /**
+    * Creates an engine loaded from users.csv, items.csv, store.csv,
+    * foodorder.csv and itemsinorder.csv, and promotion.csv and
+    * promotionitem.csv if they exist, as used by sql/src/load_data.sql.
+    *
+    * @param dataDir the directory holding the CSV files
+    * @return the loaded engine
+    * @throws java.io.IOException when failed to read a file
+    */
+   public static InMemoryStorage load(File dataDir) throws IOException {
+      InMemoryStorage storage = new InMemoryStorage();
+      for (List<String> r : Csv.read(new File(dataDir, "users.csv")))
+         storage.users.put(r.get(0), new User(r.get(0), r.get(1), r.get(2), r.get(3), r.get(4)));
+      for (List<String> r : Csv.read(new File(dataDir, "items.csv")))
+         storage.items.put(r.get(0), new MenuSearchIndex.Item(r.get(0), r.get(1), r.get(2), Double.parseDouble(r.get(3)), r.get(4)));
+      for (List<String> r : Csv.read(new File(dataDir, "store.csv")))
+         storage.stores.put(Integer.parseInt(r.get(0)), new Store(Integer.parseInt(r.get(0)), r));
+      for (List<String> r : Csv.read(new File(dataDir, "foodorder.csv"))) {
+         storage.addOrder(new Order(Integer.parseInt(r.get(0)), r.get(1), Integer.parseInt(r.get(2)),
+            Double.parseDouble(r.get(3)), Timestamp.valueOf(r.get(4)), r.get(5)));
+      }
+      for (List<String> r : Csv.read(new File(dataDir, "itemsinorder.csv"))) {
+         // priced from the menu, as sql/src/load_data.sql does.
+         Order order = storage.orders.get(Integer.parseInt(r.get(0)));
+         MenuSearchIndex.Item item = storage.items.get(r.get(1));
+         if (order != null && item != null)
+            storage.addLine(order, r.get(1), Integer.parseInt(r.get(2)), item.price);
+      }
+      if (new File(dataDir, "promotion.csv").exists()) {
+         for (List<String> r : Csv.read(new File(dataDir, "promotion.csv")))
+            storage.promotions.put(Integer.parseInt(r.get(0)), r);
+      }
+      if (new File(dataDir, "promotionitem.csv").exists()) {
+         for (List<String> r : Csv.read(new File(dataDir, "promotionitem.csv"))) {
+            storage.promotionItems.computeIfAbsent(Integer.parseInt(r.get(0)), k -> new ArrayList<List<String>>())
+               .add(r.subList(1, 4));
+         }
+      }
+      return storage;
+   }//end load
+
+   public UserRepository users() {
+      return userRepository;
+   }
+
+   public ItemRepository items() {
+      return itemRepository;
+   }
+
+   public StoreRepository stores() {
+      return storeRepository;
+   }
+
+   public OrderRepository orders() {
+      return orderRepository;
+   }
+
+   public PromotionRepository promotions() {
+      return promotionRepository;
+   }
+
+   private void addOrder(Order order) {
+      orders.put(order.orderID, order);
+      TreeSet<Order> own = ordersByLogin.get(order.login);
+      if (own == null) {
+         own = new TreeSet<Order>(NEWEST_FIRST);
+         ordersByLogin.put(order.login, own);
+      }
+      own.add(order);
+      maxOrderID = Math.max(maxOrderID, order.orderID);
+   }
+
+   private void addLine(Order order, String itemName, int quantity, double unitPrice) {
+      order.lines.put(itemName, new Line(quantity, unitPrice));
+      Set<Integer> using = ordersByItem.get(itemName);
+      if (using == null) {
+         using = new HashSet<Integer>();
+         ordersByItem.put(itemName, using);
+      }
+      using.add(order.orderID);
+   }
+
+   private static String price(double value) {
+      return String.format("%.2f", value);
+   }
+
+   /**
+    * Users held in memory.
+    */
+   private class Users implements UserRepository {
+      public void create(String login, String password, String role, String favoriteItems, String phoneNum) throws SQLException {
+         lock.writeLock().lock();
+         try {
+            if (users.containsKey(login))
+               throw new SQLException("duplicate key value violates unique constraint \"users_pkey\"");
+            users.put(login, new User(login, password, role, favoriteItems, phoneNum));
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public boolean authenticate(String login, String password) {
+         lock.readLock().lock();
+         try {
+            User user = users.get(login);
+            return user != null && user.password.equals(password);
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public List<String> findProfile(String login) {
+         lock.readLock().lock();
+         try {
+            User user = users.get(login);
+            return user == null ? null : Arrays.asList(user.favoriteItems, user.phoneNum);
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public String findRole(String login) {
+         lock.readLock().lock();
+         try {
+            User user = users.get(login);
+            return user == null ? null : user.role.trim();
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public void updatePassword(String login, String password) {
+         lock.writeLock().lock();
+         try {
+            User user = users.get(login);
+            if (user != null)
+               user.password = password;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public void updatePhoneNum(String login, String phoneNum) {
+         lock.writeLock().lock();
+         try {
+            User user = users.get(login);
+            if (user != null)
+               user.phoneNum = phoneNum;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public void updateFavoriteItems(String login, String favoriteItems) {
+         lock.writeLock().lock();
+         try {
+            User user = users.get(login);
+            if (user != null)
+               user.favoriteItems = favoriteItems;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+   }//end Users
+
+   /**
+    * Items held in memory.
+    */
+   private class Items implements ItemRepository {
+      public List<MenuSearchIndex.Item> findAll() {
+         lock.readLock().lock();
+         try {
+            return new ArrayList<MenuSearchIndex.Item>(items.values());
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public List<MenuSearchIndex.Item> findAllCurrent() {
+         return findAll();
+      }
+
+      public List<MenuSearchIndex.Item> findAllByPrice(boolean ascending) {
+         List<MenuSearchIndex.Item> all = findAll();
+         Comparator<MenuSearchIndex.Item> byPrice = Comparator.comparingDouble(item -> item.price);
+         all.sort(ascending ? byPrice : byPrice.reversed());
+         return all;
+      }
+
+      public List<MenuSearchIndex.Item> findByMaxPrice(double maxPrice) {
+         List<MenuSearchIndex.Item> matching = new ArrayList<MenuSearchIndex.Item>();
+         for (MenuSearchIndex.Item item : findAll()) {
+            if (item.price <= maxPrice)
+               matching.add(item);
+         }
+         return matching;
+      }
+
+      public MenuSearchIndex.Item find(String itemName) {
+         lock.readLock().lock();
+         try {
+            return items.get(itemName);
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public void add(MenuSearchIndex.Item item) throws SQLException {
+         lock.writeLock().lock();
+         try {
+            if (items.containsKey(item.itemName))
+               throw new SQLException("duplicate key value violates unique constraint \"items_pkey\"");
+            items.put(item.itemName, item);
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public void update(String itemName, String column, String value) throws SQLException {
+         lock.writeLock().lock();
+         try {
+            MenuSearchIndex.Item item = items.get(itemName);
+            if (item == null)
+               return;
+            // items are immutable; replace the entry in place.
+            MenuSearchIndex.Item updated;
+            if (column.equals(INGREDIENTS))
+               updated = new MenuSearchIndex.Item(itemName, value, item.typeOfItem, item.price, item.description);
+            else if (column.equals(TYPE_OF_ITEM))
+               updated = new MenuSearchIndex.Item(itemName, item.ingredients, value, item.price, item.description);
+            else if (column.equals(PRICE))
+               updated = new MenuSearchIndex.Item(itemName, item.ingredients, item.typeOfItem, Double.parseDouble(value), item.description);
+            else if (column.equals(DESCRIPTION))
+               updated = new MenuSearchIndex.Item(itemName, item.ingredients, item.typeOfItem, item.price, value);
+            else
+               throw new SQLException("Unknown item column: " + column);
+            items.put(itemName, updated);
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public int countOrdersUsing(String itemName) {
+         lock.readLock().lock();
+         try {
+            Set<Integer> using = ordersByItem.get(itemName);
+            return using == null ? 0 : using.size();
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public int delete(String itemName, int expectedOrderCount) {
+         lock.writeLock().lock();
+         try {
+            if (!items.containsKey(itemName))
+               return -1;
+            Set<Integer> using = ordersByItem.get(itemName);
+            int currentCount = using == null ? 0 : using.size();
+            if (currentCount != expectedOrderCount)
+               return currentCount;
+            items.remove(itemName);
+            // order lines keep the item's name and price; an item added
+            // again under the name starts with no orders, as with a new itemID.
+            ordersByItem.remove(itemName);
+            return currentCount;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public MenuDiff importMenu(List<MenuSearchIndex.Item> imported, boolean deleteMissing, boolean apply) throws SQLException {
+         ItemRepository.checkNames(imported);
+         MenuDiff diff = new MenuDiff();
+         lock.writeLock().lock();
+         try {
+            Set<String> names = new HashSet<String>();
+            for (MenuSearchIndex.Item item : imported) {
+               names.add(item.itemName);
+               MenuSearchIndex.Item current = items.get(item.itemName);
+               if (current == null)
+                  diff.added.add(item);
+               else
+                  diff.compare(current, item);
+            }
+            for (String itemName : items.keySet()) {
+               if (deleteMissing && !names.contains(itemName))
+                  diff.deleted.put(itemName, countOrdersUsing(itemName));
+            }
+            diff.unchanged = imported.size() - diff.added.size() - diff.changedItems;
+            if (!apply)
+               return diff;
+            for (MenuSearchIndex.Item item : imported)
+               items.put(item.itemName, item);
+            for (Map.Entry<String, Integer> item : diff.deleted.entrySet())
+               delete(item.getKey(), item.getValue());
+            return diff;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+   }//end Items
+
+   /**
+    * Stores held in memory.
+    */
+   private class Stores implements StoreRepository {
+      public List<List<String>> findAllByReviewScore() {
+         lock.readLock().lock();
+         try {
+            List<Store> all = new ArrayList<Store>(stores.values());
+            all.sort((a, b) -> {
+               int byScore = Double.compare(b.reviewScore(), a.reviewScore());
+               return byScore != 0 ? byScore : Integer.compare(a.storeID, b.storeID);
+            });
+            List<List<String>> records = new ArrayList<List<String>>(all.size());
+            for (Store store : all)
+               records.add(store.toRecord());
+            return records;
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public List<String> review(int orderID, String login, int storeID, int rating, String comment) throws SQLException {
+         lock.writeLock().lock();
+         try {
+            Store store = stores.get(storeID);
+            if (!users.containsKey(login))
+               throw new SQLException("insert or update on table \"review\" violates foreign key constraint (login)");
+            if (store == null)
+               throw new SQLException("insert or update on table \"review\" violates foreign key constraint (storeID)");
+            if (rating < 1 || rating > 5)
+               throw new SQLException("new row for relation \"review\" violates check constraint (rating)");
+            if (reviews.containsKey(orderID))
+               return null;
+            reviews.put(orderID, Arrays.asList(String.valueOf(orderID), login, String.valueOf(storeID),
+               String.valueOf(rating), comment, new Timestamp(System.currentTimeMillis()).toString()));
+            store.review(rating);
+            return Arrays.asList(String.valueOf(storeID), String.valueOf(store.reviewScore),
+               String.valueOf(store.reviewCount));
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+   }//end Stores
+
+   private class Promotions implements PromotionRepository {
+      public List<List<String>> findActive() {
+         lock.readLock().lock();
+         try {
+            long now = System.currentTimeMillis();
+            List<List<String>> records = new ArrayList<List<String>>();
+            for (List<String> promotion : promotions.values()) {
+               String validUntil = promotion.get(8);
+               if (validUntil != null && !validUntil.isEmpty() && Timestamp.valueOf(validUntil).getTime() <= now)
+                  continue;
+               List<List<String>> requirements = promotionItems.get(Integer.parseInt(promotion.get(0)));
+               if (requirements == null)
+                  requirements = Arrays.asList(Arrays.asList((String) null, null, null));
+               for (List<String> requirement : requirements) {
+                  List<String> record = new ArrayList<String>(promotion);
+                  record.addAll(requirement);
+                  records.add(record);
+               }
+            }
+            return records;
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+   }//end Promotions
+
+   /**
+    * Orders held in memory.
+    */
+   private class Orders implements OrderRepository {
+      public int place(String login, int storeID, List<String> itemNames, List<Integer> quantities,
+                       List<Double> unitPrices, double totalPrice) throws SQLException {
+         lock.writeLock().lock();
+         try {
+            checkOrder(login, storeID, itemNames);
+            Order order = new Order(maxOrderID + 1, login, storeID, totalPrice,
+                                    new Timestamp(System.currentTimeMillis()), "Pending");
+            addOrder(order);
+            for (int i = 0; i < itemNames.size(); i++)
+               addLine(order, itemNames.get(i), quantities.get(i), unitPrices.get(i));
+            return order.orderID;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public List<List<String>> reorder(String login, Integer orderID) {
+         lock.writeLock().lock();
+         try {
+            Order source = null;
+            if (orderID == null) {
+               TreeSet<Order> own = ordersByLogin.get(login);
+               source = own == null || own.isEmpty() ? null : own.first();
+            }
+            else {
+               source = orders.get(orderID);
+               if (source != null && !source.login.equals(login))
+                  source = null;
+            }
+            List<List<String>> placed = new ArrayList<List<String>>();
+            if (source == null)
+               return placed;
+
+            double total = 0;
+            Map<String, Line> lines = new LinkedHashMap<String, Line>();
+            for (Map.Entry<String, Line> line : source.lines.entrySet()) {
+               MenuSearchIndex.Item item = items.get(line.getKey());
+               if (item != null) {
+                  lines.put(line.getKey(), new Line(line.getValue().quantity, item.price));
+                  total += item.price * line.getValue().quantity;
+               }
+            }
+            if (lines.isEmpty())
+               return placed;
+
+            Order order = new Order(maxOrderID + 1, login, source.storeID, total,
+                                    new Timestamp(System.currentTimeMillis()), "Pending");
+            addOrder(order);
+            for (Map.Entry<String, Line> line : lines.entrySet()) {
+               addLine(order, line.getKey(), line.getValue().quantity, line.getValue().unitPrice);
+               placed.add(Arrays.asList(String.valueOf(order.orderID), String.valueOf(order.storeID),
+                  price(total), line.getKey(), String.valueOf(line.getValue().quantity)));
+            }
+            return placed;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public List<List<String>> findByLogin(String login, int limit) {
+         lock.readLock().lock();
+         try {
+            List<List<String>> records = new ArrayList<List<String>>();
+            TreeSet<Order> own = ordersByLogin.get(login);
+            if (own == null)
+               return records;
+            for (Order order : own) {
+               if (limit > 0 && records.size() >= limit)
+                  break;
+               Store store = stores.get(order.storeID);
+               records.add(Arrays.asList(String.valueOf(order.orderID), price(order.totalPrice),
+                  order.orderTimestamp.toString(), order.orderStatus, String.valueOf(order.storeID),
+                  store == null ? null : store.record.get(1)));
+            }
+            return records;
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public List<String> find(int orderID) {
+         lock.readLock().lock();
+         try {
+            Order order = orders.get(orderID);
+            return order == null ? null
+               : Arrays.asList(String.valueOf(order.orderID), order.login, order.orderStatus);
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public List<List<String>> findDetails(int orderID) {
+         lock.readLock().lock();
+         try {
+            List<List<String>> records = new ArrayList<List<String>>();
+            Order order = orders.get(orderID);
+            Store store = order == null ? null : stores.get(order.storeID);
+            if (store != null) {
+               records.add(Arrays.asList(String.valueOf(order.orderID), order.login, price(order.totalPrice),
+                  order.orderTimestamp.toString(), order.orderStatus, String.valueOf(order.storeID),
+                  store.record.get(1), store.record.get(2), store.record.get(3)));
+            }
+            return records;
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public List<List<String>> findItems(int orderID) {
+         lock.readLock().lock();
+         try {
+            List<List<String>> records = new ArrayList<List<String>>();
+            Order order = orders.get(orderID);
+            if (order == null)
+               return records;
+            for (Map.Entry<String, Line> line : order.lines.entrySet()) {
+               Line bought = line.getValue();
+               records.add(Arrays.asList(line.getKey(), String.valueOf(bought.quantity),
+                  price(bought.unitPrice), price(bought.unitPrice * bought.quantity)));
+            }
+            return records;
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public boolean updateStatus(int orderID, String status) {
+         lock.writeLock().lock();
+         try {
+            Order order = orders.get(orderID);
+            if (order == null)
+               return false;
+            order.orderStatus = status;
+            return true;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public List<Integer> updateStatus(List<Integer> orderIDs, String fromStatus, String toStatus) {
+         lock.writeLock().lock();
+         try {
+            List<Integer> moved = new ArrayList<Integer>();
+            for (int orderID : orderIDs) {
+               Order order = orders.get(orderID);
+               if (order != null && fromStatus.equals(order.orderStatus)) {
+                  order.orderStatus = toStatus;
+                  moved.add(orderID);
+               }
+            }
+            return moved;
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+
+      public List<List<String>> findByStatus(String status) {
+         lock.readLock().lock();
+         try {
+            List<Order> matching = new ArrayList<Order>();
+            for (Order order : orders.values()) {
+               if (status.equals(order.orderStatus))
+                  matching.add(order);
+            }
+            matching.sort(NEWEST_FIRST.reversed());
+            List<List<String>> records = new ArrayList<List<String>>(matching.size());
+            for (Order order : matching) {
+               records.add(Arrays.asList(String.valueOf(order.orderID), String.valueOf(order.storeID),
+                  order.orderTimestamp.toString()));
+            }
+            return records;
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public void scanAfter(int orderID, Consumer<List<String>> handler) {
+         lock.readLock().lock();
+         try {
+            for (Order order : ordersAfter(orderID, Integer.MAX_VALUE)) {
+               handler.accept(Arrays.asList(String.valueOf(order.orderID), order.login,
+                  String.valueOf(order.storeID), price(order.totalPrice),
+                  order.orderTimestamp.toString(), order.orderStatus));
+            }
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      public void scanItems(int afterOrderID, int upToOrderID, Consumer<List<String>> handler) {
+         lock.readLock().lock();
+         try {
+            for (Order order : ordersAfter(afterOrderID, upToOrderID)) {
+               for (Map.Entry<String, Line> line : order.lines.entrySet()) {
+                  handler.accept(Arrays.asList(String.valueOf(order.orderID), line.getKey(),
+                     String.valueOf(line.getValue().quantity)));
+               }
+            }
+         } finally {
+            lock.readLock().unlock();
+         }
+      }
+
+      // the orders in (afterOrderID, upToOrderID], in orderID order.
+      private List<Order> ordersAfter(int afterOrderID, int upToOrderID) {
+         List<Order> range = new ArrayList<Order>();
+         for (Order order : orders.values()) {
+            if (order.orderID > afterOrderID && order.orderID <= upToOrderID)
+               range.add(order);
+         }
+         range.sort(Comparator.comparingInt(order -> order.orderID));
+         return range;
+      }
+
+      // the foreign keys of FoodOrder and ItemsInOrder.
+      private void checkOrder(String login, int storeID, List<String> itemNames) throws SQLException {
+         if (!users.containsKey(login))
+            throw new SQLException("insert or update on table \"foodorder\" violates foreign key constraint (login)");
+         if (!stores.containsKey(storeID))
+            throw new SQLException("insert or update on table \"foodorder\" violates foreign key constraint (storeID)");
+         for (String itemName : itemNames) {
+            if (!items.containsKey(itemName))
+               throw new SQLException("insert or update on table \"itemsinorder\" violates foreign key constraint (itemName)");
+         }
+      }
+   }//end Orders
+}//end InMemoryStorage
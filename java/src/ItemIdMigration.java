@@ -0,0 +1,361 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class moves a database created before Items had an itemID over to
+ * the current schema, where ItemsInOrder refers to items by itemID instead
+ * of by itemName, without stopping checkouts.  The steps run in order, each
+ * can be run again after a failure, and none holds a lock that blocks
+ * checkouts for longer than a few catalog updates:
+ *
+ *    expand    adds Items.itemID, a nullable ItemsInOrder.itemID, and a
+ *              trigger filling in whichever of itemID and itemName a new
+ *              line lacks, so old and new versions of the application can
+ *              both write while the migration runs
+ *    backfill  sets itemID on the existing lines, batchSize orders per
+ *              transaction with a pause between batches
+ *    switch    builds the (orderID, itemID) index concurrently, proves
+ *              itemID NOT NULL and the foreign key with validated
+ *              constraints, then swaps the primary key in one short
+ *              transaction; itemName becomes nullable
+ *    contract  drops the trigger and ItemsInOrder.itemName, once no old
+ *              version of the application is left; itemName is kept if
+ *              OrderLineMigration already made it part of each line
+ *    compact   rewrites ItemsInOrder with VACUUM FULL to give the dropped
+ *              column's space back; this one locks the table, so run it
+ *              off-peak (or use pg_repack)
+ *    report    prints the size of ItemsInOrder and its indexes and the
+ *              latency of its joins with Items
+ *
+ * "all" runs every step between two reports and prints them side by side;
+ * run it on data scaled with sql/src/scale_data.sql to see the difference.
+ * DDL waits at most LOCK_TIMEOUT for its lock and is retried, so it never
+ * queues checkouts behind a long transaction.  Needs Postgres 12 or later
+ * for SET NOT NULL to use the validated constraint instead of a scan.
+ * Order shards are created with itemID by sql/scripts/create_shards.sh.
+ *
+ * Usage: java -cp classes:lib/pg73jdbc3.jar ItemIdMigration <dbname> <port> <user> <step> [batchSize] [pauseMs]
+ *
+ */
+public class ItemIdMigration {
+
+   static final String[] STEPS = { "expand", "backfill", "switch", "contract", "compact" };
+
+   static final String LOCK_TIMEOUT = "2s";
+   static final int DDL_ATTEMPTS = 30;
+
+   // orders whose lines are timed by the report.
+   static final int SAMPLE_ORDERS = 500;
+
+   static final List<String> EXPAND = Arrays.asList(
+      "ALTER TABLE Items ADD COLUMN IF NOT EXISTS itemID integer;",
+      "CREATE SEQUENCE IF NOT EXISTS items_itemid_seq OWNED BY Items.itemID;",
+      // Items is small: numbered in one statement.
+      "UPDATE Items SET itemID = nextval('items_itemid_seq') WHERE itemID IS NULL;",
+      "ALTER TABLE Items ALTER COLUMN itemID SET DEFAULT nextval('items_itemid_seq');",
+      "ALTER TABLE Items ALTER COLUMN itemID SET NOT NULL;",
+      "CREATE UNIQUE INDEX IF NOT EXISTS items_itemid_key ON Items (itemID);",
+      // no default, so no table rewrite.
+      "ALTER TABLE ItemsInOrder ADD COLUMN IF NOT EXISTS itemID integer;",
+      "CREATE OR REPLACE FUNCTION itemsinorder_item_id() RETURNS trigger AS $$ " +
+      "BEGIN " +
+         "IF NEW.itemID IS NULL THEN SELECT itemID INTO NEW.itemID FROM Items WHERE itemName = NEW.itemName; END IF; " +
+         "IF NEW.itemName IS NULL THEN SELECT itemName INTO NEW.itemName FROM Items WHERE itemID = NEW.itemID; END IF; " +
+         "RETURN NEW; " +
+      "END; $$ LANGUAGE plpgsql;",
+      "DROP TRIGGER IF EXISTS itemsinorder_item_id ON ItemsInOrder;",
+      "CREATE TRIGGER itemsinorder_item_id BEFORE INSERT OR UPDATE ON ItemsInOrder " +
+      "FOR EACH ROW EXECUTE PROCEDURE itemsinorder_item_id();");
+
+   static final String BACKFILL_RANGE =
+      "SELECT MIN(orderID), MAX(orderID) FROM ItemsInOrder WHERE itemID IS NULL;";
+   static final String BACKFILL_BATCH =
+      "UPDATE ItemsInOrder io SET itemID = i.itemID FROM Items i " +
+      "WHERE i.itemName = io.itemName AND io.orderID >= %d AND io.orderID < %d AND io.itemID IS NULL;";
+   static final String COUNT_MISSING =
+      "SELECT COUNT(*) FROM ItemsInOrder WHERE itemID IS NULL;";
+
+   static final String PRIMARY_KEY_COLUMNS =
+      "SELECT a.attname FROM pg_index x " +
+      "JOIN pg_attribute a ON a.attrelid = x.indrelid AND a.attnum = ANY(x.indkey) " +
+      "WHERE x.indrelid = 'itemsinorder'::regclass AND x.indisprimary;";
+   static final List<String> SWITCH_ONLINE = Arrays.asList(
+      // a build that failed before leaves an invalid index behind.
+      "DROP INDEX CONCURRENTLY IF EXISTS itemsinorder_orderid_itemid;",
+      "CREATE UNIQUE INDEX CONCURRENTLY itemsinorder_orderid_itemid ON ItemsInOrder (orderID, itemID);",
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT IF EXISTS itemsinorder_itemid_not_null;",
+      "ALTER TABLE ItemsInOrder ADD CONSTRAINT itemsinorder_itemid_not_null CHECK (itemID IS NOT NULL) NOT VALID;",
+      "ALTER TABLE ItemsInOrder VALIDATE CONSTRAINT itemsinorder_itemid_not_null;",
+      "ALTER TABLE ItemsInOrder ALTER COLUMN itemID SET NOT NULL;",
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT itemsinorder_itemid_not_null;",
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT IF EXISTS itemsinorder_itemid_fkey;",
+      "ALTER TABLE ItemsInOrder ADD CONSTRAINT itemsinorder_itemid_fkey FOREIGN KEY (itemID) " +
+      "REFERENCES Items(itemID) ON DELETE CASCADE NOT VALID;",
+      "ALTER TABLE ItemsInOrder VALIDATE CONSTRAINT itemsinorder_itemid_fkey;");
+   static final List<String> SWITCH_KEYS = Arrays.asList(
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT IF EXISTS itemsinorder_itemname_fkey;",
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT itemsinorder_pkey;",
+      "ALTER TABLE ItemsInOrder ADD CONSTRAINT itemsinorder_pkey PRIMARY KEY USING INDEX itemsinorder_orderid_itemid;",
+      "ALTER TABLE ItemsInOrder ALTER COLUMN itemName DROP NOT NULL;");
+
+   static final List<String> CONTRACT = Arrays.asList(
+      "DROP TRIGGER IF EXISTS itemsinorder_item_id ON ItemsInOrder;",
+      "DROP FUNCTION IF EXISTS itemsinorder_item_id();",
+      "ALTER TABLE ItemsInOrder DROP COLUMN IF EXISTS itemName;");
+
+   // present once OrderLineMigration made itemName part of each line.
+   static final String UNIT_PRICE_COLUMN =
+      "SELECT 1 FROM information_schema.columns WHERE table_name = 'itemsinorder' AND column_name = 'unitprice';";
+
+   static final String COMPACT =
+      "VACUUM FULL ANALYZE ItemsInOrder;";
+
+   static final String ITEM_ID_NULLABLE =
+      "SELECT is_nullable FROM information_schema.columns " +
+      "WHERE table_name = 'itemsinorder' AND column_name = 'itemid';";
+   static final String TABLE_SIZES =
+      "SELECT COUNT(*), pg_relation_size('itemsinorder'), pg_indexes_size('itemsinorder'), " +
+      "pg_total_relation_size('itemsinorder'), AVG(pg_column_size(io.*)) FROM ItemsInOrder io;";
+   static final String INDEX_SIZES =
+      "SELECT c.relname, pg_relation_size(c.oid) FROM pg_index x JOIN pg_class c ON c.oid = x.indexrelid " +
+      "WHERE x.indrelid = 'itemsinorder'::regclass ORDER BY c.relname;";
+   static final String SAMPLE =
+      "SELECT orderID FROM FoodOrder ORDER BY random() LIMIT %d;";
+   // the joins of viewOrderInfo and of the item totals, on %s.
+   static final String ORDER_LINES =
+      "SELECT i.itemName, io.quantity, i.price, (i.price * io.quantity) AS subtotal " +
+      "FROM ItemsInOrder io JOIN Items i ON %s WHERE io.orderID = %d;";
+   static final String ITEM_TOTALS =
+      "EXPLAIN (ANALYZE) SELECT i.itemName, SUM(io.quantity) FROM ItemsInOrder io JOIN Items i ON %s GROUP BY i.itemName;";
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " +
+            ItemIdMigration.class.getName () +
+            " <dbname> <port> <user> expand|backfill|switch|contract|compact|report|all [batchSize] [pauseMs]");
+         return;
+      }//end if
+      String step = args[3];
+      int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 5000;
+      long pauseMs = args.length > 5 ? Long.parseLong(args[5]) : 20;
+
+      PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+      try {
+         if (step.equals("report")) {
+            print(Arrays.asList(report(esql)), Arrays.asList("now"));
+         } else if (step.equals("all")) {
+            Map<String, String> before = report(esql);
+            for (String s : STEPS)
+               run(esql, s, batchSize, pauseMs);
+            Map<String, String> after = report(esql);
+            print(Arrays.asList(before, after), Arrays.asList("before", "after"));
+         } else {
+            run(esql, step, batchSize, pauseMs);
+         }
+      } finally {
+         esql.cleanup();
+      }
+   }//end main
+
+   static void run(PizzaStore esql, String step, int batchSize, long pauseMs) throws Exception {
+      long start = System.nanoTime();
+      System.out.println("-- " + step);
+      esql.executeUpdate("SET lock_timeout = '" + LOCK_TIMEOUT + "';");
+      if (step.equals("expand")) {
+         for (String ddl : EXPAND)
+            ddl(esql, ddl);
+      } else if (step.equals("backfill")) {
+         backfill(esql, BACKFILL_RANGE, BACKFILL_BATCH, COUNT_MISSING, "an itemID", batchSize, pauseMs);
+      } else if (step.equals("switch")) {
+         List<String> key = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult(PRIMARY_KEY_COLUMNS))
+            key.add(row.get(0).trim());
+         if (key.contains("itemid")) {
+            System.out.println("primary key is already (orderID, itemID)");
+         } else {
+            long missing = Long.parseLong(esql.executeQueryAndReturnResult(COUNT_MISSING).get(0).get(0).trim());
+            if (missing > 0)
+               throw new SQLException(missing + " lines have no itemID yet, run backfill first");
+            for (String ddl : SWITCH_ONLINE)
+               ddl(esql, ddl);
+            swapKeys(esql);
+         }
+      } else if (step.equals("contract")) {
+         boolean snapshots = !esql.executeQueryAndReturnResult(UNIT_PRICE_COLUMN).isEmpty();
+         for (String ddl : CONTRACT.subList(0, snapshots ? CONTRACT.size() - 1 : CONTRACT.size()))
+            ddl(esql, ddl);
+         if (snapshots)
+            System.out.println("ItemsInOrder.itemName is kept: order lines snapshot it, see OrderLineMigration");
+      } else if (step.equals("compact")) {
+         esql.executeUpdate("SET lock_timeout = 0;");
+         ddl(esql, COMPACT);
+      } else {
+         throw new IllegalArgumentException("Unknown step: " + step);
+      }
+      System.out.println(String.format("-- %s done in %.1fs", step, (System.nanoTime() - start) / 1e9));
+   }//end run
+
+   /*
+    * Fills in a column of ItemsInOrder batchSize orders at a time.  Each
+    * batch is its own short transaction; lines inserted meanwhile are
+    * filled in by the migration's trigger.
+    *
+    * @param rangeQuery the first and last orderID of the lines to fill
+    * @param batchUpdate fills the lines of the orders in [%d, %d)
+    * @param countMissing counts the lines still to fill
+    * @param value what is filled in, for the progress messages
+    */
+   static void backfill(PizzaStore esql, String rangeQuery, String batchUpdate, String countMissing, String value,
+                        int batchSize, long pauseMs) throws Exception {
+      List<String> range = esql.executeQueryAndReturnResult(rangeQuery).get(0);
+      if (range.get(0) == null) {
+         System.out.println("every line has " + value);
+         return;
+      }
+      int first = Integer.parseInt(range.get(0).trim());
+      int last = Integer.parseInt(range.get(1).trim());
+      long updated = 0;
+      int batches = 0;
+      for (int from = first; from <= last; from += batchSize) {
+         updated += esql.executeUpdate(String.format(batchUpdate, from, from + batchSize));
+         if (++batches % 100 == 0)
+            System.out.println(String.format("   %d lines, up to order %d of %d", updated, from + batchSize - 1, last));
+         Thread.sleep(pauseMs);
+      }
+      long missing = Long.parseLong(esql.executeQueryAndReturnResult(countMissing).get(0).get(0).trim());
+      System.out.println(String.format("   %d lines in %d batches, %d left without %s", updated, batches, missing, value));
+   }//end backfill
+
+   /*
+    * Swaps the primary key in one transaction; the index and constraints
+    * it uses are already in place, so it only takes catalog updates.
+    */
+   private static void swapKeys(PizzaStore esql) throws Exception {
+      for (int attempt = 1; ; attempt++) {
+         try (Transaction tx = esql.beginTransaction(Transaction.READ_COMMITTED)) {
+            for (String ddl : SWITCH_KEYS) {
+               System.out.println(ddl);
+               esql.executeUpdate(ddl);
+            }
+            tx.commit();
+            return;
+         } catch (SQLException e) {
+            if (!isLockTimeout(e) || attempt >= DDL_ATTEMPTS)
+               throw e;
+            System.out.println("   lock timeout, retrying");
+            Thread.sleep(1000);
+         }
+      }
+   }//end swapKeys
+
+   /*
+    * Runs a statement outside a transaction, retrying when it could not
+    * get its lock within LOCK_TIMEOUT.
+    */
+   static void ddl(PizzaStore esql, String ddl) throws Exception {
+      System.out.println(ddl);
+      for (int attempt = 1; ; attempt++) {
+         try {
+            esql.executeUpdate(ddl);
+            return;
+         } catch (SQLException e) {
+            if (!isLockTimeout(e) || attempt >= DDL_ATTEMPTS)
+               throw e;
+            System.out.println("   lock timeout, retrying");
+            Thread.sleep(1000);
+         }
+      }
+   }//end ddl
+
+   private static boolean isLockTimeout(SQLException e) {
+      return "55P03".equals(e.getSQLState()) || String.valueOf(e.getMessage()).contains("lock timeout");
+   }
+
+   /*
+    * @return the size of ItemsInOrder and the latency of its joins, joined
+    * on itemID once it is the key and on itemName before
+    */
+   static Map<String, String> report(PizzaStore esql) throws SQLException {
+      Map<String, String> report = new LinkedHashMap<String, String>();
+      List<List<String>> nullable = esql.executeQueryAndReturnResult(ITEM_ID_NULLABLE);
+      boolean byID = !nullable.isEmpty() && nullable.get(0).get(0).trim().equals("NO");
+      String join = byID ? "io.itemID = i.itemID" : "io.itemName = i.itemName";
+      report.put("join", byID ? "itemID" : "itemName");
+
+      List<String> sizes = esql.executeQueryAndReturnResult(TABLE_SIZES).get(0);
+      report.put("rows", sizes.get(0).trim());
+      report.put("table", kilobytes(sizes.get(1)));
+      report.put("indexes", kilobytes(sizes.get(2)));
+      report.put("total", kilobytes(sizes.get(3)));
+      report.put("avg row", String.format("%.1f bytes", Double.parseDouble(sizes.get(4).trim())));
+      for (List<String> index : esql.executeQueryAndReturnResult(INDEX_SIZES))
+         report.put("  " + index.get(0).trim(), kilobytes(index.get(1)));
+
+      List<List<String>> sample = esql.executeQueryAndReturnResult(String.format(SAMPLE, SAMPLE_ORDERS));
+      long[] nanos = new long[sample.size()];
+      for (int pass = 0; pass < 2; pass++) {
+         // the first pass warms the cache.
+         for (int i = 0; i < sample.size(); i++) {
+            long start = System.nanoTime();
+            esql.executeQueryAndReturnResult(String.format(ORDER_LINES, join, Integer.parseInt(sample.get(i).get(0).trim())));
+            nanos[i] = System.nanoTime() - start;
+         }
+      }
+      Arrays.sort(nanos);
+      if (nanos.length > 0) {
+         report.put("order lines p50", String.format("%.3f ms", nanos[nanos.length / 2] / 1e6));
+         report.put("order lines p99", String.format("%.3f ms", nanos[Math.min(nanos.length - 1, nanos.length * 99 / 100)] / 1e6));
+      }
+
+      double best = Double.MAX_VALUE;
+      for (int run = 0; run < 3; run++) {
+         for (List<String> line : esql.executeQueryAndReturnResult(String.format(ITEM_TOTALS, join))) {
+            String text = line.get(0).trim();
+            if (text.startsWith("Execution Time:") || text.startsWith("Total runtime:"))
+               best = Math.min(best, Double.parseDouble(text.replaceAll("[^0-9.]", "")));
+         }
+      }
+      report.put("item totals", String.format("%.1f ms", best));
+      return report;
+   }//end report
+
+   private static String kilobytes(String bytes) {
+      return String.format("%d kB", Long.parseLong(bytes.trim()) / 1024);
+   }
+
+   private static void print(List<Map<String, String>> reports, List<String> titles) {
+      List<String> keys = new ArrayList<String>();
+      for (Map<String, String> report : reports)
+         for (String key : report.keySet())
+            if (!keys.contains(key))
+               keys.add(key);
+      StringBuilder header = new StringBuilder(String.format("%-34s", "ItemsInOrder"));
+      for (String title : titles)
+         header.append(String.format(" %14s", title));
+      System.out.println(header);
+      for (String key : keys) {
+         StringBuilder line = new StringBuilder(String.format("%-34s", key));
+         for (Map<String, String> report : reports)
+            line.append(String.format(" %14s", report.containsKey(key) ? report.get(key) : "-"));
+         System.out.println(line);
+      }
+   }//end print
+}//end ItemIdMigration
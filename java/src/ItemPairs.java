@@ -0,0 +1,223 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * This class counts how often each pair of menu items is bought in the
+ * same order, to suggest add-ons at checkout.  The counts are loaded once
+ * by a single scan of ItemsInOrder in orderID order, then kept up to date
+ * by every order placed, so suggesting never queries the database and
+ * nothing ever self-joins the order lines.
+ *
+ * Items get dense indexes in the order they are first seen.  The pair
+ * counts are one int[] of capacity * capacity cells, the pair (i, j) at
+ * i * capacity + j and again at j * capacity + i, so each item's row is
+ * contiguous: a suggestion adds up the rows of the items in the basket and
+ * picks the best k of the n items, in microseconds for a menu of any
+ * realistic size.  The array doubles when the menu outgrows it.
+ *
+ * Orders placed while the counts load are held back and counted once the
+ * scan is done, unless the scan already saw them by orderID; orders commit
+ * in no set orderID order, so one placed during the load can fall below
+ * orders the scan returned.
+ *
+ */
+public class ItemPairs {
+
+   private static final int INITIAL_CAPACITY = 64;
+
+   // index of each item name, and the name at each index.
+   private final Map<String, Integer> index = new HashMap<String, Integer>();
+   private String[] names = new String[INITIAL_CAPACITY];
+   private int size = 0;
+
+   private int capacity = INITIAL_CAPACITY;
+   // orders holding both item i and item j, at i * capacity + j.
+   private int[] pairs = new int[INITIAL_CAPACITY * INITIAL_CAPACITY];
+   // orders holding item i.
+   private int[] orders = new int[INITIAL_CAPACITY];
+
+   // orders placed during a load, by orderID; null when not loading.
+   private Map<Integer, List<String>> pending = null;
+
+   /**
+    * Counts a newly placed order.
+    *
+    * @param itemNames the order's items
+    */
+   public synchronized void add(int orderID, List<String> itemNames) {
+      if (this.pending != null)
+         this.pending.put(orderID, new ArrayList<String>(itemNames));
+      else
+         count(itemNames);
+   }//end add
+
+   /**
+    * Replaces the counts with those of every order stored.
+    *
+    * @param repository the orders to count
+    * @return the number of orders counted
+    * @throws java.sql.SQLException when failed to read the orders
+    */
+   public int load(OrderRepository repository) throws SQLException {
+      synchronized (this) {
+         this.pending = new LinkedHashMap<Integer, List<String>>();
+      }
+      ItemPairs loaded = new ItemPairs();
+      BitSet scanned = new BitSet();
+      int[] last = { 0, 0 };
+      List<String> basket = new ArrayList<String>();
+      try {
+         // lines come in orderID order, so each order's lines are adjacent.
+         repository.scanItems(0, Integer.MAX_VALUE, line -> {
+            int orderID = Integer.parseInt(line.get(0).trim());
+            if (orderID != last[0] && !basket.isEmpty()) {
+               loaded.count(basket);
+               basket.clear();
+               last[1]++;
+            }
+            last[0] = orderID;
+            scanned.set(orderID);
+            basket.add(line.get(1).trim());
+         });
+         if (!basket.isEmpty()) {
+            loaded.count(basket);
+            last[1]++;
+         }
+      } catch (SQLException e) {
+         synchronized (this) {
+            Map<Integer, List<String>> held = this.pending;
+            this.pending = null;
+            for (List<String> itemNames : held.values())
+               count(itemNames);
+         }
+         throw e;
+      }
+
+      synchronized (this) {
+         this.index.clear();
+         this.index.putAll(loaded.index);
+         this.names = loaded.names;
+         this.size = loaded.size;
+         this.capacity = loaded.capacity;
+         this.pairs = loaded.pairs;
+         this.orders = loaded.orders;
+         for (Map.Entry<Integer, List<String>> placed : this.pending.entrySet()) {
+            if (!scanned.get(placed.getKey()))
+               count(placed.getValue());
+         }
+         this.pending = null;
+      }
+      return last[1];
+   }//end load
+
+   /**
+    * Picks the items most often bought together with a basket: those
+    * sharing the most orders with its items, summed over the items, then
+    * the most ordered.
+    *
+    * @param basket the names of the items chosen so far
+    * @param k the most items to suggest
+    * @param available which items may be suggested, e.g. those still on
+    * the menu
+    * @return up to k item names, best first; none that is in the basket
+    */
+   public synchronized List<String> suggest(Collection<String> basket, int k, Predicate<String> available) {
+      int n = this.size;
+      long[] scores = new long[n];
+      boolean[] excluded = new boolean[n];
+      for (String itemName : basket) {
+         Integer i = this.index.get(itemName);
+         if (i == null || excluded[i])
+            continue;
+         excluded[i] = true;
+         int row = i * this.capacity;
+         for (int j = 0; j < n; j++)
+            scores[j] += this.pairs[row + j];
+      }
+
+      List<String> picked = new ArrayList<String>(k);
+      while (picked.size() < k) {
+         int best = -1;
+         for (int j = 0; j < n; j++) {
+            if (excluded[j] || scores[j] == 0)
+               continue;
+            if (best < 0 || scores[j] > scores[best]
+                || (scores[j] == scores[best] && this.orders[j] > this.orders[best]))
+               best = j;
+         }
+         if (best < 0)
+            break;
+         excluded[best] = true;
+         if (available.test(this.names[best]))
+            picked.add(this.names[best]);
+      }
+      return picked;
+   }//end suggest
+
+   // adds one order's items to the counts.
+   private void count(Collection<String> itemNames) {
+      int[] items = new int[itemNames.size()];
+      int distinct = 0;
+      for (String itemName : itemNames) {
+         int i = indexOf(itemName);
+         boolean seen = false;
+         for (int d = 0; d < distinct && !seen; d++)
+            seen = items[d] == i;
+         if (!seen)
+            items[distinct++] = i;
+      }
+      for (int a = 0; a < distinct; a++) {
+         int i = items[a];
+         this.orders[i]++;
+         for (int b = a + 1; b < distinct; b++) {
+            int j = items[b];
+            this.pairs[i * this.capacity + j]++;
+            this.pairs[j * this.capacity + i]++;
+         }
+      }
+   }//end count
+
+   // the index of an item, given the next one if it is new.
+   private int indexOf(String itemName) {
+      Integer i = this.index.get(itemName);
+      if (i != null)
+         return i;
+      if (this.size == this.capacity)
+         grow();
+      this.names[this.size] = itemName;
+      this.index.put(itemName, this.size);
+      return this.size++;
+   }
+
+   private void grow() {
+      int grown = this.capacity * 2;
+      int[] pairs = new int[grown * grown];
+      for (int i = 0; i < this.size; i++)
+         System.arraycopy(this.pairs, i * this.capacity, pairs, i * grown, this.size);
+      this.pairs = pairs;
+      this.orders = Arrays.copyOf(this.orders, grown);
+      this.names = Arrays.copyOf(this.names, grown);
+      this.capacity = grown;
+   }//end grow
+}//end ItemPairs
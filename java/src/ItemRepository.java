@@ -0,0 +1,170 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * This interface defines the data access the menu handlers need for the
+ * Items table.
+ *
+ */
+public interface ItemRepository {
+
+   // columns that update() may change.
+   String INGREDIENTS = "ingredients";
+   String TYPE_OF_ITEM = "typeOfItem";
+   String PRICE = "price";
+   String DESCRIPTION = "description";
+
+   /**
+    * The changes a menu import made, or would make.
+    */
+   final class MenuDiff {
+      public final List<MenuSearchIndex.Item> added = new ArrayList<MenuSearchIndex.Item>();
+      // {itemName, column, old value, new value}, one per changed column.
+      public final List<String[]> changed = new ArrayList<String[]>();
+      // item name to the number of order lines using it.
+      public final Map<String, Integer> deleted = new LinkedHashMap<String, Integer>();
+      public int changedItems = 0;
+      public int unchanged = 0;
+
+      /**
+       * Records the columns in which an item differs from its import.
+       */
+      public void compare(MenuSearchIndex.Item before, MenuSearchIndex.Item after) {
+         int columns = this.changed.size();
+         column(before.itemName, INGREDIENTS, before.ingredients, after.ingredients);
+         column(before.itemName, TYPE_OF_ITEM, before.typeOfItem, after.typeOfItem);
+         column(before.itemName, PRICE, String.format("%.2f", before.price), String.format("%.2f", after.price));
+         column(before.itemName, DESCRIPTION, before.description, after.description);
+         if (this.changed.size() > columns)
+            ++this.changedItems;
+      }
+
+      private void column(String itemName, String column, String before, String after) {
+         if (!Objects.equals(before, after))
+            this.changed.add(new String[] { itemName, column, before, after });
+      }
+
+      public boolean isEmpty() {
+         return this.added.isEmpty() && this.changed.isEmpty() && this.deleted.isEmpty();
+      }
+
+      /**
+       * @return the changes as [change, itemName, column, old, new] records
+       */
+      public List<List<String>> toRecords() {
+         List<List<String>> records = new ArrayList<List<String>>();
+         for (MenuSearchIndex.Item item : this.added)
+            records.add(Arrays.asList("added", item.itemName, "", "", String.format("%.2f", item.price)));
+         for (String[] change : this.changed)
+            records.add(Arrays.asList("changed", change[0], change[1], change[2], change[3]));
+         for (Map.Entry<String, Integer> item : this.deleted.entrySet())
+            records.add(Arrays.asList("deleted", item.getKey(), "order lines", String.valueOf(item.getValue()), ""));
+         return records;
+      }
+   }//end MenuDiff
+
+   /**
+    * @return every item on the menu
+    */
+   List<MenuSearchIndex.Item> findAll() throws SQLException;
+
+   /**
+    * @return every item on the menu, including changes just committed,
+    * i.e. never from a lagging replica
+    */
+   List<MenuSearchIndex.Item> findAllCurrent() throws SQLException;
+
+   /**
+    * @return every item, ordered by price
+    */
+   List<MenuSearchIndex.Item> findAllByPrice(boolean ascending) throws SQLException;
+
+   /**
+    * @return the items costing at most maxPrice
+    */
+   List<MenuSearchIndex.Item> findByMaxPrice(double maxPrice) throws SQLException;
+
+   /**
+    * @return the item with exactly this name, or null
+    */
+   MenuSearchIndex.Item find(String itemName) throws SQLException;
+
+   /**
+    * Adds a new item.
+    *
+    * @throws java.sql.SQLException when the item exists or the insert failed
+    */
+   void add(MenuSearchIndex.Item item) throws SQLException;
+
+   /**
+    * Changes one column of an item.
+    *
+    * @param column one of INGREDIENTS, TYPE_OF_ITEM, PRICE or DESCRIPTION
+    * @param value the new value; a number for PRICE
+    */
+   void update(String itemName, String column, String value) throws SQLException;
+
+   /**
+    * @return the number of orders containing the item
+    */
+   int countOrdersUsing(String itemName) throws SQLException;
+
+   /**
+    * Deletes an item from the menu, provided the number of orders using it
+    * is still the one the caller saw.  Order lines using it stay, with the
+    * name and price they were bought at.
+    *
+    * @param expectedOrderCount the count the deletion was confirmed for
+    * @return -1 if the item does not exist, otherwise the number of orders
+    * using it; the item was deleted only if this equals expectedOrderCount
+    */
+   int delete(String itemName, int expectedOrderCount) throws SQLException;
+
+   /**
+    * Makes the menu match the given items in one transaction: new items
+    * are added, items that differ are updated and, if deleteMissing,
+    * items not given are deleted; order lines using them stay.
+    *
+    * @param items the whole new menu, each item once; see checkNames
+    * @param deleteMissing whether to delete the items not given
+    * @param apply false to only work out the changes and roll them back
+    * @return the changes made, or that would be made
+    */
+   MenuDiff importMenu(List<MenuSearchIndex.Item> items, boolean deleteMissing, boolean apply) throws SQLException;
+
+   /**
+    * Fails, naming them, if some items share an itemName: an import could
+    * only keep one of them, and not a predictable one.
+    */
+   static void checkNames(List<MenuSearchIndex.Item> items) throws SQLException {
+      Set<String> names = new HashSet<String>();
+      Set<String> duplicates = new TreeSet<String>();
+      for (MenuSearchIndex.Item item : items) {
+         if (!names.add(item.itemName))
+            duplicates.add(item.itemName);
+      }
+      if (!duplicates.isEmpty())
+         throw new SQLException("Items named more than once: " + String.join(", ", duplicates));
+   }//end checkNames
+}//end ItemRepository
@@ -0,0 +1,603 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * This class holds the Postgres implementations of the repositories.  All
+ * SQL issued by the menu handlers lives here, as the templates below, and
+ * runs through the execute* methods of a PizzaStore so that transactions
+ * and read replica routing apply.
+ *
+ */
+public class JdbcStorage {
+
+   static final String INSERT_USER =
+      "INSERT INTO Users (login, password, role, favoriteItems, phoneNum) " +
+      "VALUES ('%s', '%s', '%s', %s, '%s');";
+   static final String AUTHENTICATE_USER =
+      "SELECT login FROM Users WHERE login = '%s' AND password = '%s';";
+   static final String FIND_PROFILE =
+      "SELECT favoriteItems, phoneNum FROM Users WHERE login = '%s';";
+   static final String FIND_ROLE =
+      "SELECT role FROM Users WHERE login = '%s';";
+   static final String UPDATE_PASSWORD =
+      "UPDATE Users SET password = '%s' WHERE login = '%s';";
+   static final String UPDATE_PHONE_NUM =
+      "UPDATE Users SET phoneNum = '%s' WHERE login = '%s';";
+   static final String UPDATE_FAVORITE_ITEMS =
+      "UPDATE Users SET favoriteItems = '%s' WHERE login = '%s';";
+
+   static final String ITEM_COLUMNS =
+      "SELECT itemName, ingredients, typeOfItem, price, description FROM Items";
+   static final String FIND_ALL_ITEMS =
+      ITEM_COLUMNS + ";";
+   static final String FIND_ALL_ITEMS_BY_PRICE =
+      ITEM_COLUMNS + " ORDER BY price %s;";
+   static final String FIND_ITEMS_BY_MAX_PRICE =
+      ITEM_COLUMNS + " WHERE price <= %.2f;";
+   static final String FIND_ITEM =
+      ITEM_COLUMNS + " WHERE itemName = '%s';";
+   static final String LOCK_ITEM =
+      "SELECT itemName FROM Items WHERE itemName = '%s' FOR UPDATE;";
+   static final String INSERT_ITEM =
+      "INSERT INTO Items (itemName, ingredients, typeOfItem, price, description) " +
+      "VALUES ('%s', '%s', '%s', %.2f, '%s');";
+   static final String UPDATE_ITEM_TEXT =
+      "UPDATE Items SET %s = '%s' WHERE itemName = '%s';";
+   static final String UPDATE_ITEM_PRICE =
+      "UPDATE Items SET price = %.2f WHERE itemName = '%s';";
+   static final String COUNT_ORDERS_USING_ITEM =
+      "SELECT COUNT(*) FROM ItemsInOrder io JOIN Items i ON io.itemID = i.itemID WHERE i.itemName = '%s';";
+   static final String DELETE_ITEM =
+      "DELETE FROM Items WHERE itemName = '%s';";
+   // a menu import is staged in a temporary table and merged in one
+   // statement; staged rows have no itemID, Items numbers the new ones.
+   static final String CREATE_ITEM_IMPORT =
+      "CREATE TEMP TABLE item_import ( itemName varchar(50) NOT NULL, ingredients varchar(300) NOT NULL, " +
+      "typeOfItem varchar(30) NOT NULL, price decimal(10,2) NOT NULL, description text, " +
+      "PRIMARY KEY(itemName) ) ON COMMIT DROP;";
+   static final String INSERT_ITEM_IMPORT =
+      "INSERT INTO item_import (itemName, ingredients, typeOfItem, price, description) VALUES ";
+   static final String ITEM_IMPORT_VALUES =
+      "('%s', '%s', '%s', %.2f, %s)";
+   // Every part sees the menu as it was, so the old values of changed
+   // items are read back from Items itself; %s is TRUE to delete the items
+   // missing from the import.
+   static final String MERGE_ITEM_IMPORT =
+      "WITH changed AS (" +
+         "UPDATE Items i SET ingredients = s.ingredients, typeOfItem = s.typeOfItem, " +
+         "price = s.price, description = s.description " +
+         "FROM item_import s WHERE i.itemName = s.itemName " +
+         "AND (i.ingredients, i.typeOfItem, i.price, i.description) IS DISTINCT FROM " +
+         "(s.ingredients, s.typeOfItem, s.price, s.description) " +
+         "RETURNING i.itemName), " +
+      "added AS (" +
+         "INSERT INTO Items (itemName, ingredients, typeOfItem, price, description) " +
+         "SELECT s.itemName, s.ingredients, s.typeOfItem, s.price, s.description FROM item_import s " +
+         "WHERE NOT EXISTS (SELECT 1 FROM Items i WHERE i.itemName = s.itemName) " +
+         "ON CONFLICT (itemName) DO NOTHING " +
+         "RETURNING itemName), " +
+      "removed AS (" +
+         "DELETE FROM Items i WHERE %s " +
+         "AND NOT EXISTS (SELECT 1 FROM item_import s WHERE s.itemName = i.itemName) " +
+         "RETURNING i.itemName, i.itemID) " +
+      "SELECT 'added', a.itemName, NULL, NULL, NULL, NULL, 0 FROM added a " +
+      "UNION ALL " +
+      "SELECT 'changed', i.itemName, i.ingredients, i.typeOfItem, i.price, i.description, 0 " +
+      "FROM changed c JOIN Items i ON i.itemName = c.itemName " +
+      "UNION ALL " +
+      "SELECT 'deleted', r.itemName, NULL, NULL, NULL, NULL, " +
+      "(SELECT COUNT(*) FROM ItemsInOrder io WHERE io.itemID = r.itemID) FROM removed r;";
+
+   static final String FIND_ITEM_IDS =
+      "SELECT itemID, itemName, price FROM Items;";
+
+   static final String FIND_STORES_BY_REVIEW_SCORE =
+      "SELECT storeID, address, city, state, isOpen, reviewScore, reviewCount " +
+      "FROM Store " +
+      "ORDER BY reviewScore DESC NULLS LAST, storeID;";
+   // The review and the store's running totals are written by one
+   // statement; the UPDATE locks the Store row and adds to its latest
+   // version, so concurrent reviews of a store all count.  Nothing is
+   // returned if the order was already reviewed.
+   static final String REVIEW_ORDER =
+      "WITH review AS (" +
+         "INSERT INTO Review (orderID, login, storeID, rating, reviewComment, reviewTimestamp) " +
+         "VALUES (%d, '%s', %d, %d, %s, NOW()) " +
+         "ON CONFLICT (orderID) DO NOTHING " +
+         "RETURNING storeID, rating) " +
+      "UPDATE Store s SET reviewCount = s.reviewCount + 1, reviewSum = s.reviewSum + r.rating, " +
+      "reviewScore = (" + StoreRepository.PRIOR_WEIGHT + " * COALESCE(s.priorScore, " +
+      StoreRepository.DEFAULT_PRIOR + ") + s.reviewSum + r.rating) / (" +
+      StoreRepository.PRIOR_WEIGHT + " + s.reviewCount + 1) " +
+      "FROM review r WHERE s.storeID = r.storeID " +
+      "RETURNING s.storeID, s.reviewScore, s.reviewCount;";
+
+   static final String FIND_ACTIVE_PROMOTIONS =
+      "SELECT p.promoID, p.description, p.storeID, p.dayOfWeek, p.couponCode, p.percentOff, p.amountOff, " +
+      "p.validFrom, p.validUntil, pi.itemName, pi.typeOfItem, pi.quantity " +
+      "FROM Promotion p LEFT JOIN PromotionItem pi ON pi.promoID = p.promoID " +
+      "WHERE p.validUntil IS NULL OR p.validUntil > NOW() " +
+      "ORDER BY p.promoID;";
+
+   static final String MAX_ORDER_ID =
+      "SELECT MAX(orderID) FROM FoodOrder;";
+   static final String INSERT_ORDER =
+      "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+      "VALUES (%d, '%s', %d, %.2f, NOW(), 'Pending');";
+   // Lines are given by item name and stored by itemID, with the item's
+   // name and the price the order was totalled at; a name not on the menu
+   // gives no row, see insertOrderItems.
+   static final String INSERT_ORDER_ITEMS =
+      "INSERT INTO ItemsInOrder (orderID, itemID, itemName, unitPrice, quantity) " +
+      "SELECT v.orderID, i.itemID, i.itemName, v.unitPrice, v.quantity " +
+      "FROM (VALUES %s) AS v (orderID, itemName, quantity, unitPrice) " +
+      "JOIN Items i ON i.itemName = v.itemName;";
+   static final String ORDER_ITEM_VALUES =
+      "(%d, '%s', %d, %.2f)";
+   static final String LATEST_ORDER =
+      "SELECT orderID, storeID FROM FoodOrder WHERE login = '%s' " +
+      "ORDER BY orderTimestamp DESC, orderID DESC LIMIT 1";
+   static final String OWN_ORDER =
+      "SELECT orderID, storeID FROM FoodOrder WHERE login = '%s' AND orderID = %d";
+   // Items removed from the menu since the original order are skipped.
+   static final String REORDER =
+      "WITH src AS (%s), " +
+      "lines AS (" +
+         "SELECT io.itemID, i.itemName, io.quantity, i.price " +
+         "FROM ItemsInOrder io JOIN src ON io.orderID = src.orderID " +
+         "JOIN Items i ON io.itemID = i.itemID), " +
+      "newOrder AS (" +
+         "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+         "SELECT nextval('order_id_seq'), '%s', src.storeID, " +
+         "(SELECT SUM(price * quantity) FROM lines), NOW(), 'Pending' " +
+         "FROM src WHERE EXISTS (SELECT 1 FROM lines) " +
+         "RETURNING orderID, storeID, totalPrice), " +
+      "newItems AS (" +
+         "INSERT INTO ItemsInOrder (orderID, itemID, itemName, unitPrice, quantity) " +
+         "SELECT newOrder.orderID, lines.itemID, lines.itemName, lines.price, lines.quantity FROM newOrder, lines " +
+         "RETURNING itemID, quantity) " +
+      "SELECT n.orderID, n.storeID, n.totalPrice, l.itemName, ni.quantity " +
+      "FROM newOrder n, newItems ni JOIN lines l ON l.itemID = ni.itemID;";
+   static final String FIND_ORDERS_BY_LOGIN =
+      "SELECT o.orderID, o.totalPrice, o.orderTimestamp, o.orderStatus, s.storeID, s.address " +
+      "FROM FoodOrder o JOIN STORE s ON o.storeID = s.storeID " +
+      "WHERE o.login = '%s' " +
+      "ORDER BY o.orderTimestamp DESC";
+   static final String FIND_ORDER =
+      "SELECT orderID, login, orderStatus FROM FoodOrder WHERE orderID = %d;";
+   static final String FIND_ORDER_DETAILS =
+      "SELECT o.orderID, o.login, o.totalPrice, o.orderTimestamp, o.orderStatus, " +
+      "s.storeID, s.address, s.city, s.state " +
+      "FROM FoodOrder o JOIN Store s ON o.storeID = s.storeID " +
+      "WHERE o.orderID = %d;";
+   // lines carry the name and price they were bought at, so past orders
+   // read the same after menu changes and need no join.
+   static final String FIND_ORDER_ITEMS =
+      "SELECT itemName, quantity, unitPrice, (unitPrice * quantity) AS subtotal " +
+      "FROM ItemsInOrder WHERE orderID = %d;";
+   static final String UPDATE_ORDER_STATUS =
+      "UPDATE FoodOrder SET orderStatus = '%s' WHERE orderID = %d;";
+   static final String MOVE_ORDERS_STATUS =
+      "UPDATE FoodOrder SET orderStatus = '%s' " +
+      "WHERE orderID IN (%s) AND orderStatus = '%s' " +
+      "RETURNING orderID;";
+   static final String FIND_ORDERS_BY_STATUS =
+      "SELECT orderID, storeID, orderTimestamp FROM FoodOrder " +
+      "WHERE orderStatus = '%s' " +
+      "ORDER BY orderTimestamp, orderID;";
+   static final String FIND_ORDER_STATUSES =
+      "SELECT orderID, orderStatus FROM FoodOrder WHERE orderID IN (%s);";
+   // new orderIDs; sharded ones are spread over the shards, see ShardedOrders.
+   static final String NEXT_ORDER_ID =
+      "SELECT nextval('order_id_seq');";
+   static final String RAISE_ORDER_ID_SEQUENCE =
+      "SELECT setval('order_id_seq', GREATEST((SELECT last_value FROM order_id_seq), %d));";
+   static final String LAST_ORDER_ID =
+      "SELECT CASE WHEN is_called THEN last_value ELSE last_value - 1 END FROM order_id_seq;";
+   static final String FIND_SHARD_ORDERS_BY_LOGIN =
+      "SELECT orderID, totalPrice, orderTimestamp, orderStatus, storeID FROM FoodOrder " +
+      "WHERE login = '%s' " +
+      "ORDER BY orderTimestamp DESC, orderID DESC";
+   static final String FIND_SHARD_ORDER_DETAILS =
+      "SELECT orderID, login, totalPrice, orderTimestamp, orderStatus, storeID " +
+      "FROM FoodOrder WHERE orderID = %d;";
+   static final String INSERT_SHARD_ORDER_ITEMS =
+      "INSERT INTO ItemsInOrder (orderID, itemID, itemName, unitPrice, quantity) VALUES ";
+   static final String SHARD_ORDER_ITEM_VALUES =
+      "(%d, %s, '%s', %s, %d)";
+   static final String SCAN_ORDERS =
+      "SELECT orderID, login, storeID, totalPrice, orderTimestamp, orderStatus " +
+      "FROM FoodOrder WHERE orderID > %d ORDER BY orderID;";
+   static final String SCAN_ORDER_ITEMS =
+      "SELECT orderID, itemName, quantity FROM ItemsInOrder " +
+      "WHERE orderID > %d AND orderID <= %d ORDER BY orderID;";
+
+   // rows fetched per round trip by the scans.
+   static final int SCAN_FETCH_SIZE = 10000;
+
+   // attempts made at a checkout before giving up on contention.
+   static final int CHECKOUT_ATTEMPTS = 8;
+
+   /*
+    * Escapes a value for use inside a quoted SQL string literal.
+    **/
+   static String esc(String value) {
+      return value == null ? null : value.replace("'", "''");
+   }
+
+   static String trim(String value) {
+      return value == null ? null : value.trim();
+   }
+
+   static MenuSearchIndex.Item toItem(List<String> row) {
+      return new MenuSearchIndex.Item(row.get(0).trim(), row.get(1), trim(row.get(2)),
+                                      Double.parseDouble(row.get(3)), row.get(4));
+   }
+
+   static List<MenuSearchIndex.Item> toItems(List<List<String>> rows) {
+      List<MenuSearchIndex.Item> items = new ArrayList<MenuSearchIndex.Item>(rows.size());
+      for (List<String> row : rows)
+         items.add(toItem(row));
+      return items;
+   }
+
+   /*
+    * Inserts all the lines of an order with one statement, failing like
+    * the foreign key would if an item is not on the menu.
+    **/
+   static void insertOrderItems(PizzaStore esql, int orderID, List<String> itemNames, List<Integer> quantities,
+                                List<Double> unitPrices) throws SQLException {
+      StringBuilder values = new StringBuilder();
+      for (int i = 0; i < itemNames.size(); i++) {
+         values.append(i == 0 ? "" : ", ").append(String.format(
+            ORDER_ITEM_VALUES, orderID, esc(itemNames.get(i)), quantities.get(i), unitPrices.get(i)));
+      }
+      if (esql.executeUpdate(String.format(INSERT_ORDER_ITEMS, values)) < itemNames.size())
+         throw new SQLException("insert or update on table \"itemsinorder\" violates foreign key constraint (itemName)");
+   }
+
+   /*
+    * @return one INSERT of all the lines of an order on a shard, which has
+    * no Items table to look the names up in
+    * @param menu [itemID, itemName, price] of each line's item, see itemIDs
+    **/
+   static String insertShardOrderItems(int orderID, List<List<String>> menu, List<Integer> quantities) {
+      StringBuilder insertItemsQuery = new StringBuilder(INSERT_SHARD_ORDER_ITEMS);
+      for (int i = 0; i < menu.size(); i++) {
+         List<String> item = menu.get(i);
+         insertItemsQuery.append(i == 0 ? "" : ", ").append(String.format(SHARD_ORDER_ITEM_VALUES,
+            orderID, item.get(0).trim(), esc(item.get(1).trim()), item.get(2).trim(), quantities.get(i)));
+      }
+      return insertItemsQuery.append(";").toString();
+   }
+
+   /*
+    * @return [itemID, itemName, price] of every item by itemName
+    **/
+   static Map<String, List<String>> itemIDs(PizzaStore esql) throws SQLException {
+      Map<String, List<String>> items = new HashMap<String, List<String>>();
+      for (List<String> row : esql.executeQueryAndReturnResult(FIND_ITEM_IDS))
+         items.put(row.get(1).trim(), row);
+      return items;
+   }
+
+   /*
+    * Runs transactional work, reporting any failure as an SQLException.
+    **/
+   static <T> T retrying(PizzaStore esql, int isolation, Transaction.Work<T> work) throws SQLException {
+      try {
+         return esql.inTransactionWithRetry(isolation, CHECKOUT_ATTEMPTS, work);
+      } catch (SQLException e) {
+         throw e;
+      } catch (Exception e) {
+         throw new SQLException(e.getMessage());
+      }
+   }
+
+   /**
+    * Users on Postgres.
+    */
+   public static class Users implements UserRepository {
+      private final PizzaStore esql;
+
+      public Users(PizzaStore esql) {
+         this.esql = esql;
+      }
+
+      public void create(String login, String password, String role, String favoriteItems, String phoneNum) throws SQLException {
+         esql.executeUpdate(String.format(INSERT_USER, esc(login), esc(password), esc(role),
+            favoriteItems == null ? "NULL" : "'" + esc(favoriteItems) + "'", esc(phoneNum)));
+      }
+
+      public boolean authenticate(String login, String password) throws SQLException {
+         return !esql.executeQueryAndReturnResult(String.format(AUTHENTICATE_USER, esc(login), esc(password))).isEmpty();
+      }
+
+      public List<String> findProfile(String login) throws SQLException {
+         List<List<String>> result = esql.executeQueryAndReturnResult(String.format(FIND_PROFILE, esc(login)));
+         return result.isEmpty() ? null : result.get(0);
+      }
+
+      public String findRole(String login) throws SQLException {
+         List<List<String>> result = esql.executeQueryAndReturnResult(String.format(FIND_ROLE, esc(login)));
+         return result.isEmpty() ? null : trim(result.get(0).get(0));
+      }
+
+      public void updatePassword(String login, String password) throws SQLException {
+         esql.executeUpdate(String.format(UPDATE_PASSWORD, esc(password), esc(login)));
+      }
+
+      public void updatePhoneNum(String login, String phoneNum) throws SQLException {
+         esql.executeUpdate(String.format(UPDATE_PHONE_NUM, esc(phoneNum), esc(login)));
+      }
+
+      public void updateFavoriteItems(String login, String favoriteItems) throws SQLException {
+         esql.executeUpdate(String.format(UPDATE_FAVORITE_ITEMS, esc(favoriteItems), esc(login)));
+      }
+   }//end Users
+
+   /**
+    * Items on Postgres.  Menu listings are browse-only and may be served
+    * by the read replica.
+    */
+   public static class Items implements ItemRepository {
+      private final PizzaStore esql;
+
+      public Items(PizzaStore esql) {
+         this.esql = esql;
+      }
+
+      public List<MenuSearchIndex.Item> findAll() throws SQLException {
+         return toItems(esql.executeReadQueryAndReturnResult(FIND_ALL_ITEMS, null));
+      }
+
+      public List<MenuSearchIndex.Item> findAllCurrent() throws SQLException {
+         return toItems(esql.executeQueryAndReturnResult(FIND_ALL_ITEMS));
+      }
+
+      public List<MenuSearchIndex.Item> findAllByPrice(boolean ascending) throws SQLException {
+         return toItems(esql.executeReadQueryAndReturnResult(
+            String.format(FIND_ALL_ITEMS_BY_PRICE, ascending ? "ASC" : "DESC"), null));
+      }
+
+      public List<MenuSearchIndex.Item> findByMaxPrice(double maxPrice) throws SQLException {
+         return toItems(esql.executeReadQueryAndReturnResult(String.format(FIND_ITEMS_BY_MAX_PRICE, maxPrice), null));
+      }
+
+      public MenuSearchIndex.Item find(String itemName) throws SQLException {
+         List<List<String>> result = esql.executeQueryAndReturnResult(String.format(FIND_ITEM, esc(itemName)));
+         return result.isEmpty() ? null : toItem(result.get(0));
+      }
+
+      public void add(MenuSearchIndex.Item item) throws SQLException {
+         esql.executeUpdate(String.format(INSERT_ITEM, esc(item.itemName), esc(item.ingredients),
+            esc(item.typeOfItem), item.price, esc(item.description)));
+      }
+
+      public void update(String itemName, String column, String value) throws SQLException {
+         if (column.equals(PRICE)) {
+            esql.executeUpdate(String.format(UPDATE_ITEM_PRICE, Double.parseDouble(value), esc(itemName)));
+         }
+         else if (column.equals(INGREDIENTS) || column.equals(TYPE_OF_ITEM) || column.equals(DESCRIPTION)) {
+            esql.executeUpdate(String.format(UPDATE_ITEM_TEXT, column, esc(value), esc(itemName)));
+         }
+         else {
+            throw new SQLException("Unknown item column: " + column);
+         }
+      }
+
+      public int countOrdersUsing(String itemName) throws SQLException {
+         return Integer.parseInt(esql.executeQueryAndReturnResult(
+            String.format(COUNT_ORDERS_USING_ITEM, esc(itemName))).get(0).get(0));
+      }
+
+      /*
+       * The item row is locked first, so no order can start using it
+       * between the recount and the delete.
+       */
+      public int delete(String itemName, int expectedOrderCount) throws SQLException {
+         return retrying(esql, Transaction.READ_COMMITTED, tx -> {
+            if (esql.executeQueryAndReturnResult(String.format(LOCK_ITEM, esc(itemName))).isEmpty())
+               return -1;
+            int currentCount = countOrdersUsing(itemName);
+            if (currentCount == expectedOrderCount)
+               esql.executeUpdate(String.format(DELETE_ITEM, esc(itemName)));
+            return currentCount;
+         });
+      }
+
+      /*
+       * Three statements however long the menu: create the staging table,
+       * fill it with one multi-row insert, and merge it.
+       */
+      public MenuDiff importMenu(List<MenuSearchIndex.Item> items, boolean deleteMissing, boolean apply) throws SQLException {
+         ItemRepository.checkNames(items);
+         Map<String, MenuSearchIndex.Item> imported = new HashMap<String, MenuSearchIndex.Item>();
+         StringBuilder staging = new StringBuilder(INSERT_ITEM_IMPORT);
+         for (MenuSearchIndex.Item item : items) {
+            if (!imported.isEmpty())
+               staging.append(", ");
+            staging.append(String.format(ITEM_IMPORT_VALUES, esc(item.itemName), esc(item.ingredients),
+               esc(item.typeOfItem), item.price, item.description == null ? "NULL" : "'" + esc(item.description) + "'"));
+            imported.put(item.itemName, item);
+         }
+         String stagingQuery = staging.append(";").toString();
+         return retrying(esql, Transaction.READ_COMMITTED, tx -> {
+            MenuDiff diff = new MenuDiff();
+            esql.executeUpdate(CREATE_ITEM_IMPORT);
+            if (!items.isEmpty())
+               esql.executeUpdate(stagingQuery);
+            for (List<String> row : esql.executeQueryAndReturnResult(
+                  String.format(MERGE_ITEM_IMPORT, deleteMissing ? "TRUE" : "FALSE"))) {
+               String itemName = row.get(1).trim();
+               if (row.get(0).equals("added"))
+                  diff.added.add(imported.get(itemName));
+               else if (row.get(0).equals("changed"))
+                  diff.compare(toItem(row.subList(1, 6)), imported.get(itemName));
+               else
+                  diff.deleted.put(itemName, Integer.parseInt(row.get(6)));
+            }
+            diff.unchanged = items.size() - diff.added.size() - diff.changedItems;
+            if (!apply)
+               tx.rollback();
+            return diff;
+         });
+      }
+   }//end Items
+
+   /**
+    * Stores on Postgres, read from the replica when there is one.
+    */
+   public static class Stores implements StoreRepository {
+      private final PizzaStore esql;
+
+      public Stores(PizzaStore esql) {
+         this.esql = esql;
+      }
+
+      public List<List<String>> findAllByReviewScore() throws SQLException {
+         return esql.executeReadQueryAndReturnResult(FIND_STORES_BY_REVIEW_SCORE, null);
+      }
+
+      public List<String> review(int orderID, String login, int storeID, int rating, String comment) throws SQLException {
+         List<List<String>> result = esql.executeQueryAndReturnResult(String.format(REVIEW_ORDER, orderID,
+            esc(login), storeID, rating, comment == null ? "NULL" : "'" + esc(comment) + "'"));
+         return result.isEmpty() ? null : result.get(0);
+      }
+   }//end Stores
+
+   /**
+    * Promotions on Postgres, read from the replica when there is one.
+    */
+   public static class Promotions implements PromotionRepository {
+      private final PizzaStore esql;
+
+      public Promotions(PizzaStore esql) {
+         this.esql = esql;
+      }
+
+      public List<List<String>> findActive() throws SQLException {
+         return esql.executeReadQueryAndReturnResult(FIND_ACTIVE_PROMOTIONS, null);
+      }
+   }//end Promotions
+
+   /**
+    * Orders on Postgres.  History reads go to the replica unless the user
+    * ordered within the read-your-writes window.
+    */
+   public static class Orders implements OrderRepository {
+      private final PizzaStore esql;
+
+      public Orders(PizzaStore esql) {
+         this.esql = esql;
+      }
+
+      /*
+       * Writes the order and all of its items as one transaction: one
+       * commit per checkout, and no order is left without its items.  The
+       * orderID comes from order_id_seq, so racing checkouts never take the
+       * same one.
+       */
+      public int place(String login, int storeID, List<String> itemNames, List<Integer> quantities,
+                       List<Double> unitPrices, double totalPrice) throws SQLException {
+         int orderID = retrying(esql, Transaction.READ_COMMITTED, tx -> {
+            int newOrderID = Integer.parseInt(esql.executeQueryAndReturnResult(NEXT_ORDER_ID).get(0).get(0).trim());
+            esql.executeUpdate(String.format(INSERT_ORDER, newOrderID, esc(login), storeID, totalPrice));
+            insertOrderItems(esql, newOrderID, itemNames, quantities, unitPrices);
+            return newOrderID;
+         });
+         esql.noteWrite(login);
+         return orderID;
+      }
+
+      /*
+       * The new FoodOrder and its ItemsInOrder rows are written by a single
+       * statement, so a repeat order is one round trip no matter how many
+       * items it has.  The orderID comes from order_id_seq.
+       */
+      public List<List<String>> reorder(String login, Integer orderID) throws SQLException {
+         String sourceOrder = orderID == null
+            ? String.format(LATEST_ORDER, esc(login))
+            : String.format(OWN_ORDER, esc(login), orderID);
+         String reorderQuery = String.format(REORDER, sourceOrder, esc(login));
+         List<List<String>> placed = retrying(esql, Transaction.READ_COMMITTED,
+            tx -> esql.executeQueryAndReturnResult(reorderQuery));
+         esql.noteWrite(login);
+         return placed;
+      }
+
+      public List<List<String>> findByLogin(String login, int limit) throws SQLException {
+         String query = String.format(FIND_ORDERS_BY_LOGIN, esc(login))
+            + (limit > 0 ? " LIMIT " + limit : "") + ";";
+         return esql.executeReadQueryAndReturnResult(query, login);
+      }
+
+      public List<String> find(int orderID) throws SQLException {
+         List<List<String>> result = esql.executeQueryAndReturnResult(String.format(FIND_ORDER, orderID));
+         return result.isEmpty() ? null : result.get(0);
+      }
+
+      /*
+       * Order lookups come after find() saw the order on the primary, so a
+       * replica that does not have it yet is only lagging: ask the primary.
+       */
+      public List<List<String>> findDetails(int orderID) throws SQLException {
+         return readOrPrimary(String.format(FIND_ORDER_DETAILS, orderID));
+      }
+
+      public List<List<String>> findItems(int orderID) throws SQLException {
+         return readOrPrimary(String.format(FIND_ORDER_ITEMS, orderID));
+      }
+
+      private List<List<String>> readOrPrimary(String query) throws SQLException {
+         List<List<String>> result = esql.executeReadQueryAndReturnResult(query, null);
+         return result.isEmpty() ? esql.executeQueryAndReturnResult(query) : result;
+      }
+
+      public boolean updateStatus(int orderID, String status) throws SQLException {
+         return esql.executeUpdate(String.format(UPDATE_ORDER_STATUS, esc(status), orderID)) > 0;
+      }
+
+      public List<Integer> updateStatus(List<Integer> orderIDs, String fromStatus, String toStatus) throws SQLException {
+         List<Integer> moved = new ArrayList<Integer>();
+         if (orderIDs.isEmpty())
+            return moved;
+         StringBuilder ids = new StringBuilder();
+         for (int orderID : orderIDs)
+            ids.append(ids.length() == 0 ? "" : ", ").append(orderID);
+         for (List<String> row : esql.executeQueryAndReturnResult(String.format(
+               MOVE_ORDERS_STATUS, esc(toStatus), ids, esc(fromStatus))))
+            moved.add(Integer.parseInt(row.get(0).trim()));
+         return moved;
+      }
+
+      public List<List<String>> findByStatus(String status) throws SQLException {
+         return esql.executeQueryAndReturnResult(String.format(FIND_ORDERS_BY_STATUS, esc(status)));
+      }
+
+      public void scanAfter(int orderID, Consumer<List<String>> handler) throws SQLException {
+         esql.executeQueryAndStream(String.format(SCAN_ORDERS, orderID), SCAN_FETCH_SIZE, handler);
+      }
+
+      public void scanItems(int afterOrderID, int upToOrderID, Consumer<List<String>> handler) throws SQLException {
+         esql.executeQueryAndStream(String.format(SCAN_ORDER_ITEMS, afterOrderID, upToOrderID), SCAN_FETCH_SIZE, handler);
+      }
+   }//end Orders
+}//end JdbcStorage
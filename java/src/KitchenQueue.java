@@ -0,0 +1,151 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * This class holds the orders each store's kitchen has yet to start, in
+ * the order they should be prepared: by orderTimestamp, less any priority
+ * boost given to the order.  Each store's queue is a ConcurrentSkipListSet,
+ * so adding, boosting and claiming are O(log n) without a lock, and any
+ * number of kitchen terminals can claim at once: pollFirst hands each
+ * order to exactly one of them.
+ *
+ */
+public class KitchenQueue {
+
+   /**
+    * An order waiting in a kitchen.
+    */
+   public static final class Ticket {
+      public final int orderID;
+      public final int storeID;
+      public final long placed;
+      public final long boost;
+
+      Ticket(int orderID, int storeID, long placed, long boost) {
+         this.orderID = orderID;
+         this.storeID = storeID;
+         this.placed = placed;
+         this.boost = boost;
+      }
+
+      long due() {
+         return this.placed - this.boost;
+      }
+   }//end Ticket
+
+   private static final Comparator<Ticket> BY_DUE = (a, b) -> {
+      int byDue = Long.compare(a.due(), b.due());
+      return byDue != 0 ? byDue : Integer.compare(a.orderID, b.orderID);
+   };
+
+   private final Map<Integer, ConcurrentSkipListSet<Ticket>> stores =
+      new ConcurrentHashMap<Integer, ConcurrentSkipListSet<Ticket>>();
+   private final Map<Integer, Ticket> tickets = new ConcurrentHashMap<Integer, Ticket>();
+
+   private ConcurrentSkipListSet<Ticket> queue(int storeID) {
+      return this.stores.computeIfAbsent(storeID, id -> new ConcurrentSkipListSet<Ticket>(BY_DUE));
+   }
+
+   /**
+    * Queues an order for its store's kitchen.
+    *
+    * @param placed when the order was placed, in epoch milliseconds
+    * @return false if the order was already queued
+    */
+   public boolean add(int orderID, int storeID, long placed) {
+      Ticket ticket = new Ticket(orderID, storeID, placed, 0);
+      if (this.tickets.putIfAbsent(orderID, ticket) != null)
+         return false;
+      queue(storeID).add(ticket);
+      return true;
+   }//end add
+
+   /**
+    * Takes the next order to prepare at a store.  Concurrent callers never
+    * get the same order.
+    *
+    * @return the order, or null if the kitchen has nothing waiting
+    */
+   public Ticket claimNext(int storeID) {
+      ConcurrentSkipListSet<Ticket> queue = this.stores.get(storeID);
+      if (queue == null)
+         return null;
+      Ticket ticket = queue.pollFirst();
+      if (ticket != null)
+         this.tickets.remove(ticket.orderID, ticket);
+      return ticket;
+   }//end claimNext
+
+   /**
+    * Drops an order, e.g. when its status was changed by hand.
+    *
+    * @return false if the order was not waiting
+    */
+   public boolean remove(int orderID) {
+      Ticket ticket = this.tickets.remove(orderID);
+      return ticket != null && this.stores.get(ticket.storeID).remove(ticket);
+   }//end remove
+
+   /**
+    * Moves an order ahead as if it had been placed boostMillis earlier.
+    *
+    * @return false if the order was not waiting, e.g. already claimed
+    */
+   public boolean boost(int orderID, long boostMillis) {
+      Ticket ticket = this.tickets.get(orderID);
+      if (ticket == null)
+         return false;
+      Ticket boosted = new Ticket(orderID, ticket.storeID, ticket.placed, ticket.boost + boostMillis);
+      // whoever removes the old ticket owns the order; a claim may win.
+      ConcurrentSkipListSet<Ticket> queue = this.stores.get(ticket.storeID);
+      if (!queue.remove(ticket))
+         return false;
+      // dropped meanwhile by remove: leave it out.
+      if (!this.tickets.replace(orderID, ticket, boosted))
+         return false;
+      queue.add(boosted);
+      return true;
+   }//end boost
+
+   /**
+    * @return the number of orders waiting at a store
+    */
+   public int size(int storeID) {
+      ConcurrentSkipListSet<Ticket> queue = this.stores.get(storeID);
+      return queue == null ? 0 : queue.size();
+   }
+
+   /**
+    * Queues the given orders, leaving those already queued as they are.
+    *
+    * @param pending the orders waiting, as tickets
+    * @return the number of orders added
+    */
+   public int addAll(Iterable<Ticket> pending) {
+      int added = 0;
+      for (Ticket ticket : pending) {
+         if (add(ticket.orderID, ticket.storeID, ticket.placed))
+            ++added;
+      }
+      return added;
+   }//end addAll
+
+   static Ticket ticket(int orderID, int storeID, long placed) {
+      return new Ticket(orderID, storeID, placed, 0);
+   }
+}//end KitchenQueue
@@ -0,0 +1,382 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class is an immutable, in-memory search index over the Items table.
+ * Item names, ingredients, types and descriptions are tokenized into an
+ * inverted index with a prefix trie on top, and unknown tokens fall back to
+ * edit-distance candidates, so partial or misspelled names ("pepp",
+ * "pepperonni") and ingredient searches ("no cheese") are answered without
+ * a round trip to the database.  A new index is built whenever the menu
+ * changes.
+ *
+ */
+public class MenuSearchIndex {
+
+   /**
+    * One menu item as loaded from the Items table.
+    */
+   public static class Item {
+      public final String itemName;
+      public final String ingredients;
+      public final String typeOfItem;
+      public final double price;
+      public final String description;
+
+      Item(String itemName, String ingredients, String typeOfItem, double price, String description) {
+         this.itemName = itemName;
+         this.ingredients = ingredients;
+         this.typeOfItem = typeOfItem;
+         this.price = price;
+         this.description = description;
+      }
+
+      /**
+       * @return the item as a Name / Price / Description record
+       */
+      public List<String> toRecord() {
+         return Arrays.asList(itemName, String.format("%.2f", price), description);
+      }
+   }//end Item
+
+   // column headers matching Item.toRecord().
+   public static final List<String> COLUMNS = Arrays.asList("name", "price", "description");
+
+   // words that turn the following search term into an exclusion.
+   private static final List<String> NEGATIONS = Arrays.asList("no", "without", "not");
+
+   // score contributed by a term matching each field.
+   private static final int NAME_WEIGHT = 4;
+   private static final int TYPE_WEIGHT = 2;
+   private static final int INGREDIENT_WEIGHT = 2;
+   private static final int DESCRIPTION_WEIGHT = 1;
+
+   private static class TrieNode {
+      final TreeMap<Character, TrieNode> children = new TreeMap<Character, TrieNode>();
+   }
+
+   private final Item[] items;
+   private final Map<String, Integer> byName = new HashMap<String, Integer>();
+
+   // token -> items containing it, per field.
+   private final Map<String, BitSet> nameTokens = new HashMap<String, BitSet>();
+   private final Map<String, BitSet> typeTokens = new HashMap<String, BitSet>();
+   private final Map<String, BitSet> ingredientTokens = new HashMap<String, BitSet>();
+   private final Map<String, BitSet> descriptionTokens = new HashMap<String, BitSet>();
+
+   // every token of every field, for prefix and fuzzy lookups.
+   private final TrieNode trie = new TrieNode();
+   private final Set<String> vocabulary = new LinkedHashSet<String>();
+
+   private MenuSearchIndex(List<Item> menu) {
+      this.items = menu.toArray(new Item[0]);
+      for (int id = 0; id < items.length; ++id) {
+         Item item = items[id];
+         byName.put(normalize(item.itemName), id);
+         addTokens(nameTokens, item.itemName, id);
+         addTokens(typeTokens, item.typeOfItem, id);
+         addTokens(ingredientTokens, item.ingredients, id);
+         addTokens(descriptionTokens, item.description, id);
+      }
+   }//end MenuSearchIndex
+
+   /**
+    * Builds an index over a menu.
+    *
+    * @param menu every item on the menu, see ItemRepository.findAll
+    * @return the new index
+    */
+   public static MenuSearchIndex build(List<Item> menu) {
+      return new MenuSearchIndex(menu);
+   }//end build
+
+   /**
+    * @return the number of items on the menu
+    */
+   public int size() {
+      return items.length;
+   }
+
+   /**
+    * Looks an item up by its exact name, ignoring case and surrounding
+    * blanks.
+    *
+    * @param itemName the name to look up
+    * @return the item, or null if there is no item with that name
+    */
+   public Item get(String itemName) {
+      Integer id = byName.get(normalize(itemName));
+      return id == null ? null : items[id];
+   }
+
+   /**
+    * @return every item on the menu
+    */
+   public List<Item> all() {
+      return Arrays.asList(items);
+   }
+
+   /**
+    * Returns the items whose type matches, tolerating prefixes and typos
+    * ("drink" finds "drinks").
+    *
+    * @param typeOfItem the type to filter by
+    * @return the matching items
+    */
+   public List<Item> filterByType(String typeOfItem) {
+      BitSet match = null;
+      for (String term : tokenize(typeOfItem)) {
+         BitSet termMatch = new BitSet();
+         for (String token : candidates(term, typeTokens))
+            termMatch.or(typeTokens.get(token));
+         if (match == null)
+            match = termMatch;
+         else
+            match.and(termMatch);
+      }
+      return match == null ? new ArrayList<Item>() : collect(match);
+   }//end filterByType
+
+   /**
+    * Runs a free text search over names, types, ingredients and
+    * descriptions.  Every term has to match (as a whole word, a prefix, or
+    * a close misspelling); a term preceded by "no"/"without" excludes
+    * items listing it as an ingredient.
+    *
+    * @param query the search text, e.g. "pepp" or "pizza no cheese"
+    * @return the matching items, best match first
+    */
+   public List<Item> search(String query) {
+      List<String> terms = tokenize(query);
+      int[] scores = new int[items.length];
+      BitSet match = null;
+      BitSet excluded = new BitSet();
+
+      for (int t = 0; t < terms.size(); ++t) {
+         String term = terms.get(t);
+         if (NEGATIONS.contains(term) && t + 1 < terms.size()) {
+            String ingredient = terms.get(++t);
+            for (String token : candidates(ingredient, ingredientTokens))
+               excluded.or(ingredientTokens.get(token));
+            continue;
+         }
+
+         BitSet termMatch = new BitSet();
+         termMatch.or(score(term, nameTokens, NAME_WEIGHT, scores));
+         termMatch.or(score(term, typeTokens, TYPE_WEIGHT, scores));
+         termMatch.or(score(term, ingredientTokens, INGREDIENT_WEIGHT, scores));
+         termMatch.or(score(term, descriptionTokens, DESCRIPTION_WEIGHT, scores));
+         if (match == null)
+            match = termMatch;
+         else
+            match.and(termMatch);
+      }
+
+      if (match == null) {
+         // only exclusions were given, e.g. "no cheese".
+         match = new BitSet();
+         match.set(0, items.length);
+      }
+      match.andNot(excluded);
+
+      List<Integer> ids = new ArrayList<Integer>(match.cardinality());
+      for (int id = match.nextSetBit(0); id >= 0; id = match.nextSetBit(id + 1))
+         ids.add(id);
+      ids.sort((a, b) -> scores[a] != scores[b] ? scores[b] - scores[a]
+                                                : items[a].itemName.compareToIgnoreCase(items[b].itemName));
+      List<Item> result = new ArrayList<Item>(ids.size());
+      for (int id : ids)
+         result.add(items[id]);
+      return result;
+   }//end search
+
+   /**
+    * Resolves what a customer typed to a single menu item: an exact name
+    * wins, otherwise the search result is used when one item clearly
+    * scores best.
+    *
+    * @param typed the item name as typed
+    * @return the item, or null if the text is unknown or ambiguous
+    */
+   public Item resolve(String typed) {
+      Item exact = get(typed);
+      if (exact != null)
+         return exact;
+      List<String> terms = tokenize(typed);
+      if (terms.isEmpty())
+         return null;
+      int[] scores = new int[items.length];
+      BitSet match = null;
+      for (String term : terms) {
+         BitSet termMatch = score(term, nameTokens, NAME_WEIGHT, scores);
+         if (match == null)
+            match = termMatch;
+         else
+            match.and(termMatch);
+      }
+      int best = -1;
+      boolean tie = false;
+      for (int id = match.nextSetBit(0); id >= 0; id = match.nextSetBit(id + 1)) {
+         if (best < 0 || scores[id] > scores[best]) {
+            best = id;
+            tie = false;
+         }
+         else if (scores[id] == scores[best]) {
+            tie = true;
+         }
+      }
+      return best < 0 || tie ? null : items[best];
+   }//end resolve
+
+   /*
+    * Adds the items of every token matching the term to the running
+    * scores: exact tokens count fully, prefixes and typos count less.
+    */
+   private BitSet score(String term, Map<String, BitSet> field, int weight, int[] scores) {
+      BitSet matched = new BitSet();
+      for (String token : candidates(term, field)) {
+         BitSet ids = field.get(token);
+         int points = token.equals(term) ? weight * 3 : token.startsWith(term) ? weight * 2 : weight;
+         for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+            scores[id] += points;
+         matched.or(ids);
+      }
+      return matched;
+   }
+
+   /*
+    * Returns the tokens of a field that a search term stands for: the term
+    * itself, every token it is a prefix of, or failing those every token
+    * within a small edit distance.
+    */
+   private List<String> candidates(String term, Map<String, BitSet> field) {
+      List<String> result = new ArrayList<String>();
+      if (field.containsKey(term))
+         result.add(term);
+
+      TrieNode node = trie;
+      for (int i = 0; i < term.length() && node != null; ++i)
+         node = node.children.get(term.charAt(i));
+      if (node != null) {
+         collectTokens(node, new StringBuilder(term), field, result);
+      }
+
+      if (result.isEmpty()) {
+         int maxDistance = term.length() <= 4 ? 1 : 2;
+         for (String token : vocabulary) {
+            if (field.containsKey(token) && editDistance(term, token, maxDistance) <= maxDistance)
+               result.add(token);
+         }
+      }
+      return result;
+   }
+
+   private static void collectTokens(TrieNode node, StringBuilder prefix, Map<String, BitSet> field, List<String> out) {
+      for (Map.Entry<Character, TrieNode> child : node.children.entrySet()) {
+         prefix.append(child.getKey());
+         String token = prefix.toString();
+         if (field.containsKey(token) && !out.contains(token))
+            out.add(token);
+         collectTokens(child.getValue(), prefix, field, out);
+         prefix.setLength(prefix.length() - 1);
+      }
+   }
+
+   /*
+    * Levenshtein distance with transpositions, giving up once every cell
+    * of a row exceeds the limit.
+    */
+   static int editDistance(String a, String b, int limit) {
+      if (Math.abs(a.length() - b.length()) > limit)
+         return limit + 1;
+      int[] prev2 = new int[b.length() + 1];
+      int[] prev = new int[b.length() + 1];
+      int[] curr = new int[b.length() + 1];
+      for (int j = 0; j <= b.length(); ++j)
+         prev[j] = j;
+      for (int i = 1; i <= a.length(); ++i) {
+         curr[0] = i;
+         int rowMin = curr[0];
+         for (int j = 1; j <= b.length(); ++j) {
+            int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+            curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+               curr[j] = Math.min(curr[j], prev2[j - 2] + 1);
+            rowMin = Math.min(rowMin, curr[j]);
+         }
+         if (rowMin > limit)
+            return limit + 1;
+         int[] tmp = prev2;
+         prev2 = prev;
+         prev = curr;
+         curr = tmp;
+      }
+      return prev[b.length()];
+   }
+
+   private void addTokens(Map<String, BitSet> field, String text, int id) {
+      for (String token : tokenize(text)) {
+         BitSet ids = field.get(token);
+         if (ids == null) {
+            ids = new BitSet();
+            field.put(token, ids);
+         }
+         ids.set(id);
+
+         if (vocabulary.add(token)) {
+            TrieNode node = trie;
+            for (int i = 0; i < token.length(); ++i) {
+               TrieNode next = node.children.get(token.charAt(i));
+               if (next == null) {
+                  next = new TrieNode();
+                  node.children.put(token.charAt(i), next);
+               }
+               node = next;
+            }
+         }
+      }
+   }
+
+   private List<Item> collect(BitSet ids) {
+      List<Item> result = new ArrayList<Item>(ids.cardinality());
+      for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+         result.add(items[id]);
+      return result;
+   }
+
+   static List<String> tokenize(String text) {
+      List<String> tokens = new ArrayList<String>();
+      if (text == null)
+         return tokens;
+      for (String token : text.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+         if (!token.isEmpty())
+            tokens.add(token);
+      }
+      return tokens;
+   }
+
+   private static String normalize(String itemName) {
+      return itemName == null ? "" : itemName.trim().toLowerCase(Locale.ROOT);
+   }
+}//end MenuSearchIndex
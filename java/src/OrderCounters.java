@@ -0,0 +1,260 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts, per store, the orders placed and their revenue over
+ * sliding windows (orders in the last minute and hour, revenue in the last
+ * hour) and the orders currently in each open status, for the manager
+ * dashboard.  placeOrder and the status changes update it as they happen;
+ * reading it never queries the database.
+ *
+ * The windows are rings of time buckets.  Each slot holds its bucket number
+ * and its count packed in one long, so a slot left over from an earlier lap
+ * of the ring is reset by the same compare-and-set that counts in it, and
+ * no lock is taken.  Every ring is striped by thread so concurrent
+ * checkouts at one store do not contend on a slot; readers add up the
+ * stripes.  The status counts are LongAdders, kept right by remembering the
+ * store and status of each open order.
+ *
+ * Counts cover the orders this application placed or saw change, plus the
+ * open orders loaded at start-up by track.
+ *
+ */
+public class OrderCounters {
+
+   static final String[] WINDOW_COLUMNS = { "storeID", "orders/min", "orders/hour", "revenue/hour" };
+
+   private static final int STRIPES = stripes();
+
+   /**
+    * A count over the last slots buckets of slotMillis each, the current
+    * bucket included.
+    */
+   static final class Window {
+      private final long slotMillis;
+      private final int slots;
+      // stripe s, slot i is at s * slots + i: (bucket << 32) | count.
+      private final AtomicLongArray cells;
+
+      Window(long slotMillis, int slots) {
+         this.slotMillis = slotMillis;
+         this.slots = slots;
+         this.cells = new AtomicLongArray(STRIPES * slots);
+      }
+
+      void add(long now, long delta) {
+         long bucket = now / this.slotMillis;
+         int cell = stripe() * this.slots + (int) (bucket % this.slots);
+         while (true) {
+            long old = this.cells.get(cell);
+            long count = (old >>> 32) == bucket ? (old & 0xffffffffL) + delta : delta;
+            if (this.cells.compareAndSet(cell, old, (bucket << 32) | (count & 0xffffffffL)))
+               return;
+         }
+      }//end add
+
+      long sum(long now) {
+         long bucket = now / this.slotMillis;
+         long sum = 0;
+         for (int cell = 0; cell < this.cells.length(); cell++) {
+            long value = this.cells.get(cell);
+            long age = bucket - (value >>> 32);
+            if (age >= 0 && age < this.slots)
+               sum += value & 0xffffffffL;
+         }
+         return sum;
+      }//end sum
+   }//end Window
+
+   /*
+    * The counters of one store.
+    */
+   static final class Store {
+      final int storeID;
+      final Window ordersLastMinute = new Window(1000, 60);
+      final Window ordersLastHour = new Window(60000, 60);
+      // in cents.
+      final Window revenueLastHour = new Window(60000, 60);
+      final LongAdder[] open;
+
+      Store(int storeID, int statuses) {
+         this.storeID = storeID;
+         this.open = new LongAdder[statuses];
+         for (int i = 0; i < statuses; i++)
+            this.open[i] = new LongAdder();
+      }
+   }//end Store
+
+   private final List<String> openStatuses;
+   private final Map<Integer, Store> stores = new ConcurrentHashMap<Integer, Store>();
+   // open orders as (storeID << 8) | status index.
+   private final Map<Integer, Long> orders = new ConcurrentHashMap<Integer, Long>();
+
+   /**
+    * @param openStatuses the statuses counted, in dashboard order; the
+    * first is the status of a new order, the others, e.g. Delivered, end
+    * the order
+    */
+   public OrderCounters(List<String> openStatuses) {
+      this.openStatuses = new ArrayList<String>(openStatuses);
+   }//end OrderCounters
+
+   private Store store(int storeID) {
+      Store store = this.stores.get(storeID);
+      return store != null ? store : this.stores.computeIfAbsent(storeID, id -> new Store(id, this.openStatuses.size()));
+   }
+
+   /**
+    * Counts a new order in its store's windows and first status.
+    */
+   public void placed(int orderID, int storeID, double totalPrice, long now) {
+      Store store = store(storeID);
+      store.ordersLastMinute.add(now, 1);
+      store.ordersLastHour.add(now, 1);
+      store.revenueLastHour.add(now, Math.round(totalPrice * 100));
+      if (this.orders.putIfAbsent(orderID, pack(storeID, 0)) == null)
+         store.open[0].increment();
+   }//end placed
+
+   /**
+    * Counts an open order loaded at start-up; orders already counted are
+    * left as they are.
+    */
+   public void track(int orderID, int storeID, String status) {
+      int index = this.openStatuses.indexOf(status);
+      if (index >= 0 && this.orders.putIfAbsent(orderID, pack(storeID, index)) == null)
+         store(storeID).open[index].increment();
+   }//end track
+
+   /**
+    * Moves an order to its new status count, or out of the counts when the
+    * status ends it.
+    *
+    * @param storeID the order's store, or 0 if not known; needed only for
+    * an order not counted yet
+    * @return false if the order is not counted and storeID is 0
+    */
+   public boolean statusChanged(int orderID, int storeID, String status) {
+      int index = this.openStatuses.indexOf(status);
+      while (true) {
+         Long old = this.orders.get(orderID);
+         if (old == null) {
+            if (index < 0)
+               return true;
+            if (storeID <= 0)
+               return false;
+            if (this.orders.putIfAbsent(orderID, pack(storeID, index)) == null) {
+               store(storeID).open[index].increment();
+               return true;
+            }
+            continue;
+         }
+         Store store = store((int) (old >>> 8));
+         int oldIndex = (int) (old & 0xff);
+         if (index == oldIndex)
+            return true;
+         boolean moved = index < 0 ? this.orders.remove(orderID, old)
+                                   : this.orders.replace(orderID, old, pack(store.storeID, index));
+         if (moved) {
+            store.open[oldIndex].decrement();
+            if (index >= 0)
+               store.open[index].increment();
+            return true;
+         }
+      }
+   }//end statusChanged
+
+   public List<String> getOpenStatuses() {
+      return this.openStatuses;
+   }
+
+   /**
+    * @return the dashboard columns, the windows then the open statuses
+    */
+   public List<String> header() {
+      List<String> header = new ArrayList<String>(Arrays.asList(WINDOW_COLUMNS));
+      header.addAll(this.openStatuses);
+      return header;
+   }
+
+   /**
+    * @param limit the most stores to list, 0 for all of them
+    * @return a record per store with any counts, busiest in the last hour
+    * first, then a record of the totals
+    */
+   public List<List<String>> dashboard(int limit, long now) {
+      List<long[]> counts = new ArrayList<long[]>();
+      long[] total = new long[WINDOW_COLUMNS.length + this.openStatuses.size()];
+      for (Store store : this.stores.values()) {
+         long[] count = new long[total.length];
+         count[0] = store.storeID;
+         count[1] = store.ordersLastMinute.sum(now);
+         count[2] = store.ordersLastHour.sum(now);
+         count[3] = store.revenueLastHour.sum(now);
+         boolean any = count[1] + count[2] + count[3] > 0;
+         for (int i = 0; i < store.open.length; i++) {
+            count[WINDOW_COLUMNS.length + i] = store.open[i].sum();
+            any |= count[WINDOW_COLUMNS.length + i] != 0;
+         }
+         if (!any)
+            continue;
+         counts.add(count);
+         for (int i = 1; i < total.length; i++)
+            total[i] += count[i];
+      }
+      counts.sort((a, b) -> a[2] != b[2] ? Long.compare(b[2], a[2]) : Long.compare(a[0], b[0]));
+      if (limit > 0 && counts.size() > limit)
+         counts = counts.subList(0, limit);
+
+      List<List<String>> records = new ArrayList<List<String>>();
+      for (long[] count : counts)
+         records.add(record(String.valueOf(count[0]), count));
+      records.add(record("all", total));
+      return records;
+   }//end dashboard
+
+   private static List<String> record(String label, long[] count) {
+      List<String> record = new ArrayList<String>(count.length);
+      record.add(label);
+      record.add(String.valueOf(count[1]));
+      record.add(String.valueOf(count[2]));
+      record.add(String.format("%.2f", count[3] / 100.0));
+      for (int i = WINDOW_COLUMNS.length; i < count.length; i++)
+         record.add(String.valueOf(count[i]));
+      return record;
+   }
+
+   private static long pack(int storeID, int index) {
+      return ((long) storeID << 8) | index;
+   }
+
+   private static int stripe() {
+      return (int) Thread.currentThread().getId() & (STRIPES - 1);
+   }
+
+   // a power of two near the number of processors, at most 16.
+   private static int stripes() {
+      int stripes = 1;
+      while (stripes < Math.min(Runtime.getRuntime().availableProcessors(), 16))
+         stripes <<= 1;
+      return stripes;
+   }
+}//end OrderCounters
@@ -0,0 +1,129 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class moves a database keyed by itemID (see ItemIdMigration) over
+ * to order lines that keep the name and unit price of their item, so order
+ * lookups no longer read Items and deleting an item leaves order history
+ * alone.  Like ItemIdMigration it runs while checkouts go on, in steps
+ * that can each be run again:
+ *
+ *    expand    adds nullable ItemsInOrder.itemName and unitPrice, and a
+ *              trigger filling them in from Items for lines inserted
+ *              without them by an older version of the application
+ *    backfill  fills them in on the existing lines, batchSize orders per
+ *              transaction with a pause between batches
+ *    switch    makes both NOT NULL through validated constraints, and
+ *              drops the foreign key to Items so that deleting an item no
+ *              longer deletes its order lines
+ *    contract  drops the trigger, once no old version is left
+ *
+ * Lines bought before this migration get the price the item has when they
+ * are backfilled; the price they were bought at was never stored.  Run it
+ * after ItemIdMigration's switch step: if ItemIdMigration's contract was
+ * not run, the itemName already on each line is kept.  Order shards are
+ * created with these columns by sql/scripts/create_shards.sh.
+ *
+ * Usage: java -cp classes:lib/pg73jdbc3.jar OrderLineMigration <dbname> <port> <user> <step> [batchSize] [pauseMs]
+ *
+ */
+public class OrderLineMigration {
+
+   static final String[] STEPS = { "expand", "backfill", "switch", "contract" };
+
+   static final List<String> EXPAND = Arrays.asList(
+      "ALTER TABLE ItemsInOrder ADD COLUMN IF NOT EXISTS itemName varchar(50);",
+      "ALTER TABLE ItemsInOrder ADD COLUMN IF NOT EXISTS unitPrice decimal(10,2);",
+      "CREATE OR REPLACE FUNCTION itemsinorder_snapshot() RETURNS trigger AS $$ " +
+      "BEGIN " +
+         "IF NEW.itemName IS NULL OR NEW.unitPrice IS NULL THEN " +
+            "SELECT COALESCE(NEW.itemName, i.itemName), COALESCE(NEW.unitPrice, i.price) " +
+            "INTO NEW.itemName, NEW.unitPrice FROM Items i WHERE i.itemID = NEW.itemID; " +
+         "END IF; " +
+         "RETURN NEW; " +
+      "END; $$ LANGUAGE plpgsql;",
+      "DROP TRIGGER IF EXISTS itemsinorder_snapshot ON ItemsInOrder;",
+      "CREATE TRIGGER itemsinorder_snapshot BEFORE INSERT ON ItemsInOrder " +
+      "FOR EACH ROW EXECUTE PROCEDURE itemsinorder_snapshot();");
+
+   static final String BACKFILL_RANGE =
+      "SELECT MIN(orderID), MAX(orderID) FROM ItemsInOrder WHERE unitPrice IS NULL;";
+   static final String BACKFILL_BATCH =
+      "UPDATE ItemsInOrder io SET itemName = COALESCE(io.itemName, i.itemName), unitPrice = i.price " +
+      "FROM Items i WHERE i.itemID = io.itemID AND io.orderID >= %d AND io.orderID < %d AND io.unitPrice IS NULL;";
+   static final String COUNT_MISSING =
+      "SELECT COUNT(*) FROM ItemsInOrder WHERE unitPrice IS NULL OR itemName IS NULL;";
+
+   static final List<String> SWITCH = Arrays.asList(
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT IF EXISTS itemsinorder_snapshot_not_null;",
+      "ALTER TABLE ItemsInOrder ADD CONSTRAINT itemsinorder_snapshot_not_null " +
+      "CHECK (itemName IS NOT NULL AND unitPrice IS NOT NULL) NOT VALID;",
+      "ALTER TABLE ItemsInOrder VALIDATE CONSTRAINT itemsinorder_snapshot_not_null;",
+      "ALTER TABLE ItemsInOrder ALTER COLUMN itemName SET NOT NULL, ALTER COLUMN unitPrice SET NOT NULL;",
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT itemsinorder_snapshot_not_null;",
+      "ALTER TABLE ItemsInOrder DROP CONSTRAINT IF EXISTS itemsinorder_itemid_fkey;");
+
+   static final List<String> CONTRACT = Arrays.asList(
+      "DROP TRIGGER IF EXISTS itemsinorder_snapshot ON ItemsInOrder;",
+      "DROP FUNCTION IF EXISTS itemsinorder_snapshot();");
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " +
+            OrderLineMigration.class.getName () +
+            " <dbname> <port> <user> expand|backfill|switch|contract|all [batchSize] [pauseMs]");
+         return;
+      }//end if
+      String step = args[3];
+      int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 5000;
+      long pauseMs = args.length > 5 ? Long.parseLong(args[5]) : 20;
+
+      PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+      try {
+         for (String s : step.equals("all") ? STEPS : new String[] { step })
+            run(esql, s, batchSize, pauseMs);
+      } finally {
+         esql.cleanup();
+      }
+   }//end main
+
+   static void run(PizzaStore esql, String step, int batchSize, long pauseMs) throws Exception {
+      long start = System.nanoTime();
+      System.out.println("-- " + step);
+      esql.executeUpdate("SET lock_timeout = '" + ItemIdMigration.LOCK_TIMEOUT + "';");
+      if (step.equals("expand")) {
+         for (String ddl : EXPAND)
+            ItemIdMigration.ddl(esql, ddl);
+      } else if (step.equals("backfill")) {
+         ItemIdMigration.backfill(esql, BACKFILL_RANGE, BACKFILL_BATCH, COUNT_MISSING, "a unit price",
+                                  batchSize, pauseMs);
+      } else if (step.equals("switch")) {
+         long missing = Long.parseLong(esql.executeQueryAndReturnResult(COUNT_MISSING).get(0).get(0).trim());
+         if (missing > 0)
+            throw new SQLException(missing + " lines have no name or unit price yet, run backfill first");
+         for (String ddl : SWITCH)
+            ItemIdMigration.ddl(esql, ddl);
+      } else if (step.equals("contract")) {
+         for (String ddl : CONTRACT)
+            ItemIdMigration.ddl(esql, ddl);
+      } else {
+         throw new IllegalArgumentException("Unknown step: " + step);
+      }
+      System.out.println(String.format("-- %s done in %.1fs", step, (System.nanoTime() - start) / 1e9));
+   }//end run
+}//end OrderLineMigration
@@ -0,0 +1,102 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * This interface defines the data access the menu handlers need for the
+ * FoodOrder and ItemsInOrder tables.
+ *
+ */
+public interface OrderRepository {
+
+   /**
+    * Stores a new Pending order with its items, atomically.
+    *
+    * @param unitPrices the price of each item the totalPrice was worked
+    * out from, stored on its line so the lines add up to the order
+    * @return the orderID of the new order
+    */
+   int place(String login, int storeID, List<String> itemNames, List<Integer> quantities,
+             List<Double> unitPrices, double totalPrice) throws SQLException;
+
+   /**
+    * Places a copy of one of the user's orders at current menu prices,
+    * skipping items no longer on the menu.
+    *
+    * @param orderID the order to repeat, or null for the user's latest order
+    * @return one [orderID, storeID, totalPrice, itemName, quantity] record
+    * per line of the new order, empty if there was nothing to repeat
+    */
+   List<List<String>> reorder(String login, Integer orderID) throws SQLException;
+
+   /**
+    * @param limit the most orders to return, 0 for all of them
+    * @return the user's orders as [orderID, totalPrice, orderTimestamp,
+    * orderStatus, storeID, address], newest first
+    */
+   List<List<String>> findByLogin(String login, int limit) throws SQLException;
+
+   /**
+    * @return the order as [orderID, login, orderStatus], or null
+    */
+   List<String> find(int orderID) throws SQLException;
+
+   /**
+    * @return the order as a single [orderID, login, totalPrice,
+    * orderTimestamp, orderStatus, storeID, address, city, state] record
+    */
+   List<List<String>> findDetails(int orderID) throws SQLException;
+
+   /**
+    * @return the order's lines as [itemName, quantity, price, subtotal]
+    */
+   List<List<String>> findItems(int orderID) throws SQLException;
+
+   /**
+    * @return true if the order existed and was updated
+    */
+   boolean updateStatus(int orderID, String status) throws SQLException;
+
+   /**
+    * Moves those of the orders still in fromStatus to toStatus, in a single
+    * update.
+    *
+    * @return the orderIDs that were moved
+    */
+   List<Integer> updateStatus(List<Integer> orderIDs, String fromStatus, String toStatus) throws SQLException;
+
+   /**
+    * @return the orders with the given status as [orderID, storeID,
+    * orderTimestamp], oldest first
+    */
+   List<List<String>> findByStatus(String status) throws SQLException;
+
+   /**
+    * Streams every order with an orderID above the given one, in orderID
+    * order, as [orderID, login, storeID, totalPrice, orderTimestamp,
+    * orderStatus].  orderIDs are handed out before their orders commit,
+    * so an order committed after the scan may have a lower orderID than
+    * those it returned: callers keeping a high-water mark must read below
+    * it again and skip the orders they have, like OrderSnapshot.
+    */
+   void scanAfter(int orderID, Consumer<List<String>> handler) throws SQLException;
+
+   /**
+    * Streams the lines of the orders with an orderID in (afterOrderID,
+    * upToOrderID], in orderID order, as [orderID, itemName, quantity].
+    */
+   void scanItems(int afterOrderID, int upToOrderID, Consumer<List<String>> handler) throws SQLException;
+}//end OrderRepository
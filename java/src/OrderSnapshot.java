@@ -0,0 +1,528 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class is a columnar, in-memory copy of FoodOrder and ItemsInOrder
+ * for ad-hoc analytics.  Each order is a row across primitive arrays
+ * (orderID, store, time, price in cents, basket size) with login, itemName,
+ * status and state dictionary-encoded to ints.  It is loaded by streaming
+ * the tables and refreshed incrementally, so a refresh only reads recent
+ * orders; status changes to orders already loaded are not picked up until
+ * reload().
+ *
+ * orderIDs are handed out before their orders commit, so an order can
+ * commit after one with a higher orderID was loaded.  A refresh therefore
+ * reads again from below the orders of the last LATE_COMMIT_MS, and skips
+ * those it already has by orderID.
+ *
+ * Queries are a filter plus a grouping key, scanned in parallel on the
+ * common fork-join pool into one array of counters per group.
+ *
+ */
+public class OrderSnapshot {
+
+   // rows a single fork-join task scans before it stops splitting.
+   static final int SPLIT_ROWS = 1 << 16;
+
+   // how long after it was placed an order is taken to have committed, or
+   // never to commit.
+   static final long LATE_COMMIT_MS = Long.getLong("pizzastore.snapshot.lateCommitMs", 60000);
+
+   // counters kept per group by groupBy: orders, cents, items.
+   private static final int ORDER_COUNTERS = 3;
+
+   /**
+    * An immutable view of the snapshot as of one refresh.  Only the first
+    * size orders and the first lines lines of the arrays belong to it.
+    */
+   public static final class Columns {
+      public final int size;
+      public final int[] orderID;
+      public final int[] store;      // code into storeIDs
+      public final long[] time;      // epoch milliseconds
+      public final byte[] hour;      // local hour of day
+      public final long[] cents;
+      public final int[] login;      // code into logins
+      public final int[] status;     // code into statuses
+      public final int[] items;      // total quantity of the order's lines
+
+      public final int lines;
+      public final int[] lineRow;    // row of the line's order
+      public final int[] lineItem;   // code into itemNames
+      public final int[] lineQty;
+
+      public final int[] storeIDs;
+      public final int[] storeState; // code into states, per store code
+      public final String[] logins;
+      public final String[] statuses;
+      public final String[] itemNames;
+      public final String[] states;
+
+      Columns(OrderSnapshot s) {
+         this.size = s.size;
+         this.orderID = s.orderID;
+         this.store = s.store;
+         this.time = s.time;
+         this.hour = s.hour;
+         this.cents = s.cents;
+         this.login = s.login;
+         this.status = s.status;
+         this.items = s.items;
+         this.lines = s.lines;
+         this.lineRow = s.lineRow;
+         this.lineItem = s.lineItem;
+         this.lineQty = s.lineQty;
+         this.storeIDs = Arrays.copyOf(s.storeIDs, s.storeCodes.size());
+         this.storeState = Arrays.copyOf(s.storeState, s.storeCodes.size());
+         this.logins = s.logins.values();
+         this.statuses = s.statuses.values();
+         this.itemNames = s.itemNames.values();
+         this.states = s.states.values();
+      }
+   }//end Columns
+
+   /**
+    * Selects the orders a query looks at.
+    */
+   public interface Filter {
+      boolean test(Columns c, int row);
+   }
+
+   /**
+    * Maps an order to a dense group number in [0, cardinality).
+    */
+   public interface GroupKey {
+      int cardinality(Columns c);
+      int key(Columns c, int row);
+      String label(Columns c, int key);
+   }
+
+   public static final Filter ALL = (c, row) -> true;
+
+   /**
+    * @return a filter for the orders placed at or after the given time
+    */
+   public static Filter since(long millis) {
+      return (c, row) -> c.time[row] >= millis;
+   }
+
+   public static final GroupKey BY_STORE = new GroupKey() {
+      public int cardinality(Columns c) { return c.storeIDs.length; }
+      public int key(Columns c, int row) { return c.store[row]; }
+      public String label(Columns c, int key) { return String.valueOf(c.storeIDs[key]); }
+   };
+
+   public static final GroupKey BY_STATE = new GroupKey() {
+      public int cardinality(Columns c) { return c.states.length; }
+      public int key(Columns c, int row) { return c.storeState[c.store[row]]; }
+      public String label(Columns c, int key) { return c.states[key]; }
+   };
+
+   public static final GroupKey BY_HOUR = new GroupKey() {
+      public int cardinality(Columns c) { return 24; }
+      public int key(Columns c, int row) { return c.hour[row]; }
+      public String label(Columns c, int key) { return String.format("%02d:00", key); }
+   };
+
+   public static final GroupKey BY_STATUS = new GroupKey() {
+      public int cardinality(Columns c) { return c.statuses.length; }
+      public int key(Columns c, int row) { return c.status[row]; }
+      public String label(Columns c, int key) { return c.statuses[key]; }
+   };
+
+   public static final GroupKey BY_LOGIN = new GroupKey() {
+      public int cardinality(Columns c) { return c.logins.length; }
+      public int key(Columns c, int row) { return c.login[row]; }
+      public String label(Columns c, int key) { return c.logins[key]; }
+   };
+
+   /**
+    * @return a key grouping by both keys, e.g. by(BY_STATE, BY_HOUR)
+    */
+   public static GroupKey by(GroupKey outer, GroupKey inner) {
+      return new GroupKey() {
+         public int cardinality(Columns c) {
+            return outer.cardinality(c) * inner.cardinality(c);
+         }
+         public int key(Columns c, int row) {
+            return outer.key(c, row) * inner.cardinality(c) + inner.key(c, row);
+         }
+         public String label(Columns c, int key) {
+            int n = inner.cardinality(c);
+            return outer.label(c, key / n) + " " + inner.label(c, key % n);
+         }
+      };
+   }
+
+   /**
+    * The result of a query: one set of counters per non-empty group, in
+    * descending order of orders.
+    */
+   public static final class Groups {
+      public final List<String> labels = new ArrayList<String>();
+      public final List<long[]> counters = new ArrayList<long[]>();
+      // orders looked at, and how long the scan took.
+      public final int scanned;
+      public final long nanos;
+
+      Groups(int scanned, long nanos) {
+         this.scanned = scanned;
+         this.nanos = nanos;
+      }
+
+      /**
+       * @return per group [label, orders, revenue, avgItems, avgTotal]
+       */
+      public List<List<String>> toRecords() {
+         List<List<String>> records = new ArrayList<List<String>>(labels.size());
+         for (int i = 0; i < labels.size(); i++) {
+            long[] g = counters.get(i);
+            records.add(Arrays.asList(labels.get(i), String.valueOf(g[0]),
+               String.format("%.2f", g[1] / 100.0),
+               String.format("%.2f", (double) g[2] / g[0]),
+               String.format("%.2f", g[1] / 100.0 / g[0])));
+         }
+         return records;
+      }
+
+      /**
+       * @return per item [itemName, quantity, orders], from itemTotals
+       */
+      public List<List<String>> toItemRecords() {
+         List<List<String>> records = new ArrayList<List<String>>(labels.size());
+         for (int i = 0; i < labels.size(); i++) {
+            long[] g = counters.get(i);
+            records.add(Arrays.asList(labels.get(i), String.valueOf(g[0]), String.valueOf(g[1])));
+         }
+         return records;
+      }
+   }//end Groups
+
+   /*
+    * Scans a range of rows into an array of counters.
+    */
+   private interface RangeScan {
+      void scan(long[] acc, int from, int to);
+   }
+
+   /*
+    * Splits a scan in halves down to SPLIT_ROWS and adds up the halves'
+    * counters.
+    */
+   private static final class ScanTask extends RecursiveTask<long[]> {
+      private static final long serialVersionUID = 1L;
+      private final RangeScan scan;
+      private final int width;
+      private final int from;
+      private final int to;
+
+      ScanTask(RangeScan scan, int width, int from, int to) {
+         this.scan = scan;
+         this.width = width;
+         this.from = from;
+         this.to = to;
+      }
+
+      protected long[] compute() {
+         if (to - from <= SPLIT_ROWS) {
+            long[] acc = new long[width];
+            scan.scan(acc, from, to);
+            return acc;
+         }
+         int mid = (from + to) >>> 1;
+         ScanTask left = new ScanTask(scan, width, from, mid);
+         left.fork();
+         long[] acc = new ScanTask(scan, width, mid, to).compute();
+         long[] other = left.join();
+         for (int i = 0; i < width; i++)
+            acc[i] += other[i];
+         return acc;
+      }
+   }//end ScanTask
+
+   /*
+    * Assigns dense int codes to strings.  Only the loading thread adds
+    * codes; readers see a copy of the values taken at each refresh.
+    */
+   private static final class Dictionary {
+      private final Map<String, Integer> codes = new HashMap<String, Integer>();
+      private final List<String> values = new ArrayList<String>();
+
+      int encode(String value) {
+         Integer code = codes.get(value);
+         if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+         }
+         return code;
+      }
+
+      String[] values() {
+         return values.toArray(new String[values.size()]);
+      }
+
+      void clear() {
+         codes.clear();
+         values.clear();
+      }
+   }//end Dictionary
+
+   // the loading side, only touched under the object's monitor.
+   private int size = 0;
+   private int[] orderID = new int[0];
+   private int[] store = new int[0];
+   private long[] time = new long[0];
+   private byte[] hour = new byte[0];
+   private long[] cents = new long[0];
+   private int[] login = new int[0];
+   private int[] status = new int[0];
+   private int[] items = new int[0];
+   private int lines = 0;
+   private int[] lineRow = new int[0];
+   private int[] lineItem = new int[0];
+   private int[] lineQty = new int[0];
+   private final Map<Integer, Integer> storeCodes = new HashMap<Integer, Integer>();
+   private int[] storeIDs = new int[0];
+   private int[] storeState = new int[0];
+   private final Map<Integer, String> storeStateNames = new HashMap<Integer, String>();
+   private final Dictionary logins = new Dictionary();
+   private final Dictionary statuses = new Dictionary();
+   private final Dictionary itemNames = new Dictionary();
+   private final Dictionary states = new Dictionary();
+   private int lineCursor = 0;
+   // every order up to settled is loaded; those above it by orderID.
+   private int settled = 0;
+   private final TreeSet<Integer> recent = new TreeSet<Integer>();
+   private long settleBefore = 0;
+
+   // what queries read, replaced at the end of each refresh.
+   private volatile Columns columns = new Columns(this);
+
+   /**
+    * @return the snapshot as of the last refresh
+    */
+   public Columns columns() {
+      return this.columns;
+   }
+
+   /**
+    * Loads the orders committed since the last refresh.
+    *
+    * @param esql the PizzaStore to read the orders and stores from
+    * @return the number of orders added
+    * @throws java.sql.SQLException when failed to read the orders
+    */
+   public synchronized int refresh(PizzaStore esql) throws SQLException {
+      int before = this.size;
+      int from = this.settled;
+      this.settleBefore = System.currentTimeMillis() - LATE_COMMIT_MS;
+
+      this.storeStateNames.clear();
+      for (List<String> s : esql.stores().findAllByReviewScore())
+         this.storeStateNames.put(Integer.parseInt(s.get(0).trim()), s.get(3).trim());
+
+      esql.orders().scanAfter(from, this::addOrder);
+      // the new rows are in orderID order, and their lines come in it too.
+      if (this.size > before) {
+         this.lineCursor = before;
+         esql.orders().scanItems(from, this.orderID[this.size - 1], this::addLine);
+      }
+      this.columns = new Columns(this);
+      return this.size - before;
+   }//end refresh
+
+   /**
+    * Drops everything loaded and loads all orders again, picking up status
+    * changes, deleted items and stores that moved state.
+    *
+    * @param esql the PizzaStore to read the orders and stores from
+    * @return the number of orders loaded
+    * @throws java.sql.SQLException when failed to read the orders
+    */
+   public synchronized int reload(PizzaStore esql) throws SQLException {
+      // earlier Columns keep their own arrays, so start on fresh ones.
+      this.size = 0;
+      this.lines = 0;
+      this.orderID = new int[0];
+      this.lineRow = new int[0];
+      this.storeCodes.clear();
+      this.storeIDs = new int[0];
+      this.storeState = new int[0];
+      this.logins.clear();
+      this.statuses.clear();
+      this.itemNames.clear();
+      this.states.clear();
+      this.settled = 0;
+      this.recent.clear();
+      return refresh(esql);
+   }//end reload
+
+   private void addOrder(List<String> r) {
+      int id = Integer.parseInt(r.get(0).trim());
+      if (!this.recent.add(id))
+         return;
+      Timestamp ts = Timestamp.valueOf(r.get(4).trim());
+      // an order placed long enough ago: every lower orderID is settled.
+      if (ts.getTime() < this.settleBefore) {
+         this.settled = id;
+         this.recent.headSet(id, true).clear();
+      }
+      if (this.size == this.orderID.length)
+         grow(Math.max(1024, this.size * 2));
+      int row = this.size;
+      this.orderID[row] = id;
+      this.login[row] = this.logins.encode(r.get(1).trim());
+      this.store[row] = storeCode(Integer.parseInt(r.get(2).trim()));
+      this.cents[row] = Math.round(Double.parseDouble(r.get(3)) * 100);
+      this.time[row] = ts.getTime();
+      this.hour[row] = (byte) ts.toLocalDateTime().getHour();
+      this.status[row] = this.statuses.encode(r.get(5) == null ? "" : r.get(5).trim());
+      this.items[row] = 0;
+      this.size = row + 1;
+   }
+
+   /*
+    * Lines arrive in orderID order, like the orders, so their rows are
+    * found by walking forward rather than searching.
+    */
+   private void addLine(List<String> r) {
+      int id = Integer.parseInt(r.get(0).trim());
+      while (this.lineCursor < this.size && this.orderID[this.lineCursor] < id)
+         ++this.lineCursor;
+      if (this.lineCursor == this.size || this.orderID[this.lineCursor] != id)
+         return;
+      if (this.lines == this.lineRow.length)
+         growLines(Math.max(1024, this.lines * 2));
+      int quantity = Integer.parseInt(r.get(2).trim());
+      this.lineRow[this.lines] = this.lineCursor;
+      this.lineItem[this.lines] = this.itemNames.encode(r.get(1).trim());
+      this.lineQty[this.lines] = quantity;
+      this.items[this.lineCursor] += quantity;
+      ++this.lines;
+   }
+
+   private int storeCode(int storeID) {
+      Integer code = this.storeCodes.get(storeID);
+      if (code == null) {
+         code = this.storeCodes.size();
+         this.storeCodes.put(storeID, code);
+         if (code == this.storeIDs.length) {
+            this.storeIDs = Arrays.copyOf(this.storeIDs, Math.max(64, code * 2));
+            this.storeState = Arrays.copyOf(this.storeState, this.storeIDs.length);
+         }
+         this.storeIDs[code] = storeID;
+         String state = this.storeStateNames.get(storeID);
+         this.storeState[code] = this.states.encode(state == null ? "(unknown)" : state);
+      }
+      return code;
+   }
+
+   // copies, never resizes in place: published Columns keep the old arrays.
+   private void grow(int capacity) {
+      this.orderID = Arrays.copyOf(this.orderID, capacity);
+      this.store = Arrays.copyOf(this.store, capacity);
+      this.time = Arrays.copyOf(this.time, capacity);
+      this.hour = Arrays.copyOf(this.hour, capacity);
+      this.cents = Arrays.copyOf(this.cents, capacity);
+      this.login = Arrays.copyOf(this.login, capacity);
+      this.status = Arrays.copyOf(this.status, capacity);
+      this.items = Arrays.copyOf(this.items, capacity);
+   }
+
+   private void growLines(int capacity) {
+      this.lineRow = Arrays.copyOf(this.lineRow, capacity);
+      this.lineItem = Arrays.copyOf(this.lineItem, capacity);
+      this.lineQty = Arrays.copyOf(this.lineQty, capacity);
+   }
+
+   /**
+    * Counts the orders passing the filter per group: orders, revenue and
+    * items, scanned in parallel.
+    *
+    * @param filter the orders to look at
+    * @param key the grouping
+    * @return the non-empty groups, most orders first
+    */
+   public Groups groupBy(Filter filter, GroupKey key) {
+      long start = System.nanoTime();
+      Columns c = this.columns;
+      int groups = key.cardinality(c);
+      long[] acc = ForkJoinPool.commonPool().invoke(new ScanTask((a, from, to) -> {
+         for (int row = from; row < to; row++) {
+            if (filter.test(c, row)) {
+               int g = key.key(c, row) * ORDER_COUNTERS;
+               a[g] += 1;
+               a[g + 1] += c.cents[row];
+               a[g + 2] += c.items[row];
+            }
+         }
+      }, groups * ORDER_COUNTERS, 0, c.size));
+      return collect(c, acc, ORDER_COUNTERS, groups, key, c.size, System.nanoTime() - start);
+   }//end groupBy
+
+   /**
+    * Counts the quantity of each item over the orders passing the filter,
+    * and the number of orders it is in.
+    *
+    * @param filter the orders to look at
+    * @return the items ordered, highest quantity first
+    */
+   public Groups itemTotals(Filter filter) {
+      long start = System.nanoTime();
+      Columns c = this.columns;
+      int groups = c.itemNames.length;
+      long[] acc = ForkJoinPool.commonPool().invoke(new ScanTask((a, from, to) -> {
+         for (int line = from; line < to; line++) {
+            if (filter.test(c, c.lineRow[line])) {
+               int g = c.lineItem[line] * 2;
+               a[g] += c.lineQty[line];
+               a[g + 1] += 1;
+            }
+         }
+      }, groups * 2, 0, c.lines));
+      GroupKey byItem = new GroupKey() {
+         public int cardinality(Columns cols) { return cols.itemNames.length; }
+         public int key(Columns cols, int line) { return cols.lineItem[line]; }
+         public String label(Columns cols, int key) { return cols.itemNames[key]; }
+      };
+      return collect(c, acc, 2, groups, byItem, c.lines, System.nanoTime() - start);
+   }//end itemTotals
+
+   private static Groups collect(Columns c, long[] acc, int width, int groups, GroupKey key,
+                                 int scanned, long nanos) {
+      List<Integer> nonEmpty = new ArrayList<Integer>();
+      for (int g = 0; g < groups; g++) {
+         if (acc[g * width] != 0)
+            nonEmpty.add(g);
+      }
+      nonEmpty.sort((a, b) -> Long.compare(acc[b * width], acc[a * width]));
+      Groups result = new Groups(scanned, nanos);
+      for (int g : nonEmpty) {
+         result.labels.add(key.label(c, g));
+         result.counters.add(Arrays.copyOfRange(acc, g * width, (g + 1) * width));
+      }
+      return result;
+   }
+}//end OrderSnapshot
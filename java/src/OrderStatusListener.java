@@ -0,0 +1,215 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class pushes order status changes to the sessions tracking them.
+ * The trigger in sql/src/create_triggers.sql NOTIFYs the channel
+ * order_<orderID> on every status change; the listener thread LISTENs on
+ * the channels of the orders someone subscribed to, and reads the new
+ * statuses of all orders notified since its last check with one query.
+ *
+ * The bundled driver only delivers notifications after a round trip and
+ * without their payload, so the thread sends an empty statement every
+ * POLL_MS: a constant cost, however many orders are tracked.
+ *
+ * Without a connection (in-memory storage) changes are published by the
+ * application itself through publish.
+ *
+ */
+public class OrderStatusListener implements AutoCloseable {
+
+   // how often the listener checks for notifications.
+   static final long POLL_MS = Long.getLong("pizzastore.notify.pollMs", 250);
+
+   static final String CHANNEL_PREFIX = "order_";
+
+   private final Connection connection;
+   private final Map<Integer, List<BiConsumer<Integer, String>>> subscribers =
+      new ConcurrentHashMap<Integer, List<BiConsumer<Integer, String>>>();
+   // LISTEN and UNLISTEN statements for the listener thread to issue.
+   private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>();
+   private final AtomicLong queries = new AtomicLong();
+   private final AtomicLong delivered = new AtomicLong();
+   private final Thread thread;
+   private volatile boolean running = true;
+
+   /**
+    * Creates a listener.  With a connection it starts its thread, and owns
+    * the connection from then on.
+    *
+    * @param connection a connection used only by the listener, or null
+    */
+   public OrderStatusListener(Connection connection) {
+      this.connection = connection;
+      if (connection == null) {
+         this.thread = null;
+         return;
+      }
+      this.thread = new Thread(this::listen, "status-listener");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }//end OrderStatusListener
+
+   /**
+    * Calls the subscriber with (orderID, status) on every status change of
+    * the order, on the listener thread.
+    */
+   public void subscribe(int orderID, BiConsumer<Integer, String> subscriber) {
+      this.subscribers.compute(orderID, (id, list) -> {
+         if (list == null) {
+            list = new CopyOnWriteArrayList<BiConsumer<Integer, String>>();
+            this.pending.add("LISTEN " + CHANNEL_PREFIX + orderID);
+         }
+         list.add(subscriber);
+         return list;
+      });
+   }//end subscribe
+
+   public void unsubscribe(int orderID, BiConsumer<Integer, String> subscriber) {
+      this.subscribers.computeIfPresent(orderID, (id, list) -> {
+         list.remove(subscriber);
+         if (!list.isEmpty())
+            return list;
+         this.pending.add("UNLISTEN " + CHANNEL_PREFIX + orderID);
+         return null;
+      });
+   }//end unsubscribe
+
+   /**
+    * Hands a status change to the order's subscribers.  Only used when
+    * there is no connection; otherwise the trigger reports every change.
+    */
+   public void publish(int orderID, String status) {
+      if (this.connection != null)
+         return;
+      deliver(orderID, status);
+   }//end publish
+
+   private void deliver(int orderID, String status) {
+      List<BiConsumer<Integer, String>> list = this.subscribers.get(orderID);
+      if (list == null)
+         return;
+      for (BiConsumer<Integer, String> subscriber : list) {
+         subscriber.accept(orderID, status);
+         this.delivered.incrementAndGet();
+      }
+   }
+
+   /**
+    * @return the number of statements the listener sent to the database
+    */
+   public long getQueryCount() {
+      return this.queries.get();
+   }
+
+   /**
+    * @return the number of status changes handed to subscribers
+    */
+   public long getDeliveredCount() {
+      return this.delivered.get();
+   }
+
+   /**
+    * Stops the listener thread and closes its connection.
+    */
+   public void close() {
+      this.running = false;
+      if (this.thread == null)
+         return;
+      this.thread.interrupt();
+      try {
+         this.thread.join(POLL_MS * 4);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }//end close
+
+   /*
+    * The listener thread.
+    */
+   private void listen() {
+      try {
+         Statement stmt = this.connection.createStatement();
+         while (this.running) {
+            String command;
+            while ((command = this.pending.poll()) != null) {
+               stmt.execute(command);
+               this.queries.incrementAndGet();
+            }
+
+            // an empty statement, for the driver to read notifications.
+            stmt.execute(";");
+            this.queries.incrementAndGet();
+            PGNotification[] notifications = ((PGConnection) this.connection).getNotifications();
+            if (notifications != null && notifications.length > 0)
+               readStatuses(stmt, notifications);
+
+            try {
+               Thread.sleep(POLL_MS);
+            } catch (InterruptedException e) {
+               // close() wakes the thread up.
+            }
+         }
+         stmt.close();
+      } catch (SQLException e) {
+         if (this.running)
+            System.err.println("Order status listener stopped: " + e.getMessage());
+      } finally {
+         try {
+            this.connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end listen
+
+   private void readStatuses(Statement stmt, PGNotification[] notifications) throws SQLException {
+      Set<Integer> orderIDs = new TreeSet<Integer>();
+      for (PGNotification notification : notifications) {
+         String name = notification.getName();
+         if (name.startsWith(CHANNEL_PREFIX))
+            orderIDs.add(Integer.parseInt(name.substring(CHANNEL_PREFIX.length())));
+      }
+      if (orderIDs.isEmpty())
+         return;
+      StringBuilder ids = new StringBuilder();
+      for (int orderID : orderIDs)
+         ids.append(ids.length() == 0 ? "" : ", ").append(orderID);
+      ResultSet rs = stmt.executeQuery(String.format(JdbcStorage.FIND_ORDER_STATUSES, ids));
+      this.queries.incrementAndGet();
+      List<Object[]> changes = new ArrayList<Object[]>();
+      while (rs.next())
+         changes.add(new Object[] { rs.getInt(1), rs.getString(2).trim() });
+      rs.close();
+      for (Object[] change : changes)
+         deliver((Integer) change[0], (String) change[1]);
+   }
+}//end OrderStatusListener
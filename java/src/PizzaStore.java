@@ -17,12 +17,34 @@ import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.io.File;
 import java.io.FileReader;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.EOFException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicStampedReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.lang.Math;
 
 /**
@@ -35,10 +57,130 @@ public class PizzaStore {
    // reference to physical database connection.
    private Connection _connection = null;
 
-   // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // serializes use of the connection between threads; held for the whole
+   // of an open transaction so no other thread's statement joins it.
+   private final ReentrantLock _lock = new ReentrantLock();
+
+   // the transaction open on the connection, if any.
+   private Transaction _transaction = null;
+
+   // number of commits issued, counting each autocommitted update.
+   private final AtomicLong _commits = new AtomicLong();
+
+   // number of transactions retried after a contention failure.
+   private final AtomicLong _retries = new AtomicLong();
+
+   // number of statements sent on the connection.
+   private final AtomicLong _queries = new AtomicLong();
+
+   // optional read replica that serves browse-only queries, see connectReplica.
+   private volatile PizzaStore _replica = null;
+
+   // connections for queries run in the background, see connectPool.
+   private volatile QueryPool _pool = null;
+
+   // connections leased to sessions, and those not leased right now; see
+   // connectSessions.
+   private volatile List<PizzaStore> _sessionConnections = null;
+   private volatile BlockingQueue<PizzaStore> _sessionIdle = null;
+
+   // the lease of each session's thread, see lease.
+   private final ThreadLocal<Lease> _leased = new ThreadLocal<Lease>();
+
+   // the replica is skipped until this time after it failed.
+   private volatile long _replicaDownUntil = 0;
+
+   // time of each user's last write, for the read-your-writes window.
+   private final ConcurrentHashMap<String, Long> _lastWrite = new ConcurrentHashMap<String, Long>();
+
+   // how long a user's reads stay on the primary after they wrote.
+   static final long READ_YOUR_WRITES_MS = Long.getLong("pizzastore.readYourWritesMs", 5000);
+
+   // connections opened for background queries, 0 to run them in line.
+   static final int POOL_SIZE = Integer.getInteger("pizzastore.pool.size", 4);
+
+   // how long a failed replica is left alone before it is tried again.
+   static final long REPLICA_RETRY_MS = 30000;
+
+   // backoff between retries of a transaction that hit contention.
+   static final long RETRY_BASE_BACKOFF_MS = 5;
+   static final long RETRY_MAX_BACKOFF_MS = 200;
+
+   // rows shown per "--more--" page of a listing.
+   static final int PAGE_SIZE = Integer.getInteger("pizzastore.pageSize", 40);
+
+   // set -Dpizzastore.timing=true to report rendering throughput.
+   static final boolean TIMING = Boolean.getBoolean("pizzastore.timing");
+
+   // in-memory search index over the menu, rebuilt after menu changes;
+   // the stamp counts the changes, see getMenuIndex.
+   private final AtomicStampedReference<MenuSearchIndex> _menuIndex =
+      new AtomicStampedReference<MenuSearchIndex>(null, 0);
+
+   // Store rows in viewStores order, loaded once and kept in order as
+   // reviews change the scores.
+   private volatile StoreRanking _storeRanking = null;
+
+   // promotions compiled for checkout, reloaded every PROMOTIONS_TTL_MS.
+   private volatile PromotionEngine _promotions = null;
+
+   // set while a background reload of the promotions runs.
+   private final AtomicBoolean _promotionsLoading = new AtomicBoolean();
+
+   // how often the manager dashboard is redrawn.
+   static final long DASHBOARD_REFRESH_MS = Long.getLong("pizzastore.dashboard.refreshMs", 2000);
+
+   // add-ons suggested after each item added at checkout, 0 for none.
+   static final int SUGGESTIONS = Integer.getInteger("pizzastore.suggestions", 3);
+
+   // how long compiled promotions are used before they are reloaded.
+   static final long PROMOTIONS_TTL_MS = Long.getLong("pizzastore.promotions.ttlMs", 60000);
+
+   // journal of order and menu events, if one is configured.
+   private volatile EventJournal _journal = null;
+
+   // queues of Ready orders waiting for a driver, see getDispatcher.
+   private Dispatcher _dispatcher = null;
+
+   // orders each store's kitchen has yet to start, see getKitchen.
+   private KitchenQueue _kitchen = null;
+
+   // pushes order status changes to the sessions tracking them.
+   private volatile OrderStatusListener _statusListener = null;
+
+   // live per-store order counts for the manager dashboard, see getOrderCounters.
+   private final OrderCounters _counters = new OrderCounters(Arrays.asList(
+      ORDER_PENDING, ORDER_PREPARING, ORDER_READY, ORDER_OUT_FOR_DELIVERY));
+
+   // items bought together, for the add-ons suggested at checkout; see
+   // loadItemPairs.
+   private final ItemPairs _itemPairs = new ItemPairs();
+
+   // columnar copy of the orders for the manager analytics, see getOrderSnapshot.
+   private final OrderSnapshot _orderSnapshot = new OrderSnapshot();
+
+   // data access used by the menu handlers, Postgres unless created by
+   // inMemory.
+   private final UserRepository _users;
+   private final ItemRepository _items;
+   private final StoreRepository _storeRepository;
+   private final PromotionRepository _promotionRepository;
+   // replaced by sharded storage when a shard map is configured.
+   private volatile OrderRepository _orders;
+
+   // the shards, if orders are sharded; see connectShards.
+   private volatile ShardedOrders _shards = null;
+
+   // order statuses the kitchen and the dispatcher work with.
+   static final String ORDER_PENDING = "Pending";
+   static final String ORDER_PREPARING = "Preparing";
+   static final String ORDER_READY = "Ready";
+   static final String ORDER_OUT_FOR_DELIVERY = "Out for Delivery";
+
+   // tables the application expects to find, see sql/src/create_tables.sql.
+   static final List<String> SCHEMA_TABLES = Arrays.asList(
+      "users", "items", "store", "foodorder", "itemsinorder", "review",
+      "promotion", "promotionitem");
 
    /**
     * Creates a new instance of PizzaStore
@@ -50,16 +192,16 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public PizzaStore(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this((Connection) null);
 
-      System.out.print("Connecting to database...");
+      // the connection is made while the main menu is already shown, so
+      // progress is reported through the startup log instead of stdout.
       try{
          // constructs the connection URL
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
 
          // obtain a physical connection
          this._connection = DriverManager.getConnection(url, user, passwd);
-         System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
@@ -68,65 +210,356 @@ public class PizzaStore {
    }//end PizzaStore
 
    /**
-    * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * Creates a new instance of PizzaStore on an existing connection
     *
-    * @param sql the input SQL string
-    * @throws java.sql.SQLException when update failed
+    * @param connection the physical connection to use
+    */
+   PizzaStore(Connection connection) {
+      this._connection = connection;
+      this._users = new JdbcStorage.Users(this);
+      this._items = new JdbcStorage.Items(this);
+      this._storeRepository = new JdbcStorage.Stores(this);
+      this._promotionRepository = new JdbcStorage.Promotions(this);
+      this._orders = new JdbcStorage.Orders(this);
+   }//end PizzaStore
+
+   /*
+    * Creates a PizzaStore without a database, on the given storage.
+    **/
+   private PizzaStore(InMemoryStorage storage) {
+      this._users = storage.users();
+      this._items = storage.items();
+      this._storeRepository = storage.stores();
+      this._promotionRepository = storage.promotions();
+      this._orders = storage.orders();
+   }//end PizzaStore
+
+   /**
+    * Creates a PizzaStore that keeps all of its data in memory.  It has no
+    * connection, so only the repositories may be used, not the execute*
+    * methods.
+    *
+    * @param storage the in-memory storage engine
+    * @return the PizzaStore
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public static PizzaStore inMemory(InMemoryStorage storage) {
+      return new PizzaStore(storage);
+   }//end inMemory
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   public UserRepository users() {
+      return this._users;
+   }
 
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   public ItemRepository items() {
+      return this._items;
+   }
+
+   public StoreRepository stores() {
+      return this._storeRepository;
+   }
+
+   public OrderRepository orders() {
+      return this._orders;
+   }
+
+   public PromotionRepository promotions() {
+      return this._promotionRepository;
+   }
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * Method to connect a read replica.  Browse-only queries issued through
+    * the executeRead* methods are sent to it from then on.
     *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
+    * @param url the JDBC URL of the replica
+    * @param user the user name used to login to the replica
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when failed to connect to the replica
+    */
+   public void connectReplica(String url, String user, String passwd) throws SQLException {
+      this._replica = new PizzaStore(DriverManager.getConnection(url, user, passwd));
+   }//end connectReplica
+
+   /**
+    * Method to open the connections that async runs work on.  They reach
+    * the same database as this one; orders go to the shards if they are
+    * sharded.
+    *
+    * @param url the JDBC URL of the database
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param size the number of connections, and of queries run at once
+    * @throws java.sql.SQLException when failed to connect; connections
+    * already opened are closed
+    */
+   public void connectPool(String url, String user, String passwd, int size) throws SQLException {
+      List<PizzaStore> connections = new ArrayList<PizzaStore>(size);
+      try {
+         for (int i = 0; i < size; i++) {
+            PizzaStore db = new PizzaStore(DriverManager.getConnection(url, user, passwd));
+            if (this._shards != null)
+               db._orders = this._shards;
+            connections.add(db);
+         }
+      } catch (SQLException e) {
+         for (PizzaStore db : connections)
+            db.cleanup();
+         throw e;
+      }
+      this._pool = new QueryPool(connections);
+   }//end connectPool
+
+   /**
+    * Method to open the connections that sessions lease, see lease.
+    * Without them every session's statements take turns on this
+    * connection.
+    *
+    * @param url the JDBC URL of the database
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param size the number of connections, and of sessions running
+    * statements at once
+    * @throws java.sql.SQLException when failed to connect; connections
+    * already opened are closed
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public void connectSessions(String url, String user, String passwd, int size) throws SQLException {
+      List<PizzaStore> connections = new ArrayList<PizzaStore>(size);
+      try {
+         for (int i = 0; i < size; i++)
+            connections.add(new PizzaStore(DriverManager.getConnection(url, user, passwd)));
+      } catch (SQLException e) {
+         for (PizzaStore db : connections)
+            db.cleanup();
+         throw e;
+      }
+      this._sessionConnections = connections;
+      this._sessionIdle = new ArrayBlockingQueue<PizzaStore>(size, false, connections);
+   }//end connectSessions
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to give the calling thread a lease on a session connection.
+    * From then on the execute* methods and transactions called from the
+    * thread run on the leased connection instead of this one, taking it
+    * at the first statement; Lease.release gives it back in between.
+    *
+    * @return the thread's lease; close it when the thread is done
+    */
+   public Lease lease() {
+      Lease lease = new Lease();
+      this._leased.set(lease);
+      return lease;
+   }//end lease
+
+   /**
+    * A session's claim on the session connections, see lease.
+    */
+   public final class Lease implements AutoCloseable {
+
+      // the connection taken, or null between statements.
+      private PizzaStore connection = null;
 
       /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
+       * Returns the connection to run the thread's statements on, waiting
+       * for one to be free if need be.
+       **/
+      PizzaStore connection() throws SQLException {
+         BlockingQueue<PizzaStore> idle = PizzaStore.this._sessionIdle;
+         if (idle == null)
+            return PizzaStore.this;
+         if (this.connection == null) {
+            try {
+               this.connection = idle.take();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SQLException("Interrupted while waiting for a connection");
+            }
+         }
+         return this.connection;
+      }//end connection
+
+      /**
+       * Gives the connection back for other sessions, unless a transaction
+       * is open on it.
        */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
-   }//end executeQuery
+      public void release() {
+         PizzaStore db = this.connection;
+         if (db != null && !db._lock.isHeldByCurrentThread()) {
+            this.connection = null;
+            PizzaStore.this._sessionIdle.add(db);
+         }
+      }//end release
+
+      public void close() {
+         release();
+         if (PizzaStore.this._leased.get() == this)
+            PizzaStore.this._leased.remove();
+      }//end close
+   }//end Lease
+
+   /*
+    * The connection the calling thread's statements run on: the one it
+    * leased if it holds a lease, otherwise this one.
+    **/
+   private PizzaStore connection() throws SQLException {
+      Lease lease = this._leased.get();
+      return lease == null ? this : lease.connection();
+   }
+
+   /*
+    * Tells whether the calling thread has a transaction open, on this
+    * connection or on the one it leased.
+    **/
+   private boolean inOwnTransaction() {
+      Lease lease = this._leased.get();
+      PizzaStore db = lease == null || lease.connection == null ? this : lease.connection;
+      return db._lock.isHeldByCurrentThread();
+   }
+
+   /**
+    * Method to run work in the background on a pooled connection, so
+    * independent queries can run at the same time.  Without a pool, or
+    * inside a transaction of the calling thread (whose writes the work
+    * must see), the work runs in line on this connection.
+    *
+    * @param work the queries to run, given the connection to run them on
+    * @return the work's result, or its failure
+    */
+   public <T> CompletableFuture<T> async(QueryPool.Work<T> work) {
+      QueryPool pool = this._pool;
+      if (pool != null && !inOwnTransaction())
+         return pool.submit(work);
+      try {
+         return CompletableFuture.completedFuture(work.run(this));
+      } catch (Exception e) {
+         return CompletableFuture.failedFuture(e);
+      }
+   }//end async
+
+   /*
+    * Waits for background work and returns its result, throwing its own
+    * failure rather than a CompletionException.
+    **/
+   static <T> T await(CompletableFuture<T> future) throws Exception {
+      try {
+         return future.join();
+      } catch (CompletionException e) {
+         if (e.getCause() instanceof Exception)
+            throw (Exception) e.getCause();
+         throw e;
+      }
+   }//end await
+
+   /**
+    * Method to store orders in the shards of a shard map instead of this
+    * database, see ShardedOrders.
+    *
+    * @param shardMap the shard map file
+    * @param dbport the port of the shards' server
+    * @param user the user name to connect with
+    * @param passwd the password to connect with
+    * @throws java.io.IOException when failed to read the shard map
+    * @throws java.sql.SQLException when failed to connect to a shard
+    */
+   public void connectShards(File shardMap, String dbport, String user, String passwd) throws IOException, SQLException {
+      this._shards = new ShardedOrders(this, shardMap, dbport, user, passwd);
+      this._orders = this._shards;
+      QueryPool pool = this._pool;
+      if (pool != null) {
+         for (PizzaStore db : pool.connections())
+            db._orders = this._shards;
+      }
+   }//end connectShards
+
+   /**
+    * Method to execute a read-only query on the read replica when one is
+    * connected and usable, otherwise on the primary.  Reads for a user who
+    * wrote within the last READ_YOUR_WRITES_MS, and reads inside an open
+    * transaction, always go to the primary.
+    *
+    * @param query the input query string
+    * @param login the user the read is made for, or null if it does not
+    * depend on the user's own writes
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeReadQueryAndReturnResult (String query, String login) throws SQLException {
+      PizzaStore reader = reader(login);
+      if (reader != this) {
+         try {
+            return reader.executeQueryAndReturnResult(query);
+         } catch (SQLException e) {
+            replicaFailed(e);
+         }
+      }
+      return executeQueryAndReturnResult(query);
+   }//end executeReadQueryAndReturnResult
+
+   /**
+    * Method to record that a user just wrote, so their reads see it.
+    *
+    * @param login the user who wrote
+    */
+   public void noteWrite(String login) {
+      if (this._replica != null)
+         this._lastWrite.put(login, System.currentTimeMillis());
+   }//end noteWrite
+
+   private PizzaStore reader(String login) {
+      PizzaStore replica = this._replica;
+      long now = System.currentTimeMillis();
+      if (replica == null || now < this._replicaDownUntil || inOwnTransaction())
+         return this;
+      if (login != null) {
+         Long lastWrite = this._lastWrite.get(login);
+         if (lastWrite != null) {
+            if (now - lastWrite < READ_YOUR_WRITES_MS)
+               return this;
+            this._lastWrite.remove(login, lastWrite);
+         }
+      }
+      return replica;
+   }
+
+   private void replicaFailed(SQLException e) {
+      System.err.println("Read replica failed, using the primary: " + e.getMessage());
+      this._replicaDownUntil = System.currentTimeMillis() + REPLICA_RETRY_MS;
+   }
+
+   /**
+    * Method to execute an update SQL statement.  Update SQL instructions
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    *
+    * @param sql the input SQL string
+    * @return the number of rows the statement changed
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql) throws SQLException {
+      PizzaStore db = connection();
+      if (db != this)
+         return db.executeUpdate(sql);
+      this._lock.lock();
+      this._queries.incrementAndGet();
+      Tracing.QueryEvent trace = Tracing.beginQuery();
+      long traceRows = 0;
+      try {
+         // creates a statement object
+         Statement stmt = this._connection.createStatement ();
+
+         // issues the update instruction
+         int rowCount = stmt.executeUpdate (sql);
+
+         // close the instruction
+         stmt.close ();
+
+         // outside a transaction every update is its own commit.
+         if (this._transaction == null)
+            countCommit();
+         traceRows = rowCount;
+         return rowCount;
+      } finally {
+         Tracing.endQuery(trace, sql, traceRows);
+         this._lock.unlock();
+      }
+   }//end executeUpdate
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -138,33 +571,98 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+      PizzaStore db = connection();
+      if (db != this)
+         return db.executeQueryAndReturnResult(query);
+      this._lock.lock();
+      this._queries.incrementAndGet();
+      Tracing.QueryEvent trace = Tracing.beginQuery();
+      long traceRows = 0;
+      try {
+         // creates a statement object
+         Statement stmt = this._connection.createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         int rowCount = 0;
+
+         // iterates through the result set and saves the data returned by the query.
+         boolean outputHeader = false;
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+           List<String> record = new ArrayList<String>();
+			for (int i=1; i<=numCol; ++i)
+				record.add(rs.getString (i));
+           result.add(record);
+         }//end while
+         stmt.close ();
+         traceRows = result.size();
+         return result;
+      } finally {
+         Tracing.endQuery(trace, query, traceRows);
+         this._lock.unlock();
+      }
    }//end executeQueryAndReturnResult
 
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+    * each row to the handler as it is read, fetching fetchSize rows per
+    * round trip through a cursor instead of holding the whole result.
+    *
+    * @param query the input query string
+    * @param fetchSize the number of rows fetched per round trip
+    * @param handler receives each row
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndStream (String query, int fetchSize, Consumer<List<String>> handler) throws SQLException {
+      PizzaStore db = connection();
+      if (db != this)
+         return db.executeQueryAndStream(query, fetchSize, handler);
+      this._lock.lock();
+      this._queries.incrementAndGet();
+      Tracing.QueryEvent trace = Tracing.beginQuery();
+      long traceRows = 0;
+      try {
+         // the driver only reads through a cursor inside a transaction.
+         boolean ownTransaction = this._transaction == null && this._connection.getAutoCommit();
+         if (ownTransaction)
+            this._connection.setAutoCommit(false);
+         try {
+            Statement stmt = this._connection.createStatement ();
+            stmt.setFetchSize (fetchSize);
+            ResultSet rs = stmt.executeQuery (query);
+            int numCol = rs.getMetaData ().getColumnCount ();
+            int rowCount = 0;
+            while (rs.next()){
+               List<String> record = new ArrayList<String>(numCol);
+               for (int i=1; i<=numCol; ++i)
+                  record.add(rs.getString (i));
+               handler.accept(record);
+               ++rowCount;
+            }//end while
+            stmt.close ();
+            traceRows = rowCount;
+            return rowCount;
+         } finally {
+            if (ownTransaction) {
+               this._connection.rollback();
+               this._connection.setAutoCommit(true);
+            }
+         }
+      } finally {
+         Tracing.endQuery(trace, query, traceRows);
+         this._lock.unlock();
+      }
+   }//end executeQueryAndStream
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
@@ -174,20 +672,33 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
-
-       int rowCount = 0;
-
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+      PizzaStore db = connection();
+      if (db != this)
+         return db.executeQuery(query);
+      this._lock.lock();
+      this._queries.incrementAndGet();
+      Tracing.QueryEvent trace = Tracing.beginQuery();
+      long traceRows = 0;
+      try {
+          // creates a statement object
+          Statement stmt = this._connection.createStatement ();
+
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery (query);
+
+          int rowCount = 0;
+
+          // iterates through the result set and count nuber of results.
+          while (rs.next()){
+             rowCount++;
+          }//end while
+          stmt.close ();
+          traceRows = rowCount;
+          return rowCount;
+      } finally {
+         Tracing.endQuery(trace, query, traceRows);
+         this._lock.unlock();
+      }
    }
 
    /**
@@ -200,19 +711,749 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      PizzaStore db = connection();
+      if (db != this)
+         return db.getCurrSeqVal(sequence);
+      this._lock.lock();
+      this._queries.incrementAndGet();
+      Tracing.QueryEvent trace = Tracing.beginQuery();
+      long traceRows = 0;
+      try {
+		Statement stmt = this._connection.createStatement ();
+
+		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+		if (rs.next()) {
+			traceRows = 1;
+			return rs.getInt(1);
+		}
+		return -1;
+      } finally {
+         Tracing.endQuery(trace, "currval('" + sequence + "')", traceRows);
+         this._lock.unlock();
+      }
+   }
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+    * Method to start a transaction.  Until it is committed or rolled back,
+    * the execute* methods called from this thread run inside it and other
+    * threads wait for the connection.
+    *
+    * @param isolation the isolation level, e.g. Transaction.SERIALIZABLE
+    * @return the open transaction; close it to roll back uncommitted work
+    * @throws java.sql.SQLException when the transaction could not be started
+    */
+   public Transaction beginTransaction(int isolation) throws SQLException {
+      PizzaStore db = connection();
+      if (db != this)
+         return db.beginTransaction(isolation);
+      this._lock.lock();
+      if (this._transaction != null) {
+         this._lock.unlock();
+         throw new SQLException("A transaction is already open on this connection");
+      }
+      try {
+         this._transaction = new Transaction(this, this._connection, isolation);
+         return this._transaction;
+      } catch (SQLException e) {
+         this._lock.unlock();
+         throw e;
+      }
+   }//end beginTransaction
+
+   /**
+    * Method to run work as one transaction.  The transaction is committed
+    * when the work returns (unless the work ended it itself) and rolled
+    * back when it throws.
+    *
+    * @param isolation the isolation level, e.g. Transaction.SERIALIZABLE
+    * @param work the statements to run
+    * @return the value returned by the work
+    * @throws java.lang.Exception whatever the work or the commit threw
+    */
+   public <T> T inTransaction(int isolation, Transaction.Work<T> work) throws Exception {
+      try (Transaction tx = beginTransaction(isolation)) {
+         T result = work.run(tx);
+         if (tx.isOpen())
+            tx.commit();
+         return result;
+      }
+   }//end inTransaction
+
+   /**
+    * Method to run work as one transaction, retrying it with jittered
+    * exponential backoff when it fails on contention: a serialization
+    * failure or a deadlock.  Any other failure, a unique key violation
+    * among them, is thrown immediately.
+    *
+    * @param isolation the isolation level, e.g. Transaction.SERIALIZABLE
+    * @param maxAttempts how many times to run the work at most
+    * @param work the statements to run; must be safe to run again
+    * @return the value returned by the successful attempt
+    * @throws java.lang.Exception the last failure once attempts run out
+    */
+   public <T> T inTransactionWithRetry(int isolation, int maxAttempts, Transaction.Work<T> work) throws Exception {
+      for (int attempt = 1; ; ++attempt) {
+         try {
+            return inTransaction(isolation, work);
+         } catch (SQLException e) {
+            if (attempt >= maxAttempts || !isContention(e))
+               throw e;
+            this._retries.incrementAndGet();
+            // full jitter: sleep anywhere up to 5ms * 2^attempt, capped.
+            long ceiling = Math.min(RETRY_MAX_BACKOFF_MS, RETRY_BASE_BACKOFF_MS << attempt);
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+         }
+      }
+   }//end inTransactionWithRetry
+
+   /*
+    * Tells whether a failure comes from concurrent transactions colliding.
+    * The bundled JDBC driver often leaves the SQLState empty, so the
+    * server message is checked as well.
+    **/
+   static boolean isContention(SQLException e) {
+      String state = e.getSQLState();
+      if (state != null && (state.equals("40001") || state.equals("40P01")))
+         return true;
+      String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase();
+      return message.contains("could not serialize")
+          || message.contains("deadlock detected");
+   }
+
+   /**
+    * Method to get the number of statements sent, on this connection and
+    * on the replica, pooled and session connections.
+    *
+    * @return the query count
+    */
+   public long getQueryCount() {
+      PizzaStore replica = this._replica;
+      QueryPool pool = this._pool;
+      long queries = this._queries.get() + (replica == null ? 0 : replica.getQueryCount())
+         + (pool == null ? 0 : pool.getQueryCount());
+      List<PizzaStore> sessions = this._sessionConnections;
+      if (sessions != null) {
+         for (PizzaStore db : sessions)
+            queries += db.getQueryCount();
+      }
+      return queries;
+   }
+
+   /**
+    * Method to get the number of transactions retried on contention.
+    *
+    * @return the retry count
+    */
+   public long getRetryCount() {
+      return this._retries.get();
+   }//end getRetryCount
+
+   // called by Transaction when it commits or rolls back.
+   void endTransaction(Transaction tx) {
+      if (this._transaction == tx) {
+         this._transaction = null;
+         this._lock.unlock();
+      }
+   }
+
+   // called by Transaction on every successful commit.
+   void countCommit() {
+      this._commits.incrementAndGet();
+   }
+
+   /**
+    * Method to get the number of commits issued on the connection so far.
+    *
+    * @return the commit count
+    */
+   public long getCommitCount() {
+      long commits = this._commits.get();
+      List<PizzaStore> sessions = this._sessionConnections;
+      if (sessions != null) {
+         for (PizzaStore db : sessions)
+            commits += db.getCommitCount();
+      }
+      return commits;
+   }//end getCommitCount
+
+   /**
+    * Method to get the in-memory menu index, loading it from the Items
+    * table the first time it is needed after a menu change.  The table is
+    * read on the primary, so the index has the change that discarded the
+    * last one even when a replica is behind.
+    *
+    * @return the current menu index
+    * @throws java.sql.SQLException when failed to load the menu
+    */
+   public MenuSearchIndex getMenuIndex() throws SQLException {
+      // a concurrent first use may load the index twice, which is harmless;
+      // holding a monitor here could deadlock against an open transaction.
+      int[] version = new int[1];
+      MenuSearchIndex index = this._menuIndex.get(version);
+      if (index == null) {
+         index = MenuSearchIndex.build(items().findAllCurrent());
+         // a load overtaken by a menu change is used once, not kept.
+         this._menuIndex.compareAndSet(null, index, version[0], version[0]);
+      }
+      return index;
+   }//end getMenuIndex
+
+   /**
+    * Method to discard the menu index after the Items table changed.
+    */
+   public void invalidateMenuIndex() {
+      int[] version = new int[1];
+      MenuSearchIndex index;
+      do {
+         index = this._menuIndex.get(version);
+      } while (!this._menuIndex.compareAndSet(index, null, version[0], version[0] + 1));
+   }//end invalidateMenuIndex
+
+   /**
+    * Method to get every store, ordered by review score, loading them the
+    * first time they are needed.
+    *
+    * @return the Store rows (storeID, address, city, state, isOpen,
+    * reviewScore, reviewCount)
+    * @throws java.sql.SQLException when failed to load the stores
+    */
+   public List<List<String>> getStores() throws SQLException {
+      return getStoreRanking().top(0);
+   }//end getStores
+
+   /**
+    * Method to get the store ranking, loading it the first time it is
+    * needed.
+    *
+    * @return the stores ordered by review score
+    * @throws java.sql.SQLException when failed to load the stores
+    */
+   public StoreRanking getStoreRanking() throws SQLException {
+      StoreRanking ranking = this._storeRanking;
+      if (ranking == null) {
+         ranking = new StoreRanking(stores().findAllByReviewScore());
+         this._storeRanking = ranking;
+      }
+      return ranking;
+   }//end getStoreRanking
+
+   /**
+    * Method to get the compiled promotions, loading them the first time
+    * they are needed.  Once they are PROMOTIONS_TTL_MS old one reload is
+    * started in the background, and the old promotions are served until
+    * it is done, so checkout never waits for it.
+    *
+    * @return the promotions
+    * @throws java.sql.SQLException when failed to load the promotions
+    */
+   public PromotionEngine getPromotions() throws SQLException {
+      PromotionEngine promotions = this._promotions;
+      if (promotions == null) {
+         promotions = PromotionEngine.compile(promotions().findActive());
+         this._promotions = promotions;
+      }
+      else if (System.currentTimeMillis() - promotions.getLoadedAt() > PROMOTIONS_TTL_MS
+               && this._promotionsLoading.compareAndSet(false, true)) {
+         Thread reload = new Thread(() -> {
+            try {
+               this._promotions = PromotionEngine.compile(promotions().findActive());
+            } catch (SQLException e) {
+               // kept until the next attempt.
+               System.err.println("Reloading promotions failed: " + e.getMessage());
+            } finally {
+               this._promotionsLoading.set(false);
+            }
+         }, "promotions-reload");
+         reload.setDaemon(true);
+         reload.start();
+      }
+      return promotions;
+   }//end getPromotions
+
+   /**
+    * Method to record a customer's review of an order, and move its store
+    * to its new place in the ranking.
+    *
+    * @return the store's new [storeID, reviewScore, reviewCount], or null if
+    * the order was already reviewed
+    * @throws java.sql.SQLException when failed to store the review
+    */
+   public List<String> reviewOrder(int orderID, String login, int storeID, int rating, String comment) throws SQLException {
+      List<String> store = stores().review(orderID, login, storeID, rating, comment);
+      if (store != null)
+         getStoreRanking().update(storeID, store.get(1).trim(), store.get(2).trim());
+      return store;
+   }//end reviewOrder
+
+   /**
+    * Method to check whether a store exists, answered from the store cache.
+    *
+    * @param storeID the store to look for
+    * @return true if the store exists
+    * @throws java.sql.SQLException when failed to load the stores
+    */
+   public boolean hasStore(int storeID) throws SQLException {
+      return getStoreRanking().contains(storeID);
+   }//end hasStore
+
+   /**
+    * Method to get the columnar order snapshot, first loading the orders
+    * placed since it was last refreshed.
+    *
+    * @return the up to date snapshot
+    * @throws java.sql.SQLException when failed to read the orders
+    */
+   public OrderSnapshot getOrderSnapshot() throws SQLException {
+      long start = System.nanoTime();
+      int added = this._orderSnapshot.refresh(this);
+      if (TIMING) {
+         System.err.println(String.format("[timing] snapshot refresh: %d new orders in %.1f ms",
+            added, (System.nanoTime() - start) / 1e6));
+      }
+      return this._orderSnapshot;
+   }//end getOrderSnapshot
+
+   /**
+    * Method to get the delivery dispatcher, filling its queues with every
+    * Ready order the first time it is needed.  Status changes made through
+    * updateOrderStatus keep it current from then on.
+    *
+    * @return the dispatcher
+    * @throws java.sql.SQLException when failed to read the Ready orders
+    */
+   public synchronized Dispatcher getDispatcher() throws SQLException {
+      if (this._dispatcher == null) {
+         Dispatcher dispatcher = new Dispatcher();
+         for (List<String> order : orders().findByStatus(ORDER_READY)) {
+            dispatcher.add(Integer.parseInt(order.get(0).trim()), Integer.parseInt(order.get(1).trim()),
+                           Timestamp.valueOf(order.get(2).trim()).getTime());
+         }
+         this._dispatcher = dispatcher;
+      }
+      return this._dispatcher;
+   }//end getDispatcher
+
+   /**
+    * Method to give a driver the next delivery run and move its orders to
+    * Out for Delivery with a single update.  Orders whose status changed
+    * since they were queued are left out of the run.
+    *
+    * @param driver the driver's login
+    * @return the run, holding only the orders moved, or null if no order
+    * is waiting
+    * @throws java.sql.SQLException when failed to update the orders; the
+    * orders are queued again
+    */
+   public Dispatcher.Run assignDeliveryRun(String driver) throws SQLException {
+      Dispatcher dispatcher = getDispatcher();
+      Dispatcher.Run run;
+      List<Integer> moved;
+      do {
+         run = dispatcher.nextRun(driver);
+         if (run == null)
+            return null;
+         Tracing.storeID(run.storeID);
+         try {
+            moved = orders().updateStatus(run.orderIDs, ORDER_READY, ORDER_OUT_FOR_DELIVERY);
+         } catch (SQLException e) {
+            dispatcher.restore(run);
+            throw e;
+         }
+      } while (moved.isEmpty());
+
+      List<Long> placed = new ArrayList<Long>(moved.size());
+      for (int orderID : moved) {
+         placed.add(run.placed.get(run.orderIDs.indexOf(orderID)));
+         logEvent(EventJournal.Type.STATUS_CHANGED, String.valueOf(orderID), ORDER_READY, ORDER_OUT_FOR_DELIVERY);
+         logEvent(EventJournal.Type.DELIVERY_ASSIGNED, String.valueOf(orderID), driver);
+         publishStatus(orderID, ORDER_OUT_FOR_DELIVERY);
+         this._counters.statusChanged(orderID, run.storeID, ORDER_OUT_FOR_DELIVERY);
+      }
+      return new Dispatcher.Run(driver, run.storeID, moved, placed);
+   }//end assignDeliveryRun
+
+   /*
+    * Keeps the kitchen and dispatcher queues, and the order counters, in
+    * step with a status change.  Nothing to do for a queue not used yet: it
+    * loads its orders when it is.
+    **/
+   void orderStatusChanged(int orderID, String status) throws SQLException {
+      publishStatus(orderID, status);
+      KitchenQueue kitchen;
+      Dispatcher dispatcher;
+      synchronized (this) {
+         kitchen = this._kitchen;
+         dispatcher = this._dispatcher;
+      }
+      List<String> order = null;
+      boolean counted = this._counters.statusChanged(orderID, 0, status);
+      if (!counted || status.equals(ORDER_PENDING) || status.equals(ORDER_READY)) {
+         List<List<String>> details = orders().findDetails(orderID);
+         if (!details.isEmpty())
+            order = details.get(0);
+      }
+      // an order not counted yet needs its store.
+      if (!counted && order != null)
+         this._counters.statusChanged(orderID, Integer.parseInt(order.get(5).trim()), status);
+      if (kitchen != null) {
+         if (status.equals(ORDER_PENDING) && order != null)
+            kitchen.add(orderID, Integer.parseInt(order.get(5).trim()), Timestamp.valueOf(order.get(3).trim()).getTime());
+         else if (!status.equals(ORDER_PENDING))
+            kitchen.remove(orderID);
+      }
+      if (dispatcher != null) {
+         if (status.equals(ORDER_READY) && order != null)
+            dispatcher.add(orderID, Integer.parseInt(order.get(5).trim()), Timestamp.valueOf(order.get(3).trim()).getTime());
+         else if (!status.equals(ORDER_READY))
+            dispatcher.remove(orderID);
+      }
+   }
+
+   /*
+    * Counts a newly placed order and its items, and queues it in its
+    * store's kitchen.
+    **/
+   void orderPlaced(int orderID, int storeID, double totalPrice, List<String> itemNames) {
+      Tracing.storeID(storeID);
+      this._counters.placed(orderID, storeID, totalPrice, System.currentTimeMillis());
+      this._itemPairs.add(orderID, itemNames);
+      KitchenQueue kitchen;
+      synchronized (this) {
+         kitchen = this._kitchen;
+      }
+      if (kitchen != null)
+         kitchen.add(orderID, storeID, System.currentTimeMillis());
+   }
+
+   /**
+    * @return the live order counters; see loadOrderCounters for the orders
+    * open before this application started
+    */
+   public OrderCounters getOrderCounters() {
+      return this._counters;
+   }
+
+   /**
+    * Method to count the orders that are open in the database, so the
+    * status counts include orders placed before this application started.
+    * Orders already counted are left as they are.
+    *
+    * @throws java.sql.SQLException when failed to read the open orders
+    */
+   public void loadOrderCounters() throws SQLException {
+      for (String status : this._counters.getOpenStatuses()) {
+         for (List<String> order : orders().findByStatus(status)) {
+            this._counters.track(Integer.parseInt(order.get(0).trim()), Integer.parseInt(order.get(1).trim()), status);
+         }
+      }
+   }//end loadOrderCounters
+
+   /**
+    * @return the counts of items bought together; see loadItemPairs for
+    * the orders they cover
+    */
+   public ItemPairs getItemPairs() {
+      return this._itemPairs;
+   }
+
+   /**
+    * Method to count the items bought together in every stored order, by
+    * one scan of the order lines.  Orders placed from then on are counted
+    * as they are placed.
+    *
+    * @return the number of orders counted
+    * @throws java.sql.SQLException when failed to read the order lines
+    */
+   public int loadItemPairs() throws SQLException {
+      return this._itemPairs.load(orders());
+   }//end loadItemPairs
+
+   /**
+    * Method to get the kitchen queues, filling them with every Pending
+    * order the first time they are needed.
+    *
+    * @return the kitchen queues
+    * @throws java.sql.SQLException when failed to read the Pending orders
+    */
+   public synchronized KitchenQueue getKitchen() throws SQLException {
+      if (this._kitchen == null) {
+         KitchenQueue kitchen = new KitchenQueue();
+         kitchen.addAll(pendingTickets());
+         this._kitchen = kitchen;
+      }
+      return this._kitchen;
+   }//end getKitchen
+
+   private List<KitchenQueue.Ticket> pendingTickets() throws SQLException {
+      List<KitchenQueue.Ticket> pending = new ArrayList<KitchenQueue.Ticket>();
+      for (List<String> order : orders().findByStatus(ORDER_PENDING)) {
+         pending.add(KitchenQueue.ticket(Integer.parseInt(order.get(0).trim()), Integer.parseInt(order.get(1).trim()),
+                                         Timestamp.valueOf(order.get(2).trim()).getTime()));
+      }
+      return pending;
+   }
+
+   /**
+    * Method to claim the next order for a store's kitchen and move it from
+    * Pending to Preparing.  The status update only succeeds for an order
+    * still Pending, so terminals of other processes cannot claim it twice
+    * either; such orders are skipped.
+    *
+    * @param storeID the kitchen's store
+    * @return the claimed order, or null if nothing is waiting
+    * @throws java.sql.SQLException when failed to update the order
+    */
+   public KitchenQueue.Ticket claimNextOrder(int storeID) throws SQLException {
+      Tracing.storeID(storeID);
+      KitchenQueue kitchen = getKitchen();
+      while (true) {
+         KitchenQueue.Ticket ticket = kitchen.claimNext(storeID);
+         if (ticket == null)
+            return null;
+         List<Integer> moved;
+         try {
+            moved = orders().updateStatus(Arrays.asList(ticket.orderID), ORDER_PENDING, ORDER_PREPARING);
+         } catch (SQLException e) {
+            kitchen.add(ticket.orderID, ticket.storeID, ticket.placed);
+            throw e;
+         }
+         if (!moved.isEmpty()) {
+            logEvent(EventJournal.Type.STATUS_CHANGED, String.valueOf(ticket.orderID), ORDER_PENDING, ORDER_PREPARING);
+            publishStatus(ticket.orderID, ORDER_PREPARING);
+            this._counters.statusChanged(ticket.orderID, ticket.storeID, ORDER_PREPARING);
+            return ticket;
+         }
+      }
+   }//end claimNextOrder
+
+   /**
+    * Method to start pushing order status changes to subscribers.
+    *
+    * @param connection a connection for the listener alone, or null when
+    * the application publishes the changes itself (in-memory storage)
+    */
+   public void startStatusListener(Connection connection) {
+      this._statusListener = new OrderStatusListener(connection);
+   }//end startStatusListener
+
+   /**
+    * @return the order status listener, or null if none was started
+    */
+   public OrderStatusListener getStatusListener() {
+      return this._statusListener;
+   }
+
+   /*
+    * Publishes a status change made by this application; only needed
+    * without the database trigger, see OrderStatusListener.publish.
+    **/
+   private void publishStatus(int orderID, String status) {
+      OrderStatusListener listener = this._statusListener;
+      if (listener != null)
+         listener.publish(orderID, status);
+   }
+
+   /**
+    * Method to start recording order and menu events in a journal.
+    *
+    * @param dir the journal directory
+    * @throws java.io.IOException when failed to open the journal
+    */
+   public void openJournal(File dir) throws IOException {
+      this._journal = new EventJournal(dir);
+   }//end openJournal
+
+   /**
+    * @return the event journal, or null if events are not recorded
+    */
+   public EventJournal getJournal() {
+      return this._journal;
+   }
+
+   /*
+    * Queues an event in the journal, if there is one; never waits for disk.
+    **/
+   void logEvent(EventJournal.Type type, String... fields) {
+      EventJournal journal = this._journal;
+      if (journal != null)
+         journal.append(type, fields);
+   }
+
+   /**
+    * Method to verify that every table the application uses exists.
+    *
+    * @return the names of the missing tables, empty when the schema is complete
+    * @throws java.sql.SQLException when failed to read the catalog
+    */
+   public List<String> checkSchema() throws SQLException {
+      List<List<String>> found = executeQueryAndReturnResult(
+         "SELECT tablename FROM pg_tables WHERE schemaname = 'public';");
+      Set<String> tables = new HashSet<String>();
+      for (List<String> row : found) {
+         tables.add(row.get(0).toLowerCase());
+      }
+      List<String> missing = new ArrayList<String>();
+      for (String table : SCHEMA_TABLES) {
+         if (!tables.contains(table))
+            missing.add(table);
+      }
+      return missing;
+   }//end checkSchema
+
+   /**
+    * Method to preload the menu, store and promotion caches on a background thread so
+    * the first customer interaction does not pay for a cold query.
+    */
+   public void startWarmUp() {
+      Thread warmUp = new Thread(() -> {
+         long phase = System.nanoTime();
+         try {
+            getMenuIndex();
+            getStoreRanking();
+            getPromotions();
+            getKitchen();
+            loadOrderCounters();
+            loadItemPairs();
+            logPhase("warm-up", phase);
+         }catch (SQLException e) {
+            System.err.println("Warm-up failed: " + e.getMessage());
+         }
+      }, "warm-up");
+      warmUp.setDaemon(true);
+      warmUp.start();
+   }//end startWarmUp
+
+   /*
+    * Writes how long a startup phase took to the startup log.
+    * @return the time the phase ended, which is where the next one starts
+    **/
+   static long logPhase(String phase, long startNanos) {
+      long now = System.nanoTime();
+      System.err.println(String.format("[startup] %-13s %8.1f ms", phase, (now - startNanos) / 1e6));
+      return now;
+   }//end logPhase
+
+   /*
+    * Loads the JDBC driver, connects and checks the schema, logging the
+    * duration of each phase, then starts the cache warm-up.
+    * @param sessions the number of connections sessions lease, see
+    * connectSessions; 0 to run every session on the one connection
+    * @return the connected PizzaStore
+    **/
+   static PizzaStore startUp(String dbname, String dbport, String user, int sessions) throws Exception {
+      long phase = System.nanoTime();
+      // -Dpizzastore.storage=memory runs on the CSV data without Postgres.
+      if ("memory".equals(System.getProperty("pizzastore.storage"))) {
+         File dataDir = new File(System.getProperty("pizzastore.dataDir", "data"));
+         PizzaStore esql = inMemory(InMemoryStorage.load(dataDir));
+         phase = logPhase("load data", phase);
+         esql.startStatusListener(null);
+         openConfiguredJournal(esql, phase);
+         esql.startWarmUp();
+         return esql;
+      }
+
+      // use postgres JDBC driver.
+      Class.forName ("org.postgresql.Driver");
+      phase = logPhase("driver load", phase);
+
+      // instantiate the PizzaStore object and creates a physical
+      // connection.
+      PizzaStore esql = new PizzaStore (dbname, dbport, user, "");
+      phase = logPhase("connect", phase);
+
+      List<String> missing = esql.checkSchema();
+      phase = logPhase("schema check", phase);
+      if (!missing.isEmpty()) {
+         System.err.println("Warning: missing tables " + missing + ", run sql/scripts/create_db.sh");
+      }
+
+      // browse-only queries go to a read replica when one is configured.
+      String replicaUrl = System.getProperty("pizzastore.replica.url");
+      if (replicaUrl != null && !replicaUrl.isEmpty()) {
+         try {
+            esql.connectReplica(replicaUrl, user, "");
+            logPhase("replica", phase);
+         }catch (SQLException e) {
+            System.err.println("Warning: read replica unavailable, using the primary: " + e.getMessage());
+         }
+      }
+
+      // orders live in the shards of a shard map when one is configured.
+      String shardMap = System.getProperty("pizzastore.shardMap");
+      if (shardMap != null && !shardMap.isEmpty()) {
+         esql.connectShards(new File(shardMap), dbport, user, "");
+         phase = logPhase("shards", phase);
+      }
+
+      // independent queries of a handler run at once on pooled connections.
+      if (POOL_SIZE > 0) {
+         try {
+            esql.connectPool("jdbc:postgresql://localhost:" + dbport + "/" + dbname, user, "", POOL_SIZE);
+            phase = logPhase("query pool", phase);
+         }catch (SQLException e) {
+            System.err.println("Warning: query pool unavailable, running queries one at a time: " + e.getMessage());
+         }
+      }
+
+      // many sessions run their statements on leased connections.
+      if (sessions > 0) {
+         esql.connectSessions("jdbc:postgresql://localhost:" + dbport + "/" + dbname, user, "", sessions);
+         phase = logPhase("sessions", phase);
+      }
+
+      // status tracking listens on a connection of its own.
+      try {
+         esql.startStatusListener(DriverManager.getConnection(
+            "jdbc:postgresql://localhost:" + dbport + "/" + dbname, user, ""));
+      }catch (SQLException e) {
+         System.err.println("Warning: order tracking unavailable: " + e.getMessage());
+      }
+
+      openConfiguredJournal(esql, System.nanoTime());
+      esql.startWarmUp();
+      return esql;
+   }//end startUp
+
+   /*
+    * Opens the journal in -Dpizzastore.journal.dir, when that is set.
+    **/
+   private static void openConfiguredJournal(PizzaStore esql, long phase) {
+      String journalDir = System.getProperty("pizzastore.journal.dir");
+      if (journalDir != null && !journalDir.isEmpty()) {
+         try {
+            esql.openJournal(new File(journalDir));
+            logPhase("journal", phase);
+         }catch (IOException e) {
+            System.err.println("Warning: event journal unavailable: " + e.getMessage());
+         }
+      }
    }
 
    /**
     * Method to close the physical connection if it is open.
     */
    public void cleanup(){
+      if (this._statusListener != null){
+         this._statusListener.close ();
+      }//end if
+      if (this._journal != null){
+         this._journal.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
+      if (this._sessionConnections != null){
+         for (PizzaStore db : this._sessionConnections)
+            db.cleanup ();
+      }//end if
       try{
+         if (this._replica != null){
+            this._replica.cleanup ();
+         }//end if
+         if (this._shards != null){
+            this._shards.close ();
+         }//end if
          if (this._connection != null){
             this._connection.close ();
          }//end if
@@ -236,94 +1477,117 @@ public class PizzaStore {
          return;
       }//end if
 
-      Greeting();
-      PizzaStore esql = null;
+      // connect in the background while the greeting and the main menu are
+      // shown; the first choice waits for the connection if it is not ready.
+      final String dbname = args[0];
+      final String dbport = args[1];
+      final String user = args[2];
+      FutureTask<PizzaStore> connecting = new FutureTask<PizzaStore>(() -> startUp(dbname, dbport, user, 0));
+      Thread connector = new Thread(connecting, "connect");
+      connector.setDaemon(true);
+      connector.start();
+
+      Session session = Session.console();
+      Greeting(session);
       try{
-         // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
-         // instantiate the PizzaStore object and creates a physical
-         // connection.
-         String dbname = args[0];
-         String dbport = args[1];
-         String user = args[2];
-         esql = new PizzaStore (dbname, dbport, user, "");
+         mainMenu(session, connecting);
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(session.esql != null) {
+               System.out.print("Disconnecting from database...");
+               session.close ();
+               session.esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
 
+   /*
+    * Runs the menus of one session until the user exits or its terminal
+    * closes.  The first choice waits for the connection if it is not ready.
+    **/
+   static void mainMenu(Session session, Future<PizzaStore> connecting) {
+      try{
          boolean keepon = true;
          while(keepon) {
             // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
+            session.out.println("MAIN MENU");
+            session.out.println("---------");
+            session.out.println("1. Create user");
+            session.out.println("2. Log in");
+            session.out.println("9. < EXIT");
             String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+            int choice = readChoice(session);
+            if (session.esql == null) {
+               try {
+                  session.connect(connecting.get());
+               }catch (ExecutionException e) {
+                  throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+               }
+            }
+            switch (choice){
+               case 1: Tracing.run("CreateUser", () -> CreateUser(session)); break;
+               case 2: authorisedUser = Tracing.call("LogIn", () -> LogIn(session)); break;
                case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
+               default : session.out.println("Unrecognized choice!"); break;
             }//end switch
             if (authorisedUser != null) {
               boolean usermenu = true;
               while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. View Profile");
-                System.out.println("2. Update Profile");
-                System.out.println("3. View Menu");
-                System.out.println("4. Place Order"); //make sure user specifies which store
-                System.out.println("5. View Full Order ID History");
-                System.out.println("6. View Past 5 Order IDs");
-                System.out.println("7. View Order Information"); //user should specify orderID and then be able to see detailed information about the order
-                System.out.println("8. View Stores"); 
-                System.out.println("9. Manager / Driver Access Only");
+                session.out.println("MAIN MENU");
+                session.out.println("---------");
+                session.out.println("1. View Profile");
+                session.out.println("2. Update Profile");
+                session.out.println("3. View Menu");
+                session.out.println("4. Place Order"); //make sure user specifies which store
+                session.out.println("5. View Full Order ID History");
+                session.out.println("6. View Past 5 Order IDs");
+                session.out.println("7. View Order Information"); //user should specify orderID and then be able to see detailed information about the order
+                session.out.println("8. View Stores"); 
+                session.out.println("9. Manager / Driver Access Only");
+                session.out.println("10. Reorder a Previous Order");
+                session.out.println("11. Track an Order");
+                session.out.println("12. Review an Order");
 
                 //**the following functionalities should ony be able to be used by managers**
-                //System.out.println("10. Update Menu");
-                //System.out.println("11. Update User");
-
-                System.out.println(".........................");
-                System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewProfile(esql, authorisedUser); break;
-                   case 2: updateProfile(esql, authorisedUser); break;
-                   case 3: viewMenu(esql); break;
-                   case 4: placeOrder(esql, authorisedUser); break;
-                   case 5: viewOwnOrders(esql, authorisedUser); break;
-                   case 6: viewOwnRecentOrders(esql, authorisedUser); break;
-                   case 7: viewOrderInfo(esql, authorisedUser); break;
-                   case 8: viewStores(esql); break;
-                   case 9: managerMenu(esql, authorisedUser); break;
-                   // Move to manager menu case 9: updateOrderStatus(esql); break;
-                   // Move to manager menu case 10: updateMenu(esql); break;
-                   // Move to manager menu case 11: updateUser(esql); break;
-
-
-
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
+                //session.out.println("10. Update Menu");
+                //session.out.println("11. Update User");
+
+                session.out.println(".........................");
+                session.out.println("20. Log out");
+                switch (readChoice(session)){
+                   case 1: Tracing.run("viewProfile", () -> viewProfile(session)); break;
+                   case 2: updateProfile(session); break;
+                   case 3: viewMenu(session); break;
+                   case 4: Tracing.run("placeOrder", () -> placeOrder(session)); break;
+                   case 5: Tracing.run("viewOwnOrders", () -> viewOwnOrders(session)); break;
+                   case 6: Tracing.run("viewOwnRecentOrders", () -> viewOwnRecentOrders(session)); break;
+                   case 7: Tracing.run("viewOrderInfo", () -> viewOrderInfo(session)); break;
+                   case 8: Tracing.run("viewStores", () -> viewStores(session)); break;
+                   case 9: managerMenu(session); break;
+                   case 10: Tracing.run("reorder", () -> reorder(session)); break;
+                   case 11: Tracing.run("trackOrder", () -> trackOrder(session)); break;
+                   case 12: Tracing.run("writeReview", () -> writeReview(session)); break;
+
+
+
+                   case 20: usermenu = false; session.login(null); break;
+                   default : session.out.println("Unrecognized choice!"); break;
                 }
               }
-            }
-         }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
-      }//end try
-   }//end main
+            }
+         }//end while
+      }catch(Exception e) {
+         session.err.println (e.getMessage ());
+      }
+   }//end mainMenu
 
-   public static void Greeting(){
-      System.out.println(
+   public static void Greeting(Session session){
+      session.out.println(
          "\n\n*******************************************************\n" +
          "              User Interface      	               \n" +
          "*******************************************************\n");
@@ -333,16 +1597,19 @@ public class PizzaStore {
     * Reads the users choice given from the keyboard
     * @int
     **/
-   public static int readChoice() {
+   public static int readChoice(Session session) {
       int input;
       // returns only if a correct value is given.
       do {
-         System.out.print("Please make your choice: ");
+         session.out.print("Please make your choice: ");
          try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+            input = Integer.parseInt(session.in.readLine());
             break;
          }catch (Exception e) {
-            System.out.println("Your input is invalid!");
+            // nothing more will come from a closed terminal: leave the menus.
+            if (session.isClosed())
+               throw new UncheckedIOException("The terminal was closed", new EOFException());
+            session.out.println("Your input is invalid!");
             continue;
          }//end try
       }while (true);
@@ -352,7 +1619,8 @@ public class PizzaStore {
    /*
     * Creates a new user
     **/
-   public static void CreateUser(PizzaStore esql){
+   public static void CreateUser(Session session){
+      PizzaStore esql = session.esql;
       String login = null;
       String password = null;
       String confirmPassword = null;
@@ -362,40 +1630,40 @@ public class PizzaStore {
 
       try {
          while(true) {
-            System.out.println("Please enter a username! (Maxiumum 50 characters)");
-            login = in.readLine();
+            session.out.println("Please enter a username! (Maxiumum 50 characters)");
+            login = session.in.readLine();
             if(login.trim().isEmpty()) {
-               System.out.println("Username cannot be empty. Please try again.");
+               session.out.println("Username cannot be empty. Please try again.");
             }
             else if(login.length() > 50) {
-               System.out.println("Username cannot be over 50 characters. Please try again.");
+               session.out.println("Username cannot be over 50 characters. Please try again.");
             }
             else {
                break;
             }
          }
          while(true) {
-            System.out.println("Enter a password: ");
-            password = in.readLine();
+            session.out.println("Enter a password: ");
+            password = session.in.readLine();
             if(password.trim().isEmpty()) {
-               System.out.println("Password cannot be empty. Please try again.");
+               session.out.println("Password cannot be empty. Please try again.");
                continue;
             }
-            System.out.println("Confirm your password: ");
-            confirmPassword = in.readLine();
+            session.out.println("Confirm your password: ");
+            confirmPassword = session.in.readLine();
 
             if(password.equals(confirmPassword)) {
                break;
             }
             else {
-               System.out.println("The passwords do not match, please try again");
+               session.out.println("The passwords do not match, please try again");
             }
          }
          while(true) {
-            System.out.println("Enter your phone number: ");
-            phoneNum = in.readLine();
+            session.out.println("Enter your phone number: ");
+            phoneNum = session.in.readLine();
             if(phoneNum.trim().isEmpty()) {
-               System.out.println("Phone number cannot be empty. Please try again.");
+               session.out.println("Phone number cannot be empty. Please try again.");
             }
             else {
                break;
@@ -404,18 +1672,14 @@ public class PizzaStore {
       }
       catch (Exception e) {
         // Handle any exceptions (like input issues)
-        System.err.println("Error creating user: " + e.getMessage());
+        session.err.println("Error creating user: " + e.getMessage());
       }
       try{
-         String query = String.format("INSERT INTO Users (login, password, role, favoriteItems, phoneNum) " +
-                                     "VALUES ('%s', '%s', '%s', '%s', '%s');",
-                                     login, password, role, favoriteItems, phoneNum);
-         esql.executeUpdate(query);
-         esql.executeQueryAndPrintResult("SELECT favoriteItems FROM users WHERE login = 'allie';");
-         System.out.println("User created successfully!");
+         esql.users().create(login, password, role, favoriteItems, phoneNum);
+         session.out.println("User created successfully!");
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
       }
    }
 
@@ -423,257 +1687,273 @@ public class PizzaStore {
     * Check log in credentials for an existing user
     * @return User login or null is the user does not exist
     **/
-   public static String LogIn(PizzaStore esql){
+   public static String LogIn(Session session){
+      PizzaStore esql = session.esql;
       String enteredUser;
       String enteredPassword;
 
       try {
          while(true) {
-            System.out.println("Username: ");
-            enteredUser = in.readLine();
-            System.out.println("Password: ");
-            enteredPassword = in.readLine();
-
-            String query = String.format("SELECT login FROM Users WHERE login = '%s' AND password = '%s';",
-            enteredUser, enteredPassword
-            );
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-            if (!result.isEmpty()) {
-               System.out.println("Login successful! Welcome, " + enteredUser);
+            session.out.println("Username: ");
+            enteredUser = session.in.readLine();
+            session.out.println("Password: ");
+            enteredPassword = session.in.readLine();
+            if (session.isClosed())
+               return null;
+
+            if (esql.users().authenticate(enteredUser, enteredPassword)) {
+               session.out.println("Login successful! Welcome, " + enteredUser);
+               session.login(enteredUser);
                return enteredUser;  // Return username on successful login
             } else {
-               System.out.println("Invalid username or password. Please try again.");
+               session.out.println("Invalid username or password. Please try again.");
             }
          }
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return null;
       }
    }//end
 
 // Rest of the functions definition go in here
 
-   public static void viewProfile(PizzaStore esql, String loggedInUser) {
+   public static void viewProfile(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       if(loggedInUser == null) {
-         System.out.println("Error: No user is logged in");
+         session.out.println("Error: No user is logged in");
          return;
       }
       try {
-         String query = String.format("SELECT favoriteItems, phoneNum FROM Users WHERE login = '%s';", loggedInUser
-         );
-
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-         if (result.isEmpty()) {
-            System.out.println("Error: User profile not found.");
+         List<String> profile = esql.users().findProfile(loggedInUser);
+         if (profile == null) {
+            session.out.println("Error: User profile not found.");
+            return;
          }
-         System.out.println("Fetching " + loggedInUser + "'s profile");
-         String favoriteItems = result.get(0).get(0);
-         String phoneNum = result.get(0).get(1);
+         session.out.println("Fetching " + loggedInUser + "'s profile");
+         String favoriteItems = profile.get(0);
+         String phoneNum = profile.get(1);
 
          if (favoriteItems == null || favoriteItems.trim().isEmpty()) {
             favoriteItems = "(empty)";
          }
-         System.out.println("\n---- Profile Info ----");
-         System.out.println("Username: " + loggedInUser);
-         System.out.println("Phone Number: " + phoneNum);
-         System.out.println("Favorite Items: " + favoriteItems);      
+         session.out.println("\n---- Profile Info ----");
+         session.out.println("Username: " + loggedInUser);
+         session.out.println("Phone Number: " + phoneNum);
+         session.out.println("Favorite Items: " + favoriteItems);      
       }
 
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
-   public static void updateProfile(PizzaStore esql, String loggedInUser) {
+   public static void updateProfile(Session session) {
+      String loggedInUser = session.getUser();
       if (loggedInUser == null) {
-         System.out.println("Error: No user is logged in");
+         session.out.println("Error: No user is logged in");
          return;
       }
       boolean updatingMenu = true;
 
       while (updatingMenu == true) {
-        System.out.println("\n---- Update Profile ----");
-        System.out.println("1. Update Password");
-        System.out.println("2. Update Phone Number");
-        System.out.println("3. Update Favorite Items");
-        System.out.println("4. Go Back");
+        session.out.println("\n---- Update Profile ----");
+        session.out.println("1. Update Password");
+        session.out.println("2. Update Phone Number");
+        session.out.println("3. Update Favorite Items");
+        session.out.println("4. Go Back");
         
-        switch (readChoice()) {
-         case 1: updatePassword(esql, loggedInUser); break;
-         case 2: updateNumber(esql, loggedInUser); break;
-         case 3: updateFavItems(esql, loggedInUser); break;
+        switch (readChoice(session)) {
+         case 1: Tracing.run("updatePassword", () -> updatePassword(session)); break;
+         case 2: Tracing.run("updateNumber", () -> updateNumber(session)); break;
+         case 3: Tracing.run("updateFavItems", () -> updateFavItems(session)); break;
          case 4: updatingMenu = false; break;
-         default: System.out.println("Invalid choice.");
+         default: session.out.println("Invalid choice.");
         }
       }
    }
-   public static void updatePassword(PizzaStore esql, String loggedInUser) {
+   public static void updatePassword(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       String newPassword;
       String confirmPassword;
       try {
          while (true) {
-            System.out.println("Enter your new password: ");
-            newPassword = in.readLine();
+            session.out.println("Enter your new password: ");
+            newPassword = session.in.readLine();
 
             if(newPassword.trim().isEmpty()) {
-               System.out.println("New password cannot be empty. Please try again.");
+               session.out.println("New password cannot be empty. Please try again.");
                continue;
             }
-            System.out.println("Confirm your new password: ");
-            confirmPassword = in.readLine();
+            session.out.println("Confirm your new password: ");
+            confirmPassword = session.in.readLine();
             if(newPassword.equals(confirmPassword)) {
                break;
             }
             else {
-               System.out.println("The passwords do not match, please try again");
+               session.out.println("The passwords do not match, please try again");
             }
          }
 
-         String query = String.format("UPDATE Users SET password = '%s' WHERE login = '%s';",
-         newPassword, loggedInUser);
-         esql.executeUpdate(query);
-         System.out.println("Password updated!");
+         esql.users().updatePassword(loggedInUser, newPassword);
+         session.out.println("Password updated!");
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
 
-   public static void updateNumber(PizzaStore esql, String loggedInUser) {
+   public static void updateNumber(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       String newNumber;
       try {
          while (true) {
-            System.out.println("Enter your new phone number: ");
-            newNumber = in.readLine();
+            session.out.println("Enter your new phone number: ");
+            newNumber = session.in.readLine();
 
             if(newNumber.trim().isEmpty()) {
-               System.out.println("New phone number cannot be empty. Please try again.");
+               session.out.println("New phone number cannot be empty. Please try again.");
                continue;
             }
             break;
          }
 
-         String query = String.format("UPDATE Users SET phoneNum = '%s' WHERE login = '%s';",
-         newNumber, loggedInUser);
-         esql.executeUpdate(query);
-         System.out.println("Phone number updated!");
+         esql.users().updatePhoneNum(loggedInUser, newNumber);
+         session.out.println("Phone number updated!");
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
-   public static void updateFavItems(PizzaStore esql, String loggedInUser) {
+   public static void updateFavItems(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       String newFavItems;
       try {
-         System.out.println("Enter your new favorite items: ");
-         newFavItems = in.readLine();
+         session.out.println("Enter your new favorite items: ");
+         newFavItems = session.in.readLine();
 
-         String query = String.format("UPDATE Users SET favoriteItems = '%s' WHERE login = '%s';",
-         newFavItems, loggedInUser);
-         esql.executeUpdate(query);
-         System.out.println("Favorite items updated!");
+         esql.users().updateFavoriteItems(loggedInUser, newFavItems);
+         session.out.println("Favorite items updated!");
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
 
 
-   public static void viewMenu(PizzaStore esql) {
+   public static void viewMenu(Session session) {
       boolean viewingMenu = true;
 
       while (viewingMenu == true) {
-        System.out.println("\n---- Browse Menu ----");
-        System.out.println("1. View all items");
-        System.out.println("2. Filter by item type");
-        System.out.println("3. Filter by item price");
-        System.out.println("4. Sort by price (ascending)");
-        System.out.println("5. Sort by price (descending)");
-        System.out.println("6. Go Back");
+        session.out.println("\n---- Browse Menu ----");
+        session.out.println("1. View all items");
+        session.out.println("2. Filter by item type");
+        session.out.println("3. Filter by item price");
+        session.out.println("4. Sort by price (ascending)");
+        session.out.println("5. Sort by price (descending)");
+        session.out.println("6. Search menu");
+        session.out.println("7. Go Back");
         
-        switch (readChoice()) {
-         case 1: showAllItems(esql); break;
-         case 2: filterType(esql); break;
-         case 3: filterPrice(esql); break;
-         case 4: sortPrice(esql, "ASC"); break;
-         case 5: sortPrice(esql, "DESC"); break;
-         case 6: viewingMenu = false; break;
-         default: System.out.println("Invalid choice.");
+        switch (readChoice(session)) {
+         case 1: Tracing.run("showAllItems", () -> showAllItems(session)); break;
+         case 2: Tracing.run("filterType", () -> filterType(session)); break;
+         case 3: Tracing.run("filterPrice", () -> filterPrice(session)); break;
+         case 4: Tracing.run("sortPrice", () -> sortPrice(session, "ASC")); break;
+         case 5: Tracing.run("sortPrice", () -> sortPrice(session, "DESC")); break;
+         case 6: Tracing.run("searchMenu", () -> searchMenu(session)); break;
+         case 7: viewingMenu = false; break;
+         default: session.out.println("Invalid choice.");
         }
       }
    }
 
-   public static void showAllItems(PizzaStore esql){ 
+   public static void showAllItems(Session session){
+      PizzaStore esql = session.esql;
       try {
-         String query = String.format("SELECT itemName AS Name, price AS Price, description AS Description FROM Items;");
-
-         List<List<String>> menuItems = esql.executeQueryAndReturnResult(query);
-         for (List<String> row : menuItems) {
-            System.out.println(row);
-         }
+         printMenuItems(session, esql.items().findAll());
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
-   public static void filterType(PizzaStore esql){ 
+   public static void filterType(Session session){
+      PizzaStore esql = session.esql;
       String itemType;
       try {
-         System.out.println("Enter type to filter by: ");
-         itemType = in.readLine();
-         String query = String.format("SELECT itemName AS Name, price AS Price, description AS Description FROM Items " +
-            "WHERE TRIM(LOWER(typeOfItem)) = LOWER('%s');", 
-         itemType);
-         List<List<String>> menuItems = esql.executeQueryAndReturnResult(query);
-         for (List<String> row : menuItems) {
-            System.out.println(row);
-         }
+         session.out.println("Enter type to filter by: ");
+         itemType = session.in.readLine();
+         // answered from the menu index, which also accepts "drink" for "drinks".
+         printMenuItems(session, esql.getMenuIndex().filterByType(itemType));
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
 
-   public static void filterPrice(PizzaStore esql){ 
-      double priceLimit;
+   public static void searchMenu(Session session){
+      PizzaStore esql = session.esql;
       try {
-         System.out.println("Enter maximum price of item: ");
-         priceLimit = Double.parseDouble(in.readLine().trim());
-         String query = String.format("SELECT itemName AS Name, price AS Price, description AS Description FROM Items WHERE price <= %.2f;",
-         priceLimit);
-         List<List<String>> menuItems = esql.executeQueryAndReturnResult(query);
-         for (List<String> row : menuItems) {
-            System.out.println(row);
-         }
+         session.out.println("Search for (name, ingredient or type, e.g. \"pepp\" or \"pizza no cheese\"): ");
+         String search = session.in.readLine();
+         printMenuItems(session, esql.getMenuIndex().search(search));
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
+         return;
+      }
+   }
+
+   private static void printMenuItems(Session session, List<MenuSearchIndex.Item> items) {
+      if (items.isEmpty()) {
+         session.out.println("No matching items found.");
          return;
       }
+      List<List<String>> rows = new ArrayList<List<String>>(items.size());
+      for (MenuSearchIndex.Item item : items) {
+         rows.add(item.toRecord());
+      }
+      session.printResult(MenuSearchIndex.COLUMNS, rows);
    }
 
-   public static void sortPrice(PizzaStore esql, String order) {
+   public static void filterPrice(Session session){
+      PizzaStore esql = session.esql;
+      double priceLimit;
       try {
-         String query = String.format("SELECT itemName AS Name, price AS Price, description AS Desc FROM items ORDER BY price %s;",
-         order);
+         session.out.println("Enter maximum price of item: ");
+         priceLimit = Double.parseDouble(session.in.readLine().trim());
+         printMenuItems(session, esql.items().findByMaxPrice(priceLimit));
+      }
+      catch (Exception e) {
+         session.err.println (e.getMessage ());
+         return;
+      }
+   }
 
-         esql.executeQueryAndPrintResult(query);
+   public static void sortPrice(Session session, String order) {
+      PizzaStore esql = session.esql;
+      try {
+         printMenuItems(session, esql.items().findAllByPrice(order.equals("ASC")));
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
 
-   public static void placeOrder(PizzaStore esql, String loggedInUser) {
+   public static void placeOrder(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       if (loggedInUser == null) {
-        System.out.println("Error: No user is logged in.");
+        session.out.println("Error: No user is logged in.");
         return;
       }
       try {
@@ -681,127 +1961,251 @@ public class PizzaStore {
          boolean validStore = false;
 
          while (!validStore) {
-            System.out.print("Enter the StoreID of the desired store: ");
-            storeID = Integer.parseInt(in.readLine().trim());
+            session.out.print("Enter the StoreID of the desired store: ");
+            storeID = Integer.parseInt(session.in.readLine().trim());
 
             // Check if store exists
-            String storeQuery = String.format("SELECT storeID FROM Store WHERE storeID = %d;", storeID);
-            List<List<String>> storeResult = esql.executeQueryAndReturnResult(storeQuery);
-
-            if (!storeResult.isEmpty()) {
+            if (esql.hasStore(storeID)) {
                 validStore = true;  // Store found, proceed
+                Tracing.storeID(storeID);
             } else {
-                System.out.println("Store ID not found. Please enter a valid store.");
+                session.out.println("Store ID not found. Please enter a valid store.");
             }
          }
          List<String> itemNames = new ArrayList<>();
          List<Integer> quantities = new ArrayList<>();
+         List<MenuSearchIndex.Item> basketItems = new ArrayList<>();
 
          double basketPrice = 0.0;
 
          boolean ordering = true;
 
          while(ordering) {
-            System.out.println("Enter item name (or type 'done' to finish ordering): ");
-            String currItem = in.readLine().trim();
+            session.out.println("Enter item name (or type 'done' to finish ordering): ");
+            String currItem = session.in.readLine().trim();
 
             if (currItem.equalsIgnoreCase("done")) {
                break;
             } 
 
-            System.out.println("Enter desired quantity: ");
-            int quantity = Integer.parseInt(in.readLine().trim());
-
-            String priceQuery = String.format("SELECT price FROM items WHERE itemName = '%s';",
-            currItem);
-
-            List<List<String>> priceResult = esql.executeQueryAndReturnResult(priceQuery);
-            if (priceResult.isEmpty()) {
-                System.out.println("System was unable to locate item or price, please check input and try again!");
+            // Names are resolved against the in-memory menu index, which
+            // tolerates partial names and typos without a query per attempt.
+            MenuSearchIndex menu = esql.getMenuIndex();
+            MenuSearchIndex.Item item = menu.resolve(currItem);
+            if (item == null) {
+                List<MenuSearchIndex.Item> suggestions = menu.search(currItem);
+                if (suggestions.isEmpty()) {
+                   session.out.println("System was unable to locate item or price, please check input and try again!");
+                }
+                else {
+                   session.out.println("Did you mean one of these?");
+                   for (int i = 0; i < suggestions.size() && i < 5; i++) {
+                      session.out.println("- " + suggestions.get(i).itemName);
+                   }
+                }
                 continue;
             }
-            double currPrice = Double.parseDouble(priceResult.get(0).get(0));
-            basketPrice += currPrice * quantity;
+            if (!item.itemName.equalsIgnoreCase(currItem)) {
+                session.out.println("Using " + item.itemName);
+            }
+
+            session.out.println("Enter desired quantity: ");
+            int quantity = Integer.parseInt(session.in.readLine().trim());
 
-            itemNames.add(currItem);
-            quantities.add(quantity);
+            // an order holds each item once: the same item again adds to
+            // its line, at the price the line was started with.
+            int line = itemNames.indexOf(item.itemName);
+            if (line >= 0) {
+               quantities.set(line, quantities.get(line) + quantity);
+               item = basketItems.get(line);
+            } else {
+               itemNames.add(item.itemName);
+               quantities.add(quantity);
+               basketItems.add(item);
+            }
+            basketPrice += item.price * quantity;
+
+            // add-ons others bought with this basket, from the in-memory
+            // pair counts.
+            if (SUGGESTIONS > 0) {
+               long suggestStart = System.nanoTime();
+               List<String> addOns = esql.getItemPairs().suggest(itemNames, SUGGESTIONS,
+                  name -> menu.get(name) != null);
+               if (TIMING) {
+                  System.err.println(String.format("[suggest] %.1f us", (System.nanoTime() - suggestStart) / 1e3));
+               }
+               if (!addOns.isEmpty()) {
+                  List<String> offers = new ArrayList<String>(addOns.size());
+                  for (String addOn : addOns) {
+                     offers.add(addOn + " ($" + String.format("%.2f", menu.get(addOn).price) + ")");
+                  }
+                  session.out.println("Frequently bought together: " + String.join(", ", offers));
+               }
+            }
          }
          if (itemNames.isEmpty()) {
-            System.out.println("Order cancelled. No items were selected.");
+            session.out.println("Order cancelled. No items were selected.");
             return;
          }
 
-         int orderID = 1; 
-         String getOrderIDQuery = "SELECT MAX(orderID) FROM FoodOrder;";
-         List<List<String>> lastUsedID = esql.executeQueryAndReturnResult(getOrderIDQuery);
-         if (!lastUsedID.isEmpty() && lastUsedID.get(0).get(0) != null) {
-            orderID = Integer.parseInt(lastUsedID.get(0).get(0)) + 1; 
+         PromotionEngine promotions = esql.getPromotions();
+         session.out.println("Enter a coupon code (or press Enter to skip): ");
+         String coupon = session.in.readLine().trim();
+         if (coupon.isEmpty()) {
+            coupon = null;
+         } else if (!promotions.hasCoupon(coupon)) {
+            session.out.println("Coupon " + coupon + " is not valid.");
+            coupon = null;
          }
-   
 
-         String insertOrder = String.format("INSERT INTO foodorder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
-         "VALUES (%d, '%s', %d, %.2f, NOW(), 'Pending');",
-         orderID, loggedInUser, storeID, basketPrice
-         );
-         esql.executeUpdate(insertOrder);
-
-        for (int i = 0; i < itemNames.size(); i++) {
-            String insertItemQuery = String.format(
-                "INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES (%d, '%s', %d);",
-                orderID, itemNames.get(i), quantities.get(i)
-            );
-            esql.executeUpdate(insertItemQuery);
-        }
-         System.out.println("\n Order placed successfully!");
-         System.out.println("Order ID: " + orderID);
-         System.out.println("Store ID: " + storeID);
-         System.out.println("Total Price: $" + String.format("%.2f", basketPrice));
-         System.out.println("Items Ordered:");
+         // the best promotion is found in memory, without a query.
+         long pricingStart = System.nanoTime();
+         PromotionEngine.Applied promotion = promotions.best(storeID, coupon, basketItems, quantities,
+            System.currentTimeMillis());
+         long pricingNanos = System.nanoTime() - pricingStart;
+         if (coupon != null && (promotion == null || promotion.rule.couponCode == null)) {
+            session.out.println("Coupon " + coupon + " was not applied to this order.");
+         }
+         double totalPrice = promotion == null ? basketPrice : basketPrice - promotion.discount;
+
+         long checkoutStart = System.nanoTime();
+         long commitsBefore = esql.getCommitCount();
+         int orderID = checkout(esql, loggedInUser, storeID, basketItems, quantities, totalPrice);
+         if (TIMING) {
+            System.err.println(String.format("[checkout] %.1f ms, %d commit(s), promotions %.1f us over %d rule(s)",
+               (System.nanoTime() - checkoutStart) / 1e6, esql.getCommitCount() - commitsBefore,
+               pricingNanos / 1e3, promotions.size()));
+         }
+         session.out.println("\n Order placed successfully!");
+         session.out.println("Order ID: " + orderID);
+         session.out.println("Store ID: " + storeID);
+         if (promotion != null) {
+            session.out.println("Subtotal: $" + String.format("%.2f", basketPrice));
+            session.out.println("Promotion: " + promotion.rule.description
+               + (promotion.times > 1 ? " (x" + promotion.times + ")" : "")
+               + " -$" + String.format("%.2f", promotion.discount));
+         }
+         session.out.println("Total Price: $" + String.format("%.2f", totalPrice));
+         session.out.println("Items Ordered:");
          for (int i = 0; i < itemNames.size(); i++) {
-            System.out.println("- " + itemNames.get(i) + " x" + quantities.get(i));
+            session.out.println("- " + itemNames.get(i) + " x" + quantities.get(i));
          }
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println ("Your order was not placed: " + e.getMessage ());
          return;
       }
    }
 
-   public static void viewOwnOrders(PizzaStore esql, String loggedInUser) {
+   /*
+    * Writes an order and all of its items atomically, see
+    * OrderRepository.place.  Each line keeps the price of the item given,
+    * the one basketPrice was worked out from, whatever the menu says now.
+    * @return the orderID of the new order
+    **/
+   static int checkout(PizzaStore esql, String login, int storeID,
+                       List<MenuSearchIndex.Item> items, List<Integer> quantities, double basketPrice) throws Exception {
+      List<String> itemNames = new ArrayList<String>(items.size());
+      List<Double> unitPrices = new ArrayList<Double>(items.size());
+      for (MenuSearchIndex.Item item : items) {
+         itemNames.add(item.itemName);
+         unitPrices.add(item.price);
+      }
+      int orderID = esql.orders().place(login, storeID, itemNames, quantities, unitPrices, basketPrice);
+      esql.logEvent(EventJournal.Type.ORDER_CREATED, String.valueOf(orderID), login,
+         String.valueOf(storeID), String.format("%.2f", basketPrice));
+      esql.orderPlaced(orderID, storeID, basketPrice, itemNames);
+      return orderID;
+   }
+
+   /*
+    * Places a new order that repeats one of the user's previous orders,
+    * priced from the current menu.
+    **/
+   public static void reorder(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       if (loggedInUser == null) {
-        System.out.println("Error: No user is logged in.");
+        session.out.println("Error: No user is logged in.");
         return;
       }
       try {
-         String ordersQuery = String.format("SELECT o.orderID, o.totalPrice, o.orderTimestamp, o.orderStatus, s.storeID, s.address " + 
-         "FROM FoodOrder o JOIN STORE s ON o.storeID = s.storeID " +
-         "WHERE o.login = '%s' " +
-         "ORDER BY o.orderTimestamp DESC; ",
-         loggedInUser);
+         session.out.print("Enter the Order ID to repeat (leave empty for your last order): ");
+         String orderIDStr = session.in.readLine().trim();
+
+         Integer orderID = null;
+         if (!orderIDStr.isEmpty()) {
+            try {
+               orderID = Integer.parseInt(orderIDStr);
+            } catch (NumberFormatException e) {
+               session.out.println("Invalid Order ID! Please enter a numeric value.");
+               return;
+            }
+         }
+
+         List<List<String>> placed = esql.orders().reorder(loggedInUser, orderID);
+         if (placed.isEmpty()) {
+            session.out.println("No previous order found to repeat (or none of its items are still on the menu).");
+            return;
+         }
+
+         esql.logEvent(EventJournal.Type.ORDER_CREATED, placed.get(0).get(0), loggedInUser,
+            placed.get(0).get(1), placed.get(0).get(2));
+         List<String> itemNames = new ArrayList<String>();
+         for (List<String> row : placed) {
+            itemNames.add(row.get(3).trim());
+         }
+         esql.orderPlaced(Integer.parseInt(placed.get(0).get(0).trim()), Integer.parseInt(placed.get(0).get(1).trim()),
+            Double.parseDouble(placed.get(0).get(2).trim()), itemNames);
+         session.out.println("\n Order placed successfully!");
+         session.out.println("Order ID: " + placed.get(0).get(0));
+         session.out.println("Store ID: " + placed.get(0).get(1));
+         session.out.println("Total Price: $" + String.format("%.2f", Double.parseDouble(placed.get(0).get(2))));
+         session.out.println("Items Ordered:");
+         for (List<String> row : placed) {
+            session.out.println("- " + row.get(3) + " x" + row.get(4));
+         }
+      }
+      catch (Exception e) {
+         session.err.println (e.getMessage ());
+         return;
+      }
+   }
 
-         List<List<String>> orders = esql.executeQueryAndReturnResult(ordersQuery);
+   // column headers for the order history listings.
+   static final List<String> ORDER_HISTORY_COLUMNS = Arrays.asList(
+      "orderID", "totalPrice", "orderTimestamp", "orderStatus", "storeID", "address");
+
+   public static void viewOwnOrders(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
+      if (loggedInUser == null) {
+        session.out.println("Error: No user is logged in.");
+        return;
+      }
+      try {
+         List<List<String>> orders = esql.orders().findByLogin(loggedInUser, 0);
 
          int rowCount = orders.size();
          if (rowCount == 0) {
-            System.out.println("No orders found for user: " + loggedInUser);
+            session.out.println("No orders found for user: " + loggedInUser);
          }
          else {
-            System.out.println("\nFound " + rowCount + " orders for user: " + loggedInUser);
+            session.out.println("\nFound " + rowCount + " orders for user: " + loggedInUser);
          }
 
-         for (List<String> row : orders) {
-            System.out.println(row);
-         }
+         session.printResult(ORDER_HISTORY_COLUMNS, orders);
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
 
-   public static void viewOrders(PizzaStore esql) {
+   public static void viewOrders(Session session) {
+      PizzaStore esql = session.esql;
       /*if (loggedInUser == null) {
-        System.out.println("Error: No user is logged in.");
+        session.out.println("Error: No user is logged in.");
         return;
          }
          try {
@@ -809,79 +2213,66 @@ public class PizzaStore {
          List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
       
          if (roleResult.isEmpty()) {
-            System.out.println("User not found!");
+            session.out.println("User not found!");
             return;
          }
       
          String userRole = roleResult.get(0).get(0).trim();      
          if (userRole.equals("manager") || userRole.equals("driver")) {
-            System.out.println("") // Ask which user to view orders for, find the user with query, print out orders 
+            session.out.println("") // Ask which user to view orders for, find the user with query, print out orders 
          }*/
          try {
-         System.out.println("Which user would you like to view orders for?" );
-         String targetUser = in.readLine();
+         session.out.println("Which user would you like to view orders for?" );
+         String targetUser = session.in.readLine();
 
-         String ordersQuery = String.format("SELECT o.orderID, o.totalPrice, o.orderTimestamp, o.orderStatus, s.storeID, s.address " + 
-            "FROM FoodOrder o JOIN STORE s ON o.storeID = s.storeID " +
-            "WHERE o.login = '%s' " +
-            "ORDER BY o.orderTimestamp DESC;",
-            targetUser);
-
-         List<List<String>> orders = esql.executeQueryAndReturnResult(ordersQuery);
+         List<List<String>> orders = esql.orders().findByLogin(targetUser, 0);
 
          int rowCount = orders.size();
          if (rowCount == 0) {
-            System.out.println("No orders found for user: " + targetUser);
+            session.out.println("No orders found for user: " + targetUser);
          }
          else {
-            System.out.println("\nFound " + rowCount + " orders for user: " + targetUser);
+            session.out.println("\nFound " + rowCount + " orders for user: " + targetUser);
          }
 
-         for (List<String> row : orders) {
-            System.out.println(row);
-         }
+         session.printResult(ORDER_HISTORY_COLUMNS, orders);
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    } 
 
-   public static void viewOwnRecentOrders(PizzaStore esql, String loggedInUser) {
+   public static void viewOwnRecentOrders(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       if (loggedInUser == null) {
-        System.out.println("Error: No user is logged in.");
+        session.out.println("Error: No user is logged in.");
         return;
       }
       try {
-         String ordersQuery = String.format("SELECT o.orderID, o.totalPrice, o.orderTimestamp, o.orderStatus, s.storeID, s.address " + 
-         "FROM FoodOrder o JOIN STORE s ON o.storeID = s.storeID " +
-         "WHERE o.login = '%s' " +
-         "ORDER BY o.orderTimestamp DESC " +
-         "LIMIT 5;",
-         loggedInUser);
-
-         List<List<String>> orders = esql.executeQueryAndReturnResult(ordersQuery);
+         List<List<String>> orders = esql.orders().findByLogin(loggedInUser, 5);
 
          int rowCount = orders.size();
          if (rowCount == 0) {
-            System.out.println("No orders found for user: " + loggedInUser);
+            session.out.println("No orders found for user: " + loggedInUser);
          }
          else {
-            System.out.println("\nFound " + rowCount + " orders for user: " + loggedInUser);
+            session.out.println("\nFound " + rowCount + " orders for user: " + loggedInUser);
          }
 
-         for (List<String> row : orders) {
-            System.out.println(row);
-         }
+         session.printResult(ORDER_HISTORY_COLUMNS, orders);
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
-   public static void viewRecentOrders(PizzaStore esql, String loggedInUser) {
+   public static void viewRecentOrders(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       if (loggedInUser == null) {
-        System.out.println("Error: No user is logged in.");
+        session.out.println("Error: No user is logged in.");
         return;
       }
       try {
@@ -889,451 +2280,868 @@ public class PizzaStore {
          List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
       
          if (roleResult.isEmpty()) {
-            System.out.println("User not found!");
+            session.out.println("User not found!");
             return;
          }
       
          String userRole = roleResult.get(0).get(0).trim();      
          if (userRole.equals("manager") || userRole.equals("driver")) {
-            System.out.println("") // Ask which user to view orders for, find the user with query, print out orders 
+            session.out.println("") // Ask which user to view orders for, find the user with query, print out orders 
          }*/
 
-         System.out.println("Which user would you like to view orders for?" );
-         String targetUser = in.readLine();
+         session.out.println("Which user would you like to view orders for?" );
+         String targetUser = session.in.readLine();
 
-         String ordersQuery = String.format("SELECT o.orderID, o.totalPrice, o.orderTimestamp, o.orderStatus, s.storeID, s.address " + 
-         "FROM FoodOrder o JOIN STORE s ON o.storeID = s.storeID " +
-         "WHERE o.login = '%s' " +
-         "ORDER BY o.orderTimestamp DESC " +
-         "LIMIT 5;",
-         targetUser);
-
-         List<List<String>> orders = esql.executeQueryAndReturnResult(ordersQuery);
+         List<List<String>> orders = esql.orders().findByLogin(targetUser, 5);
 
          int rowCount = orders.size();
          if (rowCount == 0) {
-            System.out.println("No orders found for user: " + targetUser);
+            session.out.println("No orders found for user: " + targetUser);
          }
          else {
-            System.out.println("\nFound " + rowCount + " orders for user: " + targetUser);
+            session.out.println("\nFound " + rowCount + " orders for user: " + targetUser);
          }
 
-         for (List<String> row : orders) {
-            System.out.println(row);
-         }
+         session.printResult(ORDER_HISTORY_COLUMNS, orders);
       }
       catch (Exception e) {
-         System.err.println (e.getMessage ());
+         session.err.println (e.getMessage ());
          return;
       }
    }
 
-   public static void viewOrderInfo(PizzaStore esql, String loggedInUser) {
+   // column headers for the order details.
+   static final List<String> ORDER_INFO_COLUMNS = Arrays.asList(
+      "orderID", "login", "totalPrice", "orderTimestamp", "orderStatus", "storeID", "address", "city", "state");
+   static final List<String> ORDER_ITEM_COLUMNS = Arrays.asList(
+      "itemName", "quantity", "price", "subtotal");
+
+   public static void viewOrderInfo(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
    if (loggedInUser == null) {
-        System.out.println("Error: No user is logged in.");
+        session.out.println("Error: No user is logged in.");
         return;
    }
    try {
       // Check user's role first
-      String roleQuery = "SELECT role FROM Users WHERE login = '" + loggedInUser + "';";
-      List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
+      String userRole = esql.users().findRole(loggedInUser);
       
-      if (roleResult.isEmpty()) {
-         System.out.println("User not found!");
+      if (userRole == null) {
+         session.out.println("User not found!");
          return;
       }
       
-      String userRole = roleResult.get(0).get(0).trim();
-      
       // Get the order ID to view
-      System.out.print("Enter Order ID to view details: ");
-      String orderIDStr = in.readLine().trim();
+      session.out.print("Enter Order ID to view details: ");
+      String orderIDStr = session.in.readLine().trim();
       int orderID;
       
       try {
          orderID = Integer.parseInt(orderIDStr);
       } catch (NumberFormatException e) {
-         System.out.println("Invalid Order ID! Please enter a numeric value.");
+         session.out.println("Invalid Order ID! Please enter a numeric value.");
          return;
       }
       
       // Check if the order exists and get the owner
-      String orderCheckQuery = String.format(
-         "SELECT orderID, login FROM FoodOrder WHERE orderID = %d;",
-         orderID
-      );
+      List<String> order = esql.orders().find(orderID);
       
-      List<List<String>> orderResult = esql.executeQueryAndReturnResult(orderCheckQuery);
-      
-      if (orderResult.isEmpty()) {
-         System.out.println("Order not found!");
+      if (order == null) {
+         session.out.println("Order not found!");
          return;
       }
       
       // Get the user who placed the order
-      String orderOwner = orderResult.get(0).get(1);
+      String orderOwner = order.get(1);
       
       // Check permissions - only allow if it's the user's own order OR they are manager/driver
       if (!orderOwner.equals(loggedInUser) && !userRole.equals("manager") && !userRole.equals("driver")) {
-         System.out.println("You don't have permission to view this order!");
+         session.out.println("You don't have permission to view this order!");
          return;
       }
       
-      // Get basic order information
-      String orderInfoQuery = String.format(
-         "SELECT o.orderID, o.login, o.totalPrice, o.orderTimestamp, o.orderStatus, " +
-         "s.storeID, s.address, s.city, s.state " +
-         "FROM FoodOrder o JOIN Store s ON o.storeID = s.storeID " +
-         "WHERE o.orderID = %d;",
-         orderID
-      );
+      // the details and the items are read at the same time.
+      CompletableFuture<List<List<String>>> details = esql.async(db -> db.orders().findDetails(orderID));
+      CompletableFuture<List<List<String>>> items = esql.async(db -> db.orders().findItems(orderID));
       
-      System.out.println("\n---- Order Information ----");
-      esql.executeQueryAndPrintResult(orderInfoQuery);
+      // Get basic order information
+      session.out.println("\n---- Order Information ----");
+      session.printResult(ORDER_INFO_COLUMNS, await(details));
       
       // Get items in the order
-      String orderItemsQuery = String.format(
-         "SELECT io.itemName, io.quantity, i.price, (i.price * io.quantity) AS subtotal " +
-         "FROM ItemsInOrder io JOIN Items i ON io.itemName = i.itemName " +
-         "WHERE io.orderID = %d;",
-         orderID
-      );
-      
-      System.out.println("\n---- Items in Order ----");
-      esql.executeQueryAndPrintResult(orderItemsQuery);
+      session.out.println("\n---- Items in Order ----");
+      session.printResult(ORDER_ITEM_COLUMNS, await(items));
       
    } catch (Exception e) {
-      System.err.println(e.getMessage());
+      session.err.println(e.getMessage());
    }
    }
-   public static void viewStores(PizzaStore esql) {
+   /*
+    * Shows an order's status changes as they happen, until the user
+    * presses Enter.  Changes are pushed by the status listener, so
+    * tracking issues no queries of its own.
+    **/
+   public static void trackOrder(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
+      OrderStatusListener listener = esql.getStatusListener();
+      if (listener == null) {
+         session.out.println("Order tracking is not available.");
+         return;
+      }
+      try {
+         session.out.print("Enter Order ID to track: ");
+         int orderID;
+         try {
+            orderID = Integer.parseInt(session.in.readLine().trim());
+         } catch (NumberFormatException e) {
+            session.out.println("Invalid Order ID! Please enter a numeric value.");
+            return;
+         }
+         
+         CompletableFuture<String> userRole = esql.async(db -> db.users().findRole(loggedInUser));
+         List<String> order = esql.orders().find(orderID);
+         String role = await(userRole);
+         if (order == null || (!order.get(1).equals(loggedInUser) && !"manager".equals(role) && !"driver".equals(role))) {
+            session.out.println("Order not found!");
+            return;
+         }
+         
+         BiConsumer<Integer, String> printer = (id, status) -> {
+            session.out.println("\n[" + new Timestamp(System.currentTimeMillis()) + "] Order " + id + " is now " + status);
+            session.out.flush();
+         };
+         listener.subscribe(orderID, printer);
+         try {
+            session.out.println("Order " + orderID + " is " + order.get(2).trim() + ". Watching for changes, press Enter to stop.");
+            session.in.readLine();
+         } finally {
+            listener.unsubscribe(orderID, printer);
+         }
+      } catch (Exception e) {
+         session.err.println(e.getMessage());
+      }
+   }
+
+   // the longest review comment the Review table holds.
+   static final int REVIEW_COMMENT_LENGTH = 200;
+
+   public static void writeReview(Session session) {
+      PizzaStore esql = session.esql;
+      String loggedInUser = session.getUser();
       try {
-         System.out.println("\n---- Available Stores ----");
+         session.out.print("Enter Order ID to review: ");
+         int orderID;
+         try {
+            orderID = Integer.parseInt(session.in.readLine().trim());
+         } catch (NumberFormatException e) {
+            session.out.println("Invalid Order ID! Please enter a numeric value.");
+            return;
+         }
+         
+         // the store comes from the order, wherever it is stored.
+         List<List<String>> details = esql.orders().findDetails(orderID);
+         if (details.isEmpty() || !details.get(0).get(1).trim().equals(loggedInUser)) {
+            session.out.println("Order not found!");
+            return;
+         }
+         List<String> order = details.get(0);
+         if ("Cancelled".equalsIgnoreCase(order.get(4).trim())) {
+            session.out.println("Cancelled orders cannot be reviewed.");
+            return;
+         }
+         int storeID = Integer.parseInt(order.get(5).trim());
+         Tracing.storeID(storeID);
+         
+         session.out.print("Rate store " + storeID + " (" + order.get(6).trim() + ") from 1 to 5: ");
+         int rating;
+         try {
+            rating = Integer.parseInt(session.in.readLine().trim());
+         } catch (NumberFormatException e) {
+            rating = 0;
+         }
+         if (rating < 1 || rating > 5) {
+            session.out.println("Invalid rating! Please enter a number from 1 to 5.");
+            return;
+         }
+         
+         session.out.print("Comment (optional): ");
+         String comment = session.in.readLine().trim();
+         if (comment.length() > REVIEW_COMMENT_LENGTH) {
+            session.out.println("Comment too long! Please keep it under " + REVIEW_COMMENT_LENGTH + " characters.");
+            return;
+         }
          
-         String storesQuery = 
-            "SELECT storeID, address, city, state, isOpen, reviewScore " +
-            "FROM Store " +
-            "ORDER BY reviewScore DESC;";
+         List<String> reviewed = esql.reviewOrder(orderID, loggedInUser, storeID, rating,
+            comment.isEmpty() ? null : comment);
+         if (reviewed == null) {
+            session.out.println("You have already reviewed order " + orderID + ".");
+            return;
+         }
+         session.out.println(String.format("Thank you! Store %d is now rated %.2f from %s reviews.",
+            storeID, Double.parseDouble(reviewed.get(1).trim()), reviewed.get(2).trim()));
+      } catch (Exception e) {
+         session.err.println(e.getMessage());
+      }
+   }
+
+   // column headers for the store listing.
+   static final List<String> STORE_COLUMNS = Arrays.asList(
+      "storeID", "address", "city", "state", "isOpen", "reviewScore", "reviews");
+
+   public static void viewStores(Session session) {
+      PizzaStore esql = session.esql;
+      try {
+         session.out.println("\n---- Available Stores ----");
          
-         int rowCount = esql.executeQueryAndPrintResult(storesQuery);
+         // served from the store cache preloaded at startup.
+         int rowCount = session.printResult(STORE_COLUMNS, esql.getStores());
          
-         System.out.println("\nTotal stores: " + rowCount);
+         session.out.println("\nTotal stores: " + rowCount);
       } catch (Exception e) {
-         System.err.println(e.getMessage());
+         session.err.println(e.getMessage());
       }
    }   
    
 
 
 
-   public static void updateOrderStatus(PizzaStore esql) {
+   public static void updateOrderStatus(Session session) {
+      PizzaStore esql = session.esql;
       try {
-         System.out.print("Enter Order ID to update: ");
-         String orderIDStr = in.readLine().trim();
+         session.out.print("Enter Order ID to update: ");
+         String orderIDStr = session.in.readLine().trim();
          int orderID;
       
          try {
             orderID = Integer.parseInt(orderIDStr);
          } catch (NumberFormatException e) {
-         System.out.println("Invalid Order ID! Please enter a numeric value.");
+         session.out.println("Invalid Order ID! Please enter a numeric value.");
          return;
          }
       
          // Check if the order exists
-         String orderCheckQuery = String.format(
-            "SELECT orderID, orderStatus FROM FoodOrder WHERE orderID = %d;",
-            orderID
-         );
+         List<String> order = esql.orders().find(orderID);
       
-         List<List<String>> orderResult = esql.executeQueryAndReturnResult(orderCheckQuery);
-      
-         if (orderResult.isEmpty()) {
-            System.out.println("Order not found!");
+         if (order == null) {
+            session.out.println("Order not found!");
             return;
          }
       
-         String currentStatus = orderResult.get(0).get(1).trim();
-         System.out.println("Current status: " + currentStatus);
+         String currentStatus = order.get(2).trim();
+         session.out.println("Current status: " + currentStatus);
       
          // Get new status
-         System.out.println("Select new status:");
-         System.out.println("1. Pending");
-         System.out.println("2. Preparing");
-         System.out.println("3. Ready");
-         System.out.println("4. Out for Delivery");
-         System.out.println("5. Delivered");
-         System.out.println("6. Cancelled");
-      
-         int choice = readChoice();
+         session.out.println("Select new status:");
+         session.out.println("1. Pending");
+         session.out.println("2. Preparing");
+         session.out.println("3. Ready");
+         session.out.println("4. Out for Delivery");
+         session.out.println("5. Delivered");
+         session.out.println("6. Cancelled");
+      
+         int choice = readChoice(session);
          String newStatus;
       
          switch (choice) {
-            case 1: newStatus = "Pending"; break;
-            case 2: newStatus = "Preparing"; break;
-            case 3: newStatus = "Ready"; break;
-            case 4: newStatus = "Out for Delivery"; break;
+            case 1: newStatus = ORDER_PENDING; break;
+            case 2: newStatus = ORDER_PREPARING; break;
+            case 3: newStatus = ORDER_READY; break;
+            case 4: newStatus = ORDER_OUT_FOR_DELIVERY; break;
             case 5: newStatus = "Delivered"; break;
             case 6: newStatus = "Cancelled"; break;
             default: 
-               System.out.println("Invalid choice!");
+               session.out.println("Invalid choice!");
                return;
          }
       
          // Update order status
-         String updateQuery = String.format(
-            "UPDATE FoodOrder SET orderStatus = '%s' WHERE orderID = %d;",
-            newStatus, orderID
-         );
-      
-         esql.executeUpdate(updateQuery);
-         System.out.println("Order status updated successfully!");
+         if (esql.orders().updateStatus(orderID, newStatus)) {
+            esql.logEvent(EventJournal.Type.STATUS_CHANGED, String.valueOf(orderID), currentStatus, newStatus);
+            esql.orderStatusChanged(orderID, newStatus);
+            session.out.println("Order status updated successfully!");
+         }
+         else {
+            session.out.println("Order not found!");
+         }
       
       } catch (Exception e) {
-         System.err.println(e.getMessage());
+         session.err.println(e.getMessage());
       }
    }
 
-public static void updateMenu(PizzaStore esql) {
+public static void updateMenu(Session session) {
    try {
-      System.out.println("\n---- Menu Management ----");
-      System.out.println("1. Add new item");
-      System.out.println("2. Update existing item");
-      System.out.println("3. Delete item");
-      System.out.println("4. Back to main menu");
+      session.out.println("\n---- Menu Management ----");
+      session.out.println("1. Add new item");
+      session.out.println("2. Update existing item");
+      session.out.println("3. Delete item");
+      session.out.println("4. Import menu from CSV");
+      session.out.println("5. Back to main menu");
       
-      int choice = readChoice();
+      int choice = readChoice(session);
       
       switch (choice) {
-         case 1: addMenuItem(esql); break;
-         case 2: updateMenuItem(esql); break;
-         case 3: deleteMenuItem(esql); break;
-         case 4: return;
+         case 1: Tracing.run("addMenuItem", () -> addMenuItem(session)); break;
+         case 2: Tracing.run("updateMenuItem", () -> updateMenuItem(session)); break;
+         case 3: Tracing.run("deleteMenuItem", () -> deleteMenuItem(session)); break;
+         case 4: Tracing.run("importMenu", () -> importMenu(session)); break;
+         case 5: return;
          default: 
-            System.out.println("Invalid choice!");
+            session.out.println("Invalid choice!");
             return;
       }
       
    } catch (Exception e) {
-      System.err.println(e.getMessage());
+      session.err.println(e.getMessage());
    }
 }
-private static void addMenuItem(PizzaStore esql) {
+private static void addMenuItem(Session session) {
+   PizzaStore esql = session.esql;
    try {
       String itemName, ingredients, typeOfItem, description;
       double price;
       
-      System.out.println("\n---- Add New Menu Item ----");
+      session.out.println("\n---- Add New Menu Item ----");
       
       // Get item details
-      System.out.print("Enter item name: ");
-      itemName = in.readLine().trim();
+      session.out.print("Enter item name: ");
+      itemName = session.in.readLine().trim();
       
       // Check if item already exists
-      String checkQuery = String.format(
-         "SELECT itemName FROM Items WHERE itemName = '%s';",
-         itemName
-      );
-      
-      List<List<String>> checkResult = esql.executeQueryAndReturnResult(checkQuery);
-      
-      if (!checkResult.isEmpty()) {
-         System.out.println("Item already exists! Please use update option instead.");
+      if (esql.items().find(itemName) != null) {
+         session.out.println("Item already exists! Please use update option instead.");
          return;
       }
       
-      System.out.print("Enter ingredients (comma separated): ");
-      ingredients = in.readLine().trim();
+      session.out.print("Enter ingredients (comma separated): ");
+      ingredients = session.in.readLine().trim();
       
-      System.out.print("Enter type of item (e.g., pizza, drink, dessert): ");
-      typeOfItem = in.readLine().trim();
+      session.out.print("Enter type of item (e.g., pizza, drink, dessert): ");
+      typeOfItem = session.in.readLine().trim();
       
-      System.out.print("Enter price: ");
+      session.out.print("Enter price: ");
       try {
-         price = Double.parseDouble(in.readLine().trim());
+         price = Double.parseDouble(session.in.readLine().trim());
       } catch (NumberFormatException e) {
-         System.out.println("Invalid price! Please enter a numeric value.");
+         session.out.println("Invalid price! Please enter a numeric value.");
          return;
       }
       
-      System.out.print("Enter description: ");
-      description = in.readLine().trim();
+      session.out.print("Enter description: ");
+      description = session.in.readLine().trim();
       
       // Insert new item
-      String insertQuery = String.format(
-         "INSERT INTO Items (itemName, ingredients, typeOfItem, price, description) " +
-         "VALUES ('%s', '%s', '%s', %.2f, '%s');",
-         itemName, ingredients, typeOfItem, price, description
-      );
-      
-      esql.executeUpdate(insertQuery);
-      System.out.println("Menu item added successfully!");
+      esql.items().add(new MenuSearchIndex.Item(itemName, ingredients, typeOfItem, price, description));
+      esql.logEvent(EventJournal.Type.ITEM_ADDED, itemName, ingredients, typeOfItem,
+         String.format("%.2f", price), description);
+      esql.invalidateMenuIndex();
+      session.out.println("Menu item added successfully!");
       
    } catch (Exception e) {
-      System.err.println(e.getMessage());
+      session.err.println(e.getMessage());
    }
 }
 
-private static void updateMenuItem(PizzaStore esql) {
+private static void updateMenuItem(Session session) {
+   PizzaStore esql = session.esql;
    try {
       String itemName;
       
-      System.out.println("\n---- Update Menu Item ----");
+      session.out.println("\n---- Update Menu Item ----");
       
       // Get item name
-      System.out.print("Enter item name to update: ");
-      itemName = in.readLine().trim();
+      session.out.print("Enter item name to update: ");
+      itemName = session.in.readLine().trim();
       
       // Check if item exists
-      String checkQuery = String.format(
-         "SELECT * FROM Items WHERE itemName = '%s';",
-         itemName
-      );
-      
-      List<List<String>> checkResult = esql.executeQueryAndReturnResult(checkQuery);
+      MenuSearchIndex.Item item = esql.items().find(itemName);
       
-      if (checkResult.isEmpty()) {
-         System.out.println("Item not found!");
+      if (item == null) {
+         session.out.println("Item not found!");
          return;
       }
       
       // Display current item details
-      System.out.println("\nCurrent item details:");
-      esql.executeQueryAndPrintResult(checkQuery);
+      session.out.println("\nCurrent item details:");
+      printMenuItems(session, Arrays.asList(item));
       
       // Update options
-      System.out.println("\nSelect field to update:");
-      System.out.println("1. Ingredients");
-      System.out.println("2. Type of item");
-      System.out.println("3. Price");
-      System.out.println("4. Description");
+      session.out.println("\nSelect field to update:");
+      session.out.println("1. Ingredients");
+      session.out.println("2. Type of item");
+      session.out.println("3. Price");
+      session.out.println("4. Description");
       
-      int choice = readChoice();
-      String updateQuery = "";
+      int choice = readChoice(session);
+      String column;
+      String oldValue;
+      String value;
       
       switch (choice) {
          case 1:
-            System.out.print("Enter new ingredients: ");
-            String ingredients = in.readLine().trim();
-            updateQuery = String.format(
-               "UPDATE Items SET ingredients = '%s' WHERE itemName = '%s';",
-               ingredients, itemName
-            );
+            session.out.print("Enter new ingredients: ");
+            column = ItemRepository.INGREDIENTS;
+            oldValue = item.ingredients;
+            value = session.in.readLine().trim();
             break;
             
          case 2:
-            System.out.print("Enter new type: ");
-            String typeOfItem = in.readLine().trim();
-            updateQuery = String.format(
-               "UPDATE Items SET typeOfItem = '%s' WHERE itemName = '%s';",
-               typeOfItem, itemName
-            );
+            session.out.print("Enter new type: ");
+            column = ItemRepository.TYPE_OF_ITEM;
+            oldValue = item.typeOfItem;
+            value = session.in.readLine().trim();
             break;
             
          case 3:
-            System.out.print("Enter new price: ");
+            session.out.print("Enter new price: ");
+            column = ItemRepository.PRICE;
+            oldValue = String.format("%.2f", item.price);
+            value = session.in.readLine().trim();
             try {
-               double price = Double.parseDouble(in.readLine().trim());
-               updateQuery = String.format(
-                  "UPDATE Items SET price = %.2f WHERE itemName = '%s';",
-                  price, itemName
-               );
+               Double.parseDouble(value);
             } catch (NumberFormatException e) {
-               System.out.println("Invalid price! Please enter a numeric value.");
+               session.out.println("Invalid price! Please enter a numeric value.");
                return;
             }
             break;
             
          case 4:
-            System.out.print("Enter new description: ");
-            String description = in.readLine().trim();
-            updateQuery = String.format(
-               "UPDATE Items SET description = '%s' WHERE itemName = '%s';",
-               description, itemName
-            );
+            session.out.print("Enter new description: ");
+            column = ItemRepository.DESCRIPTION;
+            oldValue = item.description;
+            value = session.in.readLine().trim();
             break;
             
          default:
-            System.out.println("Invalid choice!");
+            session.out.println("Invalid choice!");
             return;
       }
       
-      esql.executeUpdate(updateQuery);
-      System.out.println("Menu item updated successfully!");
+      esql.items().update(itemName, column, value);
+      esql.logEvent(EventJournal.Type.ITEM_UPDATED, itemName, column, oldValue, value);
+      esql.invalidateMenuIndex();
+      session.out.println("Menu item updated successfully!");
       
    } catch (Exception e) {
-      System.err.println(e.getMessage());
+      session.err.println(e.getMessage());
    }
 }
 
-private static void deleteMenuItem(PizzaStore esql) {
+private static void deleteMenuItem(Session session) {
+   PizzaStore esql = session.esql;
    try {
       String itemName;
       
-      System.out.println("\n---- Delete Menu Item ----");
+      session.out.println("\n---- Delete Menu Item ----");
       
       // Get item name
-      System.out.print("Enter item name to delete: ");
-      itemName = in.readLine().trim();
+      session.out.print("Enter item name to delete: ");
+      itemName = session.in.readLine().trim();
       
       // Check if item exists
-      String checkQuery = String.format(
-         "SELECT * FROM Items WHERE itemName = '%s';",
-         itemName
-      );
-      
-      List<List<String>> checkResult = esql.executeQueryAndReturnResult(checkQuery);
-      
-      if (checkResult.isEmpty()) {
-         System.out.println("Item not found!");
+      if (esql.items().find(itemName) == null) {
+         session.out.println("Item not found!");
          return;
       }
       
       // Check if item is used in any orders
-      String orderCheckQuery = String.format(
-         "SELECT COUNT(*) FROM ItemsInOrder WHERE itemName = '%s';",
-         itemName
-      );
-      
-      List<List<String>> orderCheckResult = esql.executeQueryAndReturnResult(orderCheckQuery);
-      int orderCount = Integer.parseInt(orderCheckResult.get(0).get(0));
+      int orderCount = esql.items().countOrdersUsing(itemName);
       
       if (orderCount > 0) {
-         System.out.println("Warning: This item is used in " + orderCount + " orders.");
-         System.out.print("Deleting this item will affect order history. Continue? (y/n): ");
-         String confirm = in.readLine().trim().toLowerCase();
+         session.out.println("Warning: This item is used in " + orderCount + " orders.");
+         session.out.print("Those orders keep its name and price, but it cannot be reordered. Continue? (y/n): ");
+         String confirm = session.in.readLine().trim().toLowerCase();
          
          if (!confirm.equals("y")) {
-            System.out.println("Deletion cancelled.");
+            session.out.println("Deletion cancelled.");
+            return;
+         }
+      }
+      
+      // Recount and delete atomically; if orders were added since the
+      // user confirmed, give up.
+      int currentCount = esql.items().delete(itemName, orderCount);
+      boolean deleted = currentCount == orderCount;
+      if (currentCount < 0) {
+         session.out.println("Item not found!");
+      }
+      else if (!deleted) {
+         session.out.println("The item is now used in " + currentCount + " orders. Deletion cancelled, please try again.");
+      }
+      
+      if (deleted) {
+         esql.logEvent(EventJournal.Type.ITEM_DELETED, itemName);
+         esql.invalidateMenuIndex();
+         session.out.println("Menu item deleted successfully!");
+      }
+      
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
+
+
+static final List<String> IMPORT_DIFF_COLUMNS = Arrays.asList("change", "itemName", "column", "old", "new");
+
+/*
+ * Replaces the menu with the items of a CSV file laid out like
+ * data/items.csv.  The changes are worked out and shown first, and only
+ * applied once confirmed.
+ **/
+private static void importMenu(Session session) {
+   PizzaStore esql = session.esql;
+   try {
+      session.out.println("\n---- Import Menu ----");
+      session.out.print("Enter the CSV file to import: ");
+      File file = new File(session.in.readLine().trim());
+      
+      List<MenuSearchIndex.Item> items = new ArrayList<MenuSearchIndex.Item>();
+      Set<String> names = new HashSet<String>();
+      int line = 1;
+      for (List<String> r : Csv.read(file)) {
+         ++line;
+         try {
+            if (r.size() < 4)
+               throw new NumberFormatException();
+            MenuSearchIndex.Item item = new MenuSearchIndex.Item(r.get(0), r.get(1), r.get(2),
+               Double.parseDouble(r.get(3)), r.size() > 4 ? r.get(4) : null);
+            if (!names.add(item.itemName)) {
+               session.out.println("Line " + line + ": " + item.itemName + " appears twice. Import cancelled.");
+               return;
+            }
+            items.add(item);
+         } catch (NumberFormatException e) {
+            session.out.println("Line " + line + " is not itemName, ingredients, typeOfItem, price, description. Import cancelled.");
             return;
          }
       }
       
-      // Delete item
-      String deleteQuery = String.format(
-         "DELETE FROM Items WHERE itemName = '%s';",
-         itemName
-      );
+      session.out.print("Delete the items that are not in the file? (y/n): ");
+      boolean deleteMissing = session.in.readLine().trim().toLowerCase().equals("y");
+      
+      ItemRepository.MenuDiff preview = esql.items().importMenu(items, deleteMissing, false);
+      if (preview.isEmpty()) {
+         session.out.println("The menu already matches the file (" + preview.unchanged + " items).");
+         return;
+      }
+      session.printResult(IMPORT_DIFF_COLUMNS, preview.toRecords());
+      session.out.println(String.format("%d to add, %d to change, %d to delete, %d unchanged.",
+         preview.added.size(), preview.changedItems, preview.deleted.size(), preview.unchanged));
+      session.out.print("Apply these changes? (y/n): ");
+      if (!session.in.readLine().trim().toLowerCase().equals("y")) {
+         session.out.println("Import cancelled.");
+         return;
+      }
+      
+      // the menu may have changed meanwhile: report what was applied.
+      ItemRepository.MenuDiff diff = esql.items().importMenu(items, deleteMissing, true);
+      for (MenuSearchIndex.Item item : diff.added)
+         esql.logEvent(EventJournal.Type.ITEM_ADDED, item.itemName, item.ingredients, item.typeOfItem,
+            String.format("%.2f", item.price), item.description);
+      for (String[] change : diff.changed)
+         esql.logEvent(EventJournal.Type.ITEM_UPDATED, change);
+      for (String itemName : diff.deleted.keySet())
+         esql.logEvent(EventJournal.Type.ITEM_DELETED, itemName);
+      esql.invalidateMenuIndex();
+      session.out.println(String.format("Menu imported: %d added, %d changed, %d deleted, %d unchanged.",
+         diff.added.size(), diff.changedItems, diff.deleted.size(), diff.unchanged));
+      
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
+
+public static void updateUser(Session session) {} // Ali
+
+/*
+ * Order and menu management for staff.  Drivers may look up and update
+ * orders; managers may also change the menu and run the order analytics.
+ **/
+public static void managerMenu(Session session) {
+   PizzaStore esql = session.esql;
+   String loggedInUser = session.getUser();
+   try {
+      String role = esql.users().findRole(loggedInUser);
+      boolean manager = "manager".equals(role);
+      if (!manager && !"driver".equals(role)) {
+         session.out.println("Access denied: managers and drivers only.");
+         return;
+      }
       
-      esql.executeUpdate(deleteQuery);
-      System.out.println("Menu item deleted successfully!");
+      boolean managing = true;
+      while (managing) {
+         session.out.println("\n---- Manager / Driver Menu ----");
+         session.out.println("1. Update order status");
+         session.out.println("2. View a user's orders");
+         session.out.println("3. View a user's past 5 orders");
+         session.out.println("4. View order or item history");
+         session.out.println("5. Take next delivery run");
+         session.out.println("6. Prepare next order (kitchen)");
+         if (manager) {
+            session.out.println("7. Update menu");
+            session.out.println("8. Order analytics");
+            session.out.println("9. Rush an order");
+            session.out.println("10. Live store dashboard");
+         }
+         session.out.println("20. Go Back");
+         
+         int choice = readChoice(session);
+         if (!manager && choice >= 7 && choice <= 10) {
+            choice = -1;
+         }
+         switch (choice) {
+            case 1: Tracing.run("updateOrderStatus", () -> updateOrderStatus(session)); break;
+            case 2: Tracing.run("viewOrders", () -> viewOrders(session)); break;
+            case 3: Tracing.run("viewRecentOrders", () -> viewRecentOrders(session)); break;
+            case 4: Tracing.run("viewHistory", () -> viewHistory(session)); break;
+            case 5: Tracing.run("takeDeliveryRun", () -> takeDeliveryRun(session)); break;
+            case 6: Tracing.run("prepareNextOrder", () -> prepareNextOrder(session)); break;
+            case 7: updateMenu(session); break;
+            case 8: Tracing.run("orderAnalytics", () -> orderAnalytics(session)); break;
+            case 9: Tracing.run("rushOrder", () -> rushOrder(session)); break;
+            case 10: Tracing.run("liveDashboard", () -> liveDashboard(session)); break;
+            case 20: managing = false; break;
+            default: session.out.println("Invalid choice!");
+         }
+      }
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
+
+/*
+ * Gives the driver the next batch of Ready orders from one store.
+ **/
+private static void takeDeliveryRun(Session session) {
+   PizzaStore esql = session.esql;
+   String driver = session.getUser();
+   try {
+      Dispatcher.Run run = esql.assignDeliveryRun(driver);
+      if (run == null) {
+         session.out.println("No orders are ready for delivery.");
+         return;
+      }
+      session.out.println("\nDelivery run from store " + run.storeID + ":");
+      for (int orderID : run.orderIDs) {
+         session.out.println("- Order " + orderID);
+      }
+      session.out.println(run.orderIDs.size() + " order(s) are now " + ORDER_OUT_FOR_DELIVERY + ", "
+         + esql.getDispatcher().size() + " still waiting.");
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
+
+/*
+ * Gives a kitchen terminal the next order to prepare at its store.
+ **/
+private static void prepareNextOrder(Session session) {
+   PizzaStore esql = session.esql;
+   try {
+      session.out.print("Enter your StoreID: ");
+      int storeID = Integer.parseInt(session.in.readLine().trim());
       
+      KitchenQueue.Ticket ticket = esql.claimNextOrder(storeID);
+      if (ticket == null) {
+         session.out.println("No orders waiting at store " + storeID + ".");
+         return;
+      }
+      session.out.println("\nPrepare order " + ticket.orderID + " (placed "
+         + new Timestamp(ticket.placed) + (ticket.boost > 0 ? ", rushed" : "") + "):");
+      session.printResult(ORDER_ITEM_COLUMNS, esql.orders().findItems(ticket.orderID));
+      session.out.println("Order is now " + ORDER_PREPARING + ", "
+         + esql.getKitchen().size(storeID) + " more waiting at this store.");
+   } catch (NumberFormatException e) {
+      session.out.println("Invalid StoreID! Please enter a numeric value.");
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
+
+// how far ahead a rushed order moves in its kitchen's queue.
+static final long RUSH_BOOST_MS = 15 * 60000;
+
+/*
+ * Moves a waiting order ahead in its kitchen's queue.
+ **/
+private static void rushOrder(Session session) {
+   PizzaStore esql = session.esql;
+   try {
+      session.out.print("Enter Order ID to rush: ");
+      int orderID = Integer.parseInt(session.in.readLine().trim());
+      if (esql.getKitchen().boost(orderID, RUSH_BOOST_MS)) {
+         session.out.println("Order " + orderID + " moved ahead by " + RUSH_BOOST_MS / 60000 + " minutes.");
+      }
+      else {
+         session.out.println("Order " + orderID + " is not waiting in a kitchen.");
+      }
+   } catch (NumberFormatException e) {
+      session.out.println("Invalid Order ID! Please enter a numeric value.");
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
+
+// stores listed on the live dashboard, busiest first.
+static final int DASHBOARD_STORES = 20;
+
+/*
+ * Redraws the live order counts every DASHBOARD_REFRESH_MS until the
+ * manager presses Enter, the input ends or the terminal is gone.  Drawing
+ * reads only the in-memory counters; the Enter is waited for on a thread
+ * of its own.
+ **/
+private static void liveDashboard(Session session) {
+   PizzaStore esql = session.esql;
+   CompletableFuture<String> enter = new CompletableFuture<String>();
+   Thread reader = new Thread(() -> {
+      try {
+         enter.complete(session.in.readLine());
+      } catch (IOException e) {
+         enter.completeExceptionally(e);
+      }
+   }, Thread.currentThread().getName() + "-dashboard");
+   reader.setDaemon(true);
+   try {
+      OrderCounters counters = esql.getOrderCounters();
+      TableRenderer renderer = new TableRenderer(session.out, null, 0);
+      reader.start();
+      while (true) {
+         long queriesBefore = Tracing.queryCount();
+         long start = System.nanoTime();
+         List<List<String>> rows = counters.dashboard(DASHBOARD_STORES, System.currentTimeMillis());
+         long readNanos = System.nanoTime() - start;
+         session.out.print("\033[H\033[2J");
+         session.out.println("---- Live Store Dashboard (" + new Timestamp(System.currentTimeMillis()) + ") ----");
+         renderer.render(counters.header(), rows);
+         session.out.println(String.format("(%d busiest stores, read in %.1f us with %d queries; press Enter to go back)",
+            DASHBOARD_STORES, readNanos / 1e3, Tracing.queryCount() - queriesBefore));
+         // checkError flushes, and tells when the terminal is gone.
+         if (session.out.checkError()) {
+            return;
+         }
+         try {
+            enter.get(DASHBOARD_REFRESH_MS, TimeUnit.MILLISECONDS);
+            return;
+         } catch (TimeoutException e) {
+            // time to redraw.
+         }
+      }
    } catch (Exception e) {
-      System.err.println(e.getMessage());
+      session.err.println(e.getMessage());
    }
 }
 
+// column headers for the event history.
+static final List<String> HISTORY_COLUMNS = Arrays.asList("time", "event", "details");
 
+/*
+ * Shows the journaled events for one order or menu item, oldest first.
+ **/
+private static void viewHistory(Session session) {
+   PizzaStore esql = session.esql;
+   try {
+      EventJournal journal = esql.getJournal();
+      if (journal == null) {
+         session.out.println("The event journal is not enabled (set -Dpizzastore.journal.dir).");
+         return;
+      }
+      session.out.print("Enter Order ID or item name (item:<name> for a numeric item name): ");
+      String key = session.in.readLine().trim();
+      
+      List<List<String>> rows = new ArrayList<List<String>>();
+      for (EventJournal.Event event : journal.history(EventJournal.keyOf(key))) {
+         rows.add(Arrays.asList(new java.sql.Timestamp(event.time).toString(), event.type.toString(),
+            String.join(" | ", event.fields.subList(1, event.fields.size()))));
+      }
+      if (rows.isEmpty()) {
+         session.out.println("No recorded events for " + key);
+         return;
+      }
+      session.printResult(HISTORY_COLUMNS, rows);
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
 
-public static void updateUser(PizzaStore esql) {} // Ali
-public static void managerMenu(PizzaStore esql, String loggedInUser) {}
+// column headers for the analytics reports, after the group's own column.
+static final List<String> ANALYTICS_COLUMNS = Arrays.asList(
+   "orders", "revenue", "avgItems", "avgTotal");
+static final List<String> ITEM_TOTALS_COLUMNS = Arrays.asList(
+   "itemName", "quantity", "orders");
 
-// in manager/driver menu:
 /*
-update menu
-updateorderstatus
-viewrecentorders
-vieworders
-updateUser*/
+ * Ad-hoc reports over the columnar order snapshot.  The snapshot is
+ * brought up to date on entry, then each report is a parallel scan of it.
+ **/
+private static void orderAnalytics(Session session) {
+   PizzaStore esql = session.esql;
+   try {
+      OrderSnapshot snapshot = esql.getOrderSnapshot();
+      boolean analysing = true;
+      while (analysing) {
+         session.out.println("\n---- Order Analytics (" + snapshot.columns().size + " orders) ----");
+         session.out.println("1. Average basket size per store");
+         session.out.println("2. Orders per hour by state");
+         session.out.println("3. Orders per hour");
+         session.out.println("4. Orders per status");
+         session.out.println("5. Top items");
+         session.out.println("6. Top customers");
+         session.out.println("7. Reload snapshot");
+         session.out.println("9. Go Back");
+         
+         int choice = readChoice(session);
+         OrderSnapshot.GroupKey key;
+         String keyColumn;
+         switch (choice) {
+            case 1: key = OrderSnapshot.BY_STORE; keyColumn = "storeID"; break;
+            case 2: key = OrderSnapshot.by(OrderSnapshot.BY_STATE, OrderSnapshot.BY_HOUR); keyColumn = "state hour"; break;
+            case 3: key = OrderSnapshot.BY_HOUR; keyColumn = "hour"; break;
+            case 4: key = OrderSnapshot.BY_STATUS; keyColumn = "orderStatus"; break;
+            case 5: key = null; keyColumn = null; break;
+            case 6: key = OrderSnapshot.BY_LOGIN; keyColumn = "login"; break;
+            case 7:
+               session.out.println("Loaded " + snapshot.reload(esql) + " orders.");
+               continue;
+            case 9: analysing = false; continue;
+            default:
+               session.out.println("Invalid choice!");
+               continue;
+         }
+         
+         session.out.print("Only orders from the last how many days? (leave empty for all): ");
+         String daysStr = session.in.readLine().trim();
+         OrderSnapshot.Filter filter = OrderSnapshot.ALL;
+         if (!daysStr.isEmpty()) {
+            try {
+               filter = OrderSnapshot.since(System.currentTimeMillis() - Long.parseLong(daysStr) * 86400000L);
+            } catch (NumberFormatException e) {
+               session.out.println("Invalid number of days!");
+               continue;
+            }
+         }
+         
+         OrderSnapshot.Groups groups;
+         if (key == null) {
+            groups = snapshot.itemTotals(filter);
+            session.printResult(ITEM_TOTALS_COLUMNS, groups.toItemRecords());
+         }
+         else {
+            groups = snapshot.groupBy(filter, key);
+            List<String> header = new ArrayList<String>();
+            header.add(keyColumn);
+            header.addAll(ANALYTICS_COLUMNS);
+            session.printResult(header, groups.toRecords());
+         }
+         session.out.println(String.format("(%d groups, %d rows scanned in %.1f ms)",
+            groups.labels.size(), groups.scanned, groups.nanos / 1e6));
+      }
+   } catch (Exception e) {
+      session.err.println(e.getMessage());
+   }
+}
 
 } //end PizzaStore
 
@@ -0,0 +1,342 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class guards the query plans of the SQL templates in JdbcStorage.
+ * Every template is run with representative parameters, taken from the
+ * busiest user, order and item of the database, under
+ * EXPLAIN (ANALYZE, BUFFERS) in a transaction that is rolled back, so the
+ * data is left as it was.  For each template it keeps a golden file
+ * <dir>/<TEMPLATE>.plan holding
+ *
+ *    cost=<estimated total cost>
+ *    buffers=<shared blocks hit or read>
+ *    <one line per plan node, as in the plan without its figures>
+ *
+ * "record" writes the golden files; "check" fails when a plan's shape
+ * differs from its golden file, or when it touches more than threshold
+ * (default 0.25) more shared blocks, ignoring differences of up to
+ * BUFFER_SLACK blocks.  Blocks hit and read are counted together: which
+ * of the two a block is depends on the cache, the total does not.
+ *
+ * A template added to JdbcStorage fails the check until it is given
+ * parameters in statements() and recorded.  Plans are meant to be recorded
+ * and checked on data scaled with sql/src/scale_data.sql, where a missing
+ * index shows.
+ *
+ * Usage: java -cp classes:lib/pg73jdbc3.jar PlanRegression <dbname> <port> <user> record|check [dir] [threshold]
+ *
+ */
+public class PlanRegression {
+
+   // buffer differences too small to count as a regression.
+   static final long BUFFER_SLACK = 8;
+
+   // templates only used as parts of other statements, or with no plan.
+   static final Set<String> FRAGMENTS = new HashSet<String>(Arrays.asList(
+      "ITEM_COLUMNS", "ORDER_ITEM_VALUES", "SHARD_ORDER_ITEM_VALUES", "LATEST_ORDER", "OWN_ORDER",
+      "CREATE_ITEM_IMPORT", "ITEM_IMPORT_VALUES", "NEXT_ORDER_ID", "RAISE_ORDER_ID_SEQUENCE",
+      "LAST_ORDER_ID"));
+
+   /**
+    * The parts of a plan that are compared.
+    */
+   static final class Plan {
+      final double cost;
+      final long buffers;
+      final List<String> shape;
+
+      Plan(double cost, long buffers, List<String> shape) {
+         this.cost = cost;
+         this.buffers = buffers;
+         this.shape = shape;
+      }
+
+      /*
+       * Reads the EXPLAIN (ANALYZE, BUFFERS) output, one line per row.
+       */
+      static Plan parse(List<String> lines) {
+         double cost = 0;
+         long buffers = -1;
+         List<String> shape = new ArrayList<String>();
+         for (String line : lines) {
+            String trimmed = line.trim();
+            // the totals of planning, triggers and execution follow the nodes.
+            if (!line.startsWith(" ") && !shape.isEmpty())
+               break;
+            // nodes, and the CTEs and subplans they hang from.
+            if (shape.isEmpty() || trimmed.startsWith("->") || trimmed.startsWith("CTE ")
+                  || trimmed.startsWith("InitPlan") || trimmed.startsWith("SubPlan")) {
+               int details = line.indexOf("  (");
+               if (shape.isEmpty() && details >= 0)
+                  cost = Double.parseDouble(between(line, "..", " "));
+               shape.add(details >= 0 ? line.substring(0, details) : line);
+            }
+            // the first node's buffers include those of the nodes below it.
+            else if (buffers < 0 && shape.size() == 1 && trimmed.startsWith("Buffers: shared")) {
+               buffers = count(trimmed, "hit=") + count(trimmed, "read=");
+            }
+         }
+         return new Plan(cost, Math.max(buffers, 0), shape);
+      }
+
+      List<String> toLines() {
+         List<String> lines = new ArrayList<String>();
+         lines.add("cost=" + this.cost);
+         lines.add("buffers=" + this.buffers);
+         lines.addAll(this.shape);
+         return lines;
+      }
+
+      static Plan fromLines(List<String> lines) {
+         return new Plan(Double.parseDouble(lines.get(0).substring("cost=".length())),
+                         Long.parseLong(lines.get(1).substring("buffers=".length())),
+                         new ArrayList<String>(lines.subList(2, lines.size())));
+      }
+   }//end Plan
+
+   private static String between(String text, String start, String end) {
+      int from = text.indexOf(start) + start.length();
+      return text.substring(from, text.indexOf(end, from));
+   }
+
+   private static long count(String buffers, String key) {
+      int at = buffers.indexOf(key);
+      if (at < 0)
+         return 0;
+      int end = at + key.length();
+      while (end < buffers.length() && Character.isDigit(buffers.charAt(end)))
+         ++end;
+      return Long.parseLong(buffers.substring(at + key.length(), end));
+   }
+
+   /*
+    * The statements to explain, keyed by template name, and a suffix for
+    * templates explained with more than one set of parameters.  Statements
+    * that must run first, in the same transaction, go into setup.
+    */
+   static Map<String, String> statements(PizzaStore esql, Map<String, List<String>> setup) throws SQLException {
+      List<String> user = esql.executeQueryAndReturnResult(
+         "SELECT u.login, u.password FROM Users u JOIN FoodOrder o ON o.login = u.login " +
+         "GROUP BY u.login, u.password ORDER BY COUNT(*) DESC LIMIT 1;").get(0);
+      String login = JdbcStorage.esc(user.get(0).trim());
+      String password = JdbcStorage.esc(user.get(1).trim());
+      List<String> order = esql.executeQueryAndReturnResult(String.format(
+         "SELECT MAX(orderID), (SELECT MAX(orderID) FROM FoodOrder) FROM FoodOrder WHERE login = '%s';", login)).get(0);
+      int orderID = Integer.parseInt(order.get(0).trim());
+      int maxOrderID = Integer.parseInt(order.get(1).trim());
+      List<String> item = esql.executeQueryAndReturnResult(
+         "SELECT i.itemName, i.price FROM Items i JOIN ItemsInOrder io ON io.itemID = i.itemID " +
+         "GROUP BY i.itemName, i.price ORDER BY COUNT(*) DESC LIMIT 1;").get(0);
+      String itemName = JdbcStorage.esc(item.get(0).trim());
+      double price = Double.parseDouble(item.get(1).trim());
+      int storeID = Integer.parseInt(esql.executeQueryAndReturnResult(String.format(
+         "SELECT storeID FROM FoodOrder WHERE orderID = %d;", orderID)).get(0).get(0).trim());
+      List<String> other = esql.executeQueryAndReturnResult(String.format(
+         "SELECT itemID, itemName, price FROM Items WHERE itemID NOT IN " +
+         "(SELECT itemID FROM ItemsInOrder WHERE orderID = %d) LIMIT 1;", orderID)).get(0);
+      String otherItem = JdbcStorage.esc(other.get(1).trim());
+      String recentIDs = (orderID - 2) + ", " + (orderID - 1) + ", " + orderID;
+
+      Map<String, String> statements = new LinkedHashMap<String, String>();
+      statements.put("INSERT_USER", String.format(JdbcStorage.INSERT_USER, "plan_check", "plan_check", "customer", "NULL", "0000000000"));
+      statements.put("AUTHENTICATE_USER", String.format(JdbcStorage.AUTHENTICATE_USER, login, password));
+      statements.put("FIND_PROFILE", String.format(JdbcStorage.FIND_PROFILE, login));
+      statements.put("FIND_ROLE", String.format(JdbcStorage.FIND_ROLE, login));
+      statements.put("UPDATE_PASSWORD", String.format(JdbcStorage.UPDATE_PASSWORD, password, login));
+      statements.put("UPDATE_PHONE_NUM", String.format(JdbcStorage.UPDATE_PHONE_NUM, "0000000000", login));
+      statements.put("UPDATE_FAVORITE_ITEMS", String.format(JdbcStorage.UPDATE_FAVORITE_ITEMS, itemName, login));
+      statements.put("FIND_ALL_ITEMS", JdbcStorage.FIND_ALL_ITEMS);
+      statements.put("FIND_ALL_ITEMS_BY_PRICE", String.format(JdbcStorage.FIND_ALL_ITEMS_BY_PRICE, "ASC"));
+      statements.put("FIND_ITEMS_BY_MAX_PRICE", String.format(JdbcStorage.FIND_ITEMS_BY_MAX_PRICE, price));
+      statements.put("FIND_ITEM", String.format(JdbcStorage.FIND_ITEM, itemName));
+      statements.put("LOCK_ITEM", String.format(JdbcStorage.LOCK_ITEM, itemName));
+      statements.put("INSERT_ITEM", String.format(JdbcStorage.INSERT_ITEM, "plan_check", "", "entree", price, ""));
+      statements.put("UPDATE_ITEM_TEXT", String.format(JdbcStorage.UPDATE_ITEM_TEXT, "description", "", itemName));
+      statements.put("UPDATE_ITEM_PRICE", String.format(JdbcStorage.UPDATE_ITEM_PRICE, price, itemName));
+      statements.put("COUNT_ORDERS_USING_ITEM", String.format(JdbcStorage.COUNT_ORDERS_USING_ITEM, itemName));
+      statements.put("FIND_ITEM_IDS", JdbcStorage.FIND_ITEM_IDS);
+      statements.put("DELETE_ITEM", String.format(JdbcStorage.DELETE_ITEM, itemName));
+      statements.put("FIND_STORES_BY_REVIEW_SCORE", JdbcStorage.FIND_STORES_BY_REVIEW_SCORE);
+      statements.put("REVIEW_ORDER", String.format(JdbcStorage.REVIEW_ORDER, orderID, login, storeID, 5, "NULL"));
+      statements.put("FIND_ACTIVE_PROMOTIONS", JdbcStorage.FIND_ACTIVE_PROMOTIONS);
+      statements.put("MAX_ORDER_ID", JdbcStorage.MAX_ORDER_ID);
+      statements.put("INSERT_ORDER", String.format(JdbcStorage.INSERT_ORDER, maxOrderID + 1, login, storeID, price));
+      statements.put("INSERT_ORDER_ITEMS", String.format(JdbcStorage.INSERT_ORDER_ITEMS,
+         String.format(JdbcStorage.ORDER_ITEM_VALUES, orderID, otherItem, 1, Double.parseDouble(other.get(2).trim()))));
+      statements.put("REORDER.latest", String.format(JdbcStorage.REORDER,
+         String.format(JdbcStorage.LATEST_ORDER, login), login));
+      statements.put("REORDER.own", String.format(JdbcStorage.REORDER,
+         String.format(JdbcStorage.OWN_ORDER, login, orderID), login));
+      statements.put("FIND_ORDERS_BY_LOGIN.recent", String.format(JdbcStorage.FIND_ORDERS_BY_LOGIN, login) + " LIMIT 5;");
+      statements.put("FIND_ORDERS_BY_LOGIN.all", String.format(JdbcStorage.FIND_ORDERS_BY_LOGIN, login) + ";");
+      // the queries of a shard, explained on the single database.
+      statements.put("FIND_SHARD_ORDERS_BY_LOGIN", String.format(JdbcStorage.FIND_SHARD_ORDERS_BY_LOGIN, login) + " LIMIT 5;");
+      statements.put("FIND_SHARD_ORDER_DETAILS", String.format(JdbcStorage.FIND_SHARD_ORDER_DETAILS, orderID));
+      statements.put("INSERT_SHARD_ORDER_ITEMS", JdbcStorage.insertShardOrderItems(
+         orderID, Arrays.asList(other), Arrays.asList(1)));
+      statements.put("FIND_ORDER", String.format(JdbcStorage.FIND_ORDER, orderID));
+      statements.put("FIND_ORDER_DETAILS", String.format(JdbcStorage.FIND_ORDER_DETAILS, orderID));
+      statements.put("FIND_ORDER_ITEMS", String.format(JdbcStorage.FIND_ORDER_ITEMS, orderID));
+      statements.put("UPDATE_ORDER_STATUS", String.format(JdbcStorage.UPDATE_ORDER_STATUS, "Ready", orderID));
+      statements.put("MOVE_ORDERS_STATUS", String.format(JdbcStorage.MOVE_ORDERS_STATUS, "Out for Delivery", recentIDs, "Ready"));
+      statements.put("FIND_ORDERS_BY_STATUS", String.format(JdbcStorage.FIND_ORDERS_BY_STATUS, "Pending"));
+      statements.put("FIND_ORDER_STATUSES", String.format(JdbcStorage.FIND_ORDER_STATUSES, recentIDs));
+      // an incremental refresh of the order snapshot.
+      statements.put("SCAN_ORDERS", String.format(JdbcStorage.SCAN_ORDERS, maxOrderID - 1000));
+      statements.put("SCAN_ORDER_ITEMS", String.format(JdbcStorage.SCAN_ORDER_ITEMS, maxOrderID - 1000, maxOrderID));
+      // an import changing one item's price and adding one item.
+      String staged = JdbcStorage.INSERT_ITEM_IMPORT
+         + String.format(JdbcStorage.ITEM_IMPORT_VALUES, itemName, "", "entree", price + 1, "NULL") + ", "
+         + String.format(JdbcStorage.ITEM_IMPORT_VALUES, "plan_check", "", "entree", price, "NULL") + ";";
+      statements.put("INSERT_ITEM_IMPORT", staged);
+      setup.put("INSERT_ITEM_IMPORT", Arrays.asList(JdbcStorage.CREATE_ITEM_IMPORT));
+      statements.put("MERGE_ITEM_IMPORT", String.format(JdbcStorage.MERGE_ITEM_IMPORT, "FALSE"));
+      setup.put("MERGE_ITEM_IMPORT", Arrays.asList(JdbcStorage.CREATE_ITEM_IMPORT, staged));
+      return statements;
+   }//end statements
+
+   /*
+    * @return the names of the templates in JdbcStorage that no statement
+    * covers
+    */
+   static List<String> uncovered(Set<String> keys) throws IllegalAccessException {
+      Set<String> covered = new HashSet<String>(FRAGMENTS);
+      for (String key : keys)
+         covered.add(key.contains(".") ? key.substring(0, key.indexOf('.')) : key);
+      List<String> missing = new ArrayList<String>();
+      for (Field field : JdbcStorage.class.getDeclaredFields()) {
+         int modifiers = field.getModifiers();
+         if (Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers)
+               && field.getType() == String.class && !covered.contains(field.getName()))
+            missing.add(field.getName());
+      }
+      return missing;
+   }
+
+   /*
+    * Explains a statement without keeping its changes.
+    */
+   static List<String> explain(PizzaStore esql, List<String> setup, String statement) throws SQLException {
+      try (Transaction tx = esql.beginTransaction(Transaction.READ_COMMITTED)) {
+         if (setup != null) {
+            for (String sql : setup)
+               esql.executeUpdate(sql);
+         }
+         List<String> lines = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult("EXPLAIN (ANALYZE, BUFFERS) " + statement))
+            lines.add(row.get(0));
+         // ANALYZE ran the statement: undo it and the setup.
+         tx.rollback();
+         return lines;
+      }
+   }
+
+   /*
+    * Compares a plan with its golden file.
+    * @return why the plan regressed, or null if it did not
+    */
+   static String compare(Plan baseline, Plan plan, double threshold) {
+      if (!plan.shape.equals(baseline.shape))
+         return "plan shape changed";
+      if (plan.buffers - baseline.buffers > BUFFER_SLACK
+            && plan.buffers > baseline.buffers * (1 + threshold))
+         return String.format("buffers grew from %d to %d", baseline.buffers, plan.buffers);
+      return null;
+   }
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 4 || !(args[3].equals("record") || args[3].equals("check"))) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " +
+            PlanRegression.class.getName () +
+            " <dbname> <port> <user> record|check [dir] [threshold]");
+         return;
+      }//end if
+      boolean record = args[3].equals("record");
+      File dir = new File(args.length > 4 ? args[4] : "plans");
+      double threshold = args.length > 5 ? Double.parseDouble(args[5]) : 0.25;
+
+      PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+      int failures = 0;
+      try {
+         Map<String, List<String>> setup = new HashMap<String, List<String>>();
+         Map<String, String> statements = statements(esql, setup);
+         for (String name : uncovered(statements.keySet())) {
+            System.out.println(String.format("FAIL %-28s no parameters in PlanRegression.statements", name));
+            ++failures;
+         }
+         if (record && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+
+         for (Map.Entry<String, String> statement : statements.entrySet()) {
+            File golden = new File(dir, statement.getKey() + ".plan");
+            List<String> explained;
+            try {
+               explained = explain(esql, setup.get(statement.getKey()), statement.getValue());
+            } catch (SQLException e) {
+               System.out.println(String.format("FAIL %-28s %s", statement.getKey(), e.getMessage()));
+               ++failures;
+               continue;
+            }
+            Plan plan = Plan.parse(explained);
+            if (record) {
+               Files.write(golden.toPath(), plan.toLines(), StandardCharsets.UTF_8);
+               System.out.println(String.format("     %-28s cost %10.2f  buffers %8d", statement.getKey(), plan.cost, plan.buffers));
+               continue;
+            }
+            if (!golden.isFile()) {
+               System.out.println(String.format("FAIL %-28s no golden file, run record", statement.getKey()));
+               ++failures;
+               continue;
+            }
+            Plan baseline = Plan.fromLines(Files.readAllLines(golden.toPath(), StandardCharsets.UTF_8));
+            String regression = compare(baseline, plan, threshold);
+            System.out.println(String.format("%s %-28s cost %10.2f (was %.2f)  buffers %8d (was %d)%s",
+               regression == null ? "ok  " : "FAIL", statement.getKey(), plan.cost, baseline.cost,
+               plan.buffers, baseline.buffers, regression == null ? "" : ": " + regression));
+            if (regression != null) {
+               ++failures;
+               System.out.println("     expected:");
+               for (String line : baseline.shape)
+                  System.out.println("        " + line);
+               System.out.println("     got:");
+               for (String line : explained)
+                  System.out.println("        " + line);
+            }
+         }
+      } finally {
+         esql.cleanup();
+      }
+      if (failures > 0) {
+         System.out.println(failures + " plan regression(s)");
+         System.exit(1);
+      }
+   }//end main
+}//end PlanRegression
@@ -0,0 +1,146 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class is a benchmark of checkout latency against the number of
+ * active promotions.  For each rule count it compiles that many random
+ * promotions (store, day and coupon limited ones, item and type bundles,
+ * order-wide discounts), then places random baskets at random stores
+ * through the same PromotionEngine.best and PizzaStore.checkout used by
+ * placeOrder, on the in-memory storage so only the application's own cost
+ * is measured.  Times are reported for pricing alone and for the whole
+ * checkout.
+ *
+ * Usage: java -cp classes PromotionBenchmark [dataDir] [checkouts] [ruleCounts]
+ *
+ */
+public class PromotionBenchmark {
+
+   static final String[] TYPES = { "entree", "sides", "drinks" };
+
+   public static void main (String[] args) throws Exception {
+      File dataDir = new File(args.length > 0 ? args[0] : "data");
+      int checkouts = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+      String ruleCounts = args.length > 2 ? args[2] : "0,10,100,1000,10000,100000";
+
+      PizzaStore esql = PizzaStore.inMemory(InMemoryStorage.load(dataDir));
+      List<MenuSearchIndex.Item> menu = esql.items().findAll();
+      int stores = esql.getStores().size();
+      String login = Csv.read(new File(dataDir, "users.csv")).get(0).get(0);
+
+      System.out.println(String.format("%d checkouts per rule count, %d menu items, %d stores",
+         checkouts, menu.size(), stores));
+      System.out.println(String.format("%8s %10s %10s %10s %10s %10s %8s",
+         "rules", "compile ms", "price p50", "price p99", "total p50", "total p99", "applied"));
+
+      for (String count : ruleCounts.split(",")) {
+         int rules = Integer.parseInt(count.trim());
+         Random random = new Random(42);
+         List<List<String>> rows = randomPromotions(random, rules, menu, stores);
+         long compileStart = System.nanoTime();
+         PromotionEngine promotions = PromotionEngine.compile(rows);
+         double compileMs = (System.nanoTime() - compileStart) / 1e6;
+
+         // the first pass warms up the JIT and is not reported.
+         run(esql, promotions, random, checkouts / 10, menu, stores, login);
+         long[][] times = run(esql, promotions, random, checkouts, menu, stores, login);
+         System.out.println(String.format("%8d %10.1f %8.1fus %8.1fus %8.1fus %8.1fus %7.1f%%",
+            rules, compileMs, percentile(times[0], 50) / 1e3, percentile(times[0], 99) / 1e3,
+            percentile(times[1], 50) / 1e3, percentile(times[1], 99) / 1e3,
+            100.0 * times[2][0] / checkouts));
+      }
+   }//end main
+
+   /*
+    * @return the pricing and total nanoseconds of each checkout, and the
+    * number of checkouts that got a promotion
+    */
+   private static long[][] run(PizzaStore esql, PromotionEngine promotions, Random random, int checkouts,
+                               List<MenuSearchIndex.Item> menu, int stores, String login) throws Exception {
+      long[] pricing = new long[checkouts];
+      long[] total = new long[checkouts];
+      long applied = 0;
+      for (int c = 0; c < checkouts; c++) {
+         int storeID = 1 + random.nextInt(stores);
+         List<MenuSearchIndex.Item> items = new ArrayList<MenuSearchIndex.Item>();
+         List<Integer> quantities = new ArrayList<Integer>();
+         double basketPrice = 0;
+         for (int i = 1 + random.nextInt(5); i > 0; i--) {
+            MenuSearchIndex.Item item = menu.get(random.nextInt(menu.size()));
+            int quantity = 1 + random.nextInt(3);
+            items.add(item);
+            quantities.add(quantity);
+            basketPrice += item.price * quantity;
+         }
+         String coupon = random.nextInt(10) == 0 ? "CODE" + random.nextInt(100) : null;
+
+         long start = System.nanoTime();
+         PromotionEngine.Applied promotion = promotions.best(storeID, coupon, items, quantities,
+            System.currentTimeMillis());
+         pricing[c] = System.nanoTime() - start;
+         double totalPrice = promotion == null ? basketPrice : basketPrice - promotion.discount;
+         PizzaStore.checkout(esql, login, storeID, items, quantities, totalPrice);
+         total[c] = System.nanoTime() - start;
+         if (promotion != null)
+            applied++;
+      }
+      return new long[][] { pricing, total, { applied } };
+   }
+
+   /*
+    * @return rows shaped like PromotionRepository.findActive
+    */
+   private static List<List<String>> randomPromotions(Random random, int count, List<MenuSearchIndex.Item> menu,
+                                                      int stores) {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      for (int p = 1; p <= count; p++) {
+         List<String> promotion = Arrays.asList(String.valueOf(p), "Promotion " + p,
+            random.nextInt(10) < 8 ? String.valueOf(1 + random.nextInt(stores)) : null,
+            random.nextBoolean() ? String.valueOf(random.nextInt(7)) : null,
+            random.nextInt(10) == 0 ? "CODE" + random.nextInt(100) : null,
+            random.nextBoolean() ? String.valueOf(5 + random.nextInt(20)) : "0",
+            random.nextBoolean() ? String.format("%.2f", 0.5 + random.nextInt(500) / 100.0) : "0",
+            null, null);
+         int requirements = random.nextInt(4);
+         if (requirements == 0)
+            rows.add(withRequirement(promotion, null, null, null));
+         for (int r = 0; r < requirements; r++) {
+            String quantity = String.valueOf(1 + random.nextInt(2));
+            if (random.nextBoolean())
+               rows.add(withRequirement(promotion, menu.get(random.nextInt(menu.size())).itemName, null, quantity));
+            else
+               rows.add(withRequirement(promotion, null, TYPES[random.nextInt(TYPES.length)], quantity));
+         }
+      }
+      return rows;
+   }
+
+   private static List<String> withRequirement(List<String> promotion, String itemName, String typeOfItem,
+                                               String quantity) {
+      List<String> row = new ArrayList<String>(promotion);
+      row.addAll(Arrays.asList(itemName, typeOfItem, quantity));
+      return row;
+   }
+
+   private static long percentile(long[] values, int percentile) {
+      long[] sorted = values.clone();
+      Arrays.sort(sorted);
+      return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+   }
+}//end PromotionBenchmark
@@ -0,0 +1,341 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is an immutable, compiled set of promotions, evaluated in
+ * memory at checkout.  A promotion may be limited to a store, a day of the
+ * week, a validity period and a coupon code, and may require items in the
+ * basket, by name or by type ("2 entree + 1 drinks").  Its discount is
+ * percentOff of the items it used (of the whole basket when it requires
+ * none) plus amountOff, for each time the basket fills its requirements.
+ * Promotions do not stack: the order gets the single best one.
+ *
+ * Rules are indexed by store, then by the first item or type they require,
+ * so a basket only looks at the rules it could possibly fill, and pricing
+ * it takes no query however many promotions there are.  A new set is
+ * compiled when the promotions are reloaded.
+ *
+ */
+public class PromotionEngine {
+
+   /**
+    * One compiled promotion.
+    */
+   public static final class Rule {
+      public final int promoID;
+      public final String description;
+      // null for every store.
+      final Integer storeID;
+      // a bit per day of the week, bit 0 being Sunday as in EXTRACT(DOW).
+      final int days;
+      // null when no code is needed.
+      final String couponCode;
+      final double percentOff;
+      final double amountOff;
+      final long validFrom;
+      final long validUntil;
+      // the requirements, named items first; each has either an itemName
+      // or a (lower case) type.
+      final String[] itemNames;
+      final String[] types;
+      final int[] quantities;
+      // the basket key of each requirement, see key.
+      final String[] keys;
+
+      Rule(List<String> row, List<List<String>> requirements) {
+         this.promoID = Integer.parseInt(row.get(0).trim());
+         this.description = row.get(1).trim();
+         this.storeID = isNull(row.get(2)) ? null : Integer.valueOf(row.get(2).trim());
+         this.days = isNull(row.get(3)) ? ALL_DAYS : 1 << Integer.parseInt(row.get(3).trim());
+         this.couponCode = isNull(row.get(4)) ? null : row.get(4).trim();
+         this.percentOff = isNull(row.get(5)) ? 0 : Double.parseDouble(row.get(5).trim());
+         this.amountOff = isNull(row.get(6)) ? 0 : Double.parseDouble(row.get(6).trim());
+         this.validFrom = isNull(row.get(7)) ? Long.MIN_VALUE : Timestamp.valueOf(row.get(7).trim()).getTime();
+         this.validUntil = isNull(row.get(8)) ? Long.MAX_VALUE : Timestamp.valueOf(row.get(8).trim()).getTime();
+
+         List<List<String>> ordered = new ArrayList<List<String>>();
+         for (List<String> r : requirements)
+            if (!isNull(r.get(0)))
+               ordered.add(r);
+         for (List<String> r : requirements)
+            if (isNull(r.get(0)))
+               ordered.add(r);
+         int n = ordered.size();
+         this.itemNames = new String[n];
+         this.types = new String[n];
+         this.quantities = new int[n];
+         this.keys = new String[n];
+         for (int i = 0; i < n; i++) {
+            List<String> r = ordered.get(i);
+            this.itemNames[i] = isNull(r.get(0)) ? null : r.get(0).trim();
+            this.types[i] = isNull(r.get(0)) ? type(r.get(1)) : null;
+            // a requirement of nothing would be filled forever.
+            this.quantities[i] = Math.max(1, Integer.parseInt(r.get(2).trim()));
+            this.keys[i] = key(this.itemNames[i], this.types[i]);
+         }
+      }
+
+      boolean applies(int day, long now, String coupon) {
+         return (this.days & (1 << day)) != 0
+            && now >= this.validFrom && now < this.validUntil
+            && (this.couponCode == null || this.couponCode.equalsIgnoreCase(coupon));
+      }
+
+      /*
+       * A quick check that the basket has enough of everything required,
+       * each requirement taken on its own.
+       */
+      boolean possible(Map<String, Integer> units) {
+         for (int r = 0; r < this.keys.length; r++) {
+            Integer have = units.get(this.keys[r]);
+            if (have == null || have < this.quantities[r])
+               return false;
+         }
+         return true;
+      }
+   }//end Rule
+
+   /**
+    * The promotion an order gets.
+    */
+   public static final class Applied {
+      public final Rule rule;
+      // how many times the basket filled the requirements.
+      public final int times;
+      public final double discount;
+
+      Applied(Rule rule, int times, double discount) {
+         this.rule = rule;
+         this.times = times;
+         this.discount = discount;
+      }
+   }//end Applied
+
+   /*
+    * The rules of one store, or of every store, by the key of their first
+    * requirement.
+    */
+   private static final class Scope {
+      final Map<String, List<Rule>> byKey = new HashMap<String, List<Rule>>();
+      final List<Rule> orderWide = new ArrayList<Rule>();
+
+      void add(Rule rule) {
+         if (rule.keys.length == 0)
+            this.orderWide.add(rule);
+         else
+            this.byKey.computeIfAbsent(rule.keys[0], k -> new ArrayList<Rule>()).add(rule);
+      }
+   }//end Scope
+
+   static final int ALL_DAYS = 0x7f;
+
+   private final Map<Integer, Scope> byStore = new HashMap<Integer, Scope>();
+   private final Scope allStores = new Scope();
+   private final Set<String> couponCodes = new HashSet<String>();
+   private final int size;
+   private final long loadedAt;
+
+   private PromotionEngine(List<Rule> rules, long loadedAt) {
+      for (Rule rule : rules) {
+         if (rule.storeID == null)
+            this.allStores.add(rule);
+         else
+            this.byStore.computeIfAbsent(rule.storeID, k -> new Scope()).add(rule);
+         if (rule.couponCode != null)
+            this.couponCodes.add(rule.couponCode.toUpperCase(Locale.ROOT));
+      }
+      this.size = rules.size();
+      this.loadedAt = loadedAt;
+   }
+
+   /**
+    * Compiles the promotions returned by PromotionRepository.findActive.
+    *
+    * @param rows one row per promotion requirement, ordered by promoID
+    * @return the compiled promotions
+    */
+   public static PromotionEngine compile(List<List<String>> rows) {
+      List<Rule> rules = new ArrayList<Rule>();
+      int i = 0;
+      while (i < rows.size()) {
+         List<String> row = rows.get(i);
+         String promoID = row.get(0).trim();
+         List<List<String>> requirements = new ArrayList<List<String>>();
+         for (; i < rows.size() && rows.get(i).get(0).trim().equals(promoID); i++) {
+            List<String> r = rows.get(i);
+            if (!isNull(r.get(11)))
+               requirements.add(r.subList(9, 12));
+         }
+         rules.add(new Rule(row, requirements));
+      }
+      return new PromotionEngine(rules, System.currentTimeMillis());
+   }//end compile
+
+   /**
+    * @return the number of promotions
+    */
+   public int size() {
+      return this.size;
+   }
+
+   /**
+    * @return when the promotions were compiled, in milliseconds
+    */
+   public long getLoadedAt() {
+      return this.loadedAt;
+   }
+
+   /**
+    * @return true if some promotion takes this coupon code
+    */
+   public boolean hasCoupon(String code) {
+      return code != null && this.couponCodes.contains(code.toUpperCase(Locale.ROOT));
+   }
+
+   /**
+    * Finds the best promotion for a basket.
+    *
+    * @param coupon the code the customer entered, or null
+    * @param items the basket's items, as resolved against the menu
+    * @param quantities the quantity of each item
+    * @param now the time of the order, in milliseconds
+    * @return the promotion giving the largest discount, or null if none
+    * applies
+    */
+   public Applied best(int storeID, String coupon, List<MenuSearchIndex.Item> items, List<Integer> quantities, long now) {
+      int n = items.size();
+      String[] names = new String[n];
+      String[] types = new String[n];
+      double[] prices = new double[n];
+      int[] counts = new int[n];
+      Integer[] byPrice = new Integer[n];
+      // units in the basket of each item and of each type.
+      Map<String, Integer> units = new HashMap<String, Integer>();
+      double total = 0;
+      for (int i = 0; i < n; i++) {
+         MenuSearchIndex.Item item = items.get(i);
+         names[i] = item.itemName;
+         types[i] = type(item.typeOfItem);
+         prices[i] = item.price;
+         counts[i] = quantities.get(i);
+         byPrice[i] = i;
+         total += item.price * counts[i];
+         units.merge(key(names[i], null), counts[i], Integer::sum);
+         if (types[i] != null)
+            units.merge(key(null, types[i]), counts[i], Integer::sum);
+      }
+      // requirements by type use up the cheapest items first.
+      Arrays.sort(byPrice, (a, b) -> Double.compare(prices[a], prices[b]));
+      int day = Instant.ofEpochMilli(now).atZone(ZoneId.systemDefault()).getDayOfWeek().getValue() % 7;
+
+      Applied best = null;
+      for (Scope scope : new Scope[] { this.byStore.get(storeID), this.allStores }) {
+         if (scope == null)
+            continue;
+         List<List<Rule>> candidates = new ArrayList<List<Rule>>();
+         candidates.add(scope.orderWide);
+         for (String key : units.keySet()) {
+            List<Rule> rules = scope.byKey.get(key);
+            if (rules != null)
+               candidates.add(rules);
+         }
+         for (List<Rule> rules : candidates) {
+            for (Rule rule : rules) {
+               if (!rule.applies(day, now, coupon) || !rule.possible(units))
+                  continue;
+               Applied applied = apply(rule, names, types, prices, counts, byPrice, total);
+               if (applied != null && (best == null || applied.discount > best.discount
+                     || (applied.discount == best.discount && rule.promoID < best.rule.promoID)))
+                  best = applied;
+            }
+         }
+      }
+      return best;
+   }//end best
+
+   /*
+    * Fills the rule's requirements from the basket as many times as it can.
+    * @return the discount, or null if the basket does not fill them once
+    */
+   private static Applied apply(Rule rule, String[] names, String[] types, double[] prices,
+                                int[] counts, Integer[] byPrice, double total) {
+      int times;
+      double matched;
+      if (rule.quantities.length == 0) {
+         times = 1;
+         matched = total;
+      } else {
+         times = 0;
+         matched = 0;
+         int[] left = counts.clone();
+         while (true) {
+            int[] trial = left.clone();
+            double value = 0;
+            boolean filled = true;
+            for (int r = 0; r < rule.quantities.length && filled; r++) {
+               int need = rule.quantities[r];
+               for (int i : byPrice) {
+                  if (need == 0)
+                     break;
+                  if (trial[i] == 0)
+                     continue;
+                  if (rule.itemNames[r] != null ? !rule.itemNames[r].equals(names[i]) : !rule.types[r].equals(types[i]))
+                     continue;
+                  int take = Math.min(need, trial[i]);
+                  trial[i] -= take;
+                  need -= take;
+                  value += take * prices[i];
+               }
+               filled = need == 0;
+            }
+            if (!filled)
+               break;
+            left = trial;
+            times++;
+            matched += value;
+         }
+         if (times == 0)
+            return null;
+      }
+      double discount = Math.min(total, matched * rule.percentOff / 100 + rule.amountOff * times);
+      discount = Math.round(discount * 100) / 100.0;
+      return discount > 0 ? new Applied(rule, times, discount) : null;
+   }//end apply
+
+   /*
+    * @return the key of an item, or of a type when itemName is null
+    */
+   private static String key(String itemName, String type) {
+      return itemName != null ? itemName : "@" + type;
+   }
+
+   private static boolean isNull(String value) {
+      return value == null || value.trim().isEmpty();
+   }
+
+   private static String type(String typeOfItem) {
+      return typeOfItem == null ? null : typeOfItem.trim().toLowerCase(Locale.ROOT);
+   }
+}//end PromotionEngine
@@ -0,0 +1,32 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This interface defines the data access the checkout needs for the
+ * Promotion and PromotionItem tables.
+ *
+ */
+public interface PromotionRepository {
+
+   /**
+    * @return every promotion that has not expired, joined with its
+    * requirements, as [promoID, description, storeID, dayOfWeek,
+    * couponCode, percentOff, amountOff, validFrom, validUntil, itemName,
+    * typeOfItem, quantity] ordered by promoID; the last three are null for
+    * a promotion without requirements
+    */
+   List<List<String>> findActive() throws SQLException;
+}//end PromotionRepository
@@ -0,0 +1,116 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs queries in the background on connections of its own, so
+ * a handler can start several independent queries at once and wait for
+ * them together: its latency becomes that of the slowest query rather
+ * than the sum of all of them.  Each connection is a PizzaStore of its
+ * own, with its own repositories, handed to one piece of work at a time;
+ * there is one worker thread per connection, so work never waits for a
+ * connection, only for a worker.
+ *
+ * Queries run here are traced as pizzastore.Query events of the operation
+ * that submitted them, see Tracing.inCurrentOperation.
+ *
+ */
+public class QueryPool implements AutoCloseable {
+
+   /**
+    * Work run on a pooled connection.
+    */
+   public interface Work<T> {
+      /**
+       * @param db the pooled connection, used by this work alone until it
+       * returns
+       */
+      T run(PizzaStore db) throws Exception;
+   }
+
+   private final List<PizzaStore> connections;
+   private final BlockingQueue<PizzaStore> idle;
+   private final ExecutorService workers;
+
+   /**
+    * @param connections the pooled connections, none of them used elsewhere
+    */
+   public QueryPool(List<PizzaStore> connections) {
+      this.connections = new ArrayList<PizzaStore>(connections);
+      this.idle = new ArrayBlockingQueue<PizzaStore>(connections.size(), false, connections);
+      AtomicInteger count = new AtomicInteger();
+      this.workers = Executors.newFixedThreadPool(connections.size(), task -> {
+         Thread worker = new Thread(task, "query-pool-" + count.incrementAndGet());
+         worker.setDaemon(true);
+         return worker;
+      });
+   }//end QueryPool
+
+   /**
+    * Runs work on the next free connection.
+    *
+    * @return the work's result, or its failure
+    */
+   public <T> CompletableFuture<T> submit(Work<T> work) {
+      CompletableFuture<T> result = new CompletableFuture<T>();
+      this.workers.execute(Tracing.inCurrentOperation(() -> {
+         PizzaStore db = null;
+         try {
+            db = this.idle.take();
+            result.complete(work.run(db));
+         } catch (Throwable e) {
+            result.completeExceptionally(e);
+         } finally {
+            if (db != null)
+               this.idle.add(db);
+         }
+      }));
+      return result;
+   }//end submit
+
+   /**
+    * @return the pooled connections, e.g. to point their repositories
+    * elsewhere
+    */
+   List<PizzaStore> connections() {
+      return this.connections;
+   }
+
+   public int size() {
+      return this.connections.size();
+   }
+
+   /**
+    * @return the number of statements sent on the pooled connections
+    */
+   public long getQueryCount() {
+      long queries = 0;
+      for (PizzaStore db : this.connections)
+         queries += db.getQueryCount();
+      return queries;
+   }
+
+   public void close() {
+      this.workers.shutdownNow();
+      for (PizzaStore db : this.connections)
+         db.cleanup();
+   }//end close
+}//end QueryPool
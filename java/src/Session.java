@@ -0,0 +1,161 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * This class holds what belongs to one terminal rather than to the whole
+ * PizzaStore: where its input comes from and its output goes, the user
+ * logged in on it, and the lease its statements run on.  The menu
+ * handlers take a Session, so one PizzaStore can serve many terminals at
+ * once, each on a thread of its own (see TerminalServer).
+ *
+ * A session leases a connection only while it works: waiting for the
+ * next line of input hands the connection back, so sessions sitting at a
+ * prompt hold none.
+ *
+ */
+public class Session {
+
+   // the application, shared by every session; set by connect.
+   PizzaStore esql = null;
+
+   // input of the terminal; reading it releases the lease.
+   final BufferedReader in;
+
+   // output of the terminal, and where its error messages go.
+   final PrintStream out;
+   final PrintStream err;
+
+   // formats result tables for this terminal, paging on its input.
+   private final TableRenderer renderer;
+
+   // the user logged in, or null.
+   private volatile String user = null;
+
+   // the connection lease of the session's thread, see connect.
+   private PizzaStore.Lease lease = null;
+
+   // set once the input has ended or failed.
+   private volatile boolean closed = false;
+
+   /**
+    * Creates a new session
+    *
+    * @param in the input of the terminal
+    * @param out the output of the terminal
+    * @param err where error messages are written
+    */
+   public Session(Reader in, PrintStream out, PrintStream err) {
+      this.in = new Input(in);
+      this.out = out;
+      this.err = err;
+      this.renderer = new TableRenderer(out, this.in, PizzaStore.PAGE_SIZE);
+   }//end Session
+
+   /**
+    * @return a session on the console of this process
+    */
+   public static Session console() {
+      return new Session(new InputStreamReader(System.in), System.out, System.err);
+   }
+
+   /**
+    * Attaches the session to the application and leases it a connection.
+    * Must be called on the thread that runs the session.
+    *
+    * @param esql the application
+    */
+   public void connect(PizzaStore esql) {
+      this.esql = esql;
+      this.lease = esql.lease();
+   }//end connect
+
+   public String getUser() {
+      return this.user;
+   }
+
+   /**
+    * Sets the user logged in on the session, or null on log out.
+    */
+   public void login(String user) {
+      this.user = user;
+      Tracing.login(user);
+   }
+
+   /**
+    * @return whether the terminal's input has ended or failed
+    */
+   public boolean isClosed() {
+      return this.closed;
+   }
+
+   /**
+    * Method to output records as a table on the terminal, paging long
+    * results.
+    *
+    * @param header the column names
+    * @param rows the records to print
+    * @return the number of rows printed
+    */
+   public int printResult(List<String> header, List<List<String>> rows) {
+      int rowCount = this.renderer.render(header, rows);
+      if (PizzaStore.TIMING) {
+         System.err.println(String.format("[render] %d rows, %.0f rows/s",
+            this.renderer.getLastRowCount(), this.renderer.getLastRowsPerSecond()));
+      }
+      return rowCount;
+   }//end printResult
+
+   /**
+    * Gives back the session's connection lease.
+    */
+   public void close() {
+      if (this.lease != null)
+         this.lease.close();
+      this.out.flush();
+   }//end close
+
+   /*
+    * The terminal's input.  Nothing runs while the user types, so the
+    * leased connection is handed back before each line is read.
+    **/
+   private final class Input extends Tracing.InputReader {
+
+      Input(Reader in) {
+         super(in);
+      }
+
+      public String readLine() throws IOException {
+         out.flush();
+         if (lease != null)
+            lease.release();
+         String line;
+         try {
+            line = super.readLine();
+         } catch (IOException e) {
+            // e.g. reset by the peer: nothing more will come.
+            closed = true;
+            throw e;
+         }
+         if (line == null)
+            closed = true;
+         return line;
+      }
+   }//end Input
+}//end Session
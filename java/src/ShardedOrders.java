@@ -0,0 +1,557 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * This class stores orders in several Postgres databases, the shards, by
+ * storeID.  A shard holds only FoodOrder and ItemsInOrder (see
+ * sql/src/create_shard_tables.sql); users, items and stores stay on the
+ * primary, and the store columns of the order lookups are filled in from
+ * there.  Order lines carry their item's name and price, so they are read
+ * from the shard alone.
+ *
+ * The shard map is a file of lines
+ *
+ *    <firstStoreID>-<lastStoreID> <dbname>
+ *
+ * (or a single storeID), on the primary's host and port.  Shards are
+ * numbered in the order they first appear.  New orderIDs come from the
+ * sequence order_id_seq on the primary as nextval * shards + shard, so the
+ * shard of a new order follows from its orderID; orders loaded before
+ * sharding are looked for on every shard when not on that one.
+ *
+ * A placed order, and a change to one order, go to its shard alone; a
+ * user's history and the status and scan queries go to every shard in
+ * parallel and the sorted results are merged.  The scans are merged as
+ * they stream, and stop at the orderIDs handed out before they started,
+ * so every shard is read up to the same point.  That does not make them
+ * complete below it: an order whose transaction is still open is missed
+ * however low its orderID, and scanAfter callers read a window again for
+ * it (see OrderRepository).
+ *
+ */
+public class ShardedOrders implements OrderRepository {
+
+   /*
+    * Work done on one shard.
+    */
+   private interface ShardWork<T> {
+      T run(int shard) throws SQLException;
+   }
+
+   /*
+    * A scan of one shard, streaming its rows in orderID order.
+    */
+   private interface ShardScan {
+      void run(int shard, Consumer<List<String>> handler) throws SQLException;
+   }
+
+   /*
+    * Thrown from a shard scan's handler to stop it once the merge is over.
+    */
+   private static final class ScanStopped extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+   }
+
+   // ends the rows of a shard scan.
+   private static final List<String> END_OF_SCAN = Collections.emptyList();
+
+   // rows read ahead from each shard while the merge catches up.
+   static final int SCAN_QUEUE_ROWS = 1024;
+
+   /*
+    * The itemIDs of the primary's items as of one menu index.
+    */
+   private static final class ItemIDs {
+      final MenuSearchIndex menu;
+      final Map<String, List<String>> ids;
+
+      ItemIDs(MenuSearchIndex menu, Map<String, List<String>> ids) {
+         this.menu = menu;
+         this.ids = ids;
+      }
+   }//end ItemIDs
+
+   private final PizzaStore primary;
+   private final List<PizzaStore> shards;
+   private final List<JdbcStorage.Orders> orders = new ArrayList<JdbcStorage.Orders>();
+   // storeID ranges, by their first storeID, as {last storeID, shard}.
+   private final TreeMap<Integer, int[]> ranges;
+   private final ExecutorService pool;
+   private final Map<Integer, List<String>> stores = new ConcurrentHashMap<Integer, List<String>>();
+   private volatile ItemIDs itemIDs = null;
+
+   /**
+    * Connects to the shards of a shard map.
+    *
+    * @param primary the database holding users, items and stores
+    * @param shardMap the shard map file
+    * @param dbport the port of the shards' server
+    * @param user the user name to connect with
+    * @param passwd the password to connect with
+    * @throws java.io.IOException when failed to read the shard map
+    * @throws java.sql.SQLException when failed to connect to a shard
+    */
+   public ShardedOrders(PizzaStore primary, File shardMap, String dbport, String user, String passwd)
+         throws IOException, SQLException {
+      this.primary = primary;
+      this.ranges = new TreeMap<Integer, int[]>();
+      List<String> names = readShardMap(shardMap, this.ranges);
+      if (names.isEmpty())
+         throw new IOException("No shards in " + shardMap);
+      this.shards = new ArrayList<PizzaStore>();
+      try {
+         for (String dbname : names) {
+            PizzaStore shard = new PizzaStore(dbname, dbport, user, passwd);
+            this.shards.add(shard);
+            this.orders.add(new JdbcStorage.Orders(shard));
+         }
+      } catch (SQLException e) {
+         for (PizzaStore shard : this.shards)
+            shard.cleanup();
+         throw e;
+      }
+      this.pool = Executors.newFixedThreadPool(names.size(), r -> {
+         Thread thread = new Thread(r, "shard-query");
+         thread.setDaemon(true);
+         return thread;
+      });
+
+      // new orderIDs must stay above every order already stored.
+      try {
+         int highest = 0;
+         for (List<List<String>> max : scatter(shard -> this.shards.get(shard).executeQueryAndReturnResult(JdbcStorage.MAX_ORDER_ID))) {
+            if (!max.isEmpty() && max.get(0).get(0) != null)
+               highest = Math.max(highest, Integer.parseInt(max.get(0).get(0).trim()));
+         }
+         primary.executeQueryAndReturnResult(String.format(JdbcStorage.RAISE_ORDER_ID_SEQUENCE, highest / names.size() + 1));
+      } catch (SQLException e) {
+         close();
+         throw e;
+      }
+   }//end ShardedOrders
+
+   /*
+    * Reads the shard map into ranges.
+    * @return the shards' database names, in shard order
+    */
+   static List<String> readShardMap(File file, TreeMap<Integer, int[]> ranges) throws IOException {
+      List<String> names = new ArrayList<String>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try {
+         String line;
+         int lineNumber = 0;
+         while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+               continue;
+            String[] fields = line.split("\\s+");
+            try {
+               if (fields.length != 2)
+                  throw new NumberFormatException();
+               int dash = fields[0].indexOf('-');
+               int first = Integer.parseInt(dash < 0 ? fields[0] : fields[0].substring(0, dash));
+               int last = dash < 0 ? first : Integer.parseInt(fields[0].substring(dash + 1));
+               Map.Entry<Integer, int[]> before = ranges.floorEntry(last);
+               if (last < first || (before != null && before.getValue()[0] >= first))
+                  throw new IOException(file + ":" + lineNumber + ": store range overlaps another");
+               if (!names.contains(fields[1]))
+                  names.add(fields[1]);
+               ranges.put(first, new int[] { last, names.indexOf(fields[1]) });
+            } catch (NumberFormatException e) {
+               throw new IOException(file + ":" + lineNumber + ": expected <firstStoreID>-<lastStoreID> <dbname>");
+            }
+         }
+      } finally {
+         reader.close();
+      }
+      return names;
+   }//end readShardMap
+
+   /**
+    * @return the shard holding the store's orders
+    * @throws java.sql.SQLException when the shard map has no shard for it
+    */
+   public int shardOf(int storeID) throws SQLException {
+      Map.Entry<Integer, int[]> range = this.ranges.floorEntry(storeID);
+      if (range == null || range.getValue()[0] < storeID)
+         throw new SQLException("No shard holds store " + storeID);
+      return range.getValue()[1];
+   }
+
+   /**
+    * Closes the shard connections.
+    */
+   public void close() {
+      this.pool.shutdownNow();
+      for (PizzaStore shard : this.shards)
+         shard.cleanup();
+   }
+
+   /*
+    * Runs the work on every shard at once.
+    * @return each shard's result, in shard order
+    */
+   private <T> List<T> scatter(ShardWork<T> work) throws SQLException {
+      List<Future<T>> futures = new ArrayList<Future<T>>();
+      for (int shard = 0; shard < this.shards.size(); shard++) {
+         int s = shard;
+         futures.add(this.pool.submit(() -> work.run(s)));
+      }
+      List<T> results = new ArrayList<T>(futures.size());
+      try {
+         for (Future<T> future : futures)
+            results.add(future.get());
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while querying the shards");
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw new SQLException(String.valueOf(e.getCause()));
+      }
+      return results;
+   }//end scatter
+
+   /*
+    * Runs the work on the shard a new order with this orderID would be on,
+    * then, if that found nothing, on the others.
+    * @return the first result that is not empty, or the owner's
+    */
+   private <T> T locate(int orderID, ShardWork<T> work, Predicate<T> found) throws SQLException {
+      int owner = Math.floorMod(orderID, this.shards.size());
+      T result = work.run(owner);
+      if (found.test(result) || this.shards.size() == 1)
+         return result;
+      for (T other : scatter(shard -> shard == owner ? null : work.run(shard))) {
+         if (other != null && found.test(other))
+            return other;
+      }
+      return result;
+   }
+
+   /**
+    * Merges result sets that are each sorted by the given order.
+    *
+    * @param limit the most rows to return, 0 for all of them
+    * @return the rows of every part, sorted
+    */
+   static List<List<String>> merge(List<List<List<String>>> parts, Comparator<List<String>> order, int limit) {
+      // the next row of each part, as {part, row}.
+      PriorityQueue<int[]> heads = new PriorityQueue<int[]>(Math.max(1, parts.size()),
+         (a, b) -> order.compare(parts.get(a[0]).get(a[1]), parts.get(b[0]).get(b[1])));
+      for (int part = 0; part < parts.size(); part++) {
+         if (!parts.get(part).isEmpty())
+            heads.add(new int[] { part, 0 });
+      }
+      List<List<String>> merged = new ArrayList<List<String>>();
+      while (!heads.isEmpty() && (limit <= 0 || merged.size() < limit)) {
+         int[] head = heads.poll();
+         List<List<String>> part = parts.get(head[0]);
+         merged.add(part.get(head[1]));
+         if (++head[1] < part.size())
+            heads.add(head);
+      }
+      return merged;
+   }//end merge
+
+   private static Comparator<List<String>> byInt(int column) {
+      return Comparator.comparingInt(row -> Integer.parseInt(row.get(column).trim()));
+   }
+
+   private static Comparator<List<String>> byTimestamp(int column) {
+      return Comparator.comparing(row -> Timestamp.valueOf(row.get(column).trim()));
+   }
+
+   /*
+    * @return the store as [storeID, address, city, state, isOpen,
+    * reviewScore], or null
+    */
+   private List<String> store(int storeID) throws SQLException {
+      List<String> store = this.stores.get(storeID);
+      if (store == null) {
+         for (List<String> row : this.primary.stores().findAllByReviewScore())
+            this.stores.put(Integer.parseInt(row.get(0).trim()), row);
+         store = this.stores.get(storeID);
+      }
+      return store;
+   }
+
+   /*
+    * @return the itemIDs of the items on the primary's menu index, read
+    * again only when the menu has changed since
+    */
+   private Map<String, List<String>> itemIDs(MenuSearchIndex menu) throws SQLException {
+      ItemIDs cached = this.itemIDs;
+      if (cached == null || cached.menu != menu) {
+         cached = new ItemIDs(menu, JdbcStorage.itemIDs(this.primary));
+         this.itemIDs = cached;
+      }
+      return cached.ids;
+   }//end itemIDs
+
+   /*
+    * The order and its items are written to the store's shard as one
+    * transaction; the orderID is taken from the primary first.
+    */
+   public int place(String login, int storeID, List<String> itemNames, List<Integer> quantities,
+                    List<Double> unitPrices, double totalPrice) throws SQLException {
+      int shard = shardOf(storeID);
+      // shards have no Items table: lines get the itemID of the primary's
+      // cached menu.
+      MenuSearchIndex menu = this.primary.getMenuIndex();
+      Map<String, List<String>> ids = itemIDs(menu);
+      List<List<String>> lines = new ArrayList<List<String>>();
+      for (int i = 0; i < itemNames.size(); i++) {
+         MenuSearchIndex.Item item = menu.get(itemNames.get(i));
+         List<String> id = item == null ? null : ids.get(item.itemName);
+         if (id == null)
+            throw new SQLException("insert or update on table \"itemsinorder\" violates foreign key constraint (itemName)");
+         lines.add(Arrays.asList(id.get(0), item.itemName, String.format("%.2f", unitPrices.get(i))));
+      }
+      int orderID = Integer.parseInt(this.primary.executeQueryAndReturnResult(JdbcStorage.NEXT_ORDER_ID).get(0).get(0).trim())
+         * this.shards.size() + shard;
+      PizzaStore esql = this.shards.get(shard);
+      JdbcStorage.retrying(esql, Transaction.READ_COMMITTED, tx -> {
+         esql.executeUpdate(String.format(JdbcStorage.INSERT_ORDER, orderID, JdbcStorage.esc(login), storeID, totalPrice));
+         esql.executeUpdate(JdbcStorage.insertShardOrderItems(orderID, lines, quantities));
+         return null;
+      });
+      return orderID;
+   }//end place
+
+   /*
+    * Prices come from the primary's menu, so the copy is made here rather
+    * than by a single statement as on one database.
+    */
+   public List<List<String>> reorder(String login, Integer orderID) throws SQLException {
+      List<List<String>> placed = new ArrayList<List<String>>();
+      List<String> source;
+      if (orderID == null) {
+         List<List<String>> latest = findByLogin(login, 1);
+         if (latest.isEmpty())
+            return placed;
+         orderID = Integer.parseInt(latest.get(0).get(0).trim());
+      }
+      source = find(orderID);
+      if (source == null || !source.get(1).trim().equals(login))
+         return placed;
+      List<List<String>> details = findDetails(orderID);
+      int storeID = Integer.parseInt(details.get(0).get(5).trim());
+
+      MenuSearchIndex menu = this.primary.getMenuIndex();
+      List<String> itemNames = new ArrayList<String>();
+      List<Integer> quantities = new ArrayList<Integer>();
+      List<Double> unitPrices = new ArrayList<Double>();
+      double totalPrice = 0;
+      for (List<String> line : findItems(orderID)) {
+         MenuSearchIndex.Item item = menu.get(line.get(0).trim());
+         if (item == null)
+            continue;
+         int quantity = Integer.parseInt(line.get(1).trim());
+         itemNames.add(item.itemName);
+         quantities.add(quantity);
+         unitPrices.add(item.price);
+         totalPrice += item.price * quantity;
+      }
+      if (itemNames.isEmpty())
+         return placed;
+      int newOrderID = place(login, storeID, itemNames, quantities, unitPrices, totalPrice);
+      for (int i = 0; i < itemNames.size(); i++) {
+         placed.add(Arrays.asList(String.valueOf(newOrderID), String.valueOf(storeID),
+            String.format("%.2f", totalPrice), itemNames.get(i), String.valueOf(quantities.get(i))));
+      }
+      return placed;
+   }//end reorder
+
+   /*
+    * Each shard returns its newest orders of the user; the merge keeps the
+    * newest of those.
+    */
+   public List<List<String>> findByLogin(String login, int limit) throws SQLException {
+      String query = String.format(JdbcStorage.FIND_SHARD_ORDERS_BY_LOGIN, JdbcStorage.esc(login))
+         + (limit > 0 ? " LIMIT " + limit : "") + ";";
+      List<List<List<String>>> parts = scatter(shard -> this.shards.get(shard).executeQueryAndReturnResult(query));
+      List<List<String>> orders = merge(parts, byTimestamp(2).thenComparing(byInt(0)).reversed(), limit);
+      // [orderID, totalPrice, orderTimestamp, orderStatus, storeID] + address
+      for (int i = 0; i < orders.size(); i++) {
+         List<String> order = new ArrayList<String>(orders.get(i));
+         List<String> store = store(Integer.parseInt(order.get(4).trim()));
+         order.add(store == null ? null : store.get(1));
+         orders.set(i, order);
+      }
+      return orders;
+   }//end findByLogin
+
+   public List<String> find(int orderID) throws SQLException {
+      return locate(orderID, shard -> this.orders.get(shard).find(orderID), order -> order != null);
+   }
+
+   public List<List<String>> findDetails(int orderID) throws SQLException {
+      List<List<String>> result = locate(orderID, shard -> this.shards.get(shard).executeQueryAndReturnResult(
+         String.format(JdbcStorage.FIND_SHARD_ORDER_DETAILS, orderID)), rows -> !rows.isEmpty());
+      // [orderID, login, totalPrice, orderTimestamp, orderStatus, storeID] + address, city, state
+      if (!result.isEmpty()) {
+         List<String> order = new ArrayList<String>(result.get(0));
+         List<String> store = store(Integer.parseInt(order.get(5).trim()));
+         order.addAll(store == null ? Arrays.asList((String) null, null, null) : store.subList(1, 4));
+         result = Arrays.asList(order);
+      }
+      return result;
+   }//end findDetails
+
+   public List<List<String>> findItems(int orderID) throws SQLException {
+      return locate(orderID, shard -> this.orders.get(shard).findItems(orderID), rows -> !rows.isEmpty());
+   }
+
+   public boolean updateStatus(int orderID, String status) throws SQLException {
+      return locate(orderID, shard -> this.orders.get(shard).updateStatus(orderID, status), updated -> updated);
+   }
+
+   public List<Integer> updateStatus(List<Integer> orderIDs, String fromStatus, String toStatus) throws SQLException {
+      List<Integer> moved = new ArrayList<Integer>();
+      for (List<Integer> part : scatter(shard -> this.orders.get(shard).updateStatus(orderIDs, fromStatus, toStatus)))
+         moved.addAll(part);
+      return moved;
+   }
+
+   public List<List<String>> findByStatus(String status) throws SQLException {
+      return merge(scatter(shard -> this.orders.get(shard).findByStatus(status)),
+         byTimestamp(2).thenComparing(byInt(0)), 0);
+   }
+
+   /*
+    * @return the highest orderID handed out so far on any shard
+    */
+   private int lastOrderID() throws SQLException {
+      List<List<String>> last = this.primary.executeQueryAndReturnResult(JdbcStorage.LAST_ORDER_ID);
+      return (Integer.parseInt(last.get(0).get(0).trim()) + 1) * this.shards.size() - 1;
+   }
+
+   public void scanAfter(int orderID, Consumer<List<String>> handler) throws SQLException {
+      int upTo = lastOrderID();
+      stream((shard, rows) -> this.orders.get(shard).scanAfter(orderID, rows), upTo, handler);
+   }
+
+   public void scanItems(int afterOrderID, int upToOrderID, Consumer<List<String>> handler) throws SQLException {
+      int upTo = Math.min(upToOrderID, lastOrderID());
+      stream((shard, rows) -> this.orders.get(shard).scanItems(afterOrderID, upTo, rows), upTo, handler);
+   }
+
+   /*
+    * Runs the scan on every shard at once, each on a thread of its own
+    * reading ahead into a small queue, and hands the rows up to upTo on in
+    * orderID order as they arrive.  No shard's result is held, and the
+    * shard-query threads stay free for other work while a scan is slow.
+    */
+   private void stream(ShardScan scan, int upTo, Consumer<List<String>> handler) throws SQLException {
+      int n = this.shards.size();
+      List<BlockingQueue<List<String>>> queues = new ArrayList<BlockingQueue<List<String>>>(n);
+      SQLException[] failures = new SQLException[n];
+      List<Thread> threads = new ArrayList<Thread>(n);
+      for (int shard = 0; shard < n; shard++) {
+         int s = shard;
+         BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(SCAN_QUEUE_ROWS);
+         queues.add(queue);
+         Thread thread = new Thread(() -> {
+            try {
+               scan.run(s, row -> {
+                  try {
+                     queue.put(row);
+                  } catch (InterruptedException e) {
+                     throw new ScanStopped();
+                  }
+               });
+            } catch (ScanStopped e) {
+               return;
+            } catch (SQLException e) {
+               failures[s] = e;
+            } catch (RuntimeException e) {
+               failures[s] = new SQLException(String.valueOf(e));
+            }
+            try {
+               queue.put(END_OF_SCAN);
+            } catch (InterruptedException e) {
+               // the merge is over.
+            }
+         }, "shard-scan");
+         thread.setDaemon(true);
+         threads.add(thread);
+         thread.start();
+      }
+
+      // the next row of each shard, and its orderID.
+      List<List<String>> heads = new ArrayList<List<String>>(Collections.nCopies(n, (List<String>) null));
+      int[] headIDs = new int[n];
+      PriorityQueue<Integer> next = new PriorityQueue<Integer>(n,
+         Comparator.<Integer>comparingInt(s -> headIDs[s]).thenComparingInt(s -> s));
+      try {
+         for (int shard = 0; shard < n; shard++)
+            advance(shard, queues, failures, heads, headIDs, next);
+         while (!next.isEmpty()) {
+            int shard = next.poll();
+            if (headIDs[shard] <= upTo)
+               handler.accept(heads.get(shard));
+            advance(shard, queues, failures, heads, headIDs, next);
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while scanning the shards");
+      } finally {
+         for (Thread thread : threads)
+            thread.interrupt();
+      }
+   }//end stream
+
+   /*
+    * Takes the shard's next row as its head, queueing the shard unless its
+    * scan has ended.
+    */
+   private static void advance(int shard, List<BlockingQueue<List<String>>> queues, SQLException[] failures,
+                               List<List<String>> heads, int[] headIDs, PriorityQueue<Integer> next)
+         throws SQLException, InterruptedException {
+      List<String> row = queues.get(shard).take();
+      if (row == END_OF_SCAN) {
+         if (failures[shard] != null)
+            throw failures[shard];
+         return;
+      }
+      heads.set(shard, row);
+      headIDs[shard] = Integer.parseInt(row.get(0).trim());
+      next.add(shard);
+   }//end advance
+}//end ShardedOrders
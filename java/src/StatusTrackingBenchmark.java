@@ -0,0 +1,199 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class compares the database load of tracking orders by polling
+ * with that of the OrderStatusListener.  Both phases track the same
+ * orders for the same time while a second connection keeps changing their
+ * statuses:
+ *
+ *    polling   every order is re-read with the Order Info queries
+ *              (role, order, details, items) every pollMs
+ *    push      one listener subscribed to every order
+ *
+ * and the statements each phase sent are reported.  Needs the trigger in
+ * sql/src/create_triggers.sql; tracked orders keep the status they had.
+ *
+ * -Dpizzastore.storage=memory runs it on the CSV data without Postgres,
+ * repeating its orders until there are enough to track.
+ * Each repository read then stands for the one statement it sends on
+ * Postgres, and the push phase reports what the listener would send: one
+ * LISTEN per order, then per POLL_MS an empty statement and at most one
+ * read of the changed statuses.
+ *
+ * Usage: java -cp classes:lib/pg73jdbc3.jar StatusTrackingBenchmark <dbname> <port> <user> [orders] [seconds] [pollMs]
+ *
+ */
+public class StatusTrackingBenchmark {
+
+   static final String[] STATUSES = { "Pending", "Preparing", "Ready", "Out for Delivery", "complete" };
+
+   // how often the updater changes one tracked order.
+   static final long UPDATE_MS = 50;
+
+   // the repository reads of one poll of one order, as in viewOrderInfo.
+   static final int READS_PER_POLL = 4;
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " +
+            StatusTrackingBenchmark.class.getName () +
+            " <dbname> <port> <user> [orders] [seconds] [pollMs]");
+         return;
+      }//end if
+      int count = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+      int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+      long pollMs = args.length > 5 ? Long.parseLong(args[5]) : 1000;
+      boolean memory = "memory".equals(System.getProperty("pizzastore.storage"));
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+
+      PizzaStore esql = PizzaStore.startUp(args[0], args[1], args[2], 0);
+      PizzaStore updater = memory ? esql : new PizzaStore(args[0], args[1], args[2], "");
+      try {
+         // [orderID, login, orderStatus], as find returns them.
+         List<List<String>> tracked = new ArrayList<List<String>>();
+         esql.orders().scanAfter(0, order -> {
+            if (tracked.size() < count)
+               tracked.add(Arrays.asList(order.get(0), order.get(1), order.get(5)));
+         });
+         // the sample data has a handful of orders: repeat them, in memory only.
+         for (int i = 0; memory && !tracked.isEmpty() && tracked.size() < count; ++i) {
+            List<String> order = tracked.get(i);
+            List<List<String>> copy = esql.orders().reorder(order.get(1).trim(), Integer.parseInt(order.get(0).trim()));
+            if (copy.isEmpty())
+               break;
+            tracked.add(esql.orders().find(Integer.parseInt(copy.get(0).get(0).trim())));
+         }
+         System.out.println(String.format("Tracking %d orders for %ds per phase, polling every %dms%s...",
+            tracked.size(), seconds, pollMs, memory ? " (in memory)" : ""));
+
+         long polled = pollingPhase(esql, updater, null, tracked, seconds, pollMs, memory);
+         long pushed = pushPhase(memory ? null : url, args[2], updater, tracked, seconds);
+         if (memory)
+            System.out.println("No ratio: in memory the push figure is modelled, not counted");
+         else
+            System.out.println(String.format("Push needs %.1fx fewer statements than polling",
+               pushed == 0 ? 0.0 : (double) polled / pushed));
+
+         for (List<String> order : tracked)
+            updater.orders().updateStatus(Integer.parseInt(order.get(0).trim()), order.get(2).trim());
+      } finally {
+         if (updater != esql)
+            updater.cleanup();
+         esql.cleanup();
+      }
+   }//end main
+
+   /*
+    * Re-reads every tracked order like viewOrderInfo does, once per pollMs.
+    * @return the statements sent
+    */
+   private static long pollingPhase(PizzaStore esql, PizzaStore updater, OrderStatusListener listener,
+                                    List<List<String>> tracked, int seconds, long pollMs,
+                                    boolean memory) throws Exception {
+      Thread changes = startUpdater(updater, listener, tracked, seconds, new AtomicLong());
+      long before = esql.getQueryCount();
+      long reads = 0;
+      long end = System.currentTimeMillis() + seconds * 1000L;
+      while (System.currentTimeMillis() < end) {
+         long start = System.currentTimeMillis();
+         for (List<String> order : tracked) {
+            int orderID = Integer.parseInt(order.get(0).trim());
+            esql.users().findRole(order.get(1).trim());
+            esql.orders().find(orderID);
+            esql.orders().findDetails(orderID);
+            esql.orders().findItems(orderID);
+            reads += READS_PER_POLL;
+         }
+         Thread.sleep(Math.max(0, pollMs - (System.currentTimeMillis() - start)));
+      }
+      changes.join();
+      long statements = memory ? reads : esql.getQueryCount() - before;
+      report("Polling", statements, seconds, 0);
+      return statements;
+   }
+
+   /*
+    * Subscribes one listener to every tracked order.
+    * @param url the database to listen on, or null to have the updater
+    * publish the changes itself
+    * @return the statements sent
+    */
+   private static long pushPhase(String url, String user, PizzaStore updater, List<List<String>> tracked,
+                                 int seconds) throws Exception {
+      OrderStatusListener listener = new OrderStatusListener(url == null ? null : DriverManager.getConnection(url, user, ""));
+      try {
+         for (List<String> order : tracked)
+            listener.subscribe(Integer.parseInt(order.get(0).trim()), (id, status) -> { });
+         AtomicLong updates = new AtomicLong();
+         startUpdater(updater, url == null ? listener : null, tracked, seconds, updates).join();
+         long statements;
+         if (url == null) {
+            long polls = seconds * 1000L / OrderStatusListener.POLL_MS;
+            statements = tracked.size() + polls + Math.min(polls, updates.get());
+         }
+         else {
+            // let the last changes arrive.
+            Thread.sleep(OrderStatusListener.POLL_MS * 2);
+            statements = listener.getQueryCount();
+         }
+         report(url == null ? "Push (modelled)" : "Push", statements, seconds, listener.getDeliveredCount());
+         return statements;
+      } finally {
+         listener.close();
+      }
+   }
+
+   /*
+    * Changes a random tracked order's status every UPDATE_MS.
+    * @param listener publishes each change when there is no trigger, or null
+    */
+   private static Thread startUpdater(PizzaStore updater, OrderStatusListener listener, List<List<String>> tracked,
+                                      int seconds, AtomicLong updates) {
+      Random random = new Random(42);
+      Thread thread = new Thread(() -> {
+         long end = System.currentTimeMillis() + seconds * 1000L;
+         try {
+            while (System.currentTimeMillis() < end) {
+               int orderID = Integer.parseInt(tracked.get(random.nextInt(tracked.size())).get(0).trim());
+               String status = STATUSES[random.nextInt(STATUSES.length)];
+               updater.orders().updateStatus(orderID, status);
+               if (listener != null)
+                  listener.publish(orderID, status);
+               updates.incrementAndGet();
+               Thread.sleep(UPDATE_MS);
+            }
+         } catch (SQLException e) {
+            System.err.println(e.getMessage());
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }, "status-updater");
+      thread.start();
+      return thread;
+   }
+
+   private static void report(String phase, long statements, int seconds, long delivered) {
+      System.out.println(String.format("%-16s %8d statements (%.1f/s)%s", phase, statements,
+         (double) statements / seconds, delivered == 0 ? "" : ", " + delivered + " changes delivered"));
+   }
+}//end StatusTrackingBenchmark
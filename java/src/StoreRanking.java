@@ -0,0 +1,102 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class keeps the stores ordered by review score, best first, as the
+ * scores change.  It is loaded once from findAllByReviewScore; after that a
+ * review moves its store to its new place in O(log n), so listing the
+ * stores, or the top few of them, never sorts.
+ *
+ * Records are [storeID, address, city, state, isOpen, reviewScore,
+ * reviewCount], and are replaced rather than changed, so lists handed out
+ * stay as they were.
+ *
+ */
+public class StoreRanking {
+
+   // best score first, stores without one last, then by storeID.
+   private static final Comparator<List<String>> BEST_FIRST = (a, b) -> {
+      int byScore = Double.compare(score(b), score(a));
+      return byScore != 0 ? byScore : Integer.compare(storeID(a), storeID(b));
+   };
+
+   private final Map<Integer, List<String>> records = new HashMap<Integer, List<String>>();
+   private final TreeSet<List<String>> ranking = new TreeSet<List<String>>(BEST_FIRST);
+
+   /**
+    * @param stores every store, in any order
+    */
+   public StoreRanking(List<List<String>> stores) {
+      for (List<String> store : stores) {
+         this.records.put(storeID(store), store);
+         this.ranking.add(store);
+      }
+   }//end StoreRanking
+
+   /**
+    * @param limit the most stores to return, 0 for all of them
+    * @return the best reviewed stores, best first
+    */
+   public synchronized List<List<String>> top(int limit) {
+      int size = limit > 0 ? Math.min(limit, this.ranking.size()) : this.ranking.size();
+      List<List<String>> top = new ArrayList<List<String>>(size);
+      for (List<String> store : this.ranking) {
+         if (top.size() >= size)
+            break;
+         top.add(store);
+      }
+      return top;
+   }//end top
+
+   public synchronized boolean contains(int storeID) {
+      return this.records.containsKey(storeID);
+   }
+
+   public synchronized int size() {
+      return this.records.size();
+   }
+
+   /**
+    * Moves a store to the place of its new score.
+    *
+    * @return false if the store is unknown
+    */
+   public synchronized boolean update(int storeID, String reviewScore, String reviewCount) {
+      List<String> old = this.records.get(storeID);
+      if (old == null)
+         return false;
+      List<String> store = new ArrayList<String>(old.subList(0, 5));
+      store.addAll(Arrays.asList(reviewScore, reviewCount));
+      this.ranking.remove(old);
+      this.records.put(storeID, store);
+      this.ranking.add(store);
+      return true;
+   }//end update
+
+   private static int storeID(List<String> store) {
+      return Integer.parseInt(store.get(0).trim());
+   }
+
+   private static double score(List<String> store) {
+      String score = store.get(5);
+      return score == null || score.trim().isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(score.trim());
+   }
+}//end StoreRanking
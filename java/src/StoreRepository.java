@@ -0,0 +1,59 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This interface defines the data access the menu handlers need for the
+ * Store and Review tables.
+ *
+ * A store's reviewScore is kept up to date as reviews come in: each review
+ * adds to the store's running reviewCount and reviewSum, and the score is
+ * their mean smoothed towards the store's score before any review
+ * (priorScore), as if it had PRIOR_WEIGHT reviews of that value, so that a
+ * store's first few reviews do not swing it to the top or bottom.
+ *
+ */
+public interface StoreRepository {
+
+   // reviews the prior score counts as.
+   int PRIOR_WEIGHT = 10;
+   // the prior of stores that had no score.
+   double DEFAULT_PRIOR = 3.0;
+
+   /**
+    * @return every store as [storeID, address, city, state, isOpen,
+    * reviewScore, reviewCount], best reviewed first
+    */
+   List<List<String>> findAllByReviewScore() throws SQLException;
+
+   /**
+    * Records a customer's review of one of their orders and adds it to the
+    * store's score, atomically.
+    *
+    * @param rating from 1 to 5
+    * @param comment the review text, or null
+    * @return the store's new [storeID, reviewScore, reviewCount], or null if
+    * the order was already reviewed
+    */
+   List<String> review(int orderID, String login, int storeID, int rating, String comment) throws SQLException;
+
+   /**
+    * @return the reviewScore of a store with the given prior and reviews
+    */
+   static double smoothedScore(Double priorScore, int reviewCount, long reviewSum) {
+      double prior = priorScore == null ? DEFAULT_PRIOR : priorScore;
+      return (PRIOR_WEIGHT * prior + reviewSum) / (PRIOR_WEIGHT + reviewCount);
+   }
+}//end StoreRepository
@@ -0,0 +1,245 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * This class renders query results as aligned console tables.  Rows are
+ * formatted into a reusable buffer and written to the output stream in
+ * large chunks, so a listing costs a handful of writes instead of one
+ * synchronized print per cell.  Column widths are computed from the first
+ * rows of the result, and long results are paged ("--more--") when a
+ * pager input is supplied.
+ *
+ */
+public class TableRenderer {
+
+   // number of leading rows used to compute the column widths.
+   private static final int SAMPLE_ROWS = 100;
+
+   // widest a column may grow; longer cells are truncated.
+   private static final int MAX_COLUMN_WIDTH = 40;
+
+   // buffered characters written to the output in one call.
+   private static final int CHUNK_SIZE = 16 * 1024;
+
+   private final PrintStream out;
+   private final BufferedReader pager;
+   private final int pageSize;
+
+   // reused between renders so a listing does not allocate per row.
+   private final StringBuilder buffer = new StringBuilder(CHUNK_SIZE * 2);
+
+   private int[] widths;
+   private int linesOnPage;
+   private boolean stopped;
+   private long pagerNanos;
+
+   private long lastRowCount = 0;
+   private long lastElapsedNanos = 0;
+
+   /**
+    * Creates a new renderer
+    *
+    * @param out the stream the table is written to
+    * @param pager the input used to wait at "--more--", or null to never page
+    * @param pageSize the number of rows per page, 0 or less to never page
+    */
+   public TableRenderer(PrintStream out, BufferedReader pager, int pageSize) {
+      this.out = out;
+      this.pager = pager;
+      this.pageSize = pageSize;
+   }//end TableRenderer
+
+   /**
+    * Renders every row of a result set.  The first SAMPLE_ROWS rows are
+    * held back to size the columns, the rest are streamed.
+    *
+    * @param rs the result set to render
+    * @return the number of rows in the result
+    * @throws java.sql.SQLException when failed to read the result set
+    */
+   public int render(ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      int numCol = rsmd.getColumnCount ();
+      List<String> header = new ArrayList<String>();
+      for (int i = 1; i <= numCol; ++i)
+         header.add(rsmd.getColumnName(i));
+
+      long start = System.nanoTime();
+      List<List<String>> sample = new ArrayList<List<String>>();
+      boolean more = true;
+      while (sample.size() < SAMPLE_ROWS && (more = rs.next())) {
+         sample.add(readRow(rs, numCol));
+      }//end while
+
+      int rowCount = 0;
+      if (!sample.isEmpty()) {
+         begin(header, sample);
+         for (List<String> row : sample) {
+            if (!stopped)
+               appendRow(row);
+            ++rowCount;
+         }
+         while (more && rs.next()) {
+            // rows past the sample are still counted after a "q" at the
+            // pager so callers report the true size of the result.
+            if (!stopped)
+               appendRow(readRow(rs, numCol));
+            ++rowCount;
+         }//end while
+      }
+      finish(rowCount, start);
+      return rowCount;
+   }//end render
+
+   /**
+    * Renders rows that were already fetched into memory.
+    *
+    * @param header the column names
+    * @param rows the records to render
+    * @return the number of rows rendered
+    */
+   public int render(List<String> header, List<List<String>> rows) {
+      long start = System.nanoTime();
+      if (!rows.isEmpty()) {
+         begin(header, rows.subList(0, Math.min(SAMPLE_ROWS, rows.size())));
+         for (List<String> row : rows) {
+            if (stopped)
+               break;
+            appendRow(row);
+         }
+      }
+      finish(rows.size(), start);
+      return rows.size();
+   }//end render
+
+   /**
+    * @return the number of rows in the last render
+    */
+   public long getLastRowCount() {
+      return lastRowCount;
+   }
+
+   /**
+    * @return rows per second achieved by the last render, excluding the
+    * time spent waiting at the pager
+    */
+   public double getLastRowsPerSecond() {
+      if (lastElapsedNanos <= 0)
+         return 0.0;
+      return lastRowCount * 1e9 / lastElapsedNanos;
+   }
+
+   private static List<String> readRow(ResultSet rs, int numCol) throws SQLException {
+      List<String> record = new ArrayList<String>(numCol);
+      for (int i = 1; i <= numCol; ++i)
+         record.add(rs.getString (i));
+      return record;
+   }
+
+   private void begin(List<String> header, List<List<String>> sample) {
+      widths = new int[header.size()];
+      for (int i = 0; i < widths.length; ++i)
+         widths[i] = header.get(i).length();
+      for (List<String> row : sample) {
+         for (int i = 0; i < widths.length; ++i)
+            widths[i] = Math.max(widths[i], cellText(row.get(i)).length());
+      }
+      for (int i = 0; i < widths.length; ++i)
+         widths[i] = Math.min(widths[i], MAX_COLUMN_WIDTH);
+
+      buffer.setLength(0);
+      linesOnPage = 0;
+      stopped = false;
+      appendLine(header);
+      for (int i = 0; i < widths.length; ++i) {
+         for (int j = 0; j < widths[i]; ++j)
+            buffer.append('-');
+         buffer.append(i + 1 < widths.length ? "-+-" : "\n");
+      }
+   }
+
+   private void appendRow(List<String> row) {
+      appendLine(row);
+      if (pager != null && pageSize > 0 && ++linesOnPage >= pageSize) {
+         linesOnPage = 0;
+         more();
+      }
+      else if (buffer.length() >= CHUNK_SIZE) {
+         flush();
+      }
+   }
+
+   private void appendLine(List<String> cells) {
+      for (int i = 0; i < widths.length; ++i) {
+         String text = cellText(cells.get(i));
+         if (text.length() > widths[i]) {
+            if (widths[i] > 3)
+               buffer.append(text, 0, widths[i] - 3).append("...");
+            else
+               buffer.append(text, 0, widths[i]);
+         }
+         else {
+            buffer.append(text);
+            if (i + 1 < widths.length) {
+               for (int j = text.length(); j < widths[i]; ++j)
+                  buffer.append(' ');
+            }
+         }
+         buffer.append(i + 1 < widths.length ? " | " : "\n");
+      }
+   }
+
+   private static String cellText(String value) {
+      // char(n) columns come back blank padded.
+      return value == null ? "null" : value.trim();
+   }
+
+   private void more() {
+      flush();
+      out.print("--more-- (Enter to continue, q to stop) ");
+      out.flush();
+      long waitStart = System.nanoTime();
+      try {
+         String answer = pager.readLine();
+         if (answer == null || answer.trim().equalsIgnoreCase("q"))
+            stopped = true;
+      }catch (IOException e) {
+         stopped = true;
+      }//end try
+      pagerNanos += System.nanoTime() - waitStart;
+   }
+
+   private void flush() {
+      if (buffer.length() > 0) {
+         out.print(buffer);
+         buffer.setLength(0);
+      }
+      out.flush();
+   }
+
+   private void finish(int rowCount, long start) {
+      flush();
+      lastRowCount = rowCount;
+      lastElapsedNanos = System.nanoTime() - start - pagerNanos;
+      pagerNanos = 0;
+   }
+}//end TableRenderer
@@ -0,0 +1,136 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves the PizzaStore menus to many store terminals from one
+ * process.  Each TCP connection is a terminal: every line it sends is one
+ * line of input, and the menus are written back to it, so telnet or nc
+ * will do as a client.  Each terminal runs as a Session on a thread of
+ * its own, and all of them share one PizzaStore with its caches, kitchen
+ * queues and counters.
+ *
+ * Sessions run their statements on -Dpizzastore.server.connections
+ * leased connections (default 16), holding one only while they work, not
+ * while they wait for input.  At most -Dpizzastore.server.sessions
+ * terminals (default 500) are served at once; others are turned away.
+ * -Dpizzastore.storage=memory serves the CSV data without Postgres.
+ *
+ * Logins and passwords cross the connection in plain text, so the server
+ * only listens on the loopback interface unless -Dpizzastore.server.bind
+ * names another address (0.0.0.0 for all of them).
+ *
+ * Usage: java -cp classes:lib/pg73jdbc3.jar TerminalServer <dbname> <port> <user> <listenPort>
+ *
+ */
+public class TerminalServer {
+
+   // terminals served at once.
+   static final int MAX_SESSIONS = Integer.getInteger("pizzastore.server.sessions", 500);
+
+   // connections the sessions lease, see PizzaStore.connectSessions.
+   static final int CONNECTIONS = Integer.getInteger("pizzastore.server.connections", 16);
+
+   // the address listened on.
+   static final String BIND = System.getProperty("pizzastore.server.bind", "127.0.0.1");
+
+   public static void main (String[] args) throws Exception {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " +
+            TerminalServer.class.getName () +
+            " <dbname> <port> <user> <listenPort>");
+         return;
+      }//end if
+
+      PizzaStore esql = PizzaStore.startUp(args[0], args[1], args[2], CONNECTIONS);
+      ServerSocket server = new ServerSocket(Integer.parseInt(args[3]), 50, InetAddress.getByName(BIND));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+         try {
+            server.close();
+         } catch (IOException e) {
+            // ignored.
+         }
+         esql.cleanup();
+      }, "shutdown"));
+      System.err.println("[server] serving terminals on " + BIND + " port " + server.getLocalPort());
+
+      AtomicInteger active = new AtomicInteger();
+      AtomicInteger count = new AtomicInteger();
+      while (true) {
+         Socket socket;
+         try {
+            socket = server.accept();
+         } catch (SocketException e) {
+            // closed on shutdown.
+            break;
+         }
+         if (active.incrementAndGet() > MAX_SESSIONS) {
+            active.decrementAndGet();
+            refuse(socket);
+            continue;
+         }
+         Thread terminal = new Thread(() -> {
+            try {
+               serve(esql, socket);
+            } finally {
+               active.decrementAndGet();
+            }
+         }, "terminal-" + count.incrementAndGet());
+         terminal.setDaemon(true);
+         terminal.start();
+      }
+   }//end main
+
+   /*
+    * Runs the menus for one terminal until it exits or disconnects.
+    **/
+   static void serve(PizzaStore esql, Socket socket) {
+      try (Socket terminal = socket) {
+         terminal.setTcpNoDelay(true);
+         // written out before each read, see Session, not line by line.
+         PrintStream out = new PrintStream(new BufferedOutputStream(terminal.getOutputStream()), false, "UTF-8");
+         Session session = new Session(new InputStreamReader(terminal.getInputStream(), StandardCharsets.UTF_8),
+            out, out);
+         try {
+            PizzaStore.Greeting(session);
+            PizzaStore.mainMenu(session, CompletableFuture.completedFuture(esql));
+            session.out.println("Bye !");
+         } finally {
+            session.close();
+         }
+      } catch (IOException e) {
+         System.err.println("[server] " + Thread.currentThread().getName() + ": " + e.getMessage());
+      }
+   }//end serve
+
+   private static void refuse(Socket socket) {
+      try (Socket terminal = socket) {
+         PrintStream out = new PrintStream(terminal.getOutputStream(), true, "UTF-8");
+         out.println("All " + MAX_SESSIONS + " terminals are in use, please try again later.");
+      } catch (IOException e) {
+         // the terminal is gone already.
+      }
+   }//end refuse
+}//end TerminalServer
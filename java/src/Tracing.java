@@ -0,0 +1,266 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * This class traces menu operations as Java Flight Recorder events.  Each
+ * operation (placeOrder, viewOrderInfo, LogIn, ...) is a
+ * pizzastore.Operation event, and every statement the execute* methods of
+ * PizzaStore send while it runs is a pizzastore.Query event nested in it,
+ * as is every wait for the user at the keyboard (pizzastore.InputWait).
+ * The operation's own duration includes those waits; its activeTime field
+ * leaves them out.
+ *
+ * The events cost next to nothing unless a recording is running:
+ *
+ *    java -XX:StartFlightRecording=filename=pizzastore.jfr ... PizzaStore ...
+ *    jfr print --events pizzastore.Operation pizzastore.jfr
+ *
+ * Operations are tracked per thread; queries made outside an operation
+ * (warm-up, listeners) are recorded with an empty operation.  Work handed
+ * to another thread joins the operation through inCurrentOperation.
+ *
+ */
+public class Tracing {
+
+   @Name("pizzastore.Operation")
+   @Label("Operation")
+   @Category("PizzaStore")
+   @Description("A menu operation, with the queries it made")
+   static class OperationEvent extends Event {
+      @Label("Operation")
+      String operation;
+      @Label("Login")
+      String login;
+      @Label("Store ID")
+      int storeID;
+      @Label("Queries")
+      int queries;
+      @Label("Rows")
+      long rows;
+      @Label("Input Wait")
+      @Timespan
+      long inputWait;
+      @Label("Active Time")
+      @Description("Duration less the time spent waiting for input")
+      @Timespan
+      long activeTime;
+   }//end OperationEvent
+
+   @Name("pizzastore.Query")
+   @Label("Query")
+   @Category("PizzaStore")
+   @Description("A statement sent to the database")
+   static class QueryEvent extends Event {
+      @Label("Operation")
+      String operation;
+      @Label("Login")
+      String login;
+      @Label("Store ID")
+      int storeID;
+      @Label("SQL")
+      String sql;
+      @Label("Rows")
+      @Description("Rows returned, or rows changed by an update")
+      long rows;
+   }//end QueryEvent
+
+   @Name("pizzastore.InputWait")
+   @Label("Input Wait")
+   @Category("PizzaStore")
+   @Description("Waiting for the user to enter a line")
+   static class InputWaitEvent extends Event {
+      @Label("Operation")
+      String operation;
+   }//end InputWaitEvent
+
+   /*
+    * An operation in progress on a thread; operations started during
+    * another one nest in it.
+    */
+   private static final class Operation {
+      final Operation parent;
+      final OperationEvent event = new OperationEvent();
+      final long start = System.nanoTime();
+      long inputWait = 0;
+
+      Operation(Operation parent, String name, String login) {
+         this.parent = parent;
+         this.event.operation = name;
+         this.event.login = login;
+         this.event.storeID = parent == null ? 0 : parent.event.storeID;
+      }
+   }
+
+   private static final ThreadLocal<Operation> current = new ThreadLocal<Operation>();
+   private static final ThreadLocal<String> session = new ThreadLocal<String>();
+   // statements run by each thread, see queryCount.
+   private static final ThreadLocal<long[]> queries = ThreadLocal.withInitial(() -> new long[1]);
+
+   /**
+    * Sets the user whose operations the thread runs, or null on log out.
+    */
+   public static void login(String login) {
+      session.set(login);
+   }
+
+   /**
+    * Runs a menu operation as an Operation event.
+    */
+   public static void run(String operation, Runnable body) {
+      call(operation, () -> {
+         body.run();
+         return null;
+      });
+   }//end run
+
+   /**
+    * Runs a menu operation that returns a value as an Operation event.
+    */
+   public static <T> T call(String operation, Supplier<T> body) {
+      Operation op = new Operation(current.get(), operation, session.get());
+      current.set(op);
+      op.event.begin();
+      try {
+         return body.get();
+      } finally {
+         op.event.end();
+         if (op.event.shouldCommit()) {
+            // a login made during the operation, e.g. by LogIn.
+            if (op.event.login == null)
+               op.event.login = session.get();
+            op.event.inputWait = op.inputWait;
+            op.event.activeTime = System.nanoTime() - op.start - op.inputWait;
+            op.event.commit();
+         }
+         current.set(op.parent);
+      }
+   }//end call
+
+   /**
+    * Records the store the current operation works on.
+    */
+   public static void storeID(int storeID) {
+      Operation op = current.get();
+      if (op != null)
+         op.event.storeID = storeID;
+   }
+
+   /**
+    * Wraps work to be run on another thread as part of the calling
+    * thread's operation, so the statements it sends are counted and
+    * recorded there.
+    */
+   public static Runnable inCurrentOperation(Runnable body) {
+      Operation op = current.get();
+      String login = session.get();
+      return () -> {
+         Operation outerOp = current.get();
+         String outerLogin = session.get();
+         current.set(op);
+         session.set(login);
+         try {
+            body.run();
+         } finally {
+            current.set(outerOp);
+            session.set(outerLogin);
+         }
+      };
+   }//end inCurrentOperation
+
+   /**
+    * @return the number of statements the calling thread has run
+    */
+   public static long queryCount() {
+      return queries.get()[0];
+   }
+
+   /**
+    * Starts timing a statement; pass the result to endQuery.
+    */
+   static QueryEvent beginQuery() {
+      QueryEvent event = new QueryEvent();
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Ends a statement started by beginQuery, counting it in the current
+    * operation.
+    *
+    * @param rows the rows returned, or changed by an update
+    */
+   static void endQuery(QueryEvent event, String sql, long rows) {
+      event.end();
+      queries.get()[0]++;
+      Operation op = current.get();
+      // work run by inCurrentOperation may count in the same operation.
+      for (Operation outer = op; outer != null; outer = outer.parent) {
+         synchronized (outer) {
+            outer.event.queries++;
+            outer.event.rows += rows;
+         }
+      }
+      if (event.shouldCommit()) {
+         event.sql = sql;
+         event.rows = rows;
+         if (op != null) {
+            event.operation = op.event.operation;
+            event.login = op.event.login;
+            event.storeID = op.event.storeID;
+         }
+         event.commit();
+      }
+   }//end endQuery
+
+   /**
+    * A reader whose readLine is recorded as an InputWait event and left
+    * out of the active time of the operations in progress.
+    */
+   public static class InputReader extends BufferedReader {
+
+      public InputReader(Reader in) {
+         super(in);
+      }
+
+      public String readLine() throws IOException {
+         InputWaitEvent event = new InputWaitEvent();
+         long start = System.nanoTime();
+         event.begin();
+         try {
+            return super.readLine();
+         } finally {
+            event.end();
+            long waited = System.nanoTime() - start;
+            Operation op = current.get();
+            for (Operation outer = op; outer != null; outer = outer.parent)
+               outer.inputWait += waited;
+            if (event.shouldCommit()) {
+               event.operation = op == null ? null : op.event.operation;
+               event.commit();
+            }
+         }
+      }//end readLine
+   }//end InputReader
+}//end Tracing
@@ -0,0 +1,157 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This class is a unit of work on a PizzaStore connection.  While it is
+ * open, every execute* call of the owning PizzaStore made from the same
+ * thread runs inside one database transaction that is committed once.
+ * Closing a transaction that was not committed rolls it back, so the
+ * usual form is
+ *
+ *    try (Transaction tx = esql.beginTransaction(Transaction.SERIALIZABLE)) {
+ *       esql.executeUpdate(...);
+ *       esql.executeUpdate(...);
+ *       tx.commit();
+ *    }
+ *
+ * or PizzaStore.inTransaction, which commits or rolls back for you.
+ *
+ */
+public class Transaction implements AutoCloseable {
+
+   public static final int READ_COMMITTED = Connection.TRANSACTION_READ_COMMITTED;
+   public static final int REPEATABLE_READ = Connection.TRANSACTION_REPEATABLE_READ;
+   public static final int SERIALIZABLE = Connection.TRANSACTION_SERIALIZABLE;
+
+   /**
+    * Work run by PizzaStore.inTransaction.
+    */
+   public interface Work<T> {
+      T run(Transaction tx) throws Exception;
+   }
+
+   private final PizzaStore esql;
+   private final Connection connection;
+   private final int previousIsolation;
+   private boolean finished = false;
+   private int savepoints = 0;
+
+   Transaction(PizzaStore esql, Connection connection, int isolation) throws SQLException {
+      this.esql = esql;
+      this.connection = connection;
+      this.previousIsolation = connection.getTransactionIsolation();
+      if (isolation != previousIsolation)
+         connection.setTransactionIsolation(isolation);
+      connection.setAutoCommit(false);
+   }//end Transaction
+
+   /**
+    * Makes every change of the transaction permanent and ends it.
+    *
+    * @throws java.sql.SQLException when the commit failed, in which case the
+    * transaction has been rolled back
+    */
+   public void commit() throws SQLException {
+      checkOpen();
+      try {
+         connection.commit();
+         esql.countCommit();
+      } finally {
+         end();
+      }
+   }//end commit
+
+   /**
+    * Discards every change of the transaction and ends it.
+    *
+    * @throws java.sql.SQLException when the rollback failed
+    */
+   public void rollback() throws SQLException {
+      checkOpen();
+      try {
+         connection.rollback();
+      } finally {
+         end();
+      }
+   }//end rollback
+
+   /**
+    * Marks a point the transaction can later be rolled back to without
+    * losing the work done before it.
+    *
+    * @return the savepoint name, to pass to rollbackTo or release
+    * @throws java.sql.SQLException when the savepoint could not be set
+    */
+   public String savepoint() throws SQLException {
+      checkOpen();
+      String name = "sp_" + (++savepoints);
+      esql.executeUpdate("SAVEPOINT " + name + ";");
+      return name;
+   }//end savepoint
+
+   /**
+    * Undoes the work done since a savepoint; the transaction stays open.
+    *
+    * @param savepoint the name returned by savepoint()
+    * @throws java.sql.SQLException when the rollback failed
+    */
+   public void rollbackTo(String savepoint) throws SQLException {
+      checkOpen();
+      esql.executeUpdate("ROLLBACK TO SAVEPOINT " + savepoint + ";");
+   }//end rollbackTo
+
+   /**
+    * Forgets a savepoint, keeping the work done since it.
+    *
+    * @param savepoint the name returned by savepoint()
+    * @throws java.sql.SQLException when the release failed
+    */
+   public void release(String savepoint) throws SQLException {
+      checkOpen();
+      esql.executeUpdate("RELEASE SAVEPOINT " + savepoint + ";");
+   }//end release
+
+   /**
+    * @return true until the transaction is committed or rolled back
+    */
+   public boolean isOpen() {
+      return !finished;
+   }
+
+   /**
+    * Rolls the transaction back unless it was already committed.
+    */
+   public void close() throws SQLException {
+      if (!finished)
+         rollback();
+   }//end close
+
+   private void checkOpen() throws SQLException {
+      if (finished)
+         throw new SQLException("Transaction already ended");
+   }
+
+   private void end() throws SQLException {
+      finished = true;
+      try {
+         connection.setAutoCommit(true);
+         if (connection.getTransactionIsolation() != previousIsolation)
+            connection.setTransactionIsolation(previousIsolation);
+      } finally {
+         esql.endTransaction(this);
+      }
+   }
+}//end Transaction
@@ -0,0 +1,51 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This interface defines the data access the menu handlers need for the
+ * Users table.
+ *
+ */
+public interface UserRepository {
+
+   /**
+    * Adds a new user.
+    *
+    * @throws java.sql.SQLException when the login is taken or the insert failed
+    */
+   void create(String login, String password, String role, String favoriteItems, String phoneNum) throws SQLException;
+
+   /**
+    * @return true if a user with this login and password exists
+    */
+   boolean authenticate(String login, String password) throws SQLException;
+
+   /**
+    * @return the user's [favoriteItems, phoneNum], or null if there is no such user
+    */
+   List<String> findProfile(String login) throws SQLException;
+
+   /**
+    * @return the user's role without padding, or null if there is no such user
+    */
+   String findRole(String login) throws SQLException;
+
+   void updatePassword(String login, String password) throws SQLException;
+
+   void updatePhoneNum(String login, String phoneNum) throws SQLException;
+
+   void updateFavoriteItems(String login, String favoriteItems) throws SQLException;
+}//end UserRepository
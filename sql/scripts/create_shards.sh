@@ -0,0 +1,11 @@
+#!/bin/bash
+# usage: create_shards.sh <shard map>, see java/src/ShardedOrders.java
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+MAP=$(grep -v '^\s*#' $1 | grep -v '^\s*$')
+for db in $(echo "$MAP" | awk '{ print $2 }' | sort -u); do
+   cs166_psql -p $PGPORT $db < $DIR/../src/create_shard_tables.sql
+done
+echo "$MAP" | while read range db; do
+   cs166_psql -p $PGPORT -v first=${range%-*} -v last=${range#*-} $db < $DIR/../src/load_shard_data.sql
+done
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_order_id_seq.sql
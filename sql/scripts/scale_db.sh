@@ -0,0 +1,4 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+cs166_psql -p $PGPORT -v factor=${1:-20} $USER"_project_phase_3_DB" < $DIR/../src/scale_data.sql
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_order_id_seq.sql
@@ -0,0 +1,5 @@
+-- a user's history, newest first (FIND_ORDERS_BY_LOGIN); shards have the
+-- same indexes, see create_shard_tables.sql.
+CREATE INDEX foodorder_login_time ON FoodOrder (login, orderTimestamp DESC);
+-- the kitchen, dispatcher and order counters load orders by status.
+CREATE INDEX foodorder_status ON FoodOrder (orderStatus);
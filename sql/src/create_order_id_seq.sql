@@ -0,0 +1,7 @@
+/* The orderIDs of new orders.  Sharded orders take nextval * shards + shard,
+   on the primary; ShardedOrders moves the sequence above the orders already
+   stored when it starts.  Run again after loading orders with their own
+   orderIDs, e.g. by scale_db.sh. */
+CREATE SEQUENCE IF NOT EXISTS order_id_seq;
+SELECT setval('order_id_seq', GREATEST((SELECT last_value FROM order_id_seq),
+                                       (SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder)));
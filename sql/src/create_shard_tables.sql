@@ -0,0 +1,27 @@
+/* The tables of an order shard (see java/src/ShardedOrders.java).  Users,
+   Items and Store stay on the primary, so orders keep no foreign keys to
+   them. */
+DROP TABLE IF EXISTS FoodOrder CASCADE;
+DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+
+CREATE TABLE FoodOrder ( orderID integer NOT NULL,
+                           login varchar(50) NOT NULL,
+                           storeID integer NOT NULL,
+                           totalPrice decimal(10,2) NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           orderStatus char(50),
+                           PRIMARY KEY(orderID)
+);
+
+CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
+                           itemID integer NOT NULL, --Items.itemID on the primary
+                           itemName varchar(50) NOT NULL,
+                           unitPrice decimal(10,2) NOT NULL,
+                           quantity integer NOT NULL,
+                           PRIMARY KEY(orderID, itemID),
+                           FOREIGN KEY(orderID) REFERENCES FoodOrder(orderID) ON DELETE CASCADE
+);
+
+-- a user's history is read from every shard, newest first.
+CREATE INDEX foodorder_login_time ON FoodOrder (login, orderTimestamp DESC);
+CREATE INDEX foodorder_status ON FoodOrder (orderStatus);
@@ -3,6 +3,9 @@ DROP TABLE IF EXISTS Items CASCADE;
 DROP TABLE IF EXISTS FoodOrder CASCADE;
 DROP TABLE IF EXISTS Store CASCADE;
 DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+DROP TABLE IF EXISTS Review CASCADE;
+DROP TABLE IF EXISTS Promotion CASCADE;
+DROP TABLE IF EXISTS PromotionItem CASCADE;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -17,7 +20,9 @@ CREATE TABLE Items ( itemName varchar(50) NOT NULL,
                        typeOfItem varchar(30) NOT NULL,
                        price decimal(10,2) NOT NULL,
                        description text,
-                       PRIMARY KEY(itemName)
+                       itemID serial NOT NULL, --surrogate key, kept by ItemsInOrder
+                       PRIMARY KEY(itemName),
+                       UNIQUE(itemID)
 );
 
 CREATE TABLE Store ( storeID integer NOT NULL,
@@ -26,6 +31,9 @@ CREATE TABLE Store ( storeID integer NOT NULL,
                            state varchar(60) NOT NULL,
                            isOpen varchar(60) NOT NULL,
                            reviewScore float,
+                           priorScore float, --score before customer reviews
+                           reviewCount integer NOT NULL DEFAULT 0,
+                           reviewSum integer NOT NULL DEFAULT 0,
                            PRIMARY KEY(storeID)
 );
 
@@ -44,12 +52,53 @@ CREATE TABLE FoodOrder ( orderID integer NOT NULL,
 
 
 
+-- a line keeps the item's name and price at checkout, so order history
+-- outlives menu changes; no key to Items, whose rows may be deleted.
 CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
+                           itemID integer NOT NULL,
                            itemName varchar(50) NOT NULL,
+                           unitPrice decimal(10,2) NOT NULL,
                            quantity integer NOT NULL,
-                           PRIMARY KEY(orderID, itemName),
-                           FOREIGN KEY(orderID) REFERENCES FoodOrder(orderID) ON DELETE CASCADE,
-                           FOREIGN KEY(itemName) REFERENCES Items(itemName)
-                           ON DELETE CASCADE
+                           PRIMARY KEY(orderID, itemID),
+                           FOREIGN KEY(orderID) REFERENCES FoodOrder(orderID) ON DELETE CASCADE
+);
+
+-- one review per order; no key to FoodOrder, which may live on a shard.
+CREATE TABLE Review ( orderID integer NOT NULL,
+                      login varchar(50) NOT NULL,
+                      storeID integer NOT NULL,
+                      rating integer NOT NULL CHECK (rating BETWEEN 1 AND 5),
+                      reviewComment varchar(200),
+                      reviewTimestamp timestamp NOT NULL,
+                      PRIMARY KEY(orderID),
+                      FOREIGN KEY(login) REFERENCES Users(login)
+                      ON DELETE CASCADE,
+                      FOREIGN KEY(storeID) REFERENCES Store(storeID)
+                      ON DELETE CASCADE
 );
 
+CREATE TABLE Promotion ( promoID integer NOT NULL,
+                         description varchar(100) NOT NULL,
+                         storeID integer, --NULL for every store
+                         dayOfWeek integer CHECK (dayOfWeek BETWEEN 0 AND 6), --0 is Sunday, NULL for every day
+                         couponCode varchar(30), --NULL when applied without a code
+                         percentOff decimal(5,2) NOT NULL DEFAULT 0,
+                         amountOff decimal(10,2) NOT NULL DEFAULT 0,
+                         validFrom timestamp,
+                         validUntil timestamp,
+                         PRIMARY KEY(promoID),
+                         FOREIGN KEY(storeID) REFERENCES Store(storeID)
+                         ON DELETE CASCADE
+);
+
+-- what a promotion needs in the basket: quantity of an item, or of any
+-- item of a type.  No key to Items: a promotion on a removed item simply
+-- never applies.
+CREATE TABLE PromotionItem ( promoID integer NOT NULL,
+                             itemName varchar(50),
+                             typeOfItem varchar(30),
+                             quantity integer NOT NULL CHECK (quantity > 0),
+                             CHECK ((itemName IS NULL) <> (typeOfItem IS NULL)),
+                             FOREIGN KEY(promoID) REFERENCES Promotion(promoID)
+                             ON DELETE CASCADE
+);
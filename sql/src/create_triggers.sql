@@ -0,0 +1,16 @@
+/* Order status notifications: every new order and every change of
+   orderStatus is announced on the channel order_<orderID>, which
+   sessions tracking that order LISTEN on. */
+CREATE OR REPLACE FUNCTION notify_order_status() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP = 'INSERT' OR NEW.orderStatus IS DISTINCT FROM OLD.orderStatus THEN
+      EXECUTE 'NOTIFY order_' || NEW.orderID;
+   END IF;
+   RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS order_status_notify ON FoodOrder;
+CREATE TRIGGER order_status_notify
+AFTER INSERT OR UPDATE OF orderStatus ON FoodOrder
+FOR EACH ROW EXECUTE PROCEDURE notify_order_status();
@@ -3,18 +3,39 @@ COPY Users
 FROM '/home/csmajs/aorde001/cs166_project_phase3/data/users.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY Items
+COPY Items (itemName, ingredients, typeOfItem, price, description)
 FROM '/home/csmajs/aorde001/cs166_project_phase3/data/items.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY Store
+COPY Store (storeID, address, city, state, isOpen, reviewScore)
 FROM '/home/csmajs/aorde001/cs166_project_phase3/data/store.csv'
 WITH DELIMITER ',' CSV HEADER;
 
+/* The loaded scores are what customer reviews are smoothed towards. */
+UPDATE Store SET priorScore = reviewScore;
+
 COPY FoodOrder
 FROM '/home/csmajs/aorde001/cs166_project_phase3/data/foodorder.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY ItemsInOrder
+/* Order lines name their items; they are stored by itemID, priced from
+   the menu. */
+CREATE TEMP TABLE items_in_order_load ( orderID integer, itemName varchar(50), quantity integer );
+
+COPY items_in_order_load
 FROM '/home/csmajs/aorde001/cs166_project_phase3/data/itemsinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+INSERT INTO ItemsInOrder (orderID, itemID, itemName, unitPrice, quantity)
+SELECT l.orderID, i.itemID, i.itemName, i.price, l.quantity
+FROM items_in_order_load l JOIN Items i ON i.itemName = l.itemName;
+
+DROP TABLE items_in_order_load;
+
+COPY Promotion
+FROM '/home/csmajs/aorde001/cs166_project_phase3/data/promotion.csv'
+WITH DELIMITER ',' CSV HEADER;
+
+COPY PromotionItem
+FROM '/home/csmajs/aorde001/cs166_project_phase3/data/promotionitem.csv'
+WITH DELIMITER ',' CSV HEADER;
@@ -0,0 +1,29 @@
+/* Loads the orders of the stores :first to :last into an order shard.
+   Replace the location to where you saved the data files. */
+CREATE TEMP TABLE all_orders (LIKE FoodOrder);
+CREATE TEMP TABLE all_items ( orderID integer, itemName varchar(50), quantity integer );
+-- numbered in file order, as the primary's itemIDs are by load_data.sql.
+CREATE TEMP TABLE menu ( itemName varchar(50), ingredients varchar(300), typeOfItem varchar(30),
+                         price decimal(10,2), description text, itemID serial );
+
+COPY menu (itemName, ingredients, typeOfItem, price, description)
+FROM '/home/csmajs/aorde001/cs166_project_phase3/data/items.csv'
+WITH DELIMITER ',' CSV HEADER;
+
+COPY all_orders
+FROM '/home/csmajs/aorde001/cs166_project_phase3/data/foodorder.csv'
+WITH DELIMITER ',' CSV HEADER;
+
+COPY all_items
+FROM '/home/csmajs/aorde001/cs166_project_phase3/data/itemsinorder.csv'
+WITH DELIMITER ',' CSV HEADER;
+
+INSERT INTO FoodOrder
+SELECT * FROM all_orders WHERE storeID BETWEEN :first AND :last;
+
+INSERT INTO ItemsInOrder (orderID, itemID, itemName, unitPrice, quantity)
+SELECT i.orderID, m.itemID, m.itemName, m.price, i.quantity
+FROM all_items i JOIN FoodOrder o ON o.orderID = i.orderID JOIN menu m ON m.itemName = i.itemName;
+
+ANALYZE FoodOrder;
+ANALYZE ItemsInOrder;
@@ -0,0 +1,32 @@
+/* Scales the loaded orders up for query plan checks (see
+   java/src/PlanRegression.java): every order and its items are copied
+   factor - 1 times, each copy with new orderIDs and moved a week further
+   into the past, so the copies keep the users, stores, items and status
+   mix of the original data.  Run once, after load_data.sql.
+   Change the factor with: psql -v factor=N */
+\if :{?factor}
+\else
+   \set factor 20
+\endif
+
+ALTER TABLE FoodOrder DISABLE TRIGGER order_status_notify;
+
+CREATE TEMP TABLE scale AS SELECT MAX(orderID) AS maxID FROM FoodOrder;
+
+INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus)
+SELECT o.orderID + k * s.maxID, o.login, o.storeID, o.totalPrice,
+       o.orderTimestamp - k * INTERVAL '7 days', o.orderStatus
+FROM FoodOrder o, scale s, generate_series(1, :factor - 1) k;
+
+-- the lines are copied whole with only orderID changed, so this works
+-- before and after the itemID migration (java/src/ItemIdMigration.java).
+INSERT INTO ItemsInOrder
+SELECT r.*
+FROM ItemsInOrder io CROSS JOIN scale s CROSS JOIN generate_series(1, :factor - 1) k
+CROSS JOIN LATERAL jsonb_populate_record(io, jsonb_build_object('orderid', io.orderID + k * s.maxID)) r;
+
+DROP TABLE scale;
+
+ALTER TABLE FoodOrder ENABLE TRIGGER order_status_notify;
+
+ANALYZE;